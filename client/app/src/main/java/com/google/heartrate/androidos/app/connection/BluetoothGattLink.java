@@ -0,0 +1,336 @@
+package com.google.heartrate.androidos.app.connection;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.os.Handler;
+import android.util.Log;
+
+import com.google.heartrate.androidos.app.gatt.GattException;
+import com.google.heartrate.androidos.app.gatt.generic.GenericAttributeServiceManager;
+import com.google.heartrate.androidos.app.gatt.heartrate.HeartRateMeasurementCharacteristicManager;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * {@link GattLink} over {@link BluetoothGatt}.
+ * <p>
+ * Stack delivers notifications only for characteristics discovered by the gatt they are received on,
+ * so gatt which has discovered attributes is kept open across links and keeps connecting in background
+ * while there is no link. Direct attempt opens separate gatt. When direct attempt brings link up,
+ * stack connects every gatt waiting for the watch, so kept gatt is given {@link #RETAINED_GATT_GRACE_MS}
+ * to join the link and its attributes are reused. Otherwise kept gatt is closed and link continues
+ * with gatt of direct attempt, which has to discover attributes again.
+ * <p>
+ * {@link BluetoothGattCallback} is invoked on binder threads, all events are posted to handler thread,
+ * the thread engine runs on.
+ */
+public class BluetoothGattLink implements GattLink<HeartRateAttributes> {
+    private static final String TAG = BluetoothGattLink.class.getSimpleName();
+
+    /** Time given to kept gatt to join link established by direct attempt. */
+    static final long RETAINED_GATT_GRACE_MS = 300;
+
+    private final Context context;
+    private final Handler handler;
+    private Callback<HeartRateAttributes> callback;
+
+    /** Gatt which has discovered the last attributes, kept open to reuse them, null if there is none. */
+    private BluetoothGatt retainedGatt;
+
+    /** Gatt opened by connection attempt, null if there is none. */
+    private BluetoothGatt attemptGatt;
+
+    /** Gatt link is established with, null if there is no link. */
+    private BluetoothGatt connectedGatt;
+
+    /** Attributes discovered on link, waiting for Database Hash to be read, null if there are none. */
+    private HeartRateAttributes discoveredAttributes;
+
+    /** Client Characteristic Configuration descriptors left to write to complete subscription. */
+    private final Deque<BluetoothGattDescriptor> pendingConfigurations = new ArrayDeque<>();
+
+    private final Runnable retainedGattGraceTask = this::onRetainedGattGraceExpired;
+
+    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            handler.post(() -> handleConnectionStateChange(gatt, status, newState));
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            handler.post(() -> handleServicesDiscovered(gatt, status));
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            /* Characteristic value is overwritten by next read, copy it before posting */
+            byte[] value = status == BluetoothGatt.GATT_SUCCESS && characteristic.getValue() != null
+                    ? characteristic.getValue().clone()
+                    : null;
+            handler.post(() -> handleDatabaseHashRead(gatt, value));
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            handler.post(() -> handleDescriptorWrite(gatt, descriptor, status));
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+            if (GenericAttributeServiceManager.getServiceChangedUuid().equals(characteristic.getUuid())) {
+                handler.post(() -> {
+                    if (gatt == connectedGatt) {
+                        callback.onServiceChanged();
+                    }
+                });
+                return;
+            }
+            try {
+                int bpm = HeartRateMeasurementCharacteristicManager.getHeartRateMeasurementValue(characteristic);
+                long timestampMs = System.currentTimeMillis();
+                handler.post(() -> {
+                    if (gatt == connectedGatt) {
+                        callback.onSample(timestampMs, bpm);
+                    }
+                });
+            } catch (GattException e) {
+                Log.w(TAG, String.format("Heart rate can not be parsed: %s", e.getMessage()));
+            }
+        }
+    };
+
+    /**
+     * Create link which reports to handler thread.
+     *
+     * @param context context to open gatt with
+     * @param handler handler of engine thread
+     */
+    public BluetoothGattLink(Context context, Handler handler) {
+        this.context = context;
+        this.handler = handler;
+    }
+
+    @Override
+    public void setCallback(Callback<HeartRateAttributes> callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public boolean connect(String address, boolean autoConnect) {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if (adapter == null || !BluetoothAdapter.checkBluetoothAddress(address)) {
+            Log.e(TAG, String.format("Can not connect to %s", address));
+            return false;
+        }
+        BluetoothDevice device = adapter.getRemoteDevice(address);
+        if (retainedGatt != null && !retainedGatt.getDevice().equals(device)) {
+            closeRetainedGatt();
+        }
+
+        if (retainedGatt != null) {
+            /* Connect of existing gatt is background connect which keeps discovered services */
+            Log.d(TAG, String.format("Connecting kept gatt to %s in background", address));
+            retainedGatt.connect();
+            if (autoConnect) {
+                return true;
+            }
+        }
+
+        Log.d(TAG, String.format("Connecting to %s, auto-connect %b", address, autoConnect));
+        closeAttemptGatt();
+        attemptGatt = device.connectGatt(context, autoConnect, gattCallback, BluetoothDevice.TRANSPORT_LE);
+        return attemptGatt != null;
+    }
+
+    @Override
+    public void disconnect() {
+        handler.removeCallbacks(retainedGattGraceTask);
+        discoveredAttributes = null;
+        pendingConfigurations.clear();
+        connectedGatt = null;
+        closeAttemptGatt();
+        if (retainedGatt != null) {
+            /* Cancels background connect too, gatt is kept with its services */
+            retainedGatt.disconnect();
+        }
+    }
+
+    /**
+     * Disconnect from watch and close all gatts, attributes cached for watch can not be used anymore.
+     */
+    public void close() {
+        disconnect();
+        closeRetainedGatt();
+    }
+
+    @Override
+    public boolean readDatabaseHash(HeartRateAttributes attributes) {
+        if (connectedGatt == null || attributes.getGatt() != connectedGatt
+                || attributes.getDatabaseHashCharacteristic() == null) {
+            return false;
+        }
+        return connectedGatt.readCharacteristic(attributes.getDatabaseHashCharacteristic());
+    }
+
+    @Override
+    public boolean discover() {
+        return connectedGatt != null && connectedGatt.discoverServices();
+    }
+
+    @Override
+    public boolean subscribe(HeartRateAttributes attributes) {
+        if (connectedGatt == null || attributes.getGatt() != connectedGatt) {
+            return false;
+        }
+        pendingConfigurations.clear();
+        pendingConfigurations.add(attributes.getMeasurementConfiguration());
+        if (attributes.getServiceChangedConfiguration() != null) {
+            pendingConfigurations.add(attributes.getServiceChangedConfiguration());
+        }
+        for (BluetoothGattDescriptor configuration : pendingConfigurations) {
+            if (!connectedGatt.setCharacteristicNotification(configuration.getCharacteristic(), true)) {
+                pendingConfigurations.clear();
+                return false;
+            }
+        }
+        return writeNextConfiguration();
+    }
+
+    private boolean writeNextConfiguration() {
+        BluetoothGattDescriptor configuration = pendingConfigurations.peek();
+        boolean indicated = GenericAttributeServiceManager.getServiceChangedUuid()
+                .equals(configuration.getCharacteristic().getUuid());
+        configuration.setValue(indicated
+                ? BluetoothGattDescriptor.ENABLE_INDICATION_VALUE
+                : BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+        return connectedGatt.writeDescriptor(configuration);
+    }
+
+    private void handleConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+        Log.d(TAG, String.format("Gatt of %s state %d, status %d", gatt.getDevice().getAddress(), newState, status));
+
+        if (newState == BluetoothProfile.STATE_CONNECTED) {
+            if (connectedGatt != null) {
+                return;
+            }
+            if (gatt == retainedGatt) {
+                handler.removeCallbacks(retainedGattGraceTask);
+                closeAttemptGatt();
+                onConnected(gatt);
+            } else if (gatt == attemptGatt) {
+                if (retainedGatt != null) {
+                    handler.postDelayed(retainedGattGraceTask, RETAINED_GATT_GRACE_MS);
+                } else {
+                    onConnected(gatt);
+                }
+            }
+        } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+            if (gatt == connectedGatt) {
+                connectedGatt = null;
+                discoveredAttributes = null;
+                pendingConfigurations.clear();
+                if (gatt == attemptGatt) {
+                    closeAttemptGatt();
+                }
+                callback.onDisconnected();
+            } else if (gatt == attemptGatt && connectedGatt == null) {
+                handler.removeCallbacks(retainedGattGraceTask);
+                closeAttemptGatt();
+                callback.onConnectFailed();
+            }
+        }
+    }
+
+    private void onRetainedGattGraceExpired() {
+        if (attemptGatt == null || connectedGatt != null) {
+            return;
+        }
+        Log.d(TAG, "Kept gatt has not joined link, its attributes are dropped");
+        closeRetainedGatt();
+        onConnected(attemptGatt);
+    }
+
+    private void onConnected(BluetoothGatt gatt) {
+        connectedGatt = gatt;
+        callback.onConnected();
+    }
+
+    private void handleServicesDiscovered(BluetoothGatt gatt, int status) {
+        if (gatt != connectedGatt) {
+            return;
+        }
+        HeartRateAttributes attributes = status == BluetoothGatt.GATT_SUCCESS ? HeartRateAttributes.find(gatt) : null;
+        if (attributes == null) {
+            Log.e(TAG, String.format("Heart rate is not discovered, status %d", status));
+            callback.onDiscovered(null, null);
+            return;
+        }
+        if (gatt != retainedGatt) {
+            /* Gatt of attempt has discovered attributes, keep it instead */
+            closeRetainedGatt();
+            retainedGatt = gatt;
+            attemptGatt = null;
+        }
+        if (attributes.getDatabaseHashCharacteristic() != null
+                && gatt.readCharacteristic(attributes.getDatabaseHashCharacteristic())) {
+            discoveredAttributes = attributes;
+        } else {
+            callback.onDiscovered(attributes, null);
+        }
+    }
+
+    private void handleDatabaseHashRead(BluetoothGatt gatt, byte[] databaseHash) {
+        if (gatt != connectedGatt) {
+            return;
+        }
+        if (discoveredAttributes != null) {
+            HeartRateAttributes attributes = discoveredAttributes;
+            discoveredAttributes = null;
+            callback.onDiscovered(attributes, databaseHash);
+        } else {
+            callback.onDatabaseHashRead(databaseHash);
+        }
+    }
+
+    private void handleDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+        if (gatt != connectedGatt || pendingConfigurations.peek() != descriptor) {
+            return;
+        }
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            Log.e(TAG, String.format("Subscribing to %s has failed, status %d",
+                    descriptor.getCharacteristic().getUuid(), status));
+            pendingConfigurations.clear();
+            callback.onSubscribed(false);
+            return;
+        }
+        pendingConfigurations.poll();
+        if (pendingConfigurations.isEmpty()) {
+            callback.onSubscribed(true);
+        } else if (!writeNextConfiguration()) {
+            pendingConfigurations.clear();
+            callback.onSubscribed(false);
+        }
+    }
+
+    private void closeAttemptGatt() {
+        if (attemptGatt != null) {
+            attemptGatt.close();
+            attemptGatt = null;
+        }
+    }
+
+    private void closeRetainedGatt() {
+        if (retainedGatt != null) {
+            retainedGatt.close();
+            retainedGatt = null;
+        }
+    }
+}
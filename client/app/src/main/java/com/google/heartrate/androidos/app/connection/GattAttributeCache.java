@@ -0,0 +1,75 @@
+package com.google.heartrate.androidos.app.connection;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link GattAttributeCache} keeps attributes discovered on every watch by watch address
+ * together with Database Hash watch has reported for them.
+ * <p>
+ * Attributes are valid while watch reports the same hash, so reconnect to watch
+ * which has not changed its services skips service discovery.
+ * <p>
+ * Cache is not thread safe, it is accessed on {@link ReconnectEngine} thread only.
+ *
+ * @param <A> type of discovered attributes
+ */
+public class GattAttributeCache<A> {
+
+    /** Cached attributes by watch address. */
+    private final Map<String, Entry<A>> entryByAddress = new HashMap<>();
+
+    /**
+     * Cache attributes discovered on watch.
+     *
+     * @param address watch address
+     * @param databaseHash Database Hash watch has reported with attributes
+     * @param attributes discovered attributes
+     */
+    public void put(String address, byte[] databaseHash, A attributes) {
+        entryByAddress.put(address, new Entry<>(databaseHash.clone(), attributes));
+    }
+
+    /**
+     * Get attributes cached for watch.
+     *
+     * @param address watch address
+     * @return cached attributes, null if there are none
+     */
+    public A getAttributes(String address) {
+        Entry<A> entry = entryByAddress.get(address);
+        return entry == null ? null : entry.attributes;
+    }
+
+    /**
+     * Determine whether attributes cached for watch are valid for hash watch reports now.
+     *
+     * @param address watch address
+     * @param databaseHash Database Hash watch reports, null if it can not be read
+     * @return true if attributes are cached with the same hash, false otherwise
+     */
+    public boolean isValid(String address, byte[] databaseHash) {
+        Entry<A> entry = entryByAddress.get(address);
+        return entry != null && databaseHash != null && Arrays.equals(entry.databaseHash, databaseHash);
+    }
+
+    /**
+     * Remove attributes cached for watch, e.g. after watch has indicated Service Changed.
+     *
+     * @param address watch address
+     */
+    public void remove(String address) {
+        entryByAddress.remove(address);
+    }
+
+    private static class Entry<A> {
+        private final byte[] databaseHash;
+        private final A attributes;
+
+        private Entry(byte[] databaseHash, A attributes) {
+            this.databaseHash = databaseHash;
+            this.attributes = attributes;
+        }
+    }
+}
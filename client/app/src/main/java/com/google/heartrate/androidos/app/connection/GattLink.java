@@ -0,0 +1,107 @@
+package com.google.heartrate.androidos.app.connection;
+
+/**
+ * {@link GattLink} is GATT connection to watch which {@link ReconnectEngine} drives.
+ * <p>
+ * All operations are asynchronous, their results are reported to {@link Callback} on engine thread.
+ * Only one operation is outstanding at a time.
+ *
+ * @param <A> type of attributes discovered on watch
+ */
+public interface GattLink<A> {
+
+    /**
+     * Set callback to report results and link events to.
+     *
+     * @param callback callback to report to
+     */
+    void setCallback(Callback<A> callback);
+
+    /**
+     * Start connecting to watch, result is reported by {@link Callback#onConnected}
+     * or {@link Callback#onConnectFailed}.
+     *
+     * @param address watch address
+     * @param autoConnect false to connect directly, true to let stack connect whenever watch is in range
+     * @return true if connecting has started, false otherwise
+     */
+    boolean connect(String address, boolean autoConnect);
+
+    /**
+     * Disconnect from watch or cancel connecting. Nothing is reported.
+     */
+    void disconnect();
+
+    /**
+     * Start reading Database Hash with cached attributes, result is reported by {@link Callback#onDatabaseHashRead}.
+     *
+     * @param attributes attributes cached for watch
+     * @return true if reading has started, false if cached attributes can not be used on this connection
+     */
+    boolean readDatabaseHash(A attributes);
+
+    /**
+     * Start service discovery, result is reported by {@link Callback#onDiscovered}.
+     *
+     * @return true if discovery has started, false otherwise
+     */
+    boolean discover();
+
+    /**
+     * Start subscribing to heart rate and Service Changed, result is reported by {@link Callback#onSubscribed}.
+     *
+     * @param attributes attributes to subscribe with
+     * @return true if subscribing has started, false otherwise
+     */
+    boolean subscribe(A attributes);
+
+    /**
+     * Receiver of {@link GattLink} results and events, invoked on engine thread.
+     *
+     * @param <A> type of attributes discovered on watch
+     */
+    interface Callback<A> {
+
+        /** Link to watch is established. */
+        void onConnected();
+
+        /** Connecting to watch has failed. */
+        void onConnectFailed();
+
+        /** Established link to watch is lost. */
+        void onDisconnected();
+
+        /**
+         * Database Hash has been read.
+         *
+         * @param databaseHash hash, null if reading has failed
+         */
+        void onDatabaseHashRead(byte[] databaseHash);
+
+        /**
+         * Services have been discovered.
+         *
+         * @param attributes discovered attributes, null if discovery has failed or watch has no heart rate
+         * @param databaseHash Database Hash, null if watch does not provide it
+         */
+        void onDiscovered(A attributes, byte[] databaseHash);
+
+        /**
+         * Subscribing has completed.
+         *
+         * @param success true if all subscriptions are enabled, false otherwise
+         */
+        void onSubscribed(boolean success);
+
+        /** Watch has indicated that its services have changed. */
+        void onServiceChanged();
+
+        /**
+         * Heart rate sample has been received.
+         *
+         * @param timestampMs (milliseconds since epoch) time sample has been received at
+         * @param bpm heart rate
+         */
+        void onSample(long timestampMs, int bpm);
+    }
+}
@@ -0,0 +1,31 @@
+package com.google.heartrate.androidos.app.connection;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * {@link Scheduler} which runs tasks on {@link Handler} thread and measures time since boot.
+ */
+public class HandlerScheduler implements Scheduler {
+
+    private final Handler handler;
+
+    public HandlerScheduler(Handler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMs) {
+        handler.postDelayed(task, delayMs);
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        handler.removeCallbacks(task);
+    }
+
+    @Override
+    public long now() {
+        return SystemClock.elapsedRealtime();
+    }
+}
@@ -0,0 +1,106 @@
+package com.google.heartrate.androidos.app.connection;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+
+import com.google.heartrate.androidos.app.gatt.generic.GenericAttributeServiceManager;
+import com.google.heartrate.androidos.app.gatt.heartrate.HeartRateMeasurementCharacteristicManager;
+
+/**
+ * {@link HeartRateAttributes} are attributes of watch {@link BluetoothGattLink} streams heart rate with.
+ * <p>
+ * Attributes belong to {@link BluetoothGatt} which has discovered them, stack delivers notifications
+ * only for characteristics discovered by the gatt they are received on.
+ */
+public class HeartRateAttributes {
+
+    /** Gatt which has discovered attributes. */
+    private final BluetoothGatt gatt;
+
+    /** Heart Rate Measurement characteristic. */
+    private final BluetoothGattCharacteristic measurementCharacteristic;
+
+    /** Client Characteristic Configuration descriptor of Heart Rate Measurement characteristic. */
+    private final BluetoothGattDescriptor measurementConfiguration;
+
+    /** Database Hash characteristic, null if watch does not provide it. */
+    private final BluetoothGattCharacteristic databaseHashCharacteristic;
+
+    /** Client Characteristic Configuration descriptor of Service Changed characteristic, null if there is none. */
+    private final BluetoothGattDescriptor serviceChangedConfiguration;
+
+    private HeartRateAttributes(BluetoothGatt gatt,
+                                BluetoothGattCharacteristic measurementCharacteristic,
+                                BluetoothGattDescriptor measurementConfiguration,
+                                BluetoothGattCharacteristic databaseHashCharacteristic,
+                                BluetoothGattDescriptor serviceChangedConfiguration) {
+        this.gatt = gatt;
+        this.measurementCharacteristic = measurementCharacteristic;
+        this.measurementConfiguration = measurementConfiguration;
+        this.databaseHashCharacteristic = databaseHashCharacteristic;
+        this.serviceChangedConfiguration = serviceChangedConfiguration;
+    }
+
+    /**
+     * Find attributes in services discovered by gatt.
+     *
+     * @param gatt gatt which has discovered services
+     * @return attributes, null if watch does not host Heart Rate Measurement characteristic
+     */
+    static HeartRateAttributes find(BluetoothGatt gatt) {
+        BluetoothGattService heartRateService =
+                gatt.getService(HeartRateMeasurementCharacteristicManager.getServiceUuid());
+        if (heartRateService == null) {
+            return null;
+        }
+        BluetoothGattCharacteristic measurementCharacteristic =
+                heartRateService.getCharacteristic(HeartRateMeasurementCharacteristicManager.getCharacteristicUuid());
+        if (measurementCharacteristic == null) {
+            return null;
+        }
+        BluetoothGattDescriptor measurementConfiguration =
+                measurementCharacteristic.getDescriptor(HeartRateMeasurementCharacteristicManager.getDescriptorUuid());
+        if (measurementConfiguration == null) {
+            return null;
+        }
+
+        BluetoothGattCharacteristic databaseHashCharacteristic = null;
+        BluetoothGattDescriptor serviceChangedConfiguration = null;
+        BluetoothGattService genericAttributeService =
+                gatt.getService(GenericAttributeServiceManager.getServiceUuid());
+        if (genericAttributeService != null) {
+            databaseHashCharacteristic =
+                    genericAttributeService.getCharacteristic(GenericAttributeServiceManager.getDatabaseHashUuid());
+            BluetoothGattCharacteristic serviceChangedCharacteristic =
+                    genericAttributeService.getCharacteristic(GenericAttributeServiceManager.getServiceChangedUuid());
+            if (serviceChangedCharacteristic != null) {
+                serviceChangedConfiguration = serviceChangedCharacteristic
+                        .getDescriptor(HeartRateMeasurementCharacteristicManager.getDescriptorUuid());
+            }
+        }
+        return new HeartRateAttributes(gatt, measurementCharacteristic, measurementConfiguration,
+                databaseHashCharacteristic, serviceChangedConfiguration);
+    }
+
+    public BluetoothGatt getGatt() {
+        return gatt;
+    }
+
+    public BluetoothGattCharacteristic getMeasurementCharacteristic() {
+        return measurementCharacteristic;
+    }
+
+    public BluetoothGattDescriptor getMeasurementConfiguration() {
+        return measurementConfiguration;
+    }
+
+    public BluetoothGattCharacteristic getDatabaseHashCharacteristic() {
+        return databaseHashCharacteristic;
+    }
+
+    public BluetoothGattDescriptor getServiceChangedConfiguration() {
+        return serviceChangedConfiguration;
+    }
+}
@@ -0,0 +1,60 @@
+package com.google.heartrate.androidos.app.connection;
+
+import java.util.Random;
+
+/**
+ * {@link ReconnectBackoff} computes delays between connection attempts.
+ * <p>
+ * Delay ceiling doubles with every failed attempt up to maximum delay and actual delay is picked
+ * uniformly from the upper half of the ceiling, so phones which have lost several watches at once,
+ * e.g. when watches restart Bluetooth, do not retry in lockstep.
+ */
+public class ReconnectBackoff {
+
+    /** Default delay ceiling after the first failed attempt. */
+    public static final long DEFAULT_INITIAL_DELAY_MS = 250;
+
+    /** Default maximum delay ceiling. */
+    public static final long DEFAULT_MAX_DELAY_MS = 8_000;
+
+    /** Maximum number of doublings, ceiling never overflows. */
+    private static final int MAX_SHIFT = 30;
+
+    private final long initialDelayMs;
+    private final long maxDelayMs;
+    private final Random random;
+
+    public ReconnectBackoff() {
+        this(DEFAULT_INITIAL_DELAY_MS, DEFAULT_MAX_DELAY_MS, new Random());
+    }
+
+    /**
+     * Create backoff with given delays.
+     *
+     * @param initialDelayMs (milliseconds) delay ceiling after the first failed attempt
+     * @param maxDelayMs (milliseconds) maximum delay ceiling
+     * @param random source of jitter
+     */
+    public ReconnectBackoff(long initialDelayMs, long maxDelayMs, Random random) {
+        if (initialDelayMs <= 0 || maxDelayMs < initialDelayMs) {
+            throw new IllegalArgumentException(String.format("Backoff delays %d-%d ms are not increasing positive",
+                    initialDelayMs, maxDelayMs));
+        }
+        this.initialDelayMs = initialDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.random = random;
+    }
+
+    /**
+     * Get delay before next attempt.
+     *
+     * @param failedAttempts number of attempts failed in a row, at least 1
+     * @return (milliseconds) delay between half of the ceiling and the ceiling
+     */
+    public long getDelayMs(int failedAttempts) {
+        int shift = Math.min(Math.max(failedAttempts - 1, 0), MAX_SHIFT);
+        long ceiling = Math.min(maxDelayMs, initialDelayMs << shift);
+        long floor = ceiling / 2;
+        return floor + (long) (random.nextDouble() * (ceiling - floor + 1));
+    }
+}
@@ -0,0 +1,332 @@
+package com.google.heartrate.androidos.app.connection;
+
+import com.google.heartrate.androidos.app.storage.SampleConsumer;
+
+/**
+ * {@link ReconnectEngine} keeps heart rate streaming from one watch over {@link GattLink}
+ * and brings it back after link is lost.
+ * <p>
+ * Connection is attempted directly up to {@link #DEFAULT_MAX_DIRECT_ATTEMPTS} times with
+ * {@link ReconnectBackoff} delays between attempts, each attempt is given {@link #DEFAULT_CONNECT_TIMEOUT_MS}.
+ * Then engine falls back to auto-connect, which lets stack connect whenever watch comes back in range
+ * and never times out.
+ * <p>
+ * Attributes discovered on watch are kept in {@link GattAttributeCache} with watch Database Hash.
+ * On reconnect hash is read with cached attributes and discovery is skipped if hash has not changed.
+ * Service Changed indication drops cached attributes and attributes are discovered again.
+ * <p>
+ * Time to first sample after link drop is reported to {@link ReconnectStats}.
+ * <p>
+ * Engine is not thread safe, all methods are invoked on engine thread, the thread {@link Scheduler} runs tasks on.
+ *
+ * @param <A> type of attributes discovered on watch
+ */
+public class ReconnectEngine<A> implements GattLink.Callback<A> {
+
+    /** Default number of direct connection attempts before falling back to auto-connect. */
+    public static final int DEFAULT_MAX_DIRECT_ATTEMPTS = 5;
+
+    /** Default time given to direct connection attempt. */
+    public static final long DEFAULT_CONNECT_TIMEOUT_MS = 5_000;
+
+    /** State of engine. */
+    public enum State {
+        /** Engine is not started. */
+        IDLE,
+        /** Direct connection attempt is in progress. */
+        CONNECTING,
+        /** Waiting for backoff delay before next direct attempt. */
+        WAITING,
+        /** Waiting for stack to connect whenever watch is in range. */
+        AUTO_CONNECTING,
+        /** Reading Database Hash to validate cached attributes. */
+        VALIDATING,
+        /** Discovering services. */
+        DISCOVERING,
+        /** Subscribing to heart rate. */
+        SUBSCRIBING,
+        /** Heart rate is streaming. */
+        STREAMING
+    }
+
+    private final GattLink<A> link;
+    private final Scheduler scheduler;
+    private final SampleConsumer sampleConsumer;
+    private final GattAttributeCache<A> attributeCache;
+    private final ReconnectBackoff backoff;
+    private final int maxDirectAttempts;
+    private final long connectTimeoutMs;
+    private final ReconnectStats stats = new ReconnectStats();
+
+    private final Runnable connectTimeoutTask = this::onConnectTimeout;
+    private final Runnable connectDirectTask = this::connectDirect;
+
+    private State state = State.IDLE;
+
+    /** Address of watch, null if engine is not started. */
+    private String address;
+
+    /** Number of direct attempts failed in a row. */
+    private int failedAttempts;
+
+    /** Time link has been lost at, -1 if first sample after link drop has been received. */
+    private long linkLostAtMs = -1;
+
+    /**
+     * Create engine with default attempts and backoff.
+     *
+     * @param link link to watch
+     * @param scheduler scheduler of engine thread
+     * @param attributeCache cache of discovered attributes, may be shared by engines of different watches
+     * @param sampleConsumer consumer of received heart rate samples
+     */
+    public ReconnectEngine(GattLink<A> link, Scheduler scheduler, GattAttributeCache<A> attributeCache,
+                           SampleConsumer sampleConsumer) {
+        this(link, scheduler, attributeCache, sampleConsumer, new ReconnectBackoff(),
+                DEFAULT_MAX_DIRECT_ATTEMPTS, DEFAULT_CONNECT_TIMEOUT_MS);
+    }
+
+    ReconnectEngine(GattLink<A> link, Scheduler scheduler, GattAttributeCache<A> attributeCache,
+                    SampleConsumer sampleConsumer, ReconnectBackoff backoff,
+                    int maxDirectAttempts, long connectTimeoutMs) {
+        this.link = link;
+        this.scheduler = scheduler;
+        this.attributeCache = attributeCache;
+        this.sampleConsumer = sampleConsumer;
+        this.backoff = backoff;
+        this.maxDirectAttempts = maxDirectAttempts;
+        this.connectTimeoutMs = connectTimeoutMs;
+        link.setCallback(this);
+    }
+
+    /**
+     * Start streaming heart rate from watch.
+     *
+     * @param address watch address
+     */
+    public void start(String address) {
+        if (state != State.IDLE) {
+            throw new IllegalStateException(String.format("Engine is already started for %s", this.address));
+        }
+        this.address = address;
+        failedAttempts = 0;
+        connectDirect();
+    }
+
+    /**
+     * Stop streaming and disconnect from watch.
+     */
+    public void stop() {
+        if (state == State.IDLE) {
+            return;
+        }
+        cancelTasks();
+        link.disconnect();
+        state = State.IDLE;
+        address = null;
+        linkLostAtMs = -1;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public ReconnectStats getStats() {
+        return stats;
+    }
+
+    private void connectDirect() {
+        state = State.CONNECTING;
+        stats.recordDirectAttempt();
+        if (!link.connect(address, /* autoConnect */ false)) {
+            onConnectFailed();
+            return;
+        }
+        scheduler.schedule(connectTimeoutTask, connectTimeoutMs);
+    }
+
+    private void connectAuto() {
+        state = State.AUTO_CONNECTING;
+        stats.recordAutoConnect();
+        if (!link.connect(address, /* autoConnect */ true)) {
+            /* Stack refuses to connect, keep trying directly at maximum backoff */
+            waitForNextAttempt();
+        }
+    }
+
+    private void onConnectTimeout() {
+        if (state == State.CONNECTING) {
+            link.disconnect();
+            onConnectFailed();
+        }
+    }
+
+    /**
+     * Retry failed direct attempt after backoff or fall back to auto-connect after the last attempt.
+     */
+    @Override
+    public void onConnectFailed() {
+        if (state != State.CONNECTING && state != State.AUTO_CONNECTING) {
+            return;
+        }
+        scheduler.cancel(connectTimeoutTask);
+        failedAttempts++;
+        if (state == State.CONNECTING && failedAttempts >= maxDirectAttempts) {
+            connectAuto();
+        } else {
+            waitForNextAttempt();
+        }
+    }
+
+    private void waitForNextAttempt() {
+        state = State.WAITING;
+        scheduler.schedule(connectDirectTask, backoff.getDelayMs(failedAttempts));
+    }
+
+    /**
+     * Validate cached attributes or discover them.
+     */
+    @Override
+    public void onConnected() {
+        if (state != State.CONNECTING && state != State.AUTO_CONNECTING) {
+            return;
+        }
+        scheduler.cancel(connectTimeoutTask);
+        failedAttempts = 0;
+
+        A attributes = attributeCache.getAttributes(address);
+        if (attributes != null && link.readDatabaseHash(attributes)) {
+            state = State.VALIDATING;
+        } else {
+            discover();
+        }
+    }
+
+    /**
+     * Subscribe with cached attributes if hash has not changed, discover attributes otherwise.
+     */
+    @Override
+    public void onDatabaseHashRead(byte[] databaseHash) {
+        if (state != State.VALIDATING) {
+            return;
+        }
+        if (attributeCache.isValid(address, databaseHash)) {
+            stats.recordSkippedDiscovery();
+            subscribe(attributeCache.getAttributes(address));
+        } else {
+            attributeCache.remove(address);
+            discover();
+        }
+    }
+
+    private void discover() {
+        state = State.DISCOVERING;
+        stats.recordDiscovery();
+        if (!link.discover()) {
+            onLinkFailed();
+        }
+    }
+
+    /**
+     * Cache discovered attributes if watch provides Database Hash and subscribe with them.
+     */
+    @Override
+    public void onDiscovered(A attributes, byte[] databaseHash) {
+        if (state != State.DISCOVERING) {
+            return;
+        }
+        if (attributes == null) {
+            onLinkFailed();
+            return;
+        }
+        if (databaseHash != null) {
+            attributeCache.put(address, databaseHash, attributes);
+        } else {
+            attributeCache.remove(address);
+        }
+        subscribe(attributes);
+    }
+
+    private void subscribe(A attributes) {
+        state = State.SUBSCRIBING;
+        if (!link.subscribe(attributes)) {
+            onLinkFailed();
+        }
+    }
+
+    @Override
+    public void onSubscribed(boolean success) {
+        if (state != State.SUBSCRIBING) {
+            return;
+        }
+        if (success) {
+            state = State.STREAMING;
+        } else {
+            /* Attributes may be stale, e.g. services changed while indications were disabled */
+            attributeCache.remove(address);
+            onLinkFailed();
+        }
+    }
+
+    /**
+     * Discover attributes again, cached ones are stale.
+     */
+    @Override
+    public void onServiceChanged() {
+        if (state == State.IDLE) {
+            return;
+        }
+        attributeCache.remove(address);
+        if (state == State.VALIDATING || state == State.SUBSCRIBING || state == State.STREAMING) {
+            discover();
+        }
+    }
+
+    @Override
+    public void onSample(long timestampMs, int bpm) {
+        if (state == State.IDLE) {
+            return;
+        }
+        if (linkLostAtMs >= 0) {
+            stats.recordTimeToFirstSample(scheduler.now() - linkLostAtMs);
+            linkLostAtMs = -1;
+        }
+        sampleConsumer.accept(timestampMs, bpm);
+    }
+
+    /**
+     * Start reconnecting right away, link has been fine before it was lost.
+     */
+    @Override
+    public void onDisconnected() {
+        if (state == State.IDLE || state == State.WAITING) {
+            return;
+        }
+        if (state == State.CONNECTING || state == State.AUTO_CONNECTING) {
+            onConnectFailed();
+            return;
+        }
+        if (linkLostAtMs < 0) {
+            linkLostAtMs = scheduler.now();
+        }
+        failedAttempts = 0;
+        connectDirect();
+    }
+
+    /**
+     * Drop link which has failed after it was established and retry after backoff.
+     */
+    private void onLinkFailed() {
+        link.disconnect();
+        if (linkLostAtMs < 0) {
+            linkLostAtMs = scheduler.now();
+        }
+        failedAttempts++;
+        waitForNextAttempt();
+    }
+
+    private void cancelTasks() {
+        scheduler.cancel(connectTimeoutTask);
+        scheduler.cancel(connectDirectTask);
+    }
+}
@@ -0,0 +1,125 @@
+package com.google.heartrate.androidos.app.connection;
+
+/**
+ * {@link ReconnectStats} collects statistics of {@link ReconnectEngine}.
+ * <p>
+ * Headline metric is time to first sample after link drop: time from the moment link to watch is lost
+ * to the moment the first heart rate sample is received again. It covers backoff, connection,
+ * discovery or its validation and subscription.
+ * <p>
+ * Stats are written on engine thread and may be read from any thread.
+ */
+public class ReconnectStats {
+
+    private int recoveryCount;
+    private long lastTimeToFirstSampleMs = -1;
+    private long maxTimeToFirstSampleMs = -1;
+    private long totalTimeToFirstSampleMs;
+    private int directAttemptCount;
+    private int autoConnectCount;
+    private int discoveryCount;
+    private int skippedDiscoveryCount;
+
+    synchronized void recordTimeToFirstSample(long timeMs) {
+        recoveryCount++;
+        lastTimeToFirstSampleMs = timeMs;
+        maxTimeToFirstSampleMs = Math.max(maxTimeToFirstSampleMs, timeMs);
+        totalTimeToFirstSampleMs += timeMs;
+    }
+
+    synchronized void recordDirectAttempt() {
+        directAttemptCount++;
+    }
+
+    synchronized void recordAutoConnect() {
+        autoConnectCount++;
+    }
+
+    synchronized void recordDiscovery() {
+        discoveryCount++;
+    }
+
+    synchronized void recordSkippedDiscovery() {
+        skippedDiscoveryCount++;
+    }
+
+    /**
+     * Get number of link drops after which samples have been received again.
+     *
+     * @return number of recoveries
+     */
+    public synchronized int getRecoveryCount() {
+        return recoveryCount;
+    }
+
+    /**
+     * Get time to first sample after the last link drop.
+     *
+     * @return (milliseconds) time to first sample, -1 if link has not recovered yet
+     */
+    public synchronized long getLastTimeToFirstSampleMs() {
+        return lastTimeToFirstSampleMs;
+    }
+
+    /**
+     * Get the longest time to first sample after link drop.
+     *
+     * @return (milliseconds) time to first sample, -1 if link has not recovered yet
+     */
+    public synchronized long getMaxTimeToFirstSampleMs() {
+        return maxTimeToFirstSampleMs;
+    }
+
+    /**
+     * Get mean time to first sample after link drop.
+     *
+     * @return (milliseconds) time to first sample, -1 if link has not recovered yet
+     */
+    public synchronized long getMeanTimeToFirstSampleMs() {
+        return recoveryCount == 0 ? -1 : totalTimeToFirstSampleMs / recoveryCount;
+    }
+
+    /**
+     * Get number of direct connection attempts.
+     *
+     * @return number of direct attempts
+     */
+    public synchronized int getDirectAttemptCount() {
+        return directAttemptCount;
+    }
+
+    /**
+     * Get number of times engine has fallen back to auto-connect.
+     *
+     * @return number of auto-connect fallbacks
+     */
+    public synchronized int getAutoConnectCount() {
+        return autoConnectCount;
+    }
+
+    /**
+     * Get number of service discoveries.
+     *
+     * @return number of discoveries
+     */
+    public synchronized int getDiscoveryCount() {
+        return discoveryCount;
+    }
+
+    /**
+     * Get number of connections which have reused cached attributes instead of discovery.
+     *
+     * @return number of skipped discoveries
+     */
+    public synchronized int getSkippedDiscoveryCount() {
+        return skippedDiscoveryCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("time to first sample last=%d ms mean=%d ms max=%d ms (%d recoveries), "
+                        + "%d direct attempts, %d auto-connects, %d discoveries, %d skipped",
+                lastTimeToFirstSampleMs, getMeanTimeToFirstSampleMs(), maxTimeToFirstSampleMs, recoveryCount,
+                directAttemptCount, autoConnectCount, discoveryCount, skippedDiscoveryCount);
+    }
+}
@@ -0,0 +1,29 @@
+package com.google.heartrate.androidos.app.connection;
+
+/**
+ * {@link Scheduler} runs delayed tasks of {@link ReconnectEngine} on engine thread.
+ */
+public interface Scheduler {
+
+    /**
+     * Run task on engine thread after given delay.
+     *
+     * @param task task to run
+     * @param delayMs (milliseconds) delay before task runs
+     */
+    void schedule(Runnable task, long delayMs);
+
+    /**
+     * Cancel all not yet run schedules of task.
+     *
+     * @param task task to cancel
+     */
+    void cancel(Runnable task);
+
+    /**
+     * Get monotonic time, e.g. time since boot.
+     *
+     * @return (milliseconds) current time
+     */
+    long now();
+}
@@ -58,13 +58,16 @@ public class GattCharacteristicManager {
     }
 
     /**
-     * Assert if characteristic has read permissions.
+     * Assert if characteristic value can be received, i.e. it is read, notified or indicated.
+     * <br>Permissions of remote characteristic are not discovered, so its properties are checked.
      *
      * @param characteristic characteristic to check
-     * @throws GattException if characteristic has no read permissions
+     * @throws GattException if characteristic value can not be received
      */
     private static void assertCharacteristicIsReadable(BluetoothGattCharacteristic characteristic) throws GattException {
-        if ((characteristic.getPermissions() & BluetoothGattCharacteristic.PROPERTY_READ) == 0) {
+        if ((characteristic.getProperties() & (BluetoothGattCharacteristic.PROPERTY_READ
+                | BluetoothGattCharacteristic.PROPERTY_NOTIFY
+                | BluetoothGattCharacteristic.PROPERTY_INDICATE)) == 0) {
             throw new GattException(String.format("Given characteristic is not readable " +
                     "got from characteristic %s.", characteristic.getUuid()));
         }
@@ -0,0 +1,63 @@
+package com.google.heartrate.androidos.app.gatt.generic;
+
+import java.util.UUID;
+
+/**
+ * {@link GenericAttributeServiceManager} is class provides UUIDs of watch Generic Attribute service,
+ * which lets phone cache attributes of watch.
+ * <p>
+ * Bluetooth stack of watch hosts Generic Attribute service (0x1801) itself, so watch hosts
+ * its characteristics in vendor service with the same layout:
+ * <table border="1">
+ *  <thead align="center">
+ *      <tr><th>Characteristic</th><th>Properties</th><th>Format</th></tr>
+ *  <thead>
+ *  <tbody align="center">
+ *      <tr><td> Service Changed </td><td> Indicate </td><td> UInt16 start handle, UInt16 end handle </td></tr>
+ *      <tr><td> Database Hash </td><td> Read </td><td> UInt128 </td></tr>
+ *  </tbody>
+ * </table>
+ */
+public class GenericAttributeServiceManager {
+
+    /** Generic Attribute (vendor) service UUID. */
+    private static final UUID GENERIC_ATTRIBUTE_SERVICE_UUID = UUID
+            .fromString("8d7a1c54-4e0b-4f5e-9a63-2c1f0b7e3d91");
+
+    /** Service Changed characteristic UUID. */
+    private static final UUID SERVICE_CHANGED_UUID = UUID
+            .fromString("00002a05-0000-1000-8000-00805f9b34fb");
+
+    /** Database Hash characteristic UUID. */
+    private static final UUID DATABASE_HASH_UUID = UUID
+            .fromString("00002b2a-0000-1000-8000-00805f9b34fb");
+
+    private GenericAttributeServiceManager() {}
+
+    /**
+     * Get Generic Attribute service UUID.
+     *
+     * @return Generic Attribute (vendor) service UUID
+     */
+    public static UUID getServiceUuid() {
+        return GENERIC_ATTRIBUTE_SERVICE_UUID;
+    }
+
+    /**
+     * Get Service Changed characteristic UUID.
+     *
+     * @return Service Changed characteristic UUID
+     */
+    public static UUID getServiceChangedUuid() {
+        return SERVICE_CHANGED_UUID;
+    }
+
+    /**
+     * Get Database Hash characteristic UUID.
+     *
+     * @return Database Hash characteristic UUID
+     */
+    public static UUID getDatabaseHashUuid() {
+        return DATABASE_HASH_UUID;
+    }
+}
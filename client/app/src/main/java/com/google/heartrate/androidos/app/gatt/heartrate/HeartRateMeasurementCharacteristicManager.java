@@ -153,7 +153,7 @@ public class HeartRateMeasurementCharacteristicManager {
      * @throws GattException if given characteristic not a Heart Rate characteristic
      */
     private static void assertIsHeartRateMeasurementCharacteristic(BluetoothGattCharacteristic characteristic) throws GattException {
-        if (characteristic.getUuid() != HEART_RATE_MEASUREMENT_UUID) {
+        if (!HEART_RATE_MEASUREMENT_UUID.equals(characteristic.getUuid())) {
             throw new GattException(String.format("Not a heart rate measurement characteristic: got uuid = %s, expected %s",
                     characteristic.getUuid(), HEART_RATE_MEASUREMENT_UUID),
                     BluetoothGatt.GATT_FAILURE);
@@ -206,6 +206,15 @@ public class HeartRateMeasurementCharacteristicManager {
         return HEART_RATE_SERVICE_UUID;
     }
 
+    /**
+     * Get Heart Rate Measurement characteristic UUID.
+     *
+     * @return Heart Rate Measurement characteristic UUID
+     */
+    public static UUID getCharacteristicUuid() {
+        return HEART_RATE_MEASUREMENT_UUID;
+    }
+
     /**
      * Get Client Characteristic Configuration descriptor service UUID.
      *
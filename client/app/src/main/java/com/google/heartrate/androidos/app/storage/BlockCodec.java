@@ -0,0 +1,186 @@
+package com.google.heartrate.androidos.app.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+/**
+ * {@link BlockCodec} encodes and decodes immutable columnar blocks of samples.
+ * <p>
+ * Block starts with header:
+ * <table border="1">
+ *  <thead align="center">
+ *      <tr><th>Field</th><th>Format</th></tr>
+ *  <thead>
+ *  <tbody align="center">
+ *      <tr><td> Block length including header </td><td> Int32 </td></tr>
+ *      <tr><td> CRC32 of the rest of block </td><td> Int32 </td></tr>
+ *      <tr><td> Sample count </td><td> Int32 </td></tr>
+ *      <tr><td> First timestamp </td><td> Int64 </td></tr>
+ *      <tr><td> Last timestamp </td><td> Int64 </td></tr>
+ *      <tr><td> Timestamp column length </td><td> Int32 </td></tr>
+ *  </tbody>
+ * </table>
+ * Header is followed by timestamp column with delta-of-delta of timestamps
+ * and heart rate column with deltas of heart rates, both written by {@link DeltaColumnWriter}.
+ * Header values are little-endian.
+ * <p>
+ * Header allows to skip blocks outside of queried range without decoding them.
+ */
+final class BlockCodec {
+
+    /** Number of bytes in block header. */
+    static final int HEADER_SIZE = 32;
+
+    private static final int LENGTH_OFFSET = 0;
+    private static final int CRC_OFFSET = 4;
+    private static final int COUNT_OFFSET = 8;
+    private static final int FIRST_TIMESTAMP_OFFSET = 12;
+    private static final int LAST_TIMESTAMP_OFFSET = 20;
+    private static final int TIMESTAMP_COLUMN_LENGTH_OFFSET = 28;
+
+    /** Column writers reused between blocks. */
+    private final DeltaColumnWriter timestampColumn = new DeltaColumnWriter();
+    private final DeltaColumnWriter valueColumn = new DeltaColumnWriter();
+
+    /**
+     * Encode samples into block.
+     *
+     * @param timestamps (milliseconds) increasing sample timestamps
+     * @param values heart rates
+     * @param count number of samples to encode, at least 1
+     * @return buffer with encoded block from position 0 to limit
+     */
+    ByteBuffer encode(long[] timestamps, int[] values, int count) {
+        timestampColumn.reset();
+        valueColumn.reset();
+
+        long previousDelta = 0;
+        for (int i = 1; i < count; i++) {
+            long delta = timestamps[i] - timestamps[i - 1];
+            timestampColumn.append(delta - previousDelta);
+            previousDelta = delta;
+        }
+
+        int previousValue = 0;
+        for (int i = 0; i < count; i++) {
+            valueColumn.append(values[i] - previousValue);
+            previousValue = values[i];
+        }
+
+        timestampColumn.finish();
+        valueColumn.finish();
+
+        int length = HEADER_SIZE + timestampColumn.size() + valueColumn.size();
+        ByteBuffer block = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        block.putInt(LENGTH_OFFSET, length);
+        block.putInt(COUNT_OFFSET, count);
+        block.putLong(FIRST_TIMESTAMP_OFFSET, timestamps[0]);
+        block.putLong(LAST_TIMESTAMP_OFFSET, timestamps[count - 1]);
+        block.putInt(TIMESTAMP_COLUMN_LENGTH_OFFSET, timestampColumn.size());
+        block.position(HEADER_SIZE);
+        timestampColumn.writeTo(block);
+        valueColumn.writeTo(block);
+        block.putInt(CRC_OFFSET, crc(block, 0, length));
+        block.rewind();
+        return block;
+    }
+
+    /**
+     * Read header of block and verify block integrity.
+     *
+     * @param data little-endian buffer with blocks
+     * @param offset offset of block in buffer
+     * @return block or null if block is truncated or corrupted
+     */
+    static Block readBlock(ByteBuffer data, int offset) {
+        if (data.limit() - offset < HEADER_SIZE) {
+            return null;
+        }
+        int length = data.getInt(offset + LENGTH_OFFSET);
+        int timestampColumnLength = data.getInt(offset + TIMESTAMP_COLUMN_LENGTH_OFFSET);
+        if (length < HEADER_SIZE || length > data.limit() - offset
+                || timestampColumnLength < 0 || timestampColumnLength > length - HEADER_SIZE
+                || data.getInt(offset + CRC_OFFSET) != crc(data, offset, length)) {
+            return null;
+        }
+        return new Block(offset, length,
+                data.getInt(offset + COUNT_OFFSET),
+                data.getLong(offset + FIRST_TIMESTAMP_OFFSET),
+                data.getLong(offset + LAST_TIMESTAMP_OFFSET),
+                timestampColumnLength);
+    }
+
+    /**
+     * Decode samples of block within time range.
+     *
+     * @param data buffer with blocks
+     * @param block block to decode
+     * @param fromMs (milliseconds) start of range, inclusive
+     * @param toMs (milliseconds) end of range, exclusive
+     * @param consumer consumer of decoded samples
+     */
+    static void decode(ByteBuffer data, Block block, long fromMs, long toMs, SampleConsumer consumer) {
+        int timestampColumnOffset = block.offset + HEADER_SIZE;
+        int valueColumnOffset = timestampColumnOffset + block.timestampColumnLength;
+        DeltaColumnReader timestampColumn = new DeltaColumnReader(
+                slice(data, timestampColumnOffset, block.timestampColumnLength));
+        DeltaColumnReader valueColumn = new DeltaColumnReader(
+                slice(data, valueColumnOffset, block.offset + block.length - valueColumnOffset));
+
+        long timestamp = block.firstTimestampMs;
+        long delta = 0;
+        int value = 0;
+        for (int i = 0; i < block.count; i++) {
+            if (i > 0) {
+                delta += timestampColumn.next();
+                timestamp += delta;
+            }
+            value += (int) valueColumn.next();
+            if (timestamp >= toMs) {
+                return;
+            }
+            if (timestamp >= fromMs) {
+                consumer.accept(timestamp, value);
+            }
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer data, int offset, int length) {
+        ByteBuffer slice = data.duplicate();
+        slice.limit(offset + length);
+        slice.position(offset);
+        return slice.slice();
+    }
+
+    /**
+     * Calculate CRC32 of block bytes following CRC field.
+     */
+    private static int crc(ByteBuffer data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(slice(data, offset + COUNT_OFFSET, length - COUNT_OFFSET));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Header of block stored in file.
+     */
+    static final class Block {
+        final int offset;
+        final int length;
+        final int count;
+        final long firstTimestampMs;
+        final long lastTimestampMs;
+        final int timestampColumnLength;
+
+        Block(int offset, int length, int count, long firstTimestampMs, long lastTimestampMs,
+              int timestampColumnLength) {
+            this.offset = offset;
+            this.length = length;
+            this.count = count;
+            this.firstTimestampMs = firstTimestampMs;
+            this.lastTimestampMs = lastTimestampMs;
+            this.timestampColumnLength = timestampColumnLength;
+        }
+    }
+}
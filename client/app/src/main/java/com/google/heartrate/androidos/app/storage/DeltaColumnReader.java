@@ -0,0 +1,54 @@
+package com.google.heartrate.androidos.app.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link DeltaColumnReader} decodes column written by {@link DeltaColumnWriter}.
+ */
+final class DeltaColumnReader {
+
+    /** Column bytes, read from current position. */
+    private final ByteBuffer column;
+
+    /** Number of zero deltas left in current run. */
+    private long zeroRun;
+
+    /**
+     * Create reader of column.
+     *
+     * @param column buffer with column bytes between its position and limit
+     */
+    DeltaColumnReader(ByteBuffer column) {
+        this.column = column;
+    }
+
+    /**
+     * Read next delta.
+     *
+     * @return delta
+     * @throws java.nio.BufferUnderflowException if column has no more deltas
+     */
+    long next() {
+        if (zeroRun > 0) {
+            zeroRun--;
+            return 0;
+        }
+        long token = readVarint();
+        if ((token & 1) != 0) {
+            zeroRun = (token >>> 1) - 1;
+            return 0;
+        }
+        return DeltaColumnWriter.zigZagDecode(token >>> 1);
+    }
+
+    private long readVarint() {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = column.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.google.heartrate.androidos.app.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * {@link DeltaColumnWriter} encodes column of deltas as zig-zag varints.
+ * <p>
+ * Every delta is written as varint token: {@code zigzag(delta) << 1} for non-zero delta
+ * and {@code runLength << 1 | 1} for run of zero deltas, so constant sample rate
+ * and unchanged heart rate take almost no space.
+ * <p>
+ * Deltas must be in {@code [-2^62, 2^62)} range.
+ */
+final class DeltaColumnWriter {
+
+    /** Maximum number of bytes in varint of 64-bit value. */
+    private static final int MAX_VARINT_SIZE = 10;
+
+    private byte[] bytes = new byte[256];
+    private int size;
+
+    /** Number of zero deltas which have not been written yet. */
+    private long zeroRun;
+
+    /**
+     * Append next delta.
+     *
+     * @param delta delta to append
+     */
+    void append(long delta) {
+        if (delta == 0) {
+            zeroRun++;
+            return;
+        }
+        writePendingZeroRun();
+        writeVarint(zigZagEncode(delta) << 1);
+    }
+
+    /**
+     * Write pending zero deltas, must be called after the last delta.
+     */
+    void finish() {
+        writePendingZeroRun();
+    }
+
+    /**
+     * Get number of encoded bytes.
+     *
+     * @return column size in bytes
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Put encoded column into buffer.
+     *
+     * @param buffer buffer to put column to
+     */
+    void writeTo(ByteBuffer buffer) {
+        buffer.put(bytes, 0, size);
+    }
+
+    /**
+     * Reset writer to encode next column, keeping its buffer.
+     */
+    void reset() {
+        size = 0;
+        zeroRun = 0;
+    }
+
+    private void writePendingZeroRun() {
+        if (zeroRun > 0) {
+            writeVarint(zeroRun << 1 | 1);
+            zeroRun = 0;
+        }
+    }
+
+    private void writeVarint(long value) {
+        if (size + MAX_VARINT_SIZE > bytes.length) {
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+        while ((value & ~0x7FL) != 0) {
+            bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[size++] = (byte) value;
+    }
+
+    static long zigZagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long zigZagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
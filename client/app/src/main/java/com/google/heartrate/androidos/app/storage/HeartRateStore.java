@@ -0,0 +1,255 @@
+package com.google.heartrate.androidos.app.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link HeartRateStore} is compact on-phone store of heart rate samples received from watches.
+ * <p>
+ * Samples of every watch are kept in separate {@link TimeSeries} file in store directory.
+ * Series are split into immutable columnar blocks with delta-of-delta timestamps and zig-zag varint
+ * heart rate deltas, which take about a byte per second-resolution sample or less when heart rate is steady.
+ * <p>
+ * Samples of not yet full blocks are kept in memory and appended to tail log of series on every
+ * {@link #append}, so they survive process death and are read back on open. They are on storage,
+ * i.e. survive power loss too, after {@link #flush()} or {@link #close()} returns; samples of sealed
+ * blocks always are.
+ * <br>Series files without valid header are renamed aside on open, so series starts over in a new file.
+ * <p>
+ * Store is thread safe.
+ */
+public class HeartRateStore implements Closeable {
+
+    /** Default number of samples in sealed block, an hour of samples sent every second. */
+    public static final int DEFAULT_BLOCK_CAPACITY = (int) TimeUnit.HOURS.toSeconds(1);
+
+    /** Maximum heart rate which can be stored, heart rate is UInt16 in Heart Rate Measurement characteristic. */
+    private static final int MAX_BPM = (1 << 16) - 1;
+
+    /** Extension of series files. */
+    private static final String FILE_EXTENSION = ".hrts";
+
+    /** Extension of series files without valid header, which are kept aside for inspection. */
+    private static final String CORRUPT_FILE_EXTENSION = ".corrupt";
+
+    private final File directory;
+    private final int blockCapacity;
+
+    /** Open series by series id. */
+    private final Map<String, TimeSeries> seriesById = new HashMap<>();
+
+    /**
+     * Open store in given directory and load index of all series stored in it.
+     *
+     * @param directory directory to keep series files in
+     * @throws IOException if directory or series files can not be read
+     */
+    public HeartRateStore(File directory) throws IOException {
+        this(directory, DEFAULT_BLOCK_CAPACITY);
+    }
+
+    HeartRateStore(File directory, int blockCapacity) throws IOException {
+        this.directory = directory;
+        this.blockCapacity = blockCapacity;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Can not create store directory %s", directory));
+        }
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(FILE_EXTENSION));
+        if (files == null) {
+            throw new IOException(String.format("Can not list store directory %s", directory));
+        }
+        try {
+            for (File file : files) {
+                TimeSeries series = TimeSeries.open(file, blockCapacity);
+                if (series == null) {
+                    quarantine(file);
+                } else {
+                    seriesById.put(series.getSeriesId(), series);
+                }
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Append heart rate sample of given series, e.g. device address of watch.
+     *
+     * @param seriesId id of series to append to
+     * @param timestampMs (milliseconds since epoch) sample timestamp
+     * @param bpm heart rate
+     * @return true if sample has been appended, false if it is not newer than the last sample of series
+     * @throws IOException if series file can not be written
+     */
+    public synchronized boolean append(String seriesId, long timestampMs, int bpm) throws IOException {
+        if (bpm < 0 || bpm > MAX_BPM) {
+            throw new IllegalArgumentException(String.format("Heart rate %d is out of bounds", bpm));
+        }
+        TimeSeries series = seriesById.get(seriesId);
+        if (series == null) {
+            series = TimeSeries.create(new File(directory, getFileName(seriesId)), seriesId, blockCapacity);
+            seriesById.put(seriesId, series);
+        }
+        return series.append(timestampMs, bpm);
+    }
+
+    /**
+     * Read samples of series within time range.
+     *
+     * @param seriesId id of series to read
+     * @param fromMs (milliseconds since epoch) start of range, inclusive
+     * @param toMs (milliseconds since epoch) end of range, exclusive
+     * @param consumer consumer of samples, called with store lock held
+     */
+    public synchronized void forEachSample(String seriesId, long fromMs, long toMs, SampleConsumer consumer) {
+        TimeSeries series = seriesById.get(seriesId);
+        if (series != null) {
+            series.forEachSample(fromMs, toMs, consumer);
+        }
+    }
+
+    /**
+     * Downsample series within time range to per-minute minimum, maximum and mean heart rate.
+     *
+     * @param seriesId id of series to query
+     * @param fromMs (milliseconds since epoch) start of range, inclusive
+     * @param toMs (milliseconds since epoch) end of range, exclusive
+     * @return aggregates of minutes with samples in time order, empty if there are no samples
+     */
+    public synchronized List<MinuteAggregate> queryPerMinute(String seriesId, long fromMs, long toMs) {
+        MinuteAggregator aggregator = new MinuteAggregator();
+        forEachSample(seriesId, fromMs, toMs, aggregator);
+        return aggregator.finish();
+    }
+
+    /**
+     * Get ids of all stored series.
+     *
+     * @return series ids in natural order
+     */
+    public synchronized Set<String> getSeriesIds() {
+        return new TreeSet<>(seriesById.keySet());
+    }
+
+    /**
+     * Get total size of series files and their tail logs.
+     *
+     * @return number of bytes used by store on disk
+     * @throws IOException if file size can not be read
+     */
+    public synchronized long getStoredBytes() throws IOException {
+        long bytes = 0;
+        for (TimeSeries series : seriesById.values()) {
+            bytes += series.getFileSize();
+        }
+        return bytes;
+    }
+
+    /**
+     * Force samples of not yet full blocks to storage, e.g. when application goes to background.
+     * <br>Flush does not end current blocks, so it does not make blocks smaller.
+     *
+     * @throws IOException if samples can not be written
+     */
+    public synchronized void flush() throws IOException {
+        for (TimeSeries series : seriesById.values()) {
+            series.force();
+        }
+    }
+
+    /**
+     * Seal samples kept in memory and close all series files.
+     *
+     * @throws IOException if any series can not be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        IOException exception = null;
+        for (TimeSeries series : seriesById.values()) {
+            try {
+                series.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        seriesById.clear();
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * Move series file which can not be opened and its tail log aside, so its series id is free for a new file.
+     *
+     * @param file invalid series file
+     * @throws IOException if file can be neither renamed nor deleted
+     */
+    private void quarantine(File file) throws IOException {
+        for (File seriesFile : new File[]{file, TimeSeries.getTailFile(file)}) {
+            if (!seriesFile.exists()) {
+                continue;
+            }
+            File corruptFile = new File(directory, seriesFile.getName() + CORRUPT_FILE_EXTENSION);
+            if (!seriesFile.renameTo(corruptFile) && !seriesFile.delete()) {
+                throw new IOException(String.format("Can not move aside invalid series file %s", seriesFile));
+            }
+        }
+    }
+
+    /**
+     * Get file name of series, characters which are not safe in file names are replaced.
+     */
+    private String getFileName(String seriesId) {
+        return seriesId.replaceAll("[^A-Za-z0-9_-]", "_") + FILE_EXTENSION;
+    }
+
+    /**
+     * {@link SampleConsumer} which accumulates samples into per-minute aggregates.
+     */
+    private static class MinuteAggregator implements SampleConsumer {
+        private final List<MinuteAggregate> aggregates = new ArrayList<>();
+        private long minuteStartMs = Long.MIN_VALUE;
+        private int min;
+        private int max;
+        private long sum;
+        private int count;
+
+        @Override
+        public void accept(long timestampMs, int bpm) {
+            long sampleMinuteStartMs = Math.floorDiv(timestampMs, MinuteAggregate.MINUTE_MS) * MinuteAggregate.MINUTE_MS;
+            if (sampleMinuteStartMs != minuteStartMs) {
+                addMinute();
+                minuteStartMs = sampleMinuteStartMs;
+                min = bpm;
+                max = bpm;
+            }
+            min = Math.min(min, bpm);
+            max = Math.max(max, bpm);
+            sum += bpm;
+            count++;
+        }
+
+        List<MinuteAggregate> finish() {
+            addMinute();
+            return aggregates;
+        }
+
+        private void addMinute() {
+            if (count > 0) {
+                aggregates.add(new MinuteAggregate(minuteStartMs, min, max, (float) sum / count, count));
+            }
+            sum = 0;
+            count = 0;
+        }
+    }
+}
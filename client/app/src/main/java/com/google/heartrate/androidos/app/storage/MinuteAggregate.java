@@ -0,0 +1,62 @@
+package com.google.heartrate.androidos.app.storage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MinuteAggregate} holds heart rate statistics of samples within one minute.
+ */
+public class MinuteAggregate {
+
+    /** Number of milliseconds in minute. */
+    static final long MINUTE_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private final long minuteStartMs;
+    private final int min;
+    private final int max;
+    private final float mean;
+    private final int count;
+
+    MinuteAggregate(long minuteStartMs, int min, int max, float mean, int count) {
+        this.minuteStartMs = minuteStartMs;
+        this.min = min;
+        this.max = max;
+        this.mean = mean;
+        this.count = count;
+    }
+
+    /**
+     * Get start of the minute.
+     *
+     * @return (milliseconds since epoch) minute start
+     */
+    public long getMinuteStartMs() {
+        return minuteStartMs;
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public float getMean() {
+        return mean;
+    }
+
+    /**
+     * Get number of samples within the minute.
+     *
+     * @return sample count
+     */
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MinuteAggregate{start=%d, min=%d, max=%d, mean=%.1f, count=%d}",
+                minuteStartMs, min, max, mean, count);
+    }
+}
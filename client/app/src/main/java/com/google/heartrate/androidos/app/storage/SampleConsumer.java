@@ -0,0 +1,15 @@
+package com.google.heartrate.androidos.app.storage;
+
+/**
+ * {@link SampleConsumer} receives heart rate samples read from {@link HeartRateStore}.
+ */
+public interface SampleConsumer {
+
+    /**
+     * Accept next sample. Samples are accepted in timestamp order.
+     *
+     * @param timestampMs (milliseconds since epoch) sample timestamp
+     * @param bpm heart rate
+     */
+    void accept(long timestampMs, int bpm);
+}
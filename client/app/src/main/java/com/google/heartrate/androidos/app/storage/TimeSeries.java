@@ -0,0 +1,388 @@
+package com.google.heartrate.androidos.app.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link TimeSeries} stores heart rate samples of one device in append-only file.
+ * <p>
+ * Samples are collected in active block in memory. Full active block is encoded by {@link BlockCodec},
+ * appended to file and becomes sealed. Sealed blocks are never modified and are read through
+ * read-only memory mappings: blocks found on open share one mapping of the file, and every block sealed
+ * later is mapped on its own, so seal does not map the whole file again.
+ * <p>
+ * Every sample of active block is also appended to tail log file next to series file as soon as it is
+ * appended, so active block survives process death: tail log is replayed into active block on open.
+ * Tail log is forced to storage by {@link #force()} and emptied when active block is sealed.
+ * Tail log record is timestamp (Int64) and heart rate (UInt16); truncated record at the end of log
+ * and samples already in sealed blocks, e.g. after crash during seal, are skipped on replay.
+ * <p>
+ * File starts with header: magic (Int32), format version (UInt8), series id length (UInt16)
+ * and series id in UTF-8. Blocks follow the header. Truncated or corrupted blocks at the end of file,
+ * e.g. after crash during append, are removed on open. File without valid header is not opened.
+ */
+final class TimeSeries implements Closeable {
+
+    /** File magic, "HRTS". */
+    private static final int FILE_MAGIC = 0x48525453;
+
+    /** Version of file format. */
+    private static final int FORMAT_VERSION = 1;
+
+    /** Extension added to series file name to get tail log file name. */
+    private static final String TAIL_EXTENSION = ".tail";
+
+    /** Number of bytes in tail log record. */
+    private static final int TAIL_RECORD_SIZE = 10;
+
+    private final String seriesId;
+    private final FileChannel channel;
+
+    /** Offset of the first block in file. */
+    private final int firstBlockOffset;
+
+    /** Sealed blocks in timestamp order. */
+    private final List<BlockCodec.Block> blocks = new ArrayList<>();
+
+    /** Mapped data of sealed blocks, block offsets are offsets in data of the same index. */
+    private final List<ByteBuffer> blockData = new ArrayList<>();
+
+    /** Encoder of sealed blocks. */
+    private final BlockCodec blockCodec = new BlockCodec();
+
+    /** Samples of active block. */
+    private final long[] activeTimestamps;
+    private final int[] activeValues;
+    private int activeCount;
+
+    /** Timestamp of the last appended sample. */
+    private long lastTimestampMs = Long.MIN_VALUE;
+
+    /** Tail log with samples of active block. */
+    private final File tailFile;
+    private final FileChannel tailChannel;
+
+    /** Number of bytes in tail log. */
+    private long tailSize;
+
+    /** Buffer of tail log record reused between appends. */
+    private final ByteBuffer tailRecord = ByteBuffer.allocate(TAIL_RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    private TimeSeries(String seriesId, FileChannel channel, int firstBlockOffset,
+                       File tailFile, FileChannel tailChannel, int blockCapacity) {
+        this.seriesId = seriesId;
+        this.channel = channel;
+        this.firstBlockOffset = firstBlockOffset;
+        this.tailFile = tailFile;
+        this.tailChannel = tailChannel;
+        this.activeTimestamps = new long[blockCapacity];
+        this.activeValues = new int[blockCapacity];
+    }
+
+    /**
+     * Get tail log file of series file.
+     *
+     * @param file series file
+     * @return file with samples of active block of series
+     */
+    static File getTailFile(File file) {
+        return new File(file.getPath() + TAIL_EXTENSION);
+    }
+
+    /**
+     * Create new series file.
+     *
+     * @param file file to create
+     * @param seriesId id of series
+     * @param blockCapacity number of samples in sealed block
+     * @return created series
+     * @throws IOException if file can not be created
+     */
+    static TimeSeries create(File file, String seriesId, int blockCapacity) throws IOException {
+        byte[] id = seriesId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(7 + id.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(FILE_MAGIC).put((byte) FORMAT_VERSION).putShort((short) id.length).put(id);
+        header.flip();
+
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel tailChannel = null;
+        try {
+            channel.write(header, 0);
+            channel.force(true);
+            File tailFile = getTailFile(file);
+            /* Tail log left without series file belongs to no series */
+            tailChannel = FileChannel.open(tailFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new TimeSeries(seriesId, channel, header.limit(), tailFile, tailChannel, blockCapacity);
+        } catch (IOException e) {
+            channel.close();
+            if (tailChannel != null) {
+                tailChannel.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Open existing series file, index its blocks and replay its tail log into active block.
+     *
+     * @param file file to open
+     * @param blockCapacity number of samples in sealed block
+     * @return opened series or null if file has no valid header, e.g. it is empty after crash on create
+     * @throws IOException if file can not be read
+     */
+    static TimeSeries open(File file, int blockCapacity) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel tailChannel = null;
+        try {
+            MappedByteBuffer data = map(channel, 0, channel.size());
+            if (data.limit() < 7 || data.getInt(0) != FILE_MAGIC || data.get(4) != FORMAT_VERSION
+                    || data.limit() < 7 + (data.getShort(5) & 0xFFFF)) {
+                channel.close();
+                return null;
+            }
+            int idLength = data.getShort(5) & 0xFFFF;
+            byte[] id = new byte[idLength];
+            ((ByteBuffer) data.duplicate().position(7)).get(id);
+
+            File tailFile = getTailFile(file);
+            tailChannel = FileChannel.open(tailFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            TimeSeries series = new TimeSeries(new String(id, StandardCharsets.UTF_8), channel, 7 + idLength,
+                    tailFile, tailChannel, blockCapacity);
+            series.indexBlocks(data);
+            series.replayTail();
+            return series;
+        } catch (IOException e) {
+            channel.close();
+            if (tailChannel != null) {
+                tailChannel.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Index blocks of mapped file.
+     *
+     * @param data mapping of the whole file
+     * @throws IOException if invalid tail of file can not be removed
+     */
+    private void indexBlocks(MappedByteBuffer data) throws IOException {
+        int offset = firstBlockOffset;
+        BlockCodec.Block block;
+        while ((block = BlockCodec.readBlock(data, offset)) != null) {
+            blocks.add(block);
+            lastTimestampMs = block.lastTimestampMs;
+            offset += block.length;
+        }
+        if (offset < data.limit()) {
+            /* Drop the tail which is not a valid block, mapping must not outlast file */
+            channel.truncate(offset);
+            data = map(channel, 0, offset);
+        }
+        for (int i = 0; i < blocks.size(); i++) {
+            blockData.add(data);
+        }
+    }
+
+    private void replayTail() throws IOException {
+        long size = tailChannel.size();
+        ByteBuffer records = ByteBuffer.allocate((int) (size - size % TAIL_RECORD_SIZE))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        while (records.hasRemaining() && tailChannel.read(records, records.position()) >= 0) {
+            /* Read the whole log */
+        }
+        records.flip();
+        if (records.limit() < size) {
+            /* Drop the record which is not complete */
+            tailChannel.truncate(records.limit());
+        }
+        tailSize = records.limit();
+
+        /* Samples replayed after a seal are no longer in emptied log, so they are written to it again */
+        boolean tailEmptied = false;
+        while (records.hasRemaining()) {
+            long timestampMs = records.getLong();
+            int bpm = records.getShort() & 0xFFFF;
+            if (timestampMs <= lastTimestampMs) {
+                continue;
+            }
+            if (tailEmptied) {
+                writeTailRecord(timestampMs, bpm);
+            }
+            addActive(timestampMs, bpm);
+            if (activeCount == activeTimestamps.length) {
+                seal();
+                tailEmptied = true;
+            }
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        return data;
+    }
+
+    String getSeriesId() {
+        return seriesId;
+    }
+
+    /**
+     * Append sample to active block and tail log, seal active block if it is full.
+     *
+     * @param timestampMs (milliseconds) sample timestamp
+     * @param bpm heart rate
+     * @return true if sample has been appended, false if it is not newer than the last sample
+     * @throws IOException if sample can not be written to tail log or full active block can not be sealed
+     */
+    boolean append(long timestampMs, int bpm) throws IOException {
+        if (timestampMs <= lastTimestampMs) {
+            return false;
+        }
+        writeTailRecord(timestampMs, bpm);
+        addActive(timestampMs, bpm);
+
+        if (activeCount == activeTimestamps.length) {
+            seal();
+        }
+        return true;
+    }
+
+    private void addActive(long timestampMs, int bpm) {
+        activeTimestamps[activeCount] = timestampMs;
+        activeValues[activeCount] = bpm;
+        activeCount++;
+        lastTimestampMs = timestampMs;
+    }
+
+    private void writeTailRecord(long timestampMs, int bpm) throws IOException {
+        tailRecord.clear();
+        tailRecord.putLong(timestampMs).putShort((short) bpm).flip();
+        while (tailRecord.hasRemaining()) {
+            tailChannel.write(tailRecord, tailSize + tailRecord.position());
+        }
+        tailSize += TAIL_RECORD_SIZE;
+    }
+
+    /**
+     * Encode active block, append it to file and empty tail log.
+     * Only region of the appended block is mapped.
+     *
+     * @throws IOException if block can not be written
+     */
+    void seal() throws IOException {
+        if (activeCount > 0) {
+            ByteBuffer encoded = blockCodec.encode(activeTimestamps, activeValues, activeCount);
+            long offset = channel.size();
+            while (encoded.hasRemaining()) {
+                channel.write(encoded, offset + encoded.position());
+            }
+            channel.force(false);
+
+            MappedByteBuffer data = map(channel, offset, encoded.limit());
+            blocks.add(BlockCodec.readBlock(data, 0));
+            blockData.add(data);
+            activeCount = 0;
+        }
+        if (tailSize > 0) {
+            /* Block is on storage, so crash before this point only leaves samples skipped on replay */
+            tailChannel.truncate(0);
+            tailSize = 0;
+        }
+    }
+
+    /**
+     * Force samples of active block in tail log to storage, without sealing active block.
+     *
+     * @throws IOException if tail log can not be forced
+     */
+    void force() throws IOException {
+        tailChannel.force(false);
+    }
+
+    /**
+     * Read samples within time range.
+     *
+     * @param fromMs (milliseconds) start of range, inclusive
+     * @param toMs (milliseconds) end of range, exclusive
+     * @param consumer consumer of samples
+     */
+    void forEachSample(long fromMs, long toMs, SampleConsumer consumer) {
+        for (int i = findFirstBlock(fromMs); i < blocks.size(); i++) {
+            BlockCodec.Block block = blocks.get(i);
+            if (block.firstTimestampMs >= toMs) {
+                return;
+            }
+            BlockCodec.decode(blockData.get(i), block, fromMs, toMs, consumer);
+        }
+        for (int i = 0; i < activeCount; i++) {
+            long timestamp = activeTimestamps[i];
+            if (timestamp >= toMs) {
+                return;
+            }
+            if (timestamp >= fromMs) {
+                consumer.accept(timestamp, activeValues[i]);
+            }
+        }
+    }
+
+    /**
+     * Find index of the first block which ends at or after given time.
+     */
+    private int findFirstBlock(long fromMs) {
+        int low = 0;
+        int high = blocks.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (blocks.get(middle).lastTimestampMs < fromMs) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Get size of series file and its tail log.
+     *
+     * @return number of bytes in files
+     * @throws IOException if size can not be read
+     */
+    long getFileSize() throws IOException {
+        return channel.size() + tailSize;
+    }
+
+    /**
+     * Seal active block, close series file and remove emptied tail log.
+     *
+     * @throws IOException if active block can not be sealed or file can not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            seal();
+        } finally {
+            try {
+                tailChannel.close();
+            } finally {
+                channel.close();
+            }
+        }
+        if (tailFile.exists() && !tailFile.delete()) {
+            throw new IOException(String.format("Can not delete tail log %s", tailFile));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.google.heartrate.androidos.app.connection;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+public class ReconnectBackoffTest {
+
+    @Test
+    public void delayDoublesWithJitterUpToMaximumTest() {
+        ReconnectBackoff backoff = new ReconnectBackoff(100, 1_000, new Random(1));
+        long[] ceilings = {100, 200, 400, 800, 1_000, 1_000};
+
+        for (int sample = 0; sample < 100; sample++) {
+            for (int attempt = 1; attempt <= ceilings.length; attempt++) {
+                long ceiling = ceilings[attempt - 1];
+                long delayMs = backoff.getDelayMs(attempt);
+                assertTrue(String.format("Delay %d ms after %d attempts", delayMs, attempt),
+                        delayMs >= ceiling / 2 && delayMs <= ceiling);
+            }
+        }
+        assertTrue(backoff.getDelayMs(Integer.MAX_VALUE) <= 1_000);
+    }
+
+    @Test
+    public void delayIsJitteredTest() {
+        ReconnectBackoff backoff = new ReconnectBackoff(1_000, 1_000, new Random(2));
+        long first = backoff.getDelayMs(1);
+
+        boolean differs = false;
+        for (int i = 0; i < 10 && !differs; i++) {
+            differs = backoff.getDelayMs(1) != first;
+        }
+        assertTrue(differs);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maximumBelowInitialDelayIsRejectedTest() {
+        new ReconnectBackoff(1_000, 500, new Random());
+    }
+}
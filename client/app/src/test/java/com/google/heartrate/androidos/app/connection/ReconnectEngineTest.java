@@ -0,0 +1,315 @@
+package com.google.heartrate.androidos.app.connection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ReconnectEngineTest {
+    private static final String WATCH = "AA:BB:CC:DD:EE:01";
+    private static final String ATTRIBUTES = "attributes";
+    private static final String REDISCOVERED_ATTRIBUTES = "rediscovered attributes";
+    private static final byte[] HASH = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+    private static final byte[] CHANGED_HASH = {16, 15, 14, 13, 12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1};
+
+    private static final int MAX_DIRECT_ATTEMPTS = 4;
+    private static final long CONNECT_TIMEOUT_MS = 1_000;
+    private static final long INITIAL_DELAY_MS = 100;
+    private static final long MAX_DELAY_MS = 400;
+
+    private FakeScheduler scheduler;
+    private FakeLink link;
+    private GattAttributeCache<String> cache;
+    private List<Integer> samples;
+    private ReconnectEngine<String> engine;
+
+    @Before
+    public void setUp() {
+        scheduler = new FakeScheduler();
+        link = new FakeLink();
+        cache = new GattAttributeCache<>();
+        samples = new ArrayList<>();
+        engine = new ReconnectEngine<>(link, scheduler, cache, (timestampMs, bpm) -> samples.add(bpm),
+                new ReconnectBackoff(INITIAL_DELAY_MS, MAX_DELAY_MS, new Random(7)),
+                MAX_DIRECT_ATTEMPTS, CONNECT_TIMEOUT_MS);
+    }
+
+    @Test
+    public void reconnectWithUnchangedHashSkipsDiscoveryTest() {
+        startStreaming();
+
+        scheduler.advance(1_000);
+        engine.onDisconnected();
+        assertEquals(ReconnectEngine.State.CONNECTING, engine.getState());
+        assertEquals(2, link.connects.size());
+        assertFalse(link.connects.get(1).autoConnect);
+
+        scheduler.advance(120);
+        engine.onConnected();
+        assertEquals(ReconnectEngine.State.VALIDATING, engine.getState());
+        assertSame(ATTRIBUTES, link.hashReadAttributes);
+
+        engine.onDatabaseHashRead(HASH.clone());
+        assertEquals(ReconnectEngine.State.SUBSCRIBING, engine.getState());
+        assertSame(ATTRIBUTES, link.subscribedAttributes);
+        engine.onSubscribed(true);
+
+        scheduler.advance(30);
+        engine.onSample(0, 75);
+
+        assertEquals(ReconnectEngine.State.STREAMING, engine.getState());
+        assertEquals(1, link.discoveries);
+        assertEquals(1, engine.getStats().getSkippedDiscoveryCount());
+        assertEquals(1, engine.getStats().getRecoveryCount());
+        assertEquals(150, engine.getStats().getLastTimeToFirstSampleMs());
+        assertEquals(2, samples.size());
+    }
+
+    @Test
+    public void reconnectWithChangedHashRediscoversTest() {
+        startStreaming();
+        engine.onDisconnected();
+        engine.onConnected();
+
+        engine.onDatabaseHashRead(CHANGED_HASH);
+
+        assertEquals(ReconnectEngine.State.DISCOVERING, engine.getState());
+        engine.onDiscovered(REDISCOVERED_ATTRIBUTES, CHANGED_HASH);
+        assertSame(REDISCOVERED_ATTRIBUTES, link.subscribedAttributes);
+        assertSame(REDISCOVERED_ATTRIBUTES, cache.getAttributes(WATCH));
+        assertTrue(cache.isValid(WATCH, CHANGED_HASH));
+        assertEquals(2, engine.getStats().getDiscoveryCount());
+        assertEquals(0, engine.getStats().getSkippedDiscoveryCount());
+    }
+
+    @Test
+    public void cachedAttributesNotUsableOnLinkAreRediscoveredTest() {
+        startStreaming();
+        engine.onDisconnected();
+        link.cachedAttributesUsable = false;
+
+        engine.onConnected();
+
+        assertEquals(ReconnectEngine.State.DISCOVERING, engine.getState());
+        assertEquals(2, link.discoveries);
+    }
+
+    @Test
+    public void watchWithoutDatabaseHashIsNotCachedTest() {
+        engine.start(WATCH);
+        engine.onConnected();
+        engine.onDiscovered(ATTRIBUTES, null);
+        engine.onSubscribed(true);
+
+        engine.onDisconnected();
+        engine.onConnected();
+
+        assertEquals(ReconnectEngine.State.DISCOVERING, engine.getState());
+        assertEquals(null, link.hashReadAttributes);
+    }
+
+    @Test
+    public void failedAttemptsBackOffThenFallBackToAutoConnectTest() {
+        engine.start(WATCH);
+
+        long[] ceilings = {INITIAL_DELAY_MS, 2 * INITIAL_DELAY_MS, MAX_DELAY_MS};
+        for (int attempt = 1; attempt < MAX_DIRECT_ATTEMPTS; attempt++) {
+            long attemptAtMs = scheduler.now();
+            scheduler.advance(CONNECT_TIMEOUT_MS);
+            assertEquals(ReconnectEngine.State.WAITING, engine.getState());
+            assertEquals(attempt, link.disconnects);
+
+            scheduler.runNext();
+            long delayMs = scheduler.now() - attemptAtMs - CONNECT_TIMEOUT_MS;
+            long ceiling = ceilings[attempt - 1];
+            assertTrue(String.format("Delay %d ms after attempt %d", delayMs, attempt),
+                    delayMs >= ceiling / 2 && delayMs <= ceiling);
+            assertEquals(attempt + 1, link.connects.size());
+            assertFalse(link.connects.get(attempt).autoConnect);
+        }
+
+        scheduler.advance(CONNECT_TIMEOUT_MS);
+        assertEquals(ReconnectEngine.State.AUTO_CONNECTING, engine.getState());
+        assertTrue(link.connects.get(link.connects.size() - 1).autoConnect);
+
+        /* Auto-connect never times out */
+        scheduler.advance(60_000);
+        assertEquals(MAX_DIRECT_ATTEMPTS + 1, link.connects.size());
+        assertEquals(1, engine.getStats().getAutoConnectCount());
+        assertEquals(MAX_DIRECT_ATTEMPTS, engine.getStats().getDirectAttemptCount());
+
+        engine.onConnected();
+        assertEquals(ReconnectEngine.State.DISCOVERING, engine.getState());
+    }
+
+    @Test
+    public void serviceChangedDropsCacheAndRediscoversTest() {
+        startStreaming();
+
+        engine.onServiceChanged();
+
+        assertEquals(ReconnectEngine.State.DISCOVERING, engine.getState());
+        assertEquals(null, cache.getAttributes(WATCH));
+        engine.onDiscovered(REDISCOVERED_ATTRIBUTES, CHANGED_HASH);
+        engine.onSubscribed(true);
+        assertEquals(ReconnectEngine.State.STREAMING, engine.getState());
+        assertSame(REDISCOVERED_ATTRIBUTES, cache.getAttributes(WATCH));
+    }
+
+    @Test
+    public void failedSubscriptionDropsCacheAndRetriesTest() {
+        startStreaming();
+        engine.onDisconnected();
+        engine.onConnected();
+        engine.onDatabaseHashRead(HASH);
+
+        engine.onSubscribed(false);
+
+        assertEquals(ReconnectEngine.State.WAITING, engine.getState());
+        assertEquals(null, cache.getAttributes(WATCH));
+        scheduler.advance(INITIAL_DELAY_MS);
+        assertEquals(ReconnectEngine.State.CONNECTING, engine.getState());
+    }
+
+    @Test
+    public void stopCancelsPendingAttemptTest() {
+        engine.start(WATCH);
+        scheduler.advance(CONNECT_TIMEOUT_MS);
+        assertEquals(ReconnectEngine.State.WAITING, engine.getState());
+
+        engine.stop();
+        scheduler.advance(60_000);
+
+        assertEquals(ReconnectEngine.State.IDLE, engine.getState());
+        assertEquals(1, link.connects.size());
+        engine.onSample(0, 80);
+        assertTrue(samples.isEmpty());
+    }
+
+    private void startStreaming() {
+        engine.start(WATCH);
+        engine.onConnected();
+        engine.onDiscovered(ATTRIBUTES, HASH);
+        engine.onSubscribed(true);
+        engine.onSample(0, 72);
+        assertEquals(ReconnectEngine.State.STREAMING, engine.getState());
+        assertEquals(1, link.discoveries);
+    }
+
+    private static class Connect {
+        private final boolean autoConnect;
+
+        private Connect(boolean autoConnect) {
+            this.autoConnect = autoConnect;
+        }
+    }
+
+    private static class FakeLink implements GattLink<String> {
+        private final List<Connect> connects = new ArrayList<>();
+        private int disconnects;
+        private int discoveries;
+        private boolean cachedAttributesUsable = true;
+        private String hashReadAttributes;
+        private String subscribedAttributes;
+
+        @Override
+        public void setCallback(Callback<String> callback) {
+        }
+
+        @Override
+        public boolean connect(String address, boolean autoConnect) {
+            assertEquals(WATCH, address);
+            connects.add(new Connect(autoConnect));
+            return true;
+        }
+
+        @Override
+        public void disconnect() {
+            disconnects++;
+        }
+
+        @Override
+        public boolean readDatabaseHash(String attributes) {
+            if (!cachedAttributesUsable) {
+                return false;
+            }
+            hashReadAttributes = attributes;
+            return true;
+        }
+
+        @Override
+        public boolean discover() {
+            discoveries++;
+            return true;
+        }
+
+        @Override
+        public boolean subscribe(String attributes) {
+            subscribedAttributes = attributes;
+            return true;
+        }
+    }
+
+    /**
+     * Scheduler with virtual time, tasks run when time is advanced.
+     */
+    private static class FakeScheduler implements Scheduler {
+        private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+        private long nowMs;
+        private long sequence;
+
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+            tasks.add(new Task(task, nowMs + delayMs, sequence++));
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            tasks.removeIf(scheduled -> scheduled.task == task);
+        }
+
+        @Override
+        public long now() {
+            return nowMs;
+        }
+
+        void advance(long durationMs) {
+            long untilMs = nowMs + durationMs;
+            while (!tasks.isEmpty() && tasks.peek().atMs <= untilMs) {
+                runNext();
+            }
+            nowMs = untilMs;
+        }
+
+        void runNext() {
+            Task task = tasks.poll();
+            nowMs = task.atMs;
+            task.task.run();
+        }
+
+        private static class Task implements Comparable<Task> {
+            private final Runnable task;
+            private final long atMs;
+            private final long sequence;
+
+            private Task(Runnable task, long atMs, long sequence) {
+                this.task = task;
+                this.atMs = atMs;
+                this.sequence = sequence;
+            }
+
+            @Override
+            public int compareTo(Task other) {
+                return atMs != other.atMs ? Long.compare(atMs, other.atMs) : Long.compare(sequence, other.sequence);
+            }
+        }
+    }
+}
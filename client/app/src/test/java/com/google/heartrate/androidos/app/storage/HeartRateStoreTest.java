@@ -0,0 +1,303 @@
+package com.google.heartrate.androidos.app.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HeartRateStoreTest {
+    private static final String WATCH = "AA:BB:CC:DD:EE:01";
+    private static final String OTHER_WATCH = "AA:BB:CC:DD:EE:02";
+
+    private static final long SECOND_MS = TimeUnit.SECONDS.toMillis(1);
+    private static final long MINUTE_MS = TimeUnit.MINUTES.toMillis(1);
+    /** Start of a minute. */
+    private static final long MINUTE_START_MS = 1_600_000_020_000L;
+
+    /** Start of samples, 20 seconds into minute. */
+    private static final long START_MS = MINUTE_START_MS + 20 * SECOND_MS;
+
+    private static final float DELTA = 1e-3f;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void queryPerMinuteAggregatesSamplesTest() throws IOException {
+        try (HeartRateStore store = new HeartRateStore(folder.getRoot(), 16)) {
+            /* 40 samples in the first minute, 60 in the second */
+            for (int i = 0; i < 100; i++) {
+                assertTrue(store.append(WATCH, START_MS + i * SECOND_MS, 60 + i % 10));
+            }
+
+            List<MinuteAggregate> aggregates = store.queryPerMinute(WATCH, 0, Long.MAX_VALUE);
+
+            assertEquals(2, aggregates.size());
+            assertEquals(MINUTE_START_MS, aggregates.get(0).getMinuteStartMs());
+            assertEquals(40, aggregates.get(0).getCount());
+            assertEquals(60, aggregates.get(0).getMin());
+            assertEquals(69, aggregates.get(0).getMax());
+            assertEquals(64.5f, aggregates.get(0).getMean(), DELTA);
+            assertEquals(MINUTE_START_MS + MINUTE_MS, aggregates.get(1).getMinuteStartMs());
+            assertEquals(60, aggregates.get(1).getCount());
+        }
+    }
+
+    @Test
+    public void samplesAreReadBackAcrossSealedAndActiveBlocksTest() throws IOException {
+        try (HeartRateStore store = new HeartRateStore(folder.getRoot(), 16)) {
+            long[] timestamps = new long[50];
+            int[] values = new int[50];
+            Random random = new Random(1);
+            long timestamp = START_MS;
+            for (int i = 0; i < timestamps.length; i++) {
+                timestamp += SECOND_MS + random.nextInt(300) - 150;
+                timestamps[i] = timestamp;
+                values[i] = 40 + random.nextInt(180);
+                store.append(WATCH, timestamps[i], values[i]);
+            }
+
+            List<long[]> samples = readAll(store, WATCH, 0, Long.MAX_VALUE);
+
+            assertEquals(timestamps.length, samples.size());
+            for (int i = 0; i < timestamps.length; i++) {
+                assertEquals(timestamps[i], samples.get(i)[0]);
+                assertEquals(values[i], samples.get(i)[1]);
+            }
+        }
+    }
+
+    @Test
+    public void queryReturnsOnlySamplesWithinRangeTest() throws IOException {
+        try (HeartRateStore store = new HeartRateStore(folder.getRoot(), 16)) {
+            for (int i = 0; i < 100; i++) {
+                store.append(WATCH, START_MS + i * SECOND_MS, 70);
+            }
+
+            List<long[]> samples = readAll(store, WATCH, START_MS + 10 * SECOND_MS, START_MS + 90 * SECOND_MS);
+
+            assertEquals(80, samples.size());
+            assertEquals(START_MS + 10 * SECOND_MS, samples.get(0)[0]);
+            assertEquals(START_MS + 89 * SECOND_MS, samples.get(79)[0]);
+        }
+    }
+
+    @Test
+    public void outOfOrderSampleIsRejectedTest() throws IOException {
+        try (HeartRateStore store = new HeartRateStore(folder.getRoot(), 16)) {
+            assertTrue(store.append(WATCH, START_MS, 70));
+
+            assertFalse(store.append(WATCH, START_MS, 71));
+            assertFalse(store.append(WATCH, START_MS - SECOND_MS, 72));
+            assertTrue(store.append(OTHER_WATCH, START_MS - SECOND_MS, 72));
+            assertEquals(1, readAll(store, WATCH, 0, Long.MAX_VALUE).size());
+        }
+    }
+
+    @Test
+    public void samplesArePersistedAcrossReopenTest() throws IOException {
+        try (HeartRateStore store = new HeartRateStore(folder.getRoot(), 16)) {
+            for (int i = 0; i < 40; i++) {
+                store.append(WATCH, START_MS + i * SECOND_MS, 60 + i);
+                store.append(OTHER_WATCH, START_MS + i * SECOND_MS, 100);
+            }
+        }
+
+        try (HeartRateStore store = new HeartRateStore(folder.getRoot(), 16)) {
+            assertEquals(2, store.getSeriesIds().size());
+            List<long[]> samples = readAll(store, WATCH, 0, Long.MAX_VALUE);
+            assertEquals(40, samples.size());
+            assertEquals(99, samples.get(39)[1]);
+
+            /* Samples older than stored ones are still rejected after reopen */
+            assertFalse(store.append(WATCH, START_MS, 60));
+            assertTrue(store.append(WATCH, START_MS + 40 * SECOND_MS, 100));
+        }
+    }
+
+    @Test
+    public void blocksSealedAfterReopenAreReadWithStoredBlocksTest() throws IOException {
+        try (HeartRateStore store = new HeartRateStore(folder.getRoot(), 16)) {
+            for (int i = 0; i < 32; i++) {
+                store.append(WATCH, START_MS + i * SECOND_MS, 60 + i);
+            }
+        }
+
+        try (HeartRateStore store = new HeartRateStore(folder.getRoot(), 16)) {
+            /* Two blocks found on open, two sealed after it and samples of active block */
+            for (int i = 32; i < 72; i++) {
+                assertTrue(store.append(WATCH, START_MS + i * SECOND_MS, 60 + i));
+            }
+
+            List<long[]> samples = readAll(store, WATCH, 0, Long.MAX_VALUE);
+            assertEquals(72, samples.size());
+            for (int i = 0; i < samples.size(); i++) {
+                assertEquals(START_MS + i * SECOND_MS, samples.get(i)[0]);
+                assertEquals(60 + i, samples.get(i)[1]);
+            }
+            /* Range starting in block sealed after reopen */
+            assertEquals(20, readAll(store, WATCH, START_MS + 40 * SECOND_MS, START_MS + 60 * SECOND_MS).size());
+        }
+
+        try (HeartRateStore store = new HeartRateStore(folder.getRoot(), 16)) {
+            assertEquals(72, readAll(store, WATCH, 0, Long.MAX_VALUE).size());
+        }
+    }
+
+    @Test
+    public void truncatedBlockIsDroppedOnOpenTest() throws IOException {
+        try (HeartRateStore store = new HeartRateStore(folder.getRoot(), 16)) {
+            for (int i = 0; i < 32; i++) {
+                store.append(WATCH, START_MS + i * SECOND_MS, 70);
+            }
+        }
+        File file = folder.getRoot().listFiles()[0];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            /* Crash in the middle of the second block append */
+            raf.setLength(raf.length() - 3);
+        }
+
+        try (HeartRateStore store = new HeartRateStore(folder.getRoot(), 16)) {
+            assertEquals(16, readAll(store, WATCH, 0, Long.MAX_VALUE).size());
+            assertTrue(store.append(WATCH, START_MS + 16 * SECOND_MS, 80));
+        }
+    }
+
+    @Test
+    public void samplesOfActiveBlockSurviveCrashTest() throws IOException {
+        File directory = folder.newFolder("store");
+        File crashedDirectory = folder.newFolder("crashed");
+        try (HeartRateStore store = new HeartRateStore(directory, 16)) {
+            /* A sealed block and 4 samples of active block */
+            for (int i = 0; i < 20; i++) {
+                store.append(WATCH, START_MS + i * SECOND_MS, 60 + i);
+            }
+            store.flush();
+            /* Files as they are left by process death, before store is closed */
+            copyFiles(directory, crashedDirectory);
+        }
+
+        try (HeartRateStore store = new HeartRateStore(crashedDirectory, 16)) {
+            List<long[]> samples = readAll(store, WATCH, 0, Long.MAX_VALUE);
+            assertEquals(20, samples.size());
+            assertEquals(79, samples.get(19)[1]);
+
+            /* Replayed samples continue active block */
+            for (int i = 20; i < 32; i++) {
+                assertTrue(store.append(WATCH, START_MS + i * SECOND_MS, 60 + i));
+            }
+            assertEquals(32, readAll(store, WATCH, 0, Long.MAX_VALUE).size());
+        }
+
+        try (HeartRateStore store = new HeartRateStore(crashedDirectory, 16)) {
+            assertEquals(32, readAll(store, WATCH, 0, Long.MAX_VALUE).size());
+        }
+        /* Closed store leaves no tail logs */
+        assertEquals(0, crashedDirectory.listFiles((dir, name) -> name.endsWith(".tail")).length);
+    }
+
+    @Test
+    public void truncatedTailRecordIsDroppedOnOpenTest() throws IOException {
+        File directory = folder.newFolder("store");
+        File crashedDirectory = folder.newFolder("crashed");
+        try (HeartRateStore store = new HeartRateStore(directory, 16)) {
+            for (int i = 0; i < 5; i++) {
+                store.append(WATCH, START_MS + i * SECOND_MS, 70);
+            }
+            copyFiles(directory, crashedDirectory);
+        }
+        File tailFile = crashedDirectory.listFiles((dir, name) -> name.endsWith(".tail"))[0];
+        try (RandomAccessFile raf = new RandomAccessFile(tailFile, "rw")) {
+            /* Crash in the middle of the last sample append */
+            raf.setLength(raf.length() - 3);
+        }
+
+        try (HeartRateStore store = new HeartRateStore(crashedDirectory, 16)) {
+            assertEquals(4, readAll(store, WATCH, 0, Long.MAX_VALUE).size());
+            assertTrue(store.append(WATCH, START_MS + 4 * SECOND_MS, 80));
+        }
+        try (HeartRateStore store = new HeartRateStore(crashedDirectory, 16)) {
+            List<long[]> samples = readAll(store, WATCH, 0, Long.MAX_VALUE);
+            assertEquals(5, samples.size());
+            assertEquals(80, samples.get(4)[1]);
+        }
+    }
+
+    @Test
+    public void seriesWithInvalidHeaderIsQuarantinedOnOpenTest() throws IOException {
+        try (HeartRateStore store = new HeartRateStore(folder.getRoot(), 16)) {
+            store.append(WATCH, START_MS, 70);
+            store.append(OTHER_WATCH, START_MS, 80);
+        }
+        File[] files = folder.getRoot().listFiles();
+        /* Crash right after series file has been created */
+        try (RandomAccessFile raf = new RandomAccessFile(files[0], "rw")) {
+            raf.setLength(0);
+        }
+        /* Series file overwritten with something else */
+        try (RandomAccessFile raf = new RandomAccessFile(files[1], "rw")) {
+            raf.writeInt(0);
+        }
+        assertTrue(new File(folder.getRoot(), "empty.hrts").createNewFile());
+
+        try (HeartRateStore store = new HeartRateStore(folder.getRoot(), 16)) {
+            assertTrue(store.getSeriesIds().isEmpty());
+            assertTrue(store.append(WATCH, START_MS, 70));
+            assertTrue(store.append(OTHER_WATCH, START_MS, 80));
+        }
+
+        try (HeartRateStore store = new HeartRateStore(folder.getRoot(), 16)) {
+            assertEquals(2, store.getSeriesIds().size());
+            assertEquals(1, readAll(store, WATCH, 0, Long.MAX_VALUE).size());
+        }
+        /* Invalid files are kept aside rather than deleted */
+        assertEquals(3, folder.getRoot().listFiles((dir, name) -> name.endsWith(".corrupt")).length);
+    }
+
+    @Test
+    public void monthOfSecondResolutionSamplesIsCompactTest() throws IOException {
+        int sampleCount = (int) TimeUnit.DAYS.toSeconds(30);
+        try (HeartRateStore store = new HeartRateStore(folder.getRoot())) {
+            Random random = new Random(2);
+            int bpm = 70;
+            for (int i = 0; i < sampleCount; i++) {
+                /* Heart rate drifts by a beat every few seconds, like resting watch readings */
+                if (random.nextInt(4) == 0) {
+                    bpm = Math.max(45, Math.min(180, bpm + random.nextInt(3) - 1));
+                }
+                store.append(WATCH, START_MS + i * SECOND_MS, bpm);
+            }
+            store.flush();
+
+            long bytes = store.getStoredBytes();
+            List<MinuteAggregate> day = store.queryPerMinute(WATCH, START_MS, START_MS + TimeUnit.DAYS.toMillis(1));
+
+            assertTrue(String.format("Store takes %d bytes", bytes), bytes < sampleCount / 2);
+            assertEquals(TimeUnit.DAYS.toMinutes(1) + 1, day.size());
+        }
+    }
+
+    private static void copyFiles(File from, File to) throws IOException {
+        for (File file : from.listFiles()) {
+            Files.copy(file.toPath(), new File(to, file.getName()).toPath());
+        }
+    }
+
+    private static List<long[]> readAll(HeartRateStore store, String seriesId, long fromMs, long toMs) {
+        List<long[]> samples = new ArrayList<>();
+        store.forEachSample(seriesId, fromMs, toMs, (timestampMs, bpm) -> samples.add(new long[]{timestampMs, bpm}));
+        return samples;
+    }
+}
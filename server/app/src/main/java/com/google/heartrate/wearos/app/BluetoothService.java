@@ -5,12 +5,12 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
-import android.content.Context;
 import android.content.Intent;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
-import android.os.PowerManager;
 import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
@@ -18,23 +18,92 @@ import androidx.core.app.NotificationCompat;
 import com.google.heartrate.wearos.app.bluetooth.server.BluetoothServer;
 import com.google.heartrate.wearos.app.bluetooth.server.handlers.GattRequestHandlerRegistry;
 import com.google.heartrate.wearos.app.bluetooth.server.handlers.GattServiceRequestHandler;
+import com.google.heartrate.wearos.app.bluetooth.server.handlers.HeartRateServiceRequestHandler;
 import com.google.heartrate.wearos.app.gatt.GattException;
+import com.google.heartrate.wearos.app.gatt.heartrate.service.HeartRateGattService;
+import com.google.heartrate.wearos.app.metrics.MetricsRegistry;
+import com.google.heartrate.wearos.app.metrics.StartupTrace;
+import com.google.heartrate.wearos.app.power.WakeLockScheduler;
+import com.google.heartrate.wearos.app.sensors.HeartRateSensorController;
+import com.google.heartrate.wearos.app.sensors.HeartRateSensorListener;
+import com.google.heartrate.wearos.app.sensors.HeartRateSource;
+import com.google.heartrate.wearos.app.sensors.SensorRecorder;
+import com.google.heartrate.wearos.app.sensors.SyntheticHeartRateSource;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.SortedMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * {@link BluetoothService} is foreground service to run {@link BluetoothServer} in.
  * It starts {@link BluetoothService} and provides binder
  * to add/remove {@link GattServiceRequestHandler} into {@link BluetoothServer}.
+ *
+ * <p>Startup is asynchronous: {@link BluetoothServer} is opened, Heart Rate service is added and
+ * advertising is started on startup thread. Startup milestones are recorded in {@link StartupTrace}.
+ *
+ * <p>Heart rate sensor is owned by {@link HeartRateSensorController}: it runs only while a remote device
+ * is subscribed, heart rate is broadcast or UI is visible, and stops a grace period after the last of them is gone.
  */
 public class BluetoothService extends Service {
     private static final String TAG = BluetoothService.class.getSimpleName();
     private static final String CHANNEL_ID = String.format("%sChannelId", TAG);
     private static final String CHANNEL_NAME = String.format("%sChannelName", TAG);
 
-    /** {@link BluetoothServer} for heart rate service hosting. */
-    private BluetoothServer bluetoothServer;
+    /** Name of file in application files directory to record sensor session to. */
+    private static final String SENSOR_RECORDING_FILE_NAME = "sensor_session.bin";
+
+    /** {@link BluetoothServer} for heart rate service hosting, completed when server is started. */
+    private final CompletableFuture<BluetoothServer> bluetoothServerFuture = new CompletableFuture<>();
+
+    /** Executor to bring {@link BluetoothServer} up on. */
+    private ExecutorService startupExecutor;
+
+    /** {@link StartupTrace} to record startup milestones in. */
+    private StartupTrace startupTrace;
+
+    /** {@link MetricsRegistry} for field diagnostics. */
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    /** {@link WakeLockScheduler} to keep CPU awake only while there is work to do. */
+    private WakeLockScheduler wakeLockScheduler;
+
+    /** Thread heart rate sensor events are delivered on. */
+    private HandlerThread sensorThread;
+
+    /** {@link Handler} of sensor thread. */
+    private Handler sensorHandler;
+
+    /** Sensor listener to get heart rate. */
+    private HeartRateSensorListener heartRateSensorListener;
+
+    /** Recorder of sensor events, null if sessions are not recorded. */
+    private SensorRecorder sensorRecorder;
+
+    /** Controller to run heart rate sensor only while it has consumers. */
+    private HeartRateSensorController heartRateSensorController;
+
+    /** {@link HeartRateServiceRequestHandler} to register in {@link BluetoothServer}. */
+    private HeartRateServiceRequestHandler heartRateServiceRequestHandler;
 
-    /** WakeLock to prevent sensor go to suspend mode. */
-    private PowerManager.WakeLock partialWakeLock;
+    /** {@link GattRequestHandlerRegistry} which registers handlers as soon as server is started. */
+    private final GattRequestHandlerRegistry deferredHandlerRegistry = new GattRequestHandlerRegistry() {
+        @Override
+        public void registerGattServiceHandler(GattServiceRequestHandler requestHandler) {
+            bluetoothServerFuture.thenAccept(server -> server.registerGattServiceHandler(requestHandler));
+        }
+
+        @Override
+        public void unregisterGattServiceHandler(GattServiceRequestHandler requestHandler) {
+            bluetoothServerFuture.thenAccept(server -> server.unregisterGattServiceHandler(requestHandler));
+        }
+    };
 
     /** Binder to {@link BluetoothServer}. */
     private final IBinder mBinder = new BluetoothServerBinder();
@@ -47,7 +116,33 @@ public class BluetoothService extends Service {
      public class BluetoothServerBinder extends Binder {
         public GattRequestHandlerRegistry getService() {
             Log.d(TAG, "getService()");
-            return bluetoothServer;
+            return deferredHandlerRegistry;
+        }
+
+        public WakeLockScheduler getWakeLockScheduler() {
+            return wakeLockScheduler;
+        }
+
+        public HeartRateSensorListener getHeartRateSensorListener() {
+            return heartRateSensorListener;
+        }
+
+        /**
+         * Get controller which runs heart rate sensor, e.g. to keep it running while UI is visible.
+         *
+         * @return heart rate sensor controller
+         */
+        public HeartRateSensorController getHeartRateSensorController() {
+            return heartRateSensorController;
+        }
+
+        /**
+         * Take snapshot of server metrics.
+         *
+         * @return current metric values sorted by name
+         */
+        public SortedMap<String, Long> getMetricsSnapshot() {
+            return metrics.snapshot();
         }
     }
 
@@ -69,34 +164,101 @@ public class BluetoothService extends Service {
 
     @Override
     public void onCreate() {
+        startupTrace = new StartupTrace();
+        createNotificationChannel();
+        Intent notificationIntent = new Intent(this, MainActivity.class);
+        PendingIntent pendingIntent = PendingIntent
+                .getActivity(this,
+                        /* request code */0,
+                        notificationIntent,
+                        /* no flags */0);
+        Notification notification = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setContentIntent(pendingIntent)
+                .build();
+
+        startForeground(
+                /* notification service id*/1,
+                notification);
+        startupTrace.mark(StartupTrace.Milestone.SERVICE_STARTED);
+
+        wakeLockScheduler = new WakeLockScheduler(this);
+        createHeartRateSensor();
+
+        startupExecutor = Executors.newSingleThreadExecutor();
+        startupExecutor.execute(this::startBluetoothServer);
+    }
+
+    /**
+     * Create heart rate sensor listener on dedicated sensor thread.
+     * Measurement is started by {@link HeartRateSensorController} when the first consumer appears.
+     * If synthetic source is configured, controller runs it instead of sensor and listener processes
+     * generated samples as sensor events, so they are served through the same pipeline.
+     */
+    private void createHeartRateSensor() {
+        sensorThread = HeartRateSensorListener.startSensorThread();
+        sensorHandler = new Handler(sensorThread.getLooper());
+        heartRateSensorListener = new HeartRateSensorListener(this, sensorHandler);
+        heartRateSensorListener.setWakeLockScheduler(wakeLockScheduler);
+        heartRateSensorListener.setMetricsRegistry(metrics);
+        if (getResources().getBoolean(R.bool.record_sensor_sessions)) {
+            startSensorRecording();
+        }
+        HeartRateSource measuredSource = heartRateSensorListener;
+        String syntheticSource = getString(R.string.synthetic_heart_rate_source);
+        if (!syntheticSource.isEmpty()) {
+            Log.w(TAG, String.format("Heart rate is generated by synthetic source %s", syntheticSource));
+            SyntheticHeartRateSource generator = SyntheticHeartRateSource.parse(syntheticSource, sensorHandler);
+            generator.setSink(heartRateSensorListener);
+            measuredSource = generator;
+        }
+        heartRateSensorController = new HeartRateSensorController(measuredSource, sensorHandler,
+                wakeLockScheduler, getResources().getInteger(R.integer.sensor_grace_period_ms));
+        heartRateSensorController.setStartupTrace(startupTrace);
+        heartRateServiceRequestHandler = new HeartRateServiceRequestHandler(heartRateSensorListener,
+                heartRateSensorController);
+    }
+
+    /**
+     * Record sensor events delivered to heart rate sensor listener to file, replacing previous session.
+     * Session can be pulled from device and replayed with {@link com.google.heartrate.wearos.app.sensors.SensorReplayer}.
+     */
+    private void startSensorRecording() {
+        File file = new File(getFilesDir(), SENSOR_RECORDING_FILE_NAME);
         try {
-            createNotificationChannel();
-            Intent notificationIntent = new Intent(this, MainActivity.class);
-            PendingIntent pendingIntent = PendingIntent
-                    .getActivity(this,
-                            /* request code */0,
-                            notificationIntent,
-                            /* no flags */0);
-            Notification notification = new NotificationCompat.Builder(this, CHANNEL_ID)
-                    .setContentIntent(pendingIntent)
-                    .build();
-
-            startForeground(
-                    /* notification service id*/1,
-                    notification);
-            bluetoothServer = new BluetoothServer(this);
-
-            PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
-            partialWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
-            partialWakeLock.acquire();
+            sensorRecorder = new SensorRecorder(new FileOutputStream(file));
+            heartRateSensorListener.setRecorder(sensorRecorder);
+            Log.d(TAG, String.format("Recording sensor session to %s", file));
+        } catch (IOException e) {
+            Log.e(TAG, String.format("Can not record sensor session: %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * Open {@link BluetoothServer}, start advertising and add Heart Rate service.
+     * Runs on startup thread, which is shut down when startup is done.
+     * Service stops itself if server can not be opened, as it has nothing to serve then.
+     */
+    private void startBluetoothServer() {
+        try {
+            BluetoothServer bluetoothServer = new BluetoothServer(this, wakeLockScheduler, startupTrace, metrics);
+            bluetoothServer.start();
+            bluetoothServer.registerGattServiceHandler(heartRateServiceRequestHandler);
+            if (getResources().getBoolean(R.bool.heart_rate_broadcast_enabled)) {
+                bluetoothServer.startBroadcasting(HeartRateGattService.HEART_RATE_SERVICE_UUID,
+                        /* include sequence number */ true);
+            }
+            bluetoothServerFuture.complete(bluetoothServer);
         } catch (GattException e) {
-            e.printStackTrace();
+            Log.e(TAG, String.format("Can not start Bluetooth server: %s", e.getMessage()), e);
+            bluetoothServerFuture.completeExceptionally(e);
+            stopSelf();
+        } finally {
+            startupExecutor.shutdown();
         }
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        bluetoothServer.start();
         return START_STICKY;
     }
 
@@ -113,7 +275,24 @@ public class BluetoothService extends Service {
     @Override
     public void onDestroy() {
         stopForeground(true);
-        partialWakeLock.release();
-        bluetoothServer.stop();
+        startupExecutor.shutdown();
+        bluetoothServerFuture.thenAccept(BluetoothServer::close);
+        heartRateSensorController.close();
+        sensorThread.quitSafely();
+        if (sensorRecorder != null) {
+            sensorRecorder.close();
+        }
+        wakeLockScheduler.close();
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        startupTrace.dump(writer);
+        wakeLockScheduler.dump(writer);
+        BluetoothServer bluetoothServer = bluetoothServerFuture.getNow(null);
+        if (bluetoothServer != null) {
+            bluetoothServer.dump(writer);
+        }
+        metrics.dump(writer);
     }
 }
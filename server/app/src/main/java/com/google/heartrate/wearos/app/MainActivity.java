@@ -17,11 +17,8 @@ import android.widget.TextView;
 import androidx.core.app.ActivityCompat;
 
 import com.google.heartrate.wearos.app.bluetooth.server.BluetoothServer;
-import com.google.heartrate.wearos.app.bluetooth.server.handlers.GattRequestHandlerRegistry;
-import com.google.heartrate.wearos.app.bluetooth.server.handlers.HeartRateServiceRequestHandler;
 import com.google.heartrate.wearos.app.gatt.heartrate.service.HeartRateGattService;
-import com.google.heartrate.wearos.app.sensors.HeartRateSensorListener;
-import com.google.heartrate.wearos.app.sensors.SensorException;
+import com.google.heartrate.wearos.app.sensors.HeartRateSensorController;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -30,8 +27,11 @@ import static com.google.heartrate.wearos.app.sensors.HeartRateSensorListener.HE
 import static com.google.heartrate.wearos.app.sensors.HeartRateSensorListener.HEART_RATE_VALUE;
 
 /**
- * Application main activity sets up {@link HeartRateGattService} in {@link BluetoothServer}
- * and show current heart rate.
+ * Application main activity starts {@link BluetoothService}, which sets up {@link HeartRateGattService}
+ * in {@link BluetoothServer}, and show current heart rate.
+ *
+ * <p>While activity is visible it is a consumer of {@link HeartRateSensorController},
+ * so heart rate is measured for the screen even when no remote device is subscribed.
  */
 public class MainActivity extends WearableActivity {
     private static final String TAG = MainActivity.class.getSimpleName();
@@ -39,25 +39,24 @@ public class MainActivity extends WearableActivity {
     /** {@link TextView} to show current heart rate. */
     private TextView heartRateTextView;
 
-    /** Sensor listener to get heart rate. */
-    private HeartRateSensorListener heartRateSensorListener;
+    /** Controller of heart rate sensor, null until {@link BluetoothService} is bound. */
+    private HeartRateSensorController heartRateSensorController;
 
-    /** {@link HeartRateServiceRequestHandler} to register to {@link GattRequestHandlerRegistry}. */
-    private HeartRateServiceRequestHandler heartRateServiceRequestHandler;
-
-    /** {@link ServiceConnection} with {@link BluetoothService}. */
-    private ServiceConnection connection = new ServiceConnection() {
+    /** Connection to {@link BluetoothService}, acquires sensor as soon as service is bound. */
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
         @Override
-        public void onServiceConnected(ComponentName className, IBinder service) {
-            BluetoothService.BluetoothServerBinder serverBinder = (BluetoothService.BluetoothServerBinder) service;
-            serverBinder.getService().registerGattServiceHandler(heartRateServiceRequestHandler);
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            heartRateSensorController = ((BluetoothService.BluetoothServerBinder) service)
+                    .getHeartRateSensorController();
+            heartRateSensorController.acquire(MainActivity.this);
         }
 
         @Override
-        public void onServiceDisconnected(ComponentName className) { }
+        public void onServiceDisconnected(ComponentName name) {
+            heartRateSensorController = null;
+        }
     };
 
-
     private void requestPermissions() {
         List<String> permissionsNeeded = new ArrayList<>();
         if (checkSelfPermission(Manifest.permission.BODY_SENSORS) != PackageManager.PERMISSION_GRANTED) {
@@ -83,29 +82,7 @@ public class MainActivity extends WearableActivity {
 
         heartRateTextView = findViewById(R.id.text);
 
-        heartRateSensorListener = new HeartRateSensorListener(this);
-        try {
-            heartRateSensorListener.startMeasure();
-            heartRateServiceRequestHandler = new HeartRateServiceRequestHandler(heartRateSensorListener);
-
-            startForegroundService(new Intent(this, BluetoothService.class));
-        } catch (SensorException e) {
-            e.printStackTrace();
-        }
-    }
-
-    @Override
-    protected void onStart() {
-        super.onStart();
-
-        bindService(new Intent(this, BluetoothService.class), connection, Context.BIND_AUTO_CREATE);
-    }
-
-    @Override
-    protected void onStop() {
-        super.onStop();
-
-        unbindService(connection);
+        startForegroundService(new Intent(this, BluetoothService.class));
     }
 
     @Override
@@ -114,10 +91,16 @@ public class MainActivity extends WearableActivity {
 
         IntentFilter intentFilter = new IntentFilter(HEART_RATE_CHANGE);
         registerReceiver(heartRateBroadcastReceiver, intentFilter);
+        bindService(new Intent(this, BluetoothService.class), serviceConnection, Context.BIND_AUTO_CREATE);
     }
 
     @Override
     protected void onPause() {
+        if (heartRateSensorController != null) {
+            heartRateSensorController.release(this);
+            heartRateSensorController = null;
+        }
+        unbindService(serviceConnection);
         unregisterReceiver(heartRateBroadcastReceiver);
         super.onPause();
     }
@@ -126,7 +109,6 @@ public class MainActivity extends WearableActivity {
     protected void onDestroy() {
         super.onDestroy();
         stopService(new Intent(this, BluetoothService.class));
-        heartRateSensorListener.stopMeasure();
     }
 
     /** Receiver to get current heart rate. */
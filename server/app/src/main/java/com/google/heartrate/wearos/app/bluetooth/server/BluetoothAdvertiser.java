@@ -1,16 +1,23 @@
 package com.google.heartrate.wearos.app.bluetooth.server;
 
+import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.le.AdvertiseCallback;
 import android.bluetooth.le.AdvertiseData;
 import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSet;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
 import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.bluetooth.le.PeriodicAdvertisingParameters;
 import android.content.Context;
 import android.os.ParcelUuid;
 import android.util.Log;
 
 import com.google.heartrate.wearos.app.bluetooth.BluetoothUtils;
 import com.google.heartrate.wearos.app.gatt.GattException;
+import com.google.heartrate.wearos.app.metrics.StartupTrace;
 
+import java.util.Arrays;
 import java.util.Set;
 import java.util.UUID;
 
@@ -23,18 +30,22 @@ import java.util.UUID;
  * <p>A server can use {@link BluetoothAdvertiser} to advertise its existence and show it's complete or partial
  * list of GATT services it offers.
  *
+ * <p>Besides connectable advertising, {@link BluetoothAdvertiser} can broadcast the latest value of a
+ * characteristic in advertising service data. Observers receive the value passively, without connecting
+ * to the server, so the number of listeners is not limited by the number of GATT connections.
  */
 public class BluetoothAdvertiser {
     private static final String TAG = BluetoothAdvertiser.class.getSimpleName();
 
-    /** {@link BluetoothAdvertiser} for advertising process. */
-    private final BluetoothLeAdvertiser bluetoothLeAdvertiser;
+    /** {@link BluetoothAdvertiser} for advertising process, obtained again after adapter restart. */
+    private BluetoothLeAdvertiser bluetoothLeAdvertiser;
 
     /** {@link AdvertiseCallback} to receive async responses from {@link BluetoothAdvertiser}. */
     private final AdvertiseCallback advertiseCallback = new AdvertiseCallback() {
         @Override
         public void onStartSuccess(AdvertiseSettings settingsInEffect) {
             Log.i(TAG, "BluetoothLE Advertise Started.");
+            startupTrace.mark(StartupTrace.Milestone.FIRST_ADVERTISEMENT);
         }
 
         @Override
@@ -43,8 +54,59 @@ public class BluetoothAdvertiser {
         }
     };
 
-    public BluetoothAdvertiser(Context context) throws GattException {
+    /** Periodic advertising interval in 1.25 ms units (1 second). */
+    private static final int PERIODIC_ADVERTISING_INTERVAL = 800;
+
+    /** Number of bytes appended to broadcast value when sequence number is included. */
+    private static final int SEQUENCE_NUMBER_SIZE = 1;
+
+    /** {@link BluetoothAdapter} to check supported advertising features. */
+    private final BluetoothAdapter bluetoothAdapter;
+
+    /** Service uuid to broadcast data for, null if broadcast is stopped. */
+    private UUID broadcastServiceUuid;
+
+    /** Whether sequence number is appended to broadcast value or not. */
+    private boolean broadcastSequenceNumberIncluded;
+
+    /** Sequence number of the last broadcast value. */
+    private int broadcastSequenceNumber;
+
+    /** Whether periodic advertising is used for broadcast or not. */
+    private boolean periodicAdvertisingEnabled;
+
+    /** {@link AdvertisingSet} for broadcast, null until advertising set is started. */
+    private AdvertisingSet broadcastAdvertisingSet;
+
+    /** Last broadcast payload, applied when {@link AdvertisingSet} is started. */
+    private byte[] broadcastPayload;
+
+    /** {@link AdvertisingSetCallback} to receive async responses about broadcast advertising set. */
+    private final AdvertisingSetCallback broadcastCallback = new AdvertisingSetCallback() {
+        @Override
+        public void onAdvertisingSetStarted(AdvertisingSet advertisingSet, int txPower, int status) {
+            if (status != AdvertisingSetCallback.ADVERTISE_SUCCESS) {
+                Log.e(TAG, String.format("BluetoothLE Broadcast Failed: %d", status));
+                return;
+            }
+            Log.i(TAG, String.format("BluetoothLE Broadcast Started. txPower=%d", txPower));
+            startupTrace.mark(StartupTrace.Milestone.FIRST_ADVERTISEMENT);
+            onBroadcastAdvertisingSetStarted(advertisingSet);
+        }
+
+        @Override
+        public void onAdvertisingSetStopped(AdvertisingSet advertisingSet) {
+            Log.i(TAG, "BluetoothLE Broadcast Stopped.");
+        }
+    };
+
+    /** {@link StartupTrace} to record first advertisement in. */
+    private final StartupTrace startupTrace;
+
+    public BluetoothAdvertiser(Context context, StartupTrace startupTrace) throws GattException {
+        this.startupTrace = startupTrace;
         BluetoothUtils.assertBluetoothIsSupported(context);
+        bluetoothAdapter = BluetoothUtils.getBluetoothAdapter(context);
         bluetoothLeAdvertiser = BluetoothUtils.getBluetoothLeAdvertiser(context);
     }
 
@@ -97,4 +159,182 @@ public class BluetoothAdvertiser {
         stopAdvertisingServices();
         startAdvertisingServices(serviceUuids);
     }
+
+    /**
+     * Start broadcasting characteristic values of given service in advertising service data.
+     *
+     * <p>Extended advertising is used if controller supports it, and periodic advertising
+     * is additionally enabled if supported. Otherwise legacy non-connectable advertising is used.
+     *
+     * @param serviceUuid service uuid to put characteristic values in service data for
+     * @param includeSequenceNumber whether to append one byte sequence number to every broadcast value
+     */
+    public synchronized void startBroadcasting(UUID serviceUuid, boolean includeSequenceNumber) {
+        if (broadcastServiceUuid != null) {
+            Log.w(TAG, String.format("Broadcasting for service %s already started", broadcastServiceUuid));
+            return;
+        }
+        Log.d(TAG, String.format("Starting broadcasting for service %s", serviceUuid));
+
+        broadcastServiceUuid = serviceUuid;
+        broadcastSequenceNumberIncluded = includeSequenceNumber;
+        broadcastSequenceNumber = 0;
+        startBroadcastAdvertisingSet();
+    }
+
+    /**
+     * Start non-connectable advertising set for broadcast.
+     */
+    private void startBroadcastAdvertisingSet() {
+        boolean extendedAdvertisingSupported = bluetoothAdapter.isLeExtendedAdvertisingSupported();
+        periodicAdvertisingEnabled = extendedAdvertisingSupported
+                && bluetoothAdapter.isLePeriodicAdvertisingSupported();
+
+        AdvertisingSetParameters parameters = new AdvertisingSetParameters.Builder()
+                /* Extended advertising is not limited by 31 bytes of legacy advertising payload */
+                .setLegacyMode(!extendedAdvertisingSupported)
+                /* Observers do not connect, they only listen */
+                .setConnectable(false)
+                .setScannable(false)
+                .setInterval(AdvertisingSetParameters.INTERVAL_MEDIUM)
+                .setTxPowerLevel(AdvertisingSetParameters.TX_POWER_MEDIUM)
+                .build();
+
+        PeriodicAdvertisingParameters periodicParameters = periodicAdvertisingEnabled ?
+                new PeriodicAdvertisingParameters.Builder()
+                        .setInterval(PERIODIC_ADVERTISING_INTERVAL)
+                        .build() :
+                null;
+
+        AdvertiseData advertiseData = buildBroadcastData();
+
+        bluetoothLeAdvertiser.startAdvertisingSet(
+                parameters,
+                advertiseData,
+                /* no scan response */ null,
+                periodicParameters,
+                periodicAdvertisingEnabled ? advertiseData : null,
+                broadcastCallback);
+    }
+
+    /**
+     * Update broadcast service data with given characteristic value.
+     *
+     * @param serviceUuid service uuid the value belongs to
+     * @param value encoded characteristic value
+     */
+    public synchronized void updateBroadcastData(UUID serviceUuid, byte[] value) {
+        if (!serviceUuid.equals(broadcastServiceUuid) || value == null) {
+            return;
+        }
+
+        int payloadSize = value.length + (broadcastSequenceNumberIncluded ? SEQUENCE_NUMBER_SIZE : 0);
+        broadcastPayload = Arrays.copyOf(value, payloadSize);
+        if (broadcastSequenceNumberIncluded) {
+            broadcastSequenceNumber = (broadcastSequenceNumber + 1) & 0xFF;
+            broadcastPayload[value.length] = (byte) broadcastSequenceNumber;
+        }
+
+        if (broadcastAdvertisingSet != null) {
+            applyBroadcastData();
+        }
+    }
+
+    /**
+     * Stop broadcasting characteristic values.
+     */
+    public synchronized void stopBroadcasting() {
+        if (broadcastServiceUuid == null) {
+            return;
+        }
+        Log.d(TAG, "Stopping broadcasting");
+
+        bluetoothLeAdvertiser.stopAdvertisingSet(broadcastCallback);
+        broadcastServiceUuid = null;
+        broadcastAdvertisingSet = null;
+        broadcastPayload = null;
+    }
+
+    /**
+     * Forget started advertisements after Bluetooth adapter has been turned off,
+     * the stack stops them itself. Broadcast configuration is kept for {@link #onAdapterOn}.
+     */
+    public synchronized void onAdapterOff() {
+        broadcastAdvertisingSet = null;
+    }
+
+    /**
+     * Start advertising and restore broadcasting after Bluetooth adapter has been turned on.
+     *
+     * @param serviceUuids list of GATT services server offers
+     * @throws GattException if advertising is not available
+     */
+    public synchronized void onAdapterOn(Set<UUID> serviceUuids) throws GattException {
+        bluetoothLeAdvertiser = bluetoothAdapter.getBluetoothLeAdvertiser();
+        if (bluetoothLeAdvertiser == null) {
+            throw new GattException("Bluetooth advertising is not supported. Cannot get BluetoothLeAdvertiser.");
+        }
+
+        startAdvertisingServices(serviceUuids);
+        if (broadcastServiceUuid != null) {
+            Log.d(TAG, String.format("Restoring broadcasting for service %s", broadcastServiceUuid));
+            startBroadcastAdvertisingSet();
+        }
+    }
+
+    /**
+     * Determine whether characteristic values of given service are broadcast or not.
+     *
+     * @param serviceUuid service uuid to check
+     * @return true if broadcasting is started for given service, false otherwise
+     */
+    public synchronized boolean isBroadcasting(UUID serviceUuid) {
+        return serviceUuid.equals(broadcastServiceUuid);
+    }
+
+    /**
+     * Remember started {@link AdvertisingSet} and apply value, which may be received before start.
+     *
+     * @param advertisingSet started advertising set
+     */
+    private synchronized void onBroadcastAdvertisingSetStarted(AdvertisingSet advertisingSet) {
+        if (broadcastServiceUuid == null) {
+            return;
+        }
+        broadcastAdvertisingSet = advertisingSet;
+        if (broadcastPayload != null) {
+            applyBroadcastData();
+        }
+    }
+
+    /**
+     * Set current broadcast payload to advertising and, if enabled, periodic advertising data.
+     */
+    private void applyBroadcastData() {
+        AdvertiseData advertiseData = buildBroadcastData();
+
+        broadcastAdvertisingSet.setAdvertisingData(advertiseData);
+        if (periodicAdvertisingEnabled) {
+            broadcastAdvertisingSet.setPeriodicAdvertisingData(advertiseData);
+        }
+    }
+
+    /**
+     * Build advertising data with current broadcast payload as service data.
+     *
+     * @return advertising data to broadcast
+     */
+    private AdvertiseData buildBroadcastData() {
+        AdvertiseData.Builder advertiseData = new AdvertiseData.Builder()
+                /* Device name does not fit legacy payload together with service data */
+                .setIncludeDeviceName(false)
+                .setIncludeTxPowerLevel(false);
+
+        if (broadcastPayload != null) {
+            advertiseData.addServiceData(new ParcelUuid(broadcastServiceUuid), broadcastPayload);
+        } else {
+            advertiseData.addServiceUuid(new ParcelUuid(broadcastServiceUuid));
+        }
+        return advertiseData.build();
+    }
 }
@@ -0,0 +1,226 @@
+package com.google.heartrate.wearos.app.bluetooth.server;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link BluetoothDeviceLink} holds the state of connection with one remote device:
+ * link state, negotiated MTU, PHY and characteristic subscriptions.
+ *
+ * <p>Link state machine:
+ * <pre>
+ *  CONNECTED --(2M PHY requested)--> PHY_UPDATE_REQUESTED --(onPhyUpdate)--------> READY
+ *                                    PHY_UPDATE_REQUESTED --(onPhyUpdateFailed)--> READY on LE 1M PHY
+ *  CONNECTED --(2M PHY not supported)-------------------------------------------> READY
+ *  any state --(disconnect)--> DISCONNECTED
+ * </pre>
+ */
+public class BluetoothDeviceLink {
+    private static final String TAG = BluetoothDeviceLink.class.getSimpleName();
+
+    /** Default ATT MTU before MTU exchange. */
+    public static final int DEFAULT_MTU = 23;
+
+    /** Number of bytes of ATT notification header (opcode and attribute handle). */
+    private static final int ATT_NOTIFICATION_HEADER_SIZE = 3;
+
+    /** Maximum number of value bytes which fit into one notification before MTU exchange. */
+    public static final int DEFAULT_MAX_NOTIFICATION_PAYLOAD_SIZE = DEFAULT_MTU - ATT_NOTIFICATION_HEADER_SIZE;
+
+    /** State of link with remote device. */
+    public enum State {
+        CONNECTED,
+        PHY_UPDATE_REQUESTED,
+        READY,
+        DISCONNECTED
+    }
+
+    /** Remote device. */
+    private final BluetoothDevice device;
+
+    /** Current link state. */
+    private volatile State state = State.CONNECTED;
+
+    /** Negotiated ATT MTU. */
+    private volatile int mtu = DEFAULT_MTU;
+
+    /** Transmitter PHY in use. */
+    private volatile int txPhy = BluetoothDevice.PHY_LE_1M;
+
+    /** Receiver PHY in use. */
+    private volatile int rxPhy = BluetoothDevice.PHY_LE_1M;
+
+    /** Client Characteristic Configuration values written by device by characteristic instance. */
+    private final Map<BluetoothGattCharacteristic, byte[]> configurationByCharacteristic = new ConcurrentHashMap<>();
+
+    /** Number of notifications and indications handed over to stack for device. */
+    private volatile long sentCount;
+
+    /** Number of notifications and indications stack has failed to send to device. */
+    private volatile long failedCount;
+
+    BluetoothDeviceLink(BluetoothDevice device) {
+        this.device = device;
+    }
+
+    /**
+     * Move link from {@link State#CONNECTED} state after connection is established.
+     *
+     * @param phyUpdateRequested whether preferred PHY has been requested for the link or not
+     */
+    void onConnected(boolean phyUpdateRequested) {
+        setState(phyUpdateRequested ? State.PHY_UPDATE_REQUESTED : State.READY);
+    }
+
+    /**
+     * Save PHY in use and move link to {@link State#READY} if PHY update has been requested.
+     *
+     * @param txPhy transmitter PHY in use
+     * @param rxPhy receiver PHY in use
+     */
+    void onPhyUpdate(int txPhy, int rxPhy) {
+        this.txPhy = txPhy;
+        this.rxPhy = rxPhy;
+        if (state == State.PHY_UPDATE_REQUESTED) {
+            setState(State.READY);
+        }
+    }
+
+    /**
+     * Fall back to LE 1M PHY, which every LE device supports, after PHY update has failed,
+     * and move link to {@link State#READY} if PHY update has been requested.
+     */
+    void onPhyUpdateFailed() {
+        onPhyUpdate(BluetoothDevice.PHY_LE_1M, BluetoothDevice.PHY_LE_1M);
+    }
+
+    /**
+     * Save negotiated MTU.
+     *
+     * @param mtu new MTU
+     */
+    void onMtuChanged(int mtu) {
+        this.mtu = mtu;
+    }
+
+    /**
+     * Save Client Characteristic Configuration value written by device.
+     *
+     * @param characteristic configured characteristic
+     * @param value written configuration value
+     */
+    void onCharacteristicConfigurationChanged(BluetoothGattCharacteristic characteristic, byte[] value) {
+        if (Arrays.equals(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE, value)) {
+            configurationByCharacteristic.remove(characteristic);
+        } else {
+            configurationByCharacteristic.put(characteristic, value.clone());
+        }
+    }
+
+    /**
+     * Count notification or indication sent to device, written on event loop thread only.
+     *
+     * @param sent true if it has been handed over to stack, false if stack has failed to send it
+     */
+    void onCharacteristicChangedSent(boolean sent) {
+        if (sent) {
+            sentCount++;
+        } else {
+            failedCount++;
+        }
+    }
+
+    /**
+     * Move link to {@link State#DISCONNECTED} state.
+     */
+    void onDisconnected() {
+        setState(State.DISCONNECTED);
+    }
+
+    private void setState(State newState) {
+        Log.d(TAG, String.format("Device %s link state %s -> %s", device.getAddress(), state, newState));
+        state = newState;
+    }
+
+    public BluetoothDevice getDevice() {
+        return device;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getSentCount() {
+        return sentCount;
+    }
+
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    public int getTxPhy() {
+        return txPhy;
+    }
+
+    public int getRxPhy() {
+        return rxPhy;
+    }
+
+    /**
+     * Determine whether link uses LE 2M PHY in both directions or not.
+     *
+     * @return true if LE 2M PHY is used, false otherwise
+     */
+    public boolean isLe2MPhy() {
+        return txPhy == BluetoothDevice.PHY_LE_2M && rxPhy == BluetoothDevice.PHY_LE_2M;
+    }
+
+    /**
+     * Get maximum number of value bytes which fit into one notification for current MTU.
+     *
+     * @return maximum notification payload size
+     */
+    public int getMaxNotificationPayloadSize() {
+        return mtu - ATT_NOTIFICATION_HEADER_SIZE;
+    }
+
+    /**
+     * Determine whether device has enabled notifications or indications for given characteristic or not.
+     *
+     * @param characteristic characteristic to check
+     * @return true if device is subscribed to characteristic, false otherwise
+     */
+    public boolean isSubscribed(BluetoothGattCharacteristic characteristic) {
+        return configurationByCharacteristic.containsKey(characteristic);
+    }
+
+    /**
+     * Determine whether device has enabled indications for given characteristic or not.
+     *
+     * @param characteristic characteristic to check
+     * @return true if device has written {@link BluetoothGattDescriptor#ENABLE_INDICATION_VALUE}, false otherwise
+     */
+    public boolean isIndicationEnabled(BluetoothGattCharacteristic characteristic) {
+        byte[] value = configurationByCharacteristic.get(characteristic);
+        return value != null && Arrays.equals(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE, value);
+    }
+
+    /**
+     * Determine whether device has enabled notifications or indications for any characteristic or not.
+     *
+     * @return true if device is subscribed to at least one characteristic, false otherwise
+     */
+    public boolean hasSubscriptions() {
+        return !configurationByCharacteristic.isEmpty();
+    }
+}
@@ -0,0 +1,89 @@
+package com.google.heartrate.wearos.app.bluetooth.server;
+
+import android.bluetooth.BluetoothDevice;
+import android.util.Log;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of {@link BluetoothDeviceLink} for all devices connected to {@link BluetoothServer}.
+ */
+public class BluetoothDeviceLinkRegistry {
+    private static final String TAG = BluetoothDeviceLinkRegistry.class.getSimpleName();
+
+    /** Links by connected device. */
+    private final Map<BluetoothDevice, BluetoothDeviceLink> linkByDevice = new ConcurrentHashMap<>();
+
+    /**
+     * Create link for connected device.
+     *
+     * @param device connected device
+     * @return link for given device
+     */
+    BluetoothDeviceLink addLink(BluetoothDevice device) {
+        Log.d(TAG, String.format("Add link for device %s", device.getAddress()));
+        BluetoothDeviceLink link = new BluetoothDeviceLink(device);
+        linkByDevice.put(device, link);
+        return link;
+    }
+
+    /**
+     * Remove link of disconnected device.
+     *
+     * @param device disconnected device
+     */
+    void removeLink(BluetoothDevice device) {
+        Log.d(TAG, String.format("Remove link for device %s", device.getAddress()));
+        BluetoothDeviceLink link = linkByDevice.remove(device);
+        if (link != null) {
+            link.onDisconnected();
+        }
+    }
+
+    /**
+     * Remove links of all devices.
+     */
+    void removeAllLinks() {
+        Log.d(TAG, String.format("Remove all %d links", linkByDevice.size()));
+        for (BluetoothDeviceLink link : linkByDevice.values()) {
+            link.onDisconnected();
+        }
+        linkByDevice.clear();
+    }
+
+    /**
+     * Get link for given device.
+     *
+     * @param device remote device
+     * @return link for given device or null if device is not connected
+     */
+    public BluetoothDeviceLink getLink(BluetoothDevice device) {
+        return linkByDevice.get(device);
+    }
+
+    /**
+     * Get links of all connected devices.
+     *
+     * @return links of all connected devices
+     */
+    public Collection<BluetoothDeviceLink> getAllLinks() {
+        return linkByDevice.values();
+    }
+
+    /**
+     * Get number of connected devices subscribed to at least one characteristic.
+     *
+     * @return number of subscribed devices
+     */
+    public int getSubscribedLinkCount() {
+        int count = 0;
+        for (BluetoothDeviceLink link : linkByDevice.values()) {
+            if (link.hasSubscriptions()) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
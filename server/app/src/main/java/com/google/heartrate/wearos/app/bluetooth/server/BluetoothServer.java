@@ -11,14 +11,26 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.google.heartrate.wearos.app.bluetooth.BluetoothUtils;
 import com.google.heartrate.wearos.app.bluetooth.server.handlers.GattServiceRequestHandler;
 import com.google.heartrate.wearos.app.bluetooth.server.handlers.GattRequestHandlerRegistry;
+import com.google.heartrate.wearos.app.bluetooth.server.handlers.GenericAttributeServiceRequestHandler;
+import com.google.heartrate.wearos.app.bluetooth.server.notifiers.NotificationScheduler;
 import com.google.heartrate.wearos.app.gatt.GattException;
-
-import java.util.HashMap;
+import com.google.heartrate.wearos.app.gatt.generic.service.GenericAttributeGattService;
+import com.google.heartrate.wearos.app.metrics.MetricsRegistry;
+import com.google.heartrate.wearos.app.metrics.StartupTrace;
+import com.google.heartrate.wearos.app.power.WakeLockScheduler;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -29,6 +41,25 @@ import java.util.UUID;
  * <p>{@link BluetoothServer} provides base request handling. To make {@link BluetoothServer}
  * compatible with all service type, all specific request handling process must be implemented in
  * {@link GattServiceRequestHandler}.
+ *
+ * <p>All GATT state is owned by {@link GattEventLoop} thread. Public methods post their work
+ * to event loop, so they can be invoked from any thread. Lifecycle events, e.g. service registration,
+ * adapter state and connection state changes, are posted as control events, so full mailbox does not drop them.
+ *
+ * <p>When Bluetooth adapter is turned off, {@link BluetoothGattServer} is closed. When adapter is
+ * turned on again, new {@link BluetoothGattServer} is opened, all registered services are added
+ * one by one and advertising is restored. Time from adapter on to the last service added
+ * is reported as recovery time.
+ *
+ * <p>Server hosts Generic Attribute service with Service Changed and Database Hash characteristics.
+ * Hash is updated when service is added or removed and all handlers are notified about it,
+ * so clients which have cached attribute database skip discovery while it does not change.
+ * Generic Attribute service is not advertised.
+ *
+ * <p>Server may host several instances of a service with the same UUID, e.g. heart rate of watch sensor
+ * and of a paired chest strap. Handlers are kept by service instance, so every instance has its own
+ * characteristics, notifier and subscribers. Notifiers of all instances share one {@link NotificationScheduler}.
+ * Only the first registered instance of a service is broadcast, as advertising data has one value per service UUID.
  */
 public class BluetoothServer implements GattRequestHandlerRegistry {
     private static final String TAG = BluetoothServer.class.getSimpleName();
@@ -36,15 +67,83 @@ public class BluetoothServer implements GattRequestHandlerRegistry {
     /** Application context. */
     private final Context context;
 
-    /** Service request handlers services hosted in bluetooth gatt server. */
-    public final HashMap<UUID, GattServiceRequestHandler> gattRequestHandlerByServiceUuid = new HashMap<>();
+    /**
+     * Service request handlers by service instance hosted in bluetooth gatt server, in order they were registered,
+     * accessed on event loop only.
+     */
+    public final LinkedHashMap<BluetoothGattService, GattServiceRequestHandler> gattRequestHandlerByService =
+            new LinkedHashMap<>();
+
+    /** {@link BluetoothGattServer} for bluetooth interaction, null while adapter is off. */
+    private BluetoothGattServer bluetoothGattServer;
+
+    /** Callback of {@link BluetoothGattServer}, reused when server is opened again. */
+    private final BluetoothServerCallback bluetoothServerCallback;
+
+    /** Services waiting to be added, {@link BluetoothGattServer} adds one service at a time. */
+    private final Deque<BluetoothGattService> pendingServices = new ArrayDeque<>();
+
+    /** Service which is being added to {@link BluetoothGattServer}, null if there is none. */
+    private BluetoothGattService serviceBeingAdded;
+
+    /** Whether Bluetooth adapter is on or not. */
+    private boolean adapterOn = true;
 
-    /** {@link BluetoothGattServer} for bluetooth interaction. */
-    private final BluetoothGattServer bluetoothGattServer;
+    /** Whether server is being restored after adapter has been turned on or not. */
+    private boolean recovering;
+
+    /** Time when Bluetooth adapter has been turned on last time. */
+    private long adapterOnAtMs;
+
+    /** Time from adapter on to server restored for the last recovery, -1 if there was none. */
+    private volatile long lastRecoveryTimeMs = -1;
+
+    /** Number of completed recoveries. */
+    private volatile int recoveryCount;
 
     /** {@link BluetoothAdvertiser} for bluetooth advertising. */
     private final BluetoothAdvertiser bluetoothAdvertiser;
 
+    /** {@link BluetoothAdapter} to check supported link features. */
+    private final BluetoothAdapter bluetoothAdapter;
+
+    /** {@link WakeLockScheduler} to keep CPU awake while notifications are being sent. */
+    final WakeLockScheduler wakeLockScheduler;
+
+    /** {@link StartupTrace} to record startup milestones in. */
+    final StartupTrace startupTrace;
+
+    /** {@link MetricsRegistry} to count requests, errors and notifications in. */
+    final MetricsRegistry metrics;
+
+    /** Counters of notifications and indications sent to all devices, per device counts are kept in links. */
+    private final MetricsRegistry.Counter notificationSentCounter;
+    private final MetricsRegistry.Counter notificationFailedCounter;
+    private final MetricsRegistry.Counter indicationSentCounter;
+    private final MetricsRegistry.Counter indicationFailedCounter;
+
+    /** Counters of responses to read and write requests. */
+    private final MetricsRegistry.Counter responseErrorCounter;
+    private final MetricsRegistry.Counter responseFailedCounter;
+
+    /** Event loop to process callbacks and requests on. */
+    final GattEventLoop eventLoop = new GattEventLoop();
+
+    /** Scheduler of notifications shared by notifiers of all hosted services. */
+    final NotificationScheduler notificationScheduler;
+
+    /** Client Characteristic Configuration values of bonded devices. */
+    final BondedSubscriptionStore subscriptionStore;
+
+    /** Links of all connected devices. */
+    final BluetoothDeviceLinkRegistry deviceLinkRegistry = new BluetoothDeviceLinkRegistry();
+
+    /** Indications waiting for confirmation by device. */
+    final IndicationTracker indicationTracker;
+
+    /** Hash of services added to {@link BluetoothGattServer}. */
+    final DatabaseHash databaseHash = new DatabaseHash();
+
     /** Receiver to control {@link BluetoothAdapter} state. */
     private final BroadcastReceiver bluetoothReceiver = new BroadcastReceiver() {
         @Override
@@ -54,26 +153,72 @@ public class BluetoothServer implements GattRequestHandlerRegistry {
                 case BluetoothAdapter.STATE_ON:
                     Log.d(TAG, "BluetoothAdapter state: ON");
 
-                    start();
+                    eventLoop.postControl(BluetoothServer.this::onAdapterOn);
                     break;
                 case BluetoothAdapter.STATE_OFF:
                     Log.d(TAG, "BluetoothAdapter state: OFF");
 
-                    stop();
+                    eventLoop.postControl(BluetoothServer.this::onAdapterOff);
                     break;
                 default:
             }
         }
     };
 
-    public BluetoothServer(Context context) throws GattException {
+    public BluetoothServer(Context context, WakeLockScheduler wakeLockScheduler, StartupTrace startupTrace,
+                           MetricsRegistry metrics) throws GattException {
         this.context = context;
+        this.wakeLockScheduler = wakeLockScheduler;
+        this.startupTrace = startupTrace;
+        this.metrics = metrics;
+        notificationSentCounter = metrics.counter("notification.sent");
+        notificationFailedCounter = metrics.counter("notification.send_failed");
+        indicationSentCounter = metrics.counter("indication.sent");
+        indicationFailedCounter = metrics.counter("indication.send_failed");
+        responseErrorCounter = metrics.counter("response.error");
+        responseFailedCounter = metrics.counter("response.failed");
+        notificationScheduler = new NotificationScheduler(wakeLockScheduler, eventLoop);
+        indicationTracker = new IndicationTracker(
+                (device, characteristic) -> sendCharacteristicChanged(device, characteristic, /* confirm */ true),
+                this::onIndicationConfirmed, this::onIndicationLinkFailed, wakeLockScheduler, eventLoop, metrics);
+        registerGauges();
 
         BluetoothUtils.assertBluetoothIsSupported(this.context);
-        bluetoothAdvertiser = new BluetoothAdvertiser(this.context);
+        bluetoothAdapter = BluetoothUtils.getBluetoothAdapter(this.context);
+        bluetoothAdvertiser = new BluetoothAdvertiser(this.context, startupTrace);
+        subscriptionStore = new BondedSubscriptionStore(this.context);
+        eventLoop.start();
+
+        bluetoothServerCallback = new BluetoothServerCallback(this);
+        try {
+            bluetoothGattServer = BluetoothUtils.getBluetoothGattServer(this.context, bluetoothServerCallback);
+        } catch (GattException e) {
+            /* Server is not returned to be closed, so its loop thread must not outlive it */
+            eventLoop.quitSafely();
+            throw e;
+        }
+        startupTrace.mark(StartupTrace.Milestone.GATT_SERVER_OPENED);
+
+        registerGattServiceHandler(new GenericAttributeServiceRequestHandler(this.context));
+    }
 
-        BluetoothServerCallback mBluetoothServerCallback = new BluetoothServerCallback(this);
-        bluetoothGattServer = BluetoothUtils.getBluetoothGattServer(this.context, mBluetoothServerCallback);
+    private void registerGauges() {
+        metrics.gauge("devices.connected", () -> deviceLinkRegistry.getAllLinks().size());
+        metrics.gauge("devices.subscribed", deviceLinkRegistry::getSubscribedLinkCount);
+        metrics.gauge("gatt.mailbox.depth", eventLoop::getMailboxDepth);
+        metrics.gauge("gatt.mailbox.max_depth", eventLoop::getMaxMailboxDepth);
+        metrics.gauge("gatt.events.rejected", eventLoop::getRejectedEventCount);
+        metrics.gauge("gatt.recovery.count", () -> recoveryCount);
+        metrics.gauge("gatt.recovery.last_time_ms", () -> lastRecoveryTimeMs);
+    }
+
+    /**
+     * Count failed request by its GATT status.
+     *
+     * @param e exception request has failed with
+     */
+    void countGattError(GattException e) {
+        metrics.increment("gatt.error.status." + e.getStatus());
     }
 
     /**
@@ -84,7 +229,7 @@ public class BluetoothServer implements GattRequestHandlerRegistry {
      * @throws GattException if service not hosted in server
      */
     GattServiceRequestHandler getGattServiceRequestHandler(BluetoothGattService service) throws GattException {
-        GattServiceRequestHandler gattService = gattRequestHandlerByServiceUuid.get(service.getUuid());
+        GattServiceRequestHandler gattService = gattRequestHandlerByService.get(service);
         if (gattService == null) {
             throw new GattException(String.format("Service %s not supported", service.getUuid()),BluetoothGatt.GATT_REQUEST_NOT_SUPPORTED);
         }
@@ -113,6 +258,44 @@ public class BluetoothServer implements GattRequestHandlerRegistry {
         return getGattServiceRequestHandler(descriptor.getCharacteristic());
     }
 
+    /**
+     * Get gatt service request handler for given instance of service.
+     *
+     * @param serviceUuid uuid of service
+     * @param serviceInstance index of service among hosted services with the same uuid, see {@link #getServiceInstance}
+     * @return gatt service request handler or null if there is no such instance
+     */
+    GattServiceRequestHandler getGattServiceRequestHandler(UUID serviceUuid, int serviceInstance) {
+        int instance = 0;
+        for (GattServiceRequestHandler requestHandler : gattRequestHandlerByService.values()) {
+            if (requestHandler.getBluetoothGattService().getUuid().equals(serviceUuid)
+                    && instance++ == serviceInstance) {
+                return requestHandler;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get index of service among hosted services with the same uuid, in order they were registered.
+     * Index of instance changes only if instance registered before it is unregistered.
+     *
+     * @param service hosted service
+     * @return service instance, 0 for the first or the only instance
+     */
+    int getServiceInstance(BluetoothGattService service) {
+        int instance = 0;
+        for (BluetoothGattService hostedService : gattRequestHandlerByService.keySet()) {
+            if (hostedService == service) {
+                break;
+            }
+            if (hostedService.getUuid().equals(service.getUuid())) {
+                instance++;
+            }
+        }
+        return instance;
+    }
+
     /**
      * {@link GattRequestHandlerRegistry#registerGattServiceHandler}
      * Register given gatt service request handler in server.
@@ -121,15 +304,26 @@ public class BluetoothServer implements GattRequestHandlerRegistry {
      * @param requestHandler gatt service request handler to register
      */
     public void registerGattServiceHandler(GattServiceRequestHandler requestHandler) {
+        eventLoop.postControl(() -> addGattServiceHandler(requestHandler));
+    }
+
+    private void addGattServiceHandler(GattServiceRequestHandler requestHandler) {
         BluetoothGattService gattService = requestHandler.getBluetoothGattService();
 
-        if (!gattRequestHandlerByServiceUuid.containsKey(gattService.getUuid())) {
+        if (!gattRequestHandlerByService.containsKey(gattService)) {
+            /* Service is not hosted yet, so its instance is the number of hosted services with the same uuid. */
+            int serviceInstance = getServiceInstance(gattService);
+            if (serviceInstance > BondedSubscriptionStore.MAX_SERVICE_INSTANCE) {
+                Log.e(TAG, String.format("Can not register service %s: instance %d exceeds maximum %d",
+                        gattService.getUuid(), serviceInstance, BondedSubscriptionStore.MAX_SERVICE_INSTANCE));
+                return;
+            }
             Log.d(TAG, String.format("Register gatt service handler for service %s", gattService.getUuid()));
 
-            bluetoothGattServer.addService(gattService);
-            gattRequestHandlerByServiceUuid.put(gattService.getUuid(), requestHandler);
+            gattRequestHandlerByService.put(gattService, requestHandler);
+            queueService(gattService);
 
-            bluetoothAdvertiser.restartAdvertisingServices(gattRequestHandlerByServiceUuid.keySet());
+            bluetoothAdvertiser.restartAdvertisingServices(getAdvertisedServiceUuids());
         }
     }
 
@@ -140,40 +334,302 @@ public class BluetoothServer implements GattRequestHandlerRegistry {
      * @param requestHandler gatt service request handler to unregister
      */
     public void unregisterGattServiceHandler(GattServiceRequestHandler requestHandler) {
+        eventLoop.postControl(() -> removeGattServiceHandler(requestHandler));
+    }
+
+    private void removeGattServiceHandler(GattServiceRequestHandler requestHandler) {
         BluetoothGattService gattService = requestHandler.getBluetoothGattService();
 
-        if (gattRequestHandlerByServiceUuid.containsKey(gattService.getUuid())) {
+        if (gattRequestHandlerByService.containsKey(gattService)) {
             Log.d(TAG, String.format("Unregister gatt service handler for service %s", gattService.getUuid()));
 
-            bluetoothGattServer.removeService(gattService);
-            gattRequestHandlerByServiceUuid.remove(gattService.getUuid());
+            pendingServices.remove(gattService);
+            if (bluetoothGattServer != null) {
+                bluetoothGattServer.removeService(gattService);
+            }
+            gattRequestHandlerByService.remove(gattService);
+            if (databaseHash.removeService(gattService)) {
+                onDatabaseChanged();
+            }
+
+            bluetoothAdvertiser.restartAdvertisingServices(getAdvertisedServiceUuids());
+        }
+    }
+
+    /**
+     * Get uuids of registered services to advertise.
+     *
+     * @return uuids of registered services except Generic Attribute service
+     */
+    private Set<UUID> getAdvertisedServiceUuids() {
+        Set<UUID> serviceUuids = new HashSet<>();
+        for (BluetoothGattService service : gattRequestHandlerByService.keySet()) {
+            serviceUuids.add(service.getUuid());
+        }
+        serviceUuids.remove(GenericAttributeGattService.GENERIC_ATTRIBUTE_SERVICE_UUID);
+        return serviceUuids;
+    }
+
+    /**
+     * Queue service to be added to {@link BluetoothGattServer} after previously queued services.
+     *
+     * @param gattService service to add
+     */
+    private void queueService(BluetoothGattService gattService) {
+        pendingServices.add(gattService);
+        addNextService();
+    }
+
+    private void addNextService() {
+        if (serviceBeingAdded != null || bluetoothGattServer == null) {
+            return;
+        }
+        serviceBeingAdded = pendingServices.poll();
+        if (serviceBeingAdded == null) {
+            if (recovering) {
+                onRecoveryFinished();
+            }
+            return;
+        }
+
+        Log.d(TAG, String.format("Adding service %s", serviceBeingAdded.getUuid()));
+        if (!bluetoothGattServer.addService(serviceBeingAdded)) {
+            Log.e(TAG, String.format("Adding service %s has failed!", serviceBeingAdded.getUuid()));
+            serviceBeingAdded = null;
+            addNextService();
+        }
+    }
+
+    /**
+     * Update database hash and add next queued service after {@link BluetoothGattServer} has added previous one.
+     *
+     * @param status status of service addition
+     * @param gattService added service with handles assigned by stack
+     */
+    void onServiceAdded(int status, BluetoothGattService gattService) {
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            Log.e(TAG, String.format("Service %s is not added, status %d", gattService.getUuid(), status));
+        } else if (gattRequestHandlerByService.containsKey(gattService)) {
+            databaseHash.addService(gattService);
+            onDatabaseChanged();
+        }
+        serviceBeingAdded = null;
+        addNextService();
+    }
+
+    /**
+     * Notify all handlers about new hash of services hosted in server.
+     */
+    private void onDatabaseChanged() {
+        byte[] hash = databaseHash.getValue();
+        for (GattServiceRequestHandler requestHandler : gattRequestHandlerByService.values()) {
+            requestHandler.onDatabaseChanged(hash);
+        }
+    }
+
+    /**
+     * Close {@link BluetoothGattServer} after Bluetooth adapter has been turned off.
+     * All connections are lost, so handlers are notified as if their services were removed.
+     */
+    private void onAdapterOff() {
+        if (!adapterOn) {
+            return;
+        }
+        Log.i(TAG, "Bluetooth adapter is off, closing GATT server");
+        adapterOn = false;
+        recovering = false;
+
+        for (GattServiceRequestHandler requestHandler : gattRequestHandlerByService.values()) {
+            requestHandler.onServiceRemoved();
+        }
+        removeAllLinks();
+        indicationTracker.removeAllDevices();
+        pendingServices.clear();
+        serviceBeingAdded = null;
+        databaseHash.clear();
+        if (bluetoothGattServer != null) {
+            bluetoothGattServer.close();
+            bluetoothGattServer = null;
+        }
+        bluetoothAdvertiser.onAdapterOff();
+    }
+
+    /**
+     * Open new {@link BluetoothGattServer} after Bluetooth adapter has been turned on,
+     * add all registered services to it and restore advertising.
+     */
+    private void onAdapterOn() {
+        if (adapterOn) {
+            return;
+        }
+        Log.i(TAG, "Bluetooth adapter is on, restoring GATT server");
+        adapterOn = true;
+        adapterOnAtMs = SystemClock.elapsedRealtime();
+
+        try {
+            bluetoothGattServer = BluetoothUtils.getBluetoothGattServer(context, bluetoothServerCallback);
+            bluetoothAdvertiser.onAdapterOn(getAdvertisedServiceUuids());
+        } catch (GattException e) {
+            Log.e(TAG, String.format("Restoring GATT server failed with exception %s", e.getMessage()));
+            return;
+        }
 
-            bluetoothAdvertiser.restartAdvertisingServices(gattRequestHandlerByServiceUuid.keySet());
+        recovering = true;
+        for (GattServiceRequestHandler requestHandler : gattRequestHandlerByService.values()) {
+            pendingServices.add(requestHandler.getBluetoothGattService());
         }
+        addNextService();
+    }
+
+    private void onRecoveryFinished() {
+        recovering = false;
+        recoveryCount++;
+        lastRecoveryTimeMs = SystemClock.elapsedRealtime() - adapterOnAtMs;
+        Log.i(TAG, String.format("GATT server restored in %d ms", lastRecoveryTimeMs));
+    }
+
+    /**
+     * Get time from Bluetooth adapter on to all services added for the last server recovery.
+     *
+     * @return recovery time (milliseconds) or -1 if server has not been restored yet
+     */
+    public long getLastRecoveryTimeMs() {
+        return lastRecoveryTimeMs;
     }
 
     /**
      * Start advertising process to advertise server existence.
      */
     public void start() {
+        eventLoop.postControl(this::startOnEventLoop);
+    }
+
+    private void startOnEventLoop() {
         Log.v(TAG, "Starting bluetooth server");
 
         registerReceiver();
-        bluetoothAdvertiser.startAdvertisingServices(gattRequestHandlerByServiceUuid.keySet());
+        bluetoothAdvertiser.startAdvertisingServices(getAdvertisedServiceUuids());
     }
 
     /**
      * Stop server interaction with all connected clients.
      */
     public void stop() {
+        eventLoop.postControl(this::stopOnEventLoop);
+    }
+
+    /**
+     * Remove links of all devices and close awake windows of notifications, which will never be reported sent.
+     */
+    private void removeAllLinks() {
+        for (BluetoothDeviceLink link : deviceLinkRegistry.getAllLinks()) {
+            wakeLockScheduler.releaseAll(link.getDevice());
+        }
+        deviceLinkRegistry.removeAllLinks();
+    }
+
+    private void stopOnEventLoop() {
         Log.d(TAG, "Stopping bluetooth server");
 
         unregisterReceiver();
-        for (GattServiceRequestHandler requestHandler : gattRequestHandlerByServiceUuid.values()) {
+        for (GattServiceRequestHandler requestHandler : gattRequestHandlerByService.values()) {
             requestHandler.onServiceRemoved();
         }
-        bluetoothGattServer.close();
-        bluetoothAdvertiser.stopAdvertisingServices();
+        removeAllLinks();
+        indicationTracker.removeAllDevices();
+        if (bluetoothGattServer != null) {
+            bluetoothGattServer.close();
+            bluetoothGattServer = null;
+        }
+        if (adapterOn) {
+            bluetoothAdvertiser.stopAdvertisingServices();
+            bluetoothAdvertiser.stopBroadcasting();
+        }
+    }
+
+    /**
+     * Stop server and quit its event loop after all pending events are processed.
+     * Server can not be started again after close.
+     */
+    public void close() {
+        stop();
+        eventLoop.quitSafely();
+    }
+
+    /**
+     * Print server metrics.
+     *
+     * @param writer writer to print metrics to
+     */
+    public void dump(PrintWriter writer) {
+        eventLoop.dump(writer);
+        for (BluetoothDeviceLink link : deviceLinkRegistry.getAllLinks()) {
+            writer.println(String.format("Device %s: %d sent, %d failed notifications and indications",
+                    link.getDevice().getAddress(), link.getSentCount(), link.getFailedCount()));
+        }
+    }
+
+    /**
+     * Start broadcasting characteristic values of given service to observers
+     * which do not connect to server.
+     *
+     * @param serviceUuid service to broadcast characteristic values for
+     * @param includeSequenceNumber whether to append sequence number to broadcast values
+     */
+    public void startBroadcasting(UUID serviceUuid, boolean includeSequenceNumber) {
+        Log.d(TAG, String.format("Start broadcasting service %s", serviceUuid));
+
+        eventLoop.postControl(() -> {
+            bluetoothAdvertiser.startBroadcasting(serviceUuid, includeSequenceNumber);
+            onBroadcastingChanged();
+        });
+    }
+
+    /**
+     * Stop broadcasting characteristic values.
+     */
+    public void stopBroadcasting() {
+        Log.d(TAG, "Stop broadcasting");
+
+        eventLoop.postControl(() -> {
+            bluetoothAdvertiser.stopBroadcasting();
+            onBroadcastingChanged();
+        });
+    }
+
+    /**
+     * Notify all handlers that broadcasting has been started or stopped.
+     */
+    private void onBroadcastingChanged() {
+        for (GattServiceRequestHandler requestHandler : gattRequestHandlerByService.values()) {
+            requestHandler.onBroadcastingChanged();
+        }
+    }
+
+    /**
+     * Hand indication confirmed by device over to handler of service characteristic belongs to.
+     *
+     * @param device device which has confirmed indication
+     * @param characteristic indicated characteristic
+     */
+    private void onIndicationConfirmed(BluetoothDevice device, BluetoothGattCharacteristic characteristic) {
+        GattServiceRequestHandler requestHandler = gattRequestHandlerByService.get(characteristic.getService());
+        if (requestHandler != null) {
+            requestHandler.onIndicationConfirmed(device, characteristic);
+        }
+    }
+
+    /**
+     * Disconnect device which has not confirmed indication in ATT transaction timeout,
+     * so it can connect again over a new link.
+     *
+     * @param device device with failed link
+     */
+    private void onIndicationLinkFailed(BluetoothDevice device) {
+        if (bluetoothGattServer != null) {
+            Log.w(TAG, String.format("Disconnect device %s after indication timeout", device.getAddress()));
+            bluetoothGattServer.cancelConnection(device);
+        }
     }
 
     /**
@@ -211,7 +667,9 @@ public class BluetoothServer implements GattRequestHandlerRegistry {
         Log.d(TAG, String.format("Sending response for request %d to device %s",
                 requestId, device.getAddress()));
 
-        if (!bluetoothGattServer.sendResponse(device, requestId, status, offset, value)) {
+        if (bluetoothGattServer == null
+                || !bluetoothGattServer.sendResponse(device, requestId, status, offset, value)) {
+            responseFailedCounter.increment();
             Log.e(TAG, String.format("Send response for request %d to device %s has failed!",
                     requestId, device.getAddress()));
         }
@@ -231,25 +689,98 @@ public class BluetoothServer implements GattRequestHandlerRegistry {
         Log.d(TAG, String.format("Sending error response for request %d to device %s",
                 requestId, device.getAddress()));
 
-        if (!bluetoothGattServer.sendResponse(device, requestId, status, 0, null)) {
+        responseErrorCounter.increment();
+        if (bluetoothGattServer == null
+                || !bluetoothGattServer.sendResponse(device, requestId, status, 0, null)) {
+            responseFailedCounter.increment();
             Log.e(TAG, String.format("Send error response for request %d to device %s has failed!",
                     requestId, device.getAddress()));
         } 
     }
 
+    /**
+     * Request LE 2M PHY for connection with given device if supported by adapter.
+     *
+     * <p>LE 2M PHY doubles the symbol rate, so the same payload takes half of the air time.
+     * The result of the request is received in {@link BluetoothServerCallback#onPhyUpdate}.
+     *
+     * @param device connected device
+     * @return true if PHY update has been requested, false if LE 2M PHY is not supported
+     */
+    boolean requestLe2MPhy(BluetoothDevice device) {
+        if (bluetoothGattServer == null || !bluetoothAdapter.isLe2MPhySupported()) {
+            Log.d(TAG, "LE 2M PHY is not supported");
+            return false;
+        }
+
+        Log.d(TAG, String.format("Requesting LE 2M PHY for device %s", device.getAddress()));
+        bluetoothGattServer.setPreferredPhy(device,
+                BluetoothDevice.PHY_LE_2M_MASK,
+                BluetoothDevice.PHY_LE_2M_MASK,
+                BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+        return true;
+    }
+
+    /**
+     * Broadcast changed characteristic value if broadcasting is started for characteristic's service instance.
+     *
+     * @param characteristic changed characteristic
+     */
+    void broadcastCharacteristicChanged(BluetoothGattCharacteristic characteristic) {
+        if (getServiceInstance(characteristic.getService()) == 0) {
+            bluetoothAdvertiser.updateBroadcastData(characteristic.getService().getUuid(), characteristic.getValue());
+        }
+    }
+
+    /**
+     * Determine whether characteristic values of given service instance are broadcast or not.
+     * Only the first instance of service is broadcast.
+     *
+     * @param service service instance to check
+     * @return true if broadcasting is started for given service instance, false otherwise
+     */
+    boolean isBroadcasting(BluetoothGattService service) {
+        return getServiceInstance(service) == 0 && bluetoothAdvertiser.isBroadcasting(service.getUuid());
+    }
+
     /**
      * Send a notification to remote device about characteristic changed.
      *
      * @param device device to notify
      * @param characteristic changed characteristic
+     * @return true if notification has been sent, false otherwise
      */
-    void notifyCharacteristicChanged(BluetoothDevice device, BluetoothGattCharacteristic characteristic) {
-        Log.d(TAG, String.format("Sending characteristic %s change notification response to device %s",
-                characteristic.getUuid(), device.getAddress()));
+    boolean notifyCharacteristicChanged(BluetoothDevice device, BluetoothGattCharacteristic characteristic) {
+        return sendCharacteristicChanged(device, characteristic, /* confirm */ false);
+    }
 
-        if (!bluetoothGattServer.notifyCharacteristicChanged(device, characteristic, false)) {
-            Log.e(TAG, String.format("Characteristic changed notification for device %s has failed!",
-                    device.getAddress()));
+    /**
+     * Send a notification or an indication to remote device about characteristic changed.
+     *
+     * @param device device to notify
+     * @param characteristic changed characteristic
+     * @param confirm true to request confirmation from device (indication), false otherwise (notification)
+     * @return true if notification has been sent, false otherwise
+     */
+    private boolean sendCharacteristicChanged(BluetoothDevice device, BluetoothGattCharacteristic characteristic,
+                                              boolean confirm) {
+        String kind = confirm ? "indication" : "notification";
+        Log.d(TAG, String.format("Sending characteristic %s change %s to device %s",
+                characteristic.getUuid(), kind, device.getAddress()));
+
+        boolean sent = bluetoothGattServer != null
+                && bluetoothGattServer.notifyCharacteristicChanged(device, characteristic, confirm);
+        BluetoothDeviceLink link = deviceLinkRegistry.getLink(device);
+        if (link != null) {
+            link.onCharacteristicChangedSent(sent);
+        }
+        if (!sent) {
+            Log.e(TAG, String.format("Characteristic changed %s for device %s has failed!",
+                    kind, device.getAddress()));
+            (confirm ? indicationFailedCounter : notificationFailedCounter).increment();
+            return false;
         }
+        (confirm ? indicationSentCounter : notificationSentCounter).increment();
+        return true;
     }
 }
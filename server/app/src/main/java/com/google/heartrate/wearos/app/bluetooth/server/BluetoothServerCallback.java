@@ -9,9 +9,14 @@ import android.bluetooth.BluetoothGattService;
 import android.util.Log;
 
 import com.google.heartrate.wearos.app.bluetooth.server.handlers.GattServiceRequestHandler;
+import com.google.heartrate.wearos.app.bluetooth.server.notifiers.NotificationScheduler;
 import com.google.heartrate.wearos.app.gatt.GattException;
+import com.google.heartrate.wearos.app.gatt.heartrate.descriptors.ClientCharacteristicConfigurationDescriptor;
+import com.google.heartrate.wearos.app.metrics.MetricsRegistry;
+import com.google.heartrate.wearos.app.metrics.StartupTrace;
 
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -19,6 +24,9 @@ import java.util.Set;
  *
  * <p>General-purpose for all read/write services attributes requests.
  * Redirects all request to special handler for each service.
+ *
+ * <p>Callbacks arrive on binder threads and are posted to {@link GattEventLoop} of server,
+ * so request handlers are always invoked on event loop thread.
  */
 public class BluetoothServerCallback extends BluetoothGattServerCallback {
     private static final String TAG = BluetoothServerCallback.class.getSimpleName();
@@ -26,17 +34,49 @@ public class BluetoothServerCallback extends BluetoothGattServerCallback {
     /** {@link BluetoothServer} to handle requests received from callback. */
     public final BluetoothServer bluetoothServer;
 
+    /** Devices value has been sent to by the last {@link #onCharacteristicChanged} call. */
+    private final Set<BluetoothDevice> sentDevices = new HashSet<>();
+
+    /** Counters of callbacks by callback method, callbacks arrive for every request and notification. */
+    private final MetricsRegistry.Counter connectionStateChangeCounter;
+    private final MetricsRegistry.Counter mtuChangedCounter;
+    private final MetricsRegistry.Counter phyUpdateCounter;
+    private final MetricsRegistry.Counter serviceAddedCounter;
+    private final MetricsRegistry.Counter notificationSentCounter;
+    private final MetricsRegistry.Counter characteristicReadRequestCounter;
+    private final MetricsRegistry.Counter characteristicWriteRequestCounter;
+    private final MetricsRegistry.Counter descriptorReadRequestCounter;
+    private final MetricsRegistry.Counter descriptorWriteRequestCounter;
+    private final MetricsRegistry.Counter characteristicChangedCounter;
+
     public BluetoothServerCallback(BluetoothServer bluetoothServer) {
         this.bluetoothServer = bluetoothServer;
+        connectionStateChangeCounter = bluetoothServer.metrics.counter("callback.onConnectionStateChange");
+        mtuChangedCounter = bluetoothServer.metrics.counter("callback.onMtuChanged");
+        phyUpdateCounter = bluetoothServer.metrics.counter("callback.onPhyUpdate");
+        serviceAddedCounter = bluetoothServer.metrics.counter("callback.onServiceAdded");
+        notificationSentCounter = bluetoothServer.metrics.counter("callback.onNotificationSent");
+        characteristicReadRequestCounter = bluetoothServer.metrics.counter("callback.onCharacteristicReadRequest");
+        characteristicWriteRequestCounter = bluetoothServer.metrics.counter("callback.onCharacteristicWriteRequest");
+        descriptorReadRequestCounter = bluetoothServer.metrics.counter("callback.onDescriptorReadRequest");
+        descriptorWriteRequestCounter = bluetoothServer.metrics.counter("callback.onDescriptorWriteRequest");
+        characteristicChangedCounter = bluetoothServer.metrics.counter("callback.onCharacteristicChanged");
     }
 
     /**
      * {@link BluetoothGattServerCallback#onConnectionStateChange}
      *
-     * <p>Notify all request handlers in service about received device connection state.
+     * <p>Create or remove {@link BluetoothDeviceLink} for device, request LE 2M PHY for new links
+     * and notify all request handlers in service about received device connection state.
+     * Subscriptions of bonded devices are restored right after connection.
      */
     @Override
     public void onConnectionStateChange(BluetoothDevice device, final int status, int newState) {
+        connectionStateChangeCounter.increment();
+        bluetoothServer.eventLoop.postControl(() -> handleConnectionStateChange(device, status, newState));
+    }
+
+    private void handleConnectionStateChange(BluetoothDevice device, int status, int newState) {
         Log.v(TAG, String.format("onConnectionStateChange() - device=%s status=%s state=%s",
                 device.getAddress(), status, newState));
 
@@ -47,17 +87,166 @@ public class BluetoothServerCallback extends BluetoothGattServerCallback {
 
         if (newState == BluetoothGatt.STATE_CONNECTED) {
             Log.d(TAG, "Status success. State connected");
-            for (GattServiceRequestHandler requestHandler : bluetoothServer.gattRequestHandlerByServiceUuid.values()) {
+            bluetoothServer.startupTrace.mark(StartupTrace.Milestone.FIRST_CONNECTION);
+            BluetoothDeviceLink link = bluetoothServer.deviceLinkRegistry.addLink(device);
+            link.onConnected(bluetoothServer.requestLe2MPhy(device));
+            for (GattServiceRequestHandler requestHandler : bluetoothServer.gattRequestHandlerByService.values()) {
                 requestHandler.onDeviceConnected(device);
             }
+            restoreSubscriptions(device, link);
         } else if (newState == BluetoothGatt.STATE_DISCONNECTED) {
             Log.d(TAG, "Status success. State disconnected");
-            for (GattServiceRequestHandler requestHandler : bluetoothServer.gattRequestHandlerByServiceUuid.values()) {
+            bluetoothServer.deviceLinkRegistry.removeLink(device);
+            bluetoothServer.indicationTracker.removeDevice(device);
+            /* Notifications to disconnected device will never be reported sent */
+            bluetoothServer.wakeLockScheduler.releaseAll(device);
+            sentDevices.remove(device);
+            for (GattServiceRequestHandler requestHandler : bluetoothServer.gattRequestHandlerByService.values()) {
                 requestHandler.onDeviceDisconnected(device);
             }
         }
     }
 
+    /**
+     * Restore Client Characteristic Configuration values saved for bonded device,
+     * as if device has written them again, so notifications resume without client round trip.
+     *
+     * <p>Subscriptions of devices which are not bonded anymore are forgotten.
+     *
+     * @param device connected device
+     * @param link link of connected device
+     */
+    private void restoreSubscriptions(BluetoothDevice device, BluetoothDeviceLink link) {
+        if (device.getBondState() != BluetoothDevice.BOND_BONDED) {
+            bluetoothServer.subscriptionStore.removeDevice(device.getAddress());
+            return;
+        }
+
+        for (BondedSubscriptionStore.Subscription subscription
+                : bluetoothServer.subscriptionStore.getSubscriptions(device.getAddress())) {
+            GattServiceRequestHandler requestHandler = bluetoothServer.getGattServiceRequestHandler(
+                    subscription.getServiceUuid(), subscription.getServiceInstance());
+            if (requestHandler == null) {
+                continue;
+            }
+            BluetoothGattCharacteristic characteristic = requestHandler.getBluetoothGattService()
+                    .getCharacteristic(subscription.getCharacteristicUuid());
+            BluetoothGattDescriptor descriptor = characteristic == null ? null : characteristic.getDescriptor(
+                    ClientCharacteristicConfigurationDescriptor.CLIENT_CHARACTERISTIC_CONFIGURATION_UUID);
+            if (descriptor == null) {
+                continue;
+            }
+
+            Log.d(TAG, String.format("Restore subscription of device %s to %s",
+                    device.getAddress(), subscription.getCharacteristicUuid()));
+            byte[] value = subscription.getValue();
+            try {
+                requestHandler.onDescriptorWrite(device, descriptor, 0, value);
+                link.onCharacteristicConfigurationChanged(characteristic, value);
+            } catch (GattException e) {
+                bluetoothServer.countGattError(e);
+                Log.e(TAG, String.format("Restore subscription failed with exception %s", e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * {@link BluetoothGattServerCallback#onMtuChanged}
+     *
+     * <p>Save negotiated MTU in device link and notify all request handlers about link update.
+     */
+    @Override
+    public void onMtuChanged(BluetoothDevice device, int mtu) {
+        mtuChangedCounter.increment();
+        bluetoothServer.eventLoop.postControl(() -> handleMtuChanged(device, mtu));
+    }
+
+    private void handleMtuChanged(BluetoothDevice device, int mtu) {
+        Log.v(TAG, String.format("onMtuChanged() - device=%s mtu=%d", device.getAddress(), mtu));
+
+        BluetoothDeviceLink link = bluetoothServer.deviceLinkRegistry.getLink(device);
+        if (link == null) {
+            return;
+        }
+        link.onMtuChanged(mtu);
+        onDeviceLinkUpdated(link);
+    }
+
+    /**
+     * {@link BluetoothGattServerCallback#onPhyUpdate}
+     *
+     * <p>Save PHY in use in device link, or LE 1M PHY if update has failed,
+     * and notify all request handlers about link update.
+     */
+    @Override
+    public void onPhyUpdate(BluetoothDevice device, int txPhy, int rxPhy, int status) {
+        phyUpdateCounter.increment();
+        bluetoothServer.eventLoop.postControl(() -> handlePhyUpdate(device, txPhy, rxPhy, status));
+    }
+
+    private void handlePhyUpdate(BluetoothDevice device, int txPhy, int rxPhy, int status) {
+        Log.v(TAG, String.format("onPhyUpdate() - device=%s txPhy=%d rxPhy=%d status=%d",
+                device.getAddress(), txPhy, rxPhy, status));
+
+        BluetoothDeviceLink link = bluetoothServer.deviceLinkRegistry.getLink(device);
+        if (link == null) {
+            return;
+        }
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            Log.w(TAG, String.format("PHY update for device %s failed with status %d, fall back to LE 1M PHY",
+                    device.getAddress(), status));
+            link.onPhyUpdateFailed();
+        } else {
+            link.onPhyUpdate(txPhy, rxPhy);
+        }
+        onDeviceLinkUpdated(link);
+    }
+
+    /**
+     * Notify all request handlers in service about device link update.
+     *
+     * @param link updated device link
+     */
+    private void onDeviceLinkUpdated(BluetoothDeviceLink link) {
+        for (GattServiceRequestHandler requestHandler : bluetoothServer.gattRequestHandlerByService.values()) {
+            requestHandler.onDeviceLinkUpdated(link);
+        }
+    }
+
+    /**
+     * Post request to event loop. If event loop rejects request, respond with error right away,
+     * so remote device does not wait for response until timeout.
+     *
+     * @param device device which has sent request
+     * @param requestId id of the request
+     * @param responseNeeded whether remote device waits for response or not
+     * @param request request handling to post
+     */
+    private void postRequest(BluetoothDevice device, int requestId, boolean responseNeeded, Runnable request) {
+        if (!bluetoothServer.eventLoop.post(request) && responseNeeded) {
+            bluetoothServer.sendErrorResponse(device, requestId, BluetoothGatt.GATT_FAILURE);
+        }
+    }
+
+    /**
+     * Get {@link GattEventLoop} all GATT state is owned by.
+     *
+     * @return server event loop
+     */
+    public GattEventLoop getEventLoop() {
+        return bluetoothServer.eventLoop;
+    }
+
+    /**
+     * Get link state of connected device.
+     *
+     * @param device connected device
+     * @return link of given device or null if device is not connected
+     */
+    public BluetoothDeviceLink getDeviceLink(BluetoothDevice device) {
+        return bluetoothServer.deviceLinkRegistry.getLink(device);
+    }
+
     /**
      * {@link BluetoothGattServerCallback#onServiceAdded}
      *
@@ -65,21 +254,68 @@ public class BluetoothServerCallback extends BluetoothGattServerCallback {
      */
     @Override
     public void onServiceAdded(int status, BluetoothGattService bluetoothGattService) {
+        serviceAddedCounter.increment();
+        bluetoothServer.eventLoop.postControl(() -> handleServiceAdded(status, bluetoothGattService));
+    }
+
+    private void handleServiceAdded(int status, BluetoothGattService bluetoothGattService) {
         Log.v(TAG, String.format("onServiceAdded() - status=%d", status));
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            bluetoothServer.startupTrace.mark(StartupTrace.Milestone.FIRST_SERVICE_ADDED);
+        }
+        bluetoothServer.onServiceAdded(status, bluetoothGattService);
         try {
             GattServiceRequestHandler requestHandler = bluetoothServer.getGattServiceRequestHandler(bluetoothGattService);
             requestHandler.onServiceAdded(this);
         } catch (GattException e) {
+            bluetoothServer.countGattError(e);
             Log.e(TAG, String.format("onServiceAdded() failed with exception %s", e.getMessage()));
         }
     }
 
     /**
      * {@link BluetoothGattServerCallback#onNotificationSent}
+     *
+     * <p>Close awake window opened for the notification in {@link #notifyDevice}.
+     * Confirmation of indication is handed over to {@link IndicationTracker}, which sends the next queued value.
      */
     @Override
     public void onNotificationSent(BluetoothDevice device, int status) {
+        notificationSentCounter.increment();
+        if (!bluetoothServer.eventLoop.post(() -> handleNotificationSent(device, status))) {
+            /* Awake window of notification would stay open until it times out */
+            bluetoothServer.wakeLockScheduler.release(device);
+        }
+    }
+
+    private void handleNotificationSent(BluetoothDevice device, int status) {
         Log.v(TAG, String.format("onNotificationSent() - status=%d", status));
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            bluetoothServer.startupTrace.mark(StartupTrace.Milestone.FIRST_NOTIFICATION);
+        }
+
+        if (!bluetoothServer.indicationTracker.onCompleted(device, status)) {
+            bluetoothServer.wakeLockScheduler.release(device);
+        }
+    }
+
+    /**
+     * Get {@link NotificationScheduler} shared by notifiers of all services hosted in server.
+     *
+     * @return server {@link NotificationScheduler}
+     */
+    public NotificationScheduler getNotificationScheduler() {
+        return bluetoothServer.notificationScheduler;
+    }
+
+    /**
+     * Determine whether characteristic values of given service instance are broadcast or not.
+     *
+     * @param service service instance to check
+     * @return true if broadcasting is started for given service instance, false otherwise
+     */
+    public boolean isBroadcasting(BluetoothGattService service) {
+        return bluetoothServer.isBroadcasting(service);
     }
 
     /**
@@ -94,6 +330,13 @@ public class BluetoothServerCallback extends BluetoothGattServerCallback {
     @Override
     public void onCharacteristicReadRequest(BluetoothDevice device, int requestId, int offset,
                                             BluetoothGattCharacteristic characteristic) {
+        characteristicReadRequestCounter.increment();
+        postRequest(device, requestId, true,
+                () -> handleCharacteristicReadRequest(device, requestId, offset, characteristic));
+    }
+
+    private void handleCharacteristicReadRequest(BluetoothDevice device, int requestId, int offset,
+                                                 BluetoothGattCharacteristic characteristic) {
         Log.v(TAG, String.format("onCharacteristicReadRequest() - device=%s characteristic=%s",
                 characteristic.getUuid(),
                 Arrays.toString(characteristic.getValue())));
@@ -103,6 +346,7 @@ public class BluetoothServerCallback extends BluetoothGattServerCallback {
 
             bluetoothServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, value);
         } catch (GattException e) {
+            bluetoothServer.countGattError(e);
             Log.e(TAG, String.format("onCharacteristicReadRequest() failed with exception %s", e.getMessage()));
             bluetoothServer.sendErrorResponse(device, requestId, e.getStatus());
         }
@@ -121,6 +365,14 @@ public class BluetoothServerCallback extends BluetoothGattServerCallback {
     public void onCharacteristicWriteRequest(BluetoothDevice device, int requestId,
                                              BluetoothGattCharacteristic characteristic, boolean preparedWrite, boolean responseNeeded,
                                              int offset, byte[] value) {
+        characteristicWriteRequestCounter.increment();
+        postRequest(device, requestId, responseNeeded, () -> handleCharacteristicWriteRequest(device, requestId,
+                characteristic, preparedWrite, responseNeeded, offset, value));
+    }
+
+    private void handleCharacteristicWriteRequest(BluetoothDevice device, int requestId,
+                                                  BluetoothGattCharacteristic characteristic, boolean preparedWrite,
+                                                  boolean responseNeeded, int offset, byte[] value) {
         Log.v(TAG, String.format("onCharacteristicWriteRequest() - device=%s characteristic=%s value=%s",
                 characteristic.getUuid(),
                 Arrays.toString(characteristic.getValue()),
@@ -133,6 +385,7 @@ public class BluetoothServerCallback extends BluetoothGattServerCallback {
                 bluetoothServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, 0, null);
             }
         } catch (GattException e) {
+            bluetoothServer.countGattError(e);
             if (responseNeeded) {
                 Log.e(TAG, String.format("onCharacteristicWriteRequest() failed with exception %s", e.getMessage()));
                 bluetoothServer.sendErrorResponse(device, requestId, e.getStatus());
@@ -152,6 +405,13 @@ public class BluetoothServerCallback extends BluetoothGattServerCallback {
     @Override
     public void onDescriptorReadRequest(BluetoothDevice device, int requestId, int offset,
                                         BluetoothGattDescriptor descriptor) {
+        descriptorReadRequestCounter.increment();
+        postRequest(device, requestId, true,
+                () -> handleDescriptorReadRequest(device, requestId, offset, descriptor));
+    }
+
+    private void handleDescriptorReadRequest(BluetoothDevice device, int requestId, int offset,
+                                        BluetoothGattDescriptor descriptor) {
         Log.d(TAG, String.format("onDescriptorReadRequest() device=%s descriptor=%s",
                 device.getAddress(), descriptor.getUuid()));
         try {
@@ -160,6 +420,7 @@ public class BluetoothServerCallback extends BluetoothGattServerCallback {
 
             bluetoothServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, value);
         } catch (GattException e) {
+            bluetoothServer.countGattError(e);
             Log.e(TAG, String.format("onDescriptorReadRequest() failed with exception %s", e.getMessage()));
             bluetoothServer.sendErrorResponse(device, requestId, e.getStatus());
         }
@@ -176,17 +437,26 @@ public class BluetoothServerCallback extends BluetoothGattServerCallback {
      */
     @Override
     public void onDescriptorWriteRequest(BluetoothDevice device, int requestId, BluetoothGattDescriptor descriptor, boolean preparedWrite, boolean responseNeeded, int offset, byte[] value) {
+        descriptorWriteRequestCounter.increment();
+        postRequest(device, requestId, responseNeeded, () -> handleDescriptorWriteRequest(device, requestId,
+                descriptor, preparedWrite, responseNeeded, offset, value));
+    }
+
+    private void handleDescriptorWriteRequest(BluetoothDevice device, int requestId, BluetoothGattDescriptor descriptor,
+                                              boolean preparedWrite, boolean responseNeeded, int offset, byte[] value) {
         Log.d(TAG, String.format("onDescriptorWriteRequest() - device=%s descriptor=%s value=%s",
                 device.getAddress(), descriptor.getUuid(), Arrays.toString(value)));
 
         try {
             GattServiceRequestHandler requestHandler = bluetoothServer.getGattServiceRequestHandler(descriptor);
             requestHandler.onDescriptorWrite(device, descriptor, offset, value);
+            onDescriptorWritten(device, descriptor, value);
 
             if (responseNeeded) {
                 bluetoothServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, 0, null);
             }
         } catch (GattException e) {
+            bluetoothServer.countGattError(e);
             if (responseNeeded) {
                 Log.e(TAG, String.format("onDescriptorWriteRequest() failed with exception %s", e.getMessage()));
                 bluetoothServer.sendErrorResponse(device, requestId, e.getStatus());
@@ -194,26 +464,105 @@ public class BluetoothServerCallback extends BluetoothGattServerCallback {
         }
     }
 
+    /**
+     * Save Client Characteristic Configuration value in device link after successful write.
+     * Value written by bonded device is also persisted to be restored on reconnect.
+     *
+     * @param device device which has written descriptor
+     * @param descriptor written descriptor
+     * @param value written value
+     */
+    private void onDescriptorWritten(BluetoothDevice device, BluetoothGattDescriptor descriptor, byte[] value) {
+        if (!ClientCharacteristicConfigurationDescriptor.CLIENT_CHARACTERISTIC_CONFIGURATION_UUID
+                .equals(descriptor.getUuid())) {
+            return;
+        }
+
+        BluetoothGattCharacteristic characteristic = descriptor.getCharacteristic();
+        BluetoothDeviceLink link = bluetoothServer.deviceLinkRegistry.getLink(device);
+        if (link != null) {
+            link.onCharacteristicConfigurationChanged(characteristic, value);
+        }
+        if (device.getBondState() == BluetoothDevice.BOND_BONDED) {
+            BluetoothGattService service = characteristic.getService();
+            bluetoothServer.subscriptionStore.saveSubscription(device.getAddress(), service.getUuid(),
+                    bluetoothServer.getServiceInstance(service), characteristic.getUuid(), value);
+        }
+    }
+
     /**
      * Callback indicating when a local characteristic was changed.
      *
-     * <p>Invoke {@link BluetoothServer#notifyCharacteristicChanged} for given characteristic
-     * and every device registered on it's changes.
+     * <p>Invoke {@link BluetoothServer#broadcastCharacteristicChanged} for given characteristic
+     * and notify every device registered on it's changes, or indicate it if device has enabled indications.
+     * Every sent notification keeps CPU awake until {@link #onNotificationSent} confirms it.
+     *
+     * <p>Must be invoked on {@link GattEventLoop} thread.
+     *
+     * <p>Returned set is reused by the next call.
      *
      * @param characteristic changed characteristic
      * @param registeredDevices devices registered for given characteristic
+     * @return devices notification has been sent to or indication has been queued for
      */
-    public void onCharacteristicChanged(BluetoothGattCharacteristic characteristic, Set<BluetoothDevice> registeredDevices) {
+    public Set<BluetoothDevice> onCharacteristicChanged(BluetoothGattCharacteristic characteristic,
+                                                        Set<BluetoothDevice> registeredDevices) {
+        characteristicChangedCounter.increment();
         Log.d(TAG, "Notify registered devices");
 
+        bluetoothServer.broadcastCharacteristicChanged(characteristic);
+        sentDevices.clear();
+
         if (registeredDevices.isEmpty()) {
             Log.i(TAG, "No subscribers registered");
-            return;
+            return sentDevices;
         }
 
         Log.v(TAG, "Sending update to " + registeredDevices.size() + " subscribers");
         for (BluetoothDevice registeredDevice : registeredDevices) {
-            bluetoothServer.notifyCharacteristicChanged(registeredDevice, characteristic);
+            BluetoothDeviceLink link = bluetoothServer.deviceLinkRegistry.getLink(registeredDevice);
+            if (link != null && link.isIndicationEnabled(characteristic)) {
+                indicateDevice(registeredDevice, characteristic);
+                sentDevices.add(registeredDevice);
+            } else if (notifyDevice(registeredDevice, characteristic)) {
+                sentDevices.add(registeredDevice);
+            }
+        }
+        return sentDevices;
+    }
+
+    /**
+     * Indicate one device about current characteristic value. Indication is queued in {@link IndicationTracker}
+     * and sent after device confirms its previous indications, so it does not delay notifications of other devices.
+     *
+     * <p>Must be invoked on {@link GattEventLoop} thread.
+     *
+     * @param device device to indicate
+     * @param characteristic changed characteristic
+     */
+    public void indicateDevice(BluetoothDevice device, BluetoothGattCharacteristic characteristic) {
+        bluetoothServer.indicationTracker.indicate(device, characteristic);
+    }
+
+    /**
+     * Notify one device about current characteristic value without broadcasting it,
+     * e.g. when value is built for this device only.
+     * Notification keeps CPU awake in window owned by device until {@link #onNotificationSent} confirms it
+     * or device disconnects.
+     *
+     * <p>Must be invoked on {@link GattEventLoop} thread.
+     *
+     * @param device device to notify
+     * @param characteristic changed characteristic
+     * @return true if notification has been sent, false otherwise
+     */
+    public boolean notifyDevice(BluetoothDevice device, BluetoothGattCharacteristic characteristic) {
+        bluetoothServer.wakeLockScheduler.acquire(device);
+        if (!bluetoothServer.notifyCharacteristicChanged(device, characteristic)) {
+            bluetoothServer.wakeLockScheduler.release(device);
+            return false;
         }
+        bluetoothServer.indicationTracker.onNotificationSent(device);
+        return true;
     }
 }
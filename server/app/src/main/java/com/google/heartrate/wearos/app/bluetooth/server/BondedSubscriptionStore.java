@@ -0,0 +1,356 @@
+package com.google.heartrate.wearos.app.bluetooth.server;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Persistent store of Client Characteristic Configuration values written by bonded devices.
+ *
+ * <p>Bluetooth Core Specification requires configuration of bonded clients to be preserved
+ * across connections, so they do not need to subscribe again after reconnect.
+ *
+ * <p>Values are kept in memory and written to a compact binary file with {@link AtomicFile}
+ * on every change, writes that do not change any value are skipped. File is written on a background
+ * writer thread, so the event loop does not wait for disk; changes made while a write is queued
+ * are coalesced into a single write of the latest content. Each entry takes 41 bytes: device address (6 bytes), service UUID (16 bytes),
+ * service instance (1 byte), characteristic UUID (16 bytes) and configuration value (2 bytes).
+ *
+ * <p>Server may host several instances of the same service, service instance tells them apart:
+ * it is the index of service among hosted services with the same UUID, in order they were registered.
+ * Files of version 1 have no service instance, their entries are loaded as instance 0.
+ *
+ * <p>Store is not thread safe, it is accessed on {@link GattEventLoop} thread only.
+ * {@link BluetoothServer} rejects services with instance above {@link #MAX_SERVICE_INSTANCE},
+ * so saving subscriptions does not fail on that thread.
+ */
+public class BondedSubscriptionStore {
+    private static final String TAG = BondedSubscriptionStore.class.getSimpleName();
+
+    /** Name of file in application files directory to store subscriptions in. */
+    private static final String FILE_NAME = "bonded_subscriptions.bin";
+
+    /** Version of file format. */
+    private static final int FORMAT_VERSION = 2;
+
+    /** Version of file format without service instance. */
+    private static final int FORMAT_VERSION_SINGLE_INSTANCE = 1;
+
+    /** Maximum service instance which fits into one byte. */
+    static final int MAX_SERVICE_INSTANCE = 0xFF;
+
+    /** Number of bytes in device address. */
+    private static final int ADDRESS_LENGTH = 6;
+
+    /** Number of bytes in Client Characteristic Configuration value. */
+    private static final int VALUE_LENGTH = 2;
+
+    /** Number of seconds idle writer thread is kept before it finishes. */
+    private static final long WRITER_KEEP_ALIVE_SECONDS = 10;
+
+    /** File subscriptions are stored in. */
+    private final AtomicFile file;
+
+    /** Subscriptions by device address. */
+    private final Map<String, List<Subscription>> subscriptionsByAddress = new HashMap<>();
+
+    /** Executor file is written on. */
+    private final Executor writeExecutor;
+
+    /** Content waiting to be written to file, null if no write is queued. */
+    private final AtomicReference<byte[]> pendingContent = new AtomicReference<>();
+
+    public BondedSubscriptionStore(Context context) {
+        /* Writer thread finishes when idle, so store needs no explicit close. */
+        this(new File(context.getFilesDir(), FILE_NAME), new ThreadPoolExecutor(0, 1,
+                WRITER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>()));
+    }
+
+    BondedSubscriptionStore(File file, Executor writeExecutor) {
+        this.file = new AtomicFile(file);
+        this.writeExecutor = writeExecutor;
+        load();
+    }
+
+    /**
+     * Save Client Characteristic Configuration value written by device.
+     * Value without enabled notifications or indications removes subscription.
+     *
+     * @param address device address
+     * @param serviceUuid uuid of service characteristic belongs to
+     * @param serviceInstance index of service among hosted services with the same uuid
+     * @param characteristicUuid uuid of configured characteristic
+     * @param value written Client Characteristic Configuration value
+     * @throws IllegalArgumentException if service instance does not fit into one byte
+     */
+    public void saveSubscription(String address, UUID serviceUuid, int serviceInstance, UUID characteristicUuid,
+                                 byte[] value) {
+        if (serviceInstance < 0 || serviceInstance > MAX_SERVICE_INSTANCE) {
+            throw new IllegalArgumentException(String.format("Service instance %d out of range [0, %d]",
+                    serviceInstance, MAX_SERVICE_INSTANCE));
+        }
+        List<Subscription> subscriptions = subscriptionsByAddress.get(address);
+        Subscription existing = subscriptions == null
+                ? null
+                : find(subscriptions, serviceUuid, serviceInstance, characteristicUuid);
+        boolean enabled = isEnabled(value);
+
+        if (existing == null && !enabled) {
+            return;
+        }
+        if (existing != null) {
+            if (enabled && existing.valueEquals(value)) {
+                return;
+            }
+            subscriptions.remove(existing);
+            if (subscriptions.isEmpty()) {
+                subscriptionsByAddress.remove(address);
+            }
+        }
+        if (enabled) {
+            if (!subscriptionsByAddress.containsKey(address)) {
+                subscriptionsByAddress.put(address, new ArrayList<>());
+            }
+            subscriptionsByAddress.get(address)
+                    .add(new Subscription(serviceUuid, serviceInstance, characteristicUuid, value[0], value[1]));
+        }
+
+        Log.d(TAG, String.format("Subscription of %s to %s of instance %d %s", address, characteristicUuid,
+                serviceInstance, enabled ? "saved" : "removed"));
+        persist();
+    }
+
+    /**
+     * Get all subscriptions saved for device.
+     *
+     * @param address device address
+     * @return subscriptions of given device, empty if there are none
+     */
+    public List<Subscription> getSubscriptions(String address) {
+        List<Subscription> subscriptions = subscriptionsByAddress.get(address);
+        return subscriptions == null ? Collections.emptyList() : Collections.unmodifiableList(subscriptions);
+    }
+
+    /**
+     * Remove all subscriptions of device, e.g. when device is not bonded anymore.
+     *
+     * @param address device address
+     */
+    public void removeDevice(String address) {
+        if (subscriptionsByAddress.remove(address) != null) {
+            Log.d(TAG, String.format("Subscriptions of %s removed", address));
+            persist();
+        }
+    }
+
+    private static Subscription find(List<Subscription> subscriptions, UUID serviceUuid, int serviceInstance,
+                                     UUID characteristicUuid) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.serviceUuid.equals(serviceUuid)
+                    && subscription.serviceInstance == serviceInstance
+                    && subscription.characteristicUuid.equals(characteristicUuid)) {
+                return subscription;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isEnabled(byte[] value) {
+        return value != null && value.length == VALUE_LENGTH && (value[0] != 0 || value[1] != 0);
+    }
+
+    private void load() {
+        try (DataInputStream input = new DataInputStream(file.openRead())) {
+            int version = input.readUnsignedByte();
+            if (version != FORMAT_VERSION && version != FORMAT_VERSION_SINGLE_INSTANCE) {
+                Log.w(TAG, String.format("Unsupported subscription file version %d", version));
+                return;
+            }
+            int count = input.readUnsignedShort();
+            byte[] addressBytes = new byte[ADDRESS_LENGTH];
+            for (int i = 0; i < count; i++) {
+                input.readFully(addressBytes);
+                String address = formatAddress(addressBytes);
+                UUID serviceUuid = new UUID(input.readLong(), input.readLong());
+                int serviceInstance = version == FORMAT_VERSION ? input.readUnsignedByte() : 0;
+                UUID characteristicUuid = new UUID(input.readLong(), input.readLong());
+                byte firstByte = input.readByte();
+                byte secondByte = input.readByte();
+
+                if (!subscriptionsByAddress.containsKey(address)) {
+                    subscriptionsByAddress.put(address, new ArrayList<>());
+                }
+                subscriptionsByAddress.get(address)
+                        .add(new Subscription(serviceUuid, serviceInstance, characteristicUuid, firstByte, secondByte));
+            }
+            Log.d(TAG, String.format("Loaded %d subscriptions", count));
+        } catch (FileNotFoundException e) {
+            Log.d(TAG, "No subscriptions saved");
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, String.format("Can not load subscriptions: %s", e.getMessage()));
+            subscriptionsByAddress.clear();
+        }
+    }
+
+    /**
+     * Serialize subscriptions and queue write of them, unless a write is already queued:
+     * the queued write then picks up the latest content.
+     */
+    private void persist() {
+        byte[] content;
+        try {
+            content = serialize();
+        } catch (IOException e) {
+            Log.e(TAG, String.format("Can not serialize subscriptions: %s", e.getMessage()));
+            return;
+        }
+        if (pendingContent.getAndSet(content) == null) {
+            writeExecutor.execute(this::writePendingContent);
+        }
+    }
+
+    private byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(FORMAT_VERSION);
+        output.writeShort(countSubscriptions());
+        for (Map.Entry<String, List<Subscription>> entry : subscriptionsByAddress.entrySet()) {
+            byte[] addressBytes = parseAddress(entry.getKey());
+            for (Subscription subscription : entry.getValue()) {
+                output.write(addressBytes);
+                output.writeLong(subscription.serviceUuid.getMostSignificantBits());
+                output.writeLong(subscription.serviceUuid.getLeastSignificantBits());
+                output.writeByte(subscription.serviceInstance);
+                output.writeLong(subscription.characteristicUuid.getMostSignificantBits());
+                output.writeLong(subscription.characteristicUuid.getLeastSignificantBits());
+                output.writeByte(subscription.firstByte);
+                output.writeByte(subscription.secondByte);
+            }
+        }
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Write the latest serialized subscriptions to file. Runs on writer thread.
+     */
+    private void writePendingContent() {
+        byte[] content = pendingContent.getAndSet(null);
+        if (content == null) {
+            return;
+        }
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            stream.write(content);
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            Log.e(TAG, String.format("Can not save subscriptions: %s", e.getMessage()));
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+        }
+    }
+
+    private int countSubscriptions() {
+        int count = 0;
+        for (List<Subscription> subscriptions : subscriptionsByAddress.values()) {
+            count += subscriptions.size();
+        }
+        return count;
+    }
+
+    /**
+     * Convert address in {@code XX:XX:XX:XX:XX:XX} format to bytes.
+     */
+    private static byte[] parseAddress(String address) {
+        byte[] bytes = new byte[ADDRESS_LENGTH];
+        for (int i = 0; i < ADDRESS_LENGTH; i++) {
+            bytes[i] = (byte) Integer.parseInt(address.substring(i * 3, i * 3 + 2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * Convert address bytes to {@code XX:XX:XX:XX:XX:XX} format.
+     */
+    private static String formatAddress(byte[] bytes) {
+        StringBuilder address = new StringBuilder(ADDRESS_LENGTH * 3 - 1);
+        for (int i = 0; i < ADDRESS_LENGTH; i++) {
+            if (i > 0) {
+                address.append(':');
+            }
+            address.append(String.format("%02X", bytes[i] & 0xFF));
+        }
+        return address.toString();
+    }
+
+    /**
+     * Client Characteristic Configuration value saved for characteristic.
+     */
+    public static class Subscription {
+        private final UUID serviceUuid;
+        private final int serviceInstance;
+        private final UUID characteristicUuid;
+        private final byte firstByte;
+        private final byte secondByte;
+
+        private Subscription(UUID serviceUuid, int serviceInstance, UUID characteristicUuid,
+                             byte firstByte, byte secondByte) {
+            this.serviceUuid = serviceUuid;
+            this.serviceInstance = serviceInstance;
+            this.characteristicUuid = characteristicUuid;
+            this.firstByte = firstByte;
+            this.secondByte = secondByte;
+        }
+
+        public UUID getServiceUuid() {
+            return serviceUuid;
+        }
+
+        /**
+         * Get index of service among hosted services with the same uuid.
+         *
+         * @return service instance, 0 for the first or the only instance
+         */
+        public int getServiceInstance() {
+            return serviceInstance;
+        }
+
+        public UUID getCharacteristicUuid() {
+            return characteristicUuid;
+        }
+
+        /**
+         * Get saved Client Characteristic Configuration value.
+         *
+         * @return new array with saved value
+         */
+        public byte[] getValue() {
+            return new byte[]{firstByte, secondByte};
+        }
+
+        private boolean valueEquals(byte[] value) {
+            return value[0] == firstByte && value[1] == secondByte;
+        }
+    }
+}
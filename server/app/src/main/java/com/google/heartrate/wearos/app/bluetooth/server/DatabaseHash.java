@@ -0,0 +1,255 @@
+package com.google.heartrate.wearos.app.bluetooth.server;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+
+import java.io.ByteArrayOutputStream;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Hash of attribute database hosted by server, computed as Database Hash characteristic value
+ * of Bluetooth Core Specification (Vol 3, Part G, 7.3): AES-CMAC with zero key over handle, type
+ * and value of service, characteristic and Characteristic Extended Properties declarations
+ * and over handle and type of configuration and format descriptors, in handle order.
+ *
+ * <p>Attribute records of every service are serialized once, when service is added,
+ * so change of one service serializes only that service and hash is recomputed over cached records
+ * only when it is requested. Services are ordered by their handles, which stack assigns when service is added.
+ * Included services are not hosted by server, so they are not hashed.
+ *
+ * <p>Hash is not thread safe, it is accessed on {@link GattEventLoop} thread only.
+ */
+public class DatabaseHash {
+
+    /** Number of bytes in hash value. */
+    public static final int HASH_SIZE = 16;
+
+    /** AES block size. */
+    private static final int BLOCK_SIZE = 16;
+
+    /** Constant to derive CMAC subkeys with (RFC 4493). */
+    private static final int CMAC_RB = 0x87;
+
+    /** Zero key of Database Hash. */
+    private static final byte[] ZERO_KEY = new byte[BLOCK_SIZE];
+
+    /** Least significant bits of Bluetooth Base UUID. */
+    private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+
+    /** Bits of Bluetooth Base UUID most significant half, which are not part of 16-bit UUID. */
+    private static final long BASE_UUID_MSB_MASK = 0xFFFF0000FFFFFFFFL;
+
+    /** Most significant bits of Bluetooth Base UUID except 16-bit UUID. */
+    private static final long BASE_UUID_MSB = 0x0000000000001000L;
+
+    private static final int PRIMARY_SERVICE_TYPE = 0x2800;
+    private static final int SECONDARY_SERVICE_TYPE = 0x2801;
+    private static final int CHARACTERISTIC_TYPE = 0x2803;
+    private static final int EXTENDED_PROPERTIES_TYPE = 0x2900;
+    private static final int USER_DESCRIPTION_TYPE = 0x2901;
+    private static final int AGGREGATE_FORMAT_TYPE = 0x2905;
+
+    /** Serialized attribute records by service, in order services were added. */
+    private final Map<BluetoothGattService, byte[]> recordsByService = new LinkedHashMap<>();
+
+    /** Hash of current services, null if services have changed since it was computed. */
+    private byte[] value;
+
+    /**
+     * Add service to database. Service must have its handles assigned, i.e. be added to server.
+     *
+     * @param service added service
+     */
+    public void addService(BluetoothGattService service) {
+        recordsByService.put(service, serialize(service));
+        value = null;
+    }
+
+    /**
+     * Remove service from database.
+     *
+     * @param service removed service
+     * @return true if service has been in database, false otherwise
+     */
+    public boolean removeService(BluetoothGattService service) {
+        if (recordsByService.remove(service) == null) {
+            return false;
+        }
+        value = null;
+        return true;
+    }
+
+    /**
+     * Remove all services, e.g. when server is closed.
+     */
+    public void clear() {
+        recordsByService.clear();
+        value = null;
+    }
+
+    /**
+     * Get hash of current services, computing it if services have changed.
+     *
+     * @return hash value, least significant byte first as it is sent over the air
+     */
+    public byte[] getValue() {
+        if (value == null) {
+            List<Map.Entry<BluetoothGattService, byte[]>> entries = new ArrayList<>(recordsByService.entrySet());
+            /* Stable sort keeps services with the same handle, e.g. not assigned yet, in order they were added */
+            entries.sort(Comparator.comparingInt(entry -> entry.getKey().getInstanceId()));
+
+            ByteArrayOutputStream message = new ByteArrayOutputStream();
+            for (Map.Entry<BluetoothGattService, byte[]> entry : entries) {
+                message.write(entry.getValue(), 0, entry.getValue().length);
+            }
+            value = reverse(aesCmac(ZERO_KEY, message.toByteArray()));
+        }
+        return value.clone();
+    }
+
+    /**
+     * Serialize hashed attribute records of service.
+     */
+    private static byte[] serialize(BluetoothGattService service) {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        writeUInt16(records, service.getInstanceId());
+        writeUInt16(records, service.getType() == BluetoothGattService.SERVICE_TYPE_PRIMARY
+                ? PRIMARY_SERVICE_TYPE
+                : SECONDARY_SERVICE_TYPE);
+        writeUuid(records, service.getUuid());
+
+        for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+            /* Characteristic value handle is known, declaration precedes it */
+            writeUInt16(records, characteristic.getInstanceId() - 1);
+            writeUInt16(records, CHARACTERISTIC_TYPE);
+            records.write(characteristic.getProperties() & 0xFF);
+            writeUInt16(records, characteristic.getInstanceId());
+            writeUuid(records, characteristic.getUuid());
+
+            for (BluetoothGattDescriptor descriptor : characteristic.getDescriptors()) {
+                Integer type = toUInt16(descriptor.getUuid());
+                if (type == null || type < EXTENDED_PROPERTIES_TYPE || type > AGGREGATE_FORMAT_TYPE) {
+                    continue;
+                }
+                writeUInt16(records, descriptor.getInstanceId());
+                writeUInt16(records, type);
+                if (type < USER_DESCRIPTION_TYPE && descriptor.getValue() != null) {
+                    records.write(descriptor.getValue(), 0, descriptor.getValue().length);
+                }
+            }
+        }
+        return records.toByteArray();
+    }
+
+    private static void writeUInt16(ByteArrayOutputStream stream, int value) {
+        stream.write(value & 0xFF);
+        stream.write((value >> 8) & 0xFF);
+    }
+
+    /**
+     * Write UUID least significant byte first, as 16-bit UUID if it is based on Bluetooth Base UUID.
+     */
+    private static void writeUuid(ByteArrayOutputStream stream, UUID uuid) {
+        Integer shortUuid = toUInt16(uuid);
+        if (shortUuid != null) {
+            writeUInt16(stream, shortUuid);
+            return;
+        }
+        long lsb = uuid.getLeastSignificantBits();
+        long msb = uuid.getMostSignificantBits();
+        for (int i = 0; i < Long.BYTES; i++) {
+            stream.write((int) (lsb >>> (8 * i)) & 0xFF);
+        }
+        for (int i = 0; i < Long.BYTES; i++) {
+            stream.write((int) (msb >>> (8 * i)) & 0xFF);
+        }
+    }
+
+    /**
+     * Get 16-bit form of UUID.
+     *
+     * @return 16-bit UUID, null if UUID is not based on Bluetooth Base UUID
+     */
+    private static Integer toUInt16(UUID uuid) {
+        if (uuid.getLeastSignificantBits() != BASE_UUID_LSB
+                || (uuid.getMostSignificantBits() & BASE_UUID_MSB_MASK) != BASE_UUID_MSB) {
+            return null;
+        }
+        return (int) (uuid.getMostSignificantBits() >>> 32) & 0xFFFF;
+    }
+
+    /**
+     * Compute AES-CMAC (RFC 4493) of message.
+     *
+     * @param key 128-bit key
+     * @param message message to authenticate
+     * @return 128-bit CMAC, most significant byte first
+     */
+    static byte[] aesCmac(byte[] key, byte[] message) {
+        try {
+            Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+            byte[] firstSubkey = deriveSubkey(cipher.doFinal(new byte[BLOCK_SIZE]));
+            byte[] secondSubkey = deriveSubkey(firstSubkey);
+
+            int blockCount = Math.max(1, (message.length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+            boolean lastBlockComplete = message.length > 0 && message.length % BLOCK_SIZE == 0;
+            byte[] state = new byte[BLOCK_SIZE];
+            for (int block = 0; block < blockCount - 1; block++) {
+                for (int i = 0; i < BLOCK_SIZE; i++) {
+                    state[i] ^= message[block * BLOCK_SIZE + i];
+                }
+                state = cipher.doFinal(state);
+            }
+
+            int lastOffset = (blockCount - 1) * BLOCK_SIZE;
+            byte[] subkey = lastBlockComplete ? firstSubkey : secondSubkey;
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                byte lastByte;
+                if (lastOffset + i < message.length) {
+                    lastByte = message[lastOffset + i];
+                } else {
+                    /* Padding: single one bit followed by zeros */
+                    lastByte = lastOffset + i == message.length ? (byte) 0x80 : 0;
+                }
+                state[i] ^= lastByte ^ subkey[i];
+            }
+            return cipher.doFinal(state);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES is not available", e);
+        }
+    }
+
+    /**
+     * Shift block left by one bit and apply {@link #CMAC_RB} if the most significant bit was set.
+     */
+    private static byte[] deriveSubkey(byte[] block) {
+        byte[] subkey = new byte[BLOCK_SIZE];
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            int next = i + 1 < BLOCK_SIZE ? (block[i + 1] & 0xFF) >>> 7 : 0;
+            subkey[i] = (byte) ((block[i] << 1) | next);
+        }
+        if ((block[0] & 0x80) != 0) {
+            subkey[BLOCK_SIZE - 1] ^= CMAC_RB;
+        }
+        return subkey;
+    }
+
+    private static byte[] reverse(byte[] bytes) {
+        byte[] reversed = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            reversed[i] = bytes[bytes.length - 1 - i];
+        }
+        return reversed;
+    }
+}
@@ -0,0 +1,339 @@
+package com.google.heartrate.wearos.app.bluetooth.server;
+
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-threaded event loop which owns all GATT state of {@link BluetoothServer}.
+ *
+ * <p>GATT callbacks arrive on binder threads, notifications are triggered by alarms on the wakeup thread.
+ * Instead of locking shared state, all of them post events into a bounded mailbox, which one loop thread
+ * drains in batches. Everything touched only by events (request handlers, device storages, characteristic
+ * values, advertiser) needs no synchronization.
+ *
+ * <p>If the mailbox is full, new events are rejected and counted, so a stalled loop cannot exhaust memory.
+ * One more place in the mailbox is reserved for the event which wakes the loop up to quit,
+ * so {@link #quitSafely()} is never rejected.
+ *
+ * <p>Control events, whose loss would leave server in stale state, e.g. device disconnection, service addition
+ * or adapter state change, are posted with {@link #postControl}. They are never rejected while loop is running:
+ * when mailbox is full they take places reserved for them, and when those are taken too, poster waits for a place.
+ */
+public class GattEventLoop {
+    private static final String TAG = GattEventLoop.class.getSimpleName();
+
+    /** Default maximum number of events waiting in mailbox. */
+    static final int DEFAULT_MAILBOX_CAPACITY = 256;
+
+    /** Default number of places in mailbox reserved for control events. */
+    static final int DEFAULT_CONTROL_CAPACITY = 16;
+
+    /** Time (milliseconds) control event waits for a place before it checks whether loop is quitting. */
+    private static final long CONTROL_PLACE_WAIT_MS = 100;
+
+    /** Maximum number of events processed in one batch. */
+    private static final int MAX_BATCH_SIZE = 32;
+
+    /** Event which wakes loop up to quit, it takes the reserved place in mailbox. */
+    private static final Runnable QUIT_EVENT = () -> { };
+
+    /** Mailbox of events waiting to be processed. */
+    private final BlockingQueue<Runnable> mailbox;
+
+    /** Places in mailbox for posted events, not including the place reserved for {@link #QUIT_EVENT}. */
+    private final Semaphore mailboxPlaces;
+
+    /** Places in mailbox reserved for control events, taken when all other places are taken. */
+    private final Semaphore controlPlaces;
+
+    /** Control events posted on loop thread while mailbox was full, run after current batch, loop thread only. */
+    private final Deque<Runnable> deferredControlEvents = new ArrayDeque<>();
+
+    /** Batch of events taken from mailbox, reused between batches. */
+    private final List<Runnable> batch = new ArrayList<>(MAX_BATCH_SIZE);
+
+    /** Thread events are processed on. */
+    private final Thread loopThread;
+
+    /** Whether loop has been asked to quit or not. */
+    private volatile boolean quitting;
+
+    /** Maximum mailbox depth observed when event was posted. */
+    private volatile int maxMailboxDepth;
+
+    /** Number of processed events. */
+    private final AtomicLong processedEventCount = new AtomicLong();
+
+    /** Number of processed batches. */
+    private final AtomicLong batchCount = new AtomicLong();
+
+    /** Number of events rejected because mailbox was full. */
+    private final AtomicLong rejectedEventCount = new AtomicLong();
+
+    public GattEventLoop() {
+        this(DEFAULT_MAILBOX_CAPACITY);
+    }
+
+    /**
+     * Create event loop with given mailbox capacity.
+     *
+     * @param mailboxCapacity maximum number of events waiting in mailbox
+     */
+    public GattEventLoop(int mailboxCapacity) {
+        this(mailboxCapacity, DEFAULT_CONTROL_CAPACITY);
+    }
+
+    /**
+     * Create event loop with given mailbox capacity and number of places reserved for control events.
+     *
+     * @param mailboxCapacity maximum number of events waiting in mailbox, not including control events
+     * @param controlCapacity number of places reserved for control events
+     */
+    GattEventLoop(int mailboxCapacity, int controlCapacity) {
+        mailbox = new ArrayBlockingQueue<>(mailboxCapacity + controlCapacity + 1);
+        mailboxPlaces = new Semaphore(mailboxCapacity);
+        controlPlaces = new Semaphore(controlCapacity);
+        loopThread = new Thread(this::loop, TAG);
+    }
+
+    /**
+     * Start loop thread.
+     */
+    public void start() {
+        loopThread.start();
+    }
+
+    /**
+     * Post event to be processed on loop thread after all previously posted events.
+     *
+     * @param event event to process
+     * @return true if event has been accepted, false if mailbox is full or loop is quitting
+     */
+    public boolean post(Runnable event) {
+        if (quitting) {
+            Log.w(TAG, "Event loop is quitting, event rejected");
+            return false;
+        }
+        if (!mailboxPlaces.tryAcquire()) {
+            rejectedEventCount.incrementAndGet();
+            Log.e(TAG, String.format("Mailbox is full with %d events, event rejected", mailbox.size()));
+            return false;
+        }
+        offer(event);
+        return true;
+    }
+
+    /**
+     * Post control event to be processed on loop thread, e.g. connection state change.
+     * Unlike {@link #post}, event is not rejected when mailbox is full: it takes a reserved place
+     * or waits until loop frees one. Event posted on loop thread itself never waits,
+     * it runs right after current batch instead.
+     *
+     * @param event event to process
+     * @return true if event has been accepted, false if loop is quitting or posting thread has been interrupted
+     */
+    public boolean postControl(Runnable event) {
+        if (quitting) {
+            Log.w(TAG, "Event loop is quitting, control event rejected");
+            return false;
+        }
+        if (mailboxPlaces.tryAcquire()) {
+            offer(event);
+            return true;
+        }
+        if (isLoopThread()) {
+            /* Loop can not wait for itself to free a place */
+            deferredControlEvents.add(event);
+            return true;
+        }
+        try {
+            while (!controlPlaces.tryAcquire(CONTROL_PLACE_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                if (quitting) {
+                    Log.w(TAG, "Event loop has quit while control event was waiting, event rejected");
+                    return false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejectedEventCount.incrementAndGet();
+            Log.e(TAG, "Interrupted while waiting for place in mailbox, control event rejected");
+            return false;
+        }
+        offer(new ControlEvent(event));
+        return true;
+    }
+
+    /**
+     * Put event into mailbox after place has been taken for it.
+     */
+    private void offer(Runnable event) {
+        mailbox.offer(event);
+
+        int depth = mailbox.size();
+        if (depth > maxMailboxDepth) {
+            maxMailboxDepth = depth;
+        }
+    }
+
+    /**
+     * Process all events posted before and stop loop thread.
+     */
+    public void quitSafely() {
+        /* Loop must see quitting after it wakes up, otherwise it waits for events again */
+        quitting = true;
+        /* Only the first quit event can take reserved place, loop is awake anyway while mailbox is full */
+        mailbox.offer(QUIT_EVENT);
+    }
+
+    /**
+     * Determine whether loop has been asked to quit, so it rejects all events from now on.
+     *
+     * @return true if {@link #quitSafely()} has been invoked, false otherwise
+     */
+    public boolean isQuitting() {
+        return quitting;
+    }
+
+    /**
+     * Determine whether current thread is loop thread or not.
+     *
+     * @return true if invoked on loop thread, false otherwise
+     */
+    public boolean isLoopThread() {
+        return Thread.currentThread() == loopThread;
+    }
+
+    private void loop() {
+        Log.d(TAG, "Event loop started");
+        while (true) {
+            try {
+                batch.add(mailbox.take());
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Event loop interrupted");
+                return;
+            }
+            mailbox.drainTo(batch, MAX_BATCH_SIZE - 1);
+            batchCount.incrementAndGet();
+
+            int eventCount = 0;
+            int controlEventCount = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                Runnable event = batch.get(i);
+                if (event instanceof ControlEvent) {
+                    controlEventCount++;
+                } else if (event != QUIT_EVENT) {
+                    eventCount++;
+                }
+            }
+            mailboxPlaces.release(eventCount);
+            controlPlaces.release(controlEventCount);
+
+            for (int i = 0; i < batch.size(); i++) {
+                runEvent(batch.get(i));
+            }
+            processedEventCount.addAndGet(eventCount + controlEventCount);
+            batch.clear();
+
+            while (!deferredControlEvents.isEmpty()) {
+                runEvent(deferredControlEvents.poll());
+                processedEventCount.incrementAndGet();
+            }
+
+            if (quitting && mailbox.isEmpty()) {
+                Log.d(TAG, "Event loop quit");
+                return;
+            }
+        }
+    }
+
+    private void runEvent(Runnable event) {
+        try {
+            event.run();
+        } catch (RuntimeException e) {
+            /* One broken event must not stop the loop which owns all GATT state */
+            Log.e(TAG, String.format("Event failed with exception %s", e), e);
+        }
+    }
+
+    /**
+     * Control event which has taken place reserved for control events, so loop frees reserved place after it.
+     */
+    private static final class ControlEvent implements Runnable {
+        private final Runnable event;
+
+        private ControlEvent(Runnable event) {
+            this.event = event;
+        }
+
+        @Override
+        public void run() {
+            event.run();
+        }
+    }
+
+    /**
+     * Get number of events waiting in mailbox.
+     *
+     * @return current mailbox depth
+     */
+    public int getMailboxDepth() {
+        return mailbox.size();
+    }
+
+    /**
+     * Get maximum number of events waiting in mailbox since loop creation.
+     *
+     * @return maximum mailbox depth
+     */
+    public int getMaxMailboxDepth() {
+        return maxMailboxDepth;
+    }
+
+    /**
+     * Get number of processed events.
+     *
+     * @return processed event count
+     */
+    public long getProcessedEventCount() {
+        return processedEventCount.get();
+    }
+
+    /**
+     * Get number of processed batches.
+     *
+     * @return processed batch count
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * Get number of events rejected because mailbox was full.
+     *
+     * @return rejected event count
+     */
+    public long getRejectedEventCount() {
+        return rejectedEventCount.get();
+    }
+
+    /**
+     * Print event loop metrics.
+     *
+     * @param writer writer to print metrics to
+     */
+    public void dump(PrintWriter writer) {
+        writer.println(String.format("GATT mailbox depth: %d (max %d)", getMailboxDepth(), getMaxMailboxDepth()));
+        writer.println(String.format("GATT events: %d processed in %d batches, %d rejected",
+                getProcessedEventCount(), getBatchCount(), getRejectedEventCount()));
+    }
+}
@@ -0,0 +1,437 @@
+package com.google.heartrate.wearos.app.bluetooth.server;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.util.Log;
+
+import com.google.heartrate.wearos.app.metrics.MetricsRegistry;
+import com.google.heartrate.wearos.app.power.WakeLockScheduler;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link IndicationTracker} delivers indications to remote devices and tracks their confirmations.
+ *
+ * <p>ATT allows one outstanding indication per device, so every device has its own queue:
+ * value is sent as soon as the previous one is confirmed, without waiting for the next notification tick.
+ * Devices are independent, so slow device delays only its own indications, and notifications
+ * to other devices are not queued here at all. Value which stack fails to send, or which device reports failed,
+ * is sent again up to {@link #MAX_ATTEMPTS} times and then dropped.
+ * If device does not confirm faster than values are queued, the oldest values are dropped.
+ *
+ * <p>Indication not confirmed in {@link #CONFIRMATION_TIMEOUT_MS}, the ATT transaction timeout, fails the link:
+ * ATT allows no more PDUs on it, so nothing is sent to device again. Its queued values are dropped,
+ * values indicated later are dropped as well, and {@link LinkFailureListener} is asked to disconnect device.
+ * Tracker forgets failed link when device disconnects.
+ *
+ * <p>{@link BluetoothServerCallback#onNotificationSent} reports both sent notifications and confirmed indications.
+ * Notifications are reported as soon as they are handed over to controller, while indications wait for
+ * remote confirmation, so completion is matched to notifications sent to the device first
+ * and to its outstanding indication only when all of them are completed.
+ *
+ * <p>Tracker state is owned by {@link GattEventLoop} thread: all methods must be invoked on it.
+ */
+public class IndicationTracker {
+    private static final String TAG = IndicationTracker.class.getSimpleName();
+
+    /** Time to wait for device to confirm indication, ATT transaction timeout. */
+    static final long CONFIRMATION_TIMEOUT_MS = 30 * 1000;
+
+    /** Delay before indication which stack failed to send is sent again. */
+    static final long RETRY_DELAY_MS = 200;
+
+    /** Maximum number of times one value is sent. */
+    static final int MAX_ATTEMPTS = 3;
+
+    /** Maximum number of values waiting for confirmation of the previous one, per device. */
+    static final int MAX_QUEUED_INDICATIONS = 32;
+
+    /**
+     * Sender of indication to remote device.
+     */
+    public interface Sender {
+
+        /**
+         * Send indication about current characteristic value.
+         *
+         * @param device device to indicate
+         * @param characteristic characteristic to send value of
+         * @return true if indication has been sent, false otherwise
+         */
+        boolean sendIndication(BluetoothDevice device, BluetoothGattCharacteristic characteristic);
+    }
+
+    /**
+     * Listener of indications confirmed by remote device.
+     */
+    public interface ConfirmationListener {
+
+        /**
+         * Invokes when device has confirmed indication.
+         *
+         * @param device device which has confirmed indication
+         * @param characteristic characteristic which value has been indicated
+         */
+        void onIndicationConfirmed(BluetoothDevice device, BluetoothGattCharacteristic characteristic);
+    }
+
+    /**
+     * Listener of links failed by indication timeout.
+     */
+    public interface LinkFailureListener {
+
+        /**
+         * Invokes when device has not confirmed indication in ATT transaction timeout,
+         * so link to device can not be used anymore and should be disconnected.
+         *
+         * @param device device with failed link
+         */
+        void onLinkFailed(BluetoothDevice device);
+    }
+
+    /** Sender to send indications with. */
+    private final Sender sender;
+
+    /** Listener to report confirmed indications to. */
+    private final ConfirmationListener confirmationListener;
+
+    /** Listener to report failed links to. */
+    private final LinkFailureListener linkFailureListener;
+
+    /** {@link WakeLockScheduler} to keep CPU awake while indication is outstanding and to schedule timeouts. */
+    private final WakeLockScheduler wakeLockScheduler;
+
+    /** Event loop to run timeouts on. */
+    private final GattEventLoop eventLoop;
+
+    /** Counters of indications by outcome, counted in {@link MetricsRegistry} given to tracker. */
+    private final MetricsRegistry.Counter droppedCounter;
+    private final MetricsRegistry.Counter confirmedCounter;
+    private final MetricsRegistry.Counter failedCounter;
+    private final MetricsRegistry.Counter retriedCounter;
+    private final MetricsRegistry.Counter timeoutCounter;
+
+    /** Indication state by device, only for devices which were indicated. */
+    private final Map<BluetoothDevice, DeviceIndications> indicationsByDevice = new HashMap<>();
+
+    /**
+     * Create tracker.
+     *
+     * @param sender sender to send indications with
+     * @param confirmationListener listener to report confirmed indications to
+     * @param linkFailureListener listener to report links failed by indication timeout to
+     * @param wakeLockScheduler scheduler to hold awake windows and schedule timeouts with
+     * @param eventLoop event loop tracker is used on
+     * @param metrics registry to count indications in
+     */
+    public IndicationTracker(Sender sender, ConfirmationListener confirmationListener,
+                             LinkFailureListener linkFailureListener, WakeLockScheduler wakeLockScheduler,
+                             GattEventLoop eventLoop, MetricsRegistry metrics) {
+        this.sender = sender;
+        this.confirmationListener = confirmationListener;
+        this.linkFailureListener = linkFailureListener;
+        this.wakeLockScheduler = wakeLockScheduler;
+        this.eventLoop = eventLoop;
+        droppedCounter = metrics.counter("indication.dropped");
+        confirmedCounter = metrics.counter("indication.confirmed");
+        failedCounter = metrics.counter("indication.failed");
+        retriedCounter = metrics.counter("indication.retried");
+        timeoutCounter = metrics.counter("indication.timeout");
+    }
+
+    /**
+     * Indicate device about current characteristic value. Value is copied, so characteristic
+     * can be changed before indication is sent.
+     *
+     * @param device device to indicate
+     * @param characteristic characteristic to send value of
+     */
+    public void indicate(BluetoothDevice device, BluetoothGattCharacteristic characteristic) {
+        DeviceIndications indications = indicationsByDevice.get(device);
+        if (indications == null) {
+            indications = new DeviceIndications(device);
+            indicationsByDevice.put(device, indications);
+        }
+        if (indications.linkFailed) {
+            droppedCounter.increment();
+            return;
+        }
+        if (indications.queue.size() == MAX_QUEUED_INDICATIONS) {
+            Log.w(TAG, String.format("Device %s does not confirm indications, drop the oldest", device.getAddress()));
+            indications.queue.poll();
+            droppedCounter.increment();
+        }
+        indications.queue.add(new Indication(characteristic, characteristic.getValue().clone()));
+        sendNext(indications);
+    }
+
+    /**
+     * Count notification handed over to stack, so its completion is not taken for indication confirmation.
+     * Notifications are counted only for devices which have been indicated.
+     *
+     * @param device notified device
+     */
+    public void onNotificationSent(BluetoothDevice device) {
+        DeviceIndications indications = indicationsByDevice.get(device);
+        if (indications != null) {
+            indications.pendingNotificationCount++;
+        }
+    }
+
+    /**
+     * Handle completion reported by stack for device.
+     * Confirmed indication is reported to {@link ConfirmationListener}.
+     *
+     * @param device device notification or indication has been sent to
+     * @param status status of completion
+     * @return true if completion confirms indication, false if it completes notification
+     */
+    public boolean onCompleted(BluetoothDevice device, int status) {
+        DeviceIndications indications = indicationsByDevice.get(device);
+        if (indications == null) {
+            return false;
+        }
+        if (indications.pendingNotificationCount > 0) {
+            indications.pendingNotificationCount--;
+            return false;
+        }
+        if (indications.outstanding == null) {
+            return false;
+        }
+
+        Indication indication = indications.outstanding;
+        indications.outstanding = null;
+        indications.cancelTimeout();
+        wakeLockScheduler.release();
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            confirmedCounter.increment();
+            confirmationListener.onIndicationConfirmed(device, indication.characteristic);
+        } else {
+            Log.w(TAG, String.format("Indication to device %s failed with status %d", device.getAddress(), status));
+            retry(indications, indication);
+        }
+        sendNext(indications);
+        return true;
+    }
+
+    /**
+     * Forget indications of disconnected device.
+     *
+     * @param device disconnected device
+     */
+    public void removeDevice(BluetoothDevice device) {
+        DeviceIndications indications = indicationsByDevice.remove(device);
+        if (indications != null) {
+            indications.clear();
+        }
+    }
+
+    /**
+     * Forget indications of all devices, e.g. when server is stopped.
+     */
+    public void removeAllDevices() {
+        for (DeviceIndications indications : indicationsByDevice.values()) {
+            indications.clear();
+        }
+        indicationsByDevice.clear();
+    }
+
+    /**
+     * Get number of indications sent and not confirmed yet.
+     *
+     * @return number of devices with outstanding indication
+     */
+    public int getOutstandingCount() {
+        int count = 0;
+        for (DeviceIndications indications : indicationsByDevice.values()) {
+            if (indications.outstanding != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get number of values waiting to be sent to device.
+     *
+     * @param device device to check
+     * @return number of queued values, not including outstanding one
+     */
+    public int getQueuedCount(BluetoothDevice device) {
+        DeviceIndications indications = indicationsByDevice.get(device);
+        return indications == null ? 0 : indications.queue.size();
+    }
+
+    /**
+     * Send the oldest queued value if device has no outstanding indication.
+     * Value is set to characteristic only while it is sent, then characteristic value is restored.
+     */
+    private void sendNext(DeviceIndications indications) {
+        if (indications.outstanding != null || indications.retryScheduled) {
+            return;
+        }
+        Indication indication = indications.queue.poll();
+        if (indication == null) {
+            return;
+        }
+        indication.attempts++;
+
+        BluetoothGattCharacteristic characteristic = indication.characteristic;
+        byte[] currentValue = characteristic.getValue();
+        characteristic.setValue(indication.value);
+        wakeLockScheduler.acquire();
+        boolean sent = sender.sendIndication(indications.device, characteristic);
+        characteristic.setValue(currentValue);
+
+        if (!sent) {
+            wakeLockScheduler.release();
+            retry(indications, indication);
+            return;
+        }
+        indications.outstanding = indication;
+        indications.scheduleTimeout(CONFIRMATION_TIMEOUT_MS, () -> onTimeout(indications, indication));
+    }
+
+    /**
+     * Put value back to the head of queue to be sent after delay, or drop it if it has been sent too many times.
+     */
+    private void retry(DeviceIndications indications, Indication indication) {
+        if (indication.attempts >= MAX_ATTEMPTS) {
+            Log.e(TAG, String.format("Indication to device %s dropped after %d attempts",
+                    indications.device.getAddress(), indication.attempts));
+            failedCounter.increment();
+            return;
+        }
+        retriedCounter.increment();
+        indications.queue.addFirst(indication);
+        indications.retryScheduled = true;
+        indications.scheduleTimeout(RETRY_DELAY_MS, () -> {
+            indications.retryScheduled = false;
+            sendNext(indications);
+        });
+    }
+
+    private void onTimeout(DeviceIndications indications, Indication indication) {
+        if (indications.outstanding != indication) {
+            return;
+        }
+        Log.e(TAG, String.format("Device %s has not confirmed indication in %d ms, link failed, %d values dropped",
+                indications.device.getAddress(), CONFIRMATION_TIMEOUT_MS, indications.queue.size()));
+        timeoutCounter.increment();
+        failedCounter.increment();
+        droppedCounter.add(indications.queue.size());
+        indications.clear();
+        indications.linkFailed = true;
+        linkFailureListener.onLinkFailed(indications.device);
+    }
+
+    /**
+     * Value to indicate.
+     */
+    private static class Indication {
+
+        /** Characteristic value belongs to. */
+        private final BluetoothGattCharacteristic characteristic;
+
+        /** Characteristic value at the time indication was requested. */
+        private final byte[] value;
+
+        /** Number of times value has been sent. */
+        private int attempts;
+
+        private Indication(BluetoothGattCharacteristic characteristic, byte[] value) {
+            this.characteristic = characteristic;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Indication state of one device.
+     */
+    private class DeviceIndications {
+
+        /** Indicated device. */
+        private final BluetoothDevice device;
+
+        /** Values waiting to be sent, the oldest first. */
+        private final Deque<Indication> queue = new ArrayDeque<>();
+
+        /** Indication sent and not confirmed yet, null if there is none. */
+        private Indication outstanding;
+
+        /** Number of notifications sent to device and not completed yet. */
+        private int pendingNotificationCount;
+
+        /** Whether the head of queue waits for retry delay or not. */
+        private boolean retryScheduled;
+
+        /** Whether indication has timed out, so link to device can not be used anymore. */
+        private boolean linkFailed;
+
+        /** Scheduled timeout or retry, null if there is none. */
+        private WakeLockScheduler.Wakeup timeout;
+
+        /** Number of scheduled timeouts, tells stale wakeup from the current one. */
+        private long timeoutGeneration;
+
+        private DeviceIndications(BluetoothDevice device) {
+            this.device = device;
+        }
+
+        private void scheduleTimeout(long delayMs, Runnable task) {
+            cancelTimeout();
+            long generation = ++timeoutGeneration;
+            timeout = wakeLockScheduler.scheduleWakeup(delayMs, () -> postTimeout(generation, task));
+        }
+
+        /**
+         * Hand timeout over to event loop in a separate awake window.
+         * If mailbox is full, timeout is posted again after {@link #RETRY_DELAY_MS}:
+         * lost timeout would leave outstanding indication or retry waiting forever.
+         *
+         * <p>Invoked on wakeup thread, so it must not touch tracker state.
+         */
+        private void postTimeout(long generation, Runnable task) {
+            wakeLockScheduler.acquire();
+            boolean posted = eventLoop.post(() -> {
+                try {
+                    if (generation == timeoutGeneration && timeout != null) {
+                        timeout = null;
+                        task.run();
+                    }
+                } finally {
+                    wakeLockScheduler.release();
+                }
+            });
+            if (!posted) {
+                wakeLockScheduler.release();
+                if (!eventLoop.isQuitting()) {
+                    Log.w(TAG, String.format("Timeout of device %s rejected, retry in %d ms",
+                            device.getAddress(), RETRY_DELAY_MS));
+                    /* Retry keeps generation, so it is ignored if timeout is cancelled meanwhile */
+                    wakeLockScheduler.scheduleWakeup(RETRY_DELAY_MS, () -> postTimeout(generation, task));
+                }
+            }
+        }
+
+        private void cancelTimeout() {
+            if (timeout != null) {
+                wakeLockScheduler.cancelWakeup(timeout);
+                timeout = null;
+            }
+        }
+
+        private void clear() {
+            cancelTimeout();
+            if (outstanding != null) {
+                outstanding = null;
+                wakeLockScheduler.release();
+            }
+            queue.clear();
+        }
+    }
+}
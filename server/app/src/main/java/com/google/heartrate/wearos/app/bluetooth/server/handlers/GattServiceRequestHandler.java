@@ -7,6 +7,7 @@ import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.util.Log;
 
+import com.google.heartrate.wearos.app.bluetooth.server.BluetoothDeviceLink;
 import com.google.heartrate.wearos.app.bluetooth.server.BluetoothServer;
 import com.google.heartrate.wearos.app.bluetooth.server.BluetoothServerCallback;
 import com.google.heartrate.wearos.app.gatt.GattException;
@@ -98,6 +99,45 @@ public interface GattServiceRequestHandler {
         Log.d(TAG, "Request onDeviceDisconnected() is not handled, please override it to specify it.");
     }
 
+    /**
+     * Invokes from {@link BluetoothServerCallback#onMtuChanged} and {@link BluetoothServerCallback#onPhyUpdate}
+     * when MTU or PHY of connection with device changed.
+     *
+     * @param link updated device link
+     */
+    default void onDeviceLinkUpdated(BluetoothDeviceLink link) {
+        Log.d(TAG, "Request onDeviceLinkUpdated() is not handled, please override it to specify it.");
+    }
+
+    /**
+     * Invokes from {@link BluetoothServer} when services hosted in server have changed,
+     * i.e. service has been added or removed.
+     *
+     * @param databaseHash new hash of attribute database, least significant byte first
+     */
+    default void onDatabaseChanged(byte[] databaseHash) {
+        Log.d(TAG, "Request onDatabaseChanged() is not handled, please override it to specify it.");
+    }
+
+    /**
+     * Invokes from {@link BluetoothServer} when broadcasting of characteristic values
+     * has been started or stopped.
+     */
+    default void onBroadcastingChanged() {
+        Log.d(TAG, "Request onBroadcastingChanged() is not handled, please override it to specify it.");
+    }
+
+    /**
+     * Invokes from {@link BluetoothServer} when device has confirmed indication
+     * of characteristic of the service.
+     *
+     * @param device device which has confirmed indication
+     * @param characteristic indicated characteristic
+     */
+    default void onIndicationConfirmed(BluetoothDevice device, BluetoothGattCharacteristic characteristic) {
+        Log.d(TAG, "Request onIndicationConfirmed() is not handled, please override it to specify it.");
+    }
+
     /**
      * Invokes from {@link BluetoothServerCallback#onServiceAdded}
      * when service added to server.
@@ -0,0 +1,258 @@
+package com.google.heartrate.wearos.app.bluetooth.server.handlers;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+import android.util.Log;
+
+import com.google.heartrate.wearos.app.bluetooth.server.BluetoothDeviceStorage;
+import com.google.heartrate.wearos.app.bluetooth.server.BluetoothServerCallback;
+import com.google.heartrate.wearos.app.bluetooth.server.DatabaseHash;
+import com.google.heartrate.wearos.app.gatt.GattException;
+import com.google.heartrate.wearos.app.gatt.generic.characteristics.DatabaseHashCharacteristic;
+import com.google.heartrate.wearos.app.gatt.generic.characteristics.ServiceChangedCharacteristic;
+import com.google.heartrate.wearos.app.gatt.generic.service.GenericAttributeGattService;
+import com.google.heartrate.wearos.app.gatt.heartrate.descriptors.ClientCharacteristicConfigurationDescriptor;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link GattServiceRequestHandler} for Generic Attribute service.
+ *
+ * <p>Provides Database Hash to remote devices and indicates Service Changed to subscribed devices
+ * when services hosted in server change. Bonded device keeps its subscription across connections,
+ * so hash each bonded device has last seen is stored by its address. When bonded device reconnects
+ * and database has changed while it was away, Service Changed is indicated as soon as its subscription
+ * is restored, otherwise device keeps its cached database and skips service discovery.
+ * Hash is stored as seen only when device reads it or confirms Service Changed indication,
+ * so device which disconnects before confirmation is indicated again on reconnect.
+ */
+public class GenericAttributeServiceRequestHandler implements GattServiceRequestHandler {
+    private static final String TAG = GenericAttributeServiceRequestHandler.class.getSimpleName();
+
+    /** Name of preferences to store hashes bonded devices have seen in. */
+    private static final String PREFERENCES_NAME = "database_hash";
+
+    /** {@link GenericAttributeGattService} for Generic Attribute service. */
+    private final GenericAttributeGattService genericAttributeGattService = new GenericAttributeGattService();
+
+    /** Storage for all {@link BluetoothDevice} registered to Service Changed characteristic. */
+    private final BluetoothDeviceStorage registeredDeviceStorage = new BluetoothDeviceStorage();
+
+    /** Hashes bonded devices have seen by device address. */
+    private final SharedPreferences knownHashes;
+
+    /** Hashes Service Changed has been indicated for and not confirmed yet by device, the oldest first. */
+    private final Map<BluetoothDevice, Deque<byte[]>> indicatedHashesByDevice = new HashMap<>();
+
+    /** Current hash of attribute database. */
+    private byte[] databaseHash = new byte[DatabaseHash.HASH_SIZE];
+
+    /** Callback to indicate devices with, null if service is not added. */
+    private BluetoothServerCallback bluetoothServerCallback;
+
+    public GenericAttributeServiceRequestHandler(Context context) {
+        this(context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE));
+    }
+
+    GenericAttributeServiceRequestHandler(SharedPreferences knownHashes) {
+        this.knownHashes = knownHashes;
+    }
+
+    @Override
+    public void onServiceAdded(BluetoothServerCallback bluetoothServerCallback) {
+        this.bluetoothServerCallback = bluetoothServerCallback;
+    }
+
+    @Override
+    public void onServiceRemoved() {
+        registeredDeviceStorage.removeAllDevices();
+        indicatedHashesByDevice.clear();
+        bluetoothServerCallback = null;
+    }
+
+    /**
+     * Unregister device from Service Changed indications and forget indications it has not confirmed.
+     * @param device disconnected device
+     */
+    @Override
+    public void onDeviceDisconnected(BluetoothDevice device) {
+        registeredDeviceStorage.removeDevice(device);
+        indicatedHashesByDevice.remove(device);
+    }
+
+    /**
+     * Remember hash Service Changed has been indicated for as seen by device.
+     * Indications are confirmed in order they are sent, so confirmation matches the oldest one.
+     *
+     * @param device device which has confirmed indication
+     * @param characteristic indicated characteristic
+     */
+    @Override
+    public void onIndicationConfirmed(BluetoothDevice device, BluetoothGattCharacteristic characteristic) {
+        if (!ServiceChangedCharacteristic.SERVICE_CHANGED_UUID.equals(characteristic.getUuid())) {
+            return;
+        }
+        Deque<byte[]> indicatedHashes = indicatedHashesByDevice.get(device);
+        if (indicatedHashes == null) {
+            return;
+        }
+        rememberHash(device, indicatedHashes.poll());
+        if (indicatedHashes.isEmpty()) {
+            indicatedHashesByDevice.remove(device);
+        }
+    }
+
+    /**
+     * Set new hash to Database Hash characteristic and indicate Service Changed to subscribed devices.
+     *
+     * @param databaseHash new hash of attribute database
+     */
+    @Override
+    public void onDatabaseChanged(byte[] databaseHash) {
+        this.databaseHash = databaseHash.clone();
+        try {
+            genericAttributeGattService.getDatabaseHashCharacteristic().setHash(databaseHash);
+        } catch (GattException e) {
+            Log.e(TAG, String.format("Database hash is not set: %s", e.getMessage()));
+        }
+        for (BluetoothDevice device : registeredDeviceStorage.getAllDevices()) {
+            indicateServiceChanged(device);
+        }
+    }
+
+    /**
+     * Read Database Hash. Device which has read hash knows whether its cached database is valid.
+     *
+     * @param device the remote device that has requested the read operation
+     * @param characteristic characteristic to be read
+     * @param offset offset into the value of the characteristic
+     * @return current database hash
+     * @throws GattException if characteristic is not Database Hash
+     */
+    @Override
+    public byte[] onCharacteristicRead(BluetoothDevice device, BluetoothGattCharacteristic characteristic,
+                                       int offset) throws GattException {
+        if (!DatabaseHashCharacteristic.DATABASE_HASH_UUID.equals(characteristic.getUuid())) {
+            return GattServiceRequestHandler.super.onCharacteristicRead(device, characteristic, offset);
+        }
+        rememberHash(device, databaseHash);
+        return genericAttributeGattService.getDatabaseHashCharacteristic().read(device, offset);
+    }
+
+    /**
+     * Determine wether remote device is registered for Service Changed indications or not.
+     *
+     * @param device the remote device that has requested the read operation
+     * @param descriptor descriptor to be read
+     * @param offset offset into the value of the descriptor
+     * @return {@link BluetoothGattDescriptor#ENABLE_INDICATION_VALUE} if device is registered for indications,
+     * {@link BluetoothGattDescriptor#DISABLE_NOTIFICATION_VALUE} otherwise
+     */
+    @Override
+    public byte[] onDescriptorRead(BluetoothDevice device, BluetoothGattDescriptor descriptor, int offset) {
+        return registeredDeviceStorage.contains(device)
+                ? BluetoothGattDescriptor.ENABLE_INDICATION_VALUE
+                : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE;
+    }
+
+    /**
+     * Register (if given value is {@link BluetoothGattDescriptor#ENABLE_INDICATION_VALUE}) or
+     * unregister (if given value is {@link BluetoothGattDescriptor#DISABLE_NOTIFICATION_VALUE})
+     * remote device for Service Changed indications.
+     *
+     * <p>Subscription of bonded device is restored with this request on reconnect, so Service Changed
+     * is indicated to it if database has changed since device has seen it last time.
+     *
+     * @param device the remote device that has requested the write operation
+     * @param descriptor descriptor to be written
+     * @param offset offset into the value of the descriptor
+     * @param value value the client wants to assign to the descriptor
+     * @throws GattException if notifications are enabled, Service Changed supports indications only
+     */
+    @Override
+    public void onDescriptorWrite(BluetoothDevice device, BluetoothGattDescriptor descriptor, int offset, byte[] value)
+            throws GattException {
+        if (Arrays.equals(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE, value)) {
+            Log.d(TAG, String.format("Subscribe device %s to Service Changed indications", device));
+            registeredDeviceStorage.addDevice(device);
+            byte[] knownHash = getKnownHash(device);
+            if (knownHash != null && !Arrays.equals(knownHash, databaseHash)) {
+                indicateServiceChanged(device);
+            } else {
+                rememberHash(device, databaseHash);
+            }
+        } else if (Arrays.equals(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE, value)) {
+            Log.d(TAG, String.format("Unsubscribe device %s from Service Changed indications", device));
+            registeredDeviceStorage.removeDevice(device);
+        } else {
+            throw new GattException(String.format("Characteristic %s supports indications only",
+                    descriptor.getCharacteristic().getUuid()),
+                    ClientCharacteristicConfigurationDescriptor.CCCD_IMPROPERLY_CONFIGURED);
+        }
+    }
+
+    /**
+     * Indicate Service Changed to device. Current hash is remembered as seen by device
+     * only when device confirms indication.
+     *
+     * @param device device to indicate
+     */
+    private void indicateServiceChanged(BluetoothDevice device) {
+        if (bluetoothServerCallback == null) {
+            return;
+        }
+        Log.d(TAG, String.format("Indicate Service Changed to device %s", device.getAddress()));
+        Deque<byte[]> indicatedHashes = indicatedHashesByDevice.get(device);
+        if (indicatedHashes == null) {
+            indicatedHashes = new ArrayDeque<>();
+            indicatedHashesByDevice.put(device, indicatedHashes);
+        }
+        indicatedHashes.add(databaseHash);
+        bluetoothServerCallback.indicateDevice(device,
+                genericAttributeGattService.getServiceChangedCharacteristic().getBluetoothGattCharacteristic());
+    }
+
+    /**
+     * Store hash as seen by device if device is bonded.
+     *
+     * @param device device which has seen hash
+     * @param hash hash device has seen
+     */
+    private void rememberHash(BluetoothDevice device, byte[] hash) {
+        if (device.getBondState() != BluetoothDevice.BOND_BONDED) {
+            return;
+        }
+        String encodedHash = Base64.encodeToString(hash, Base64.NO_WRAP);
+        if (!encodedHash.equals(knownHashes.getString(device.getAddress(), null))) {
+            knownHashes.edit().putString(device.getAddress(), encodedHash).apply();
+        }
+    }
+
+    /**
+     * Get hash device has seen last time.
+     *
+     * @param device bonded device
+     * @return hash, null if device is not bonded or has not seen any
+     */
+    private byte[] getKnownHash(BluetoothDevice device) {
+        if (device.getBondState() != BluetoothDevice.BOND_BONDED) {
+            return null;
+        }
+        String encodedHash = knownHashes.getString(device.getAddress(), null);
+        return encodedHash == null ? null : Base64.decode(encodedHash, Base64.NO_WRAP);
+    }
+
+    @Override
+    public BluetoothGattService getBluetoothGattService() {
+        return genericAttributeGattService.getBluetoothGattService();
+    }
+}
@@ -1,6 +1,7 @@
 package com.google.heartrate.wearos.app.bluetooth.server.handlers;
 
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.util.Log;
@@ -8,17 +9,32 @@ import android.util.Log;
 import com.google.heartrate.wearos.app.bluetooth.server.BluetoothDeviceStorage;
 import com.google.heartrate.wearos.app.bluetooth.server.BluetoothServerCallback;
 import com.google.heartrate.wearos.app.bluetooth.server.notifiers.HeartRateCharacteristicNotifier;
+import com.google.heartrate.wearos.app.bluetooth.server.notifiers.HeartRateVariabilityNotifier;
+import com.google.heartrate.wearos.app.bluetooth.server.notifiers.VitalsFrameNotifier;
+import com.google.heartrate.wearos.app.gatt.GattException;
 import com.google.heartrate.wearos.app.gatt.attributes.GattService;
 import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.HeartRateMeasurementCharacteristic;
+import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.HeartRateVariabilitySummaryCharacteristic;
+import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.NotificationPeriodControlPointCharacteristic;
+import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.VitalsFrameCharacteristic;
+import com.google.heartrate.wearos.app.gatt.heartrate.descriptors.ClientCharacteristicConfigurationDescriptor;
 import com.google.heartrate.wearos.app.gatt.heartrate.service.HeartRateGattService;
-import com.google.heartrate.wearos.app.sensors.HeartRateSensorListener;
+import com.google.heartrate.wearos.app.sensors.HeartRateSensorController;
+import com.google.heartrate.wearos.app.sensors.HeartRateSource;
 
 import java.util.Arrays;
+import java.util.UUID;
 
 /**
  * {@link GattServiceRequestHandler} for Heart Rate service.
  *
  * <p>Provides methods to handle request from remote devices to Heart Rate service.
+ * Subscriptions to Heart Rate Measurement, Vitals Frame and Heart Rate Variability Summary characteristics
+ * are kept separately.
+ * Heart Rate Measurement subscriber may enable indications instead of notifications,
+ * then {@link BluetoothServerCallback} delivers every value to it and waits for confirmations.
+ * Every subscribed device is a consumer of {@link HeartRateSensorController}, and so are broadcast
+ * observers while Heart Rate Measurement is broadcast, so sensor runs only while somebody is listening.
  */
 public class HeartRateServiceRequestHandler implements GattServiceRequestHandler {
     private static final String TAG = HeartRateServiceRequestHandler.class.getSimpleName();
@@ -32,31 +48,99 @@ public class HeartRateServiceRequestHandler implements GattServiceRequestHandler
     /** Storage for all {@link BluetoothDevice} registered to Heart Rate Measurement characteristic. */
     private final BluetoothDeviceStorage registeredDeviceStorage;
 
-    public HeartRateServiceRequestHandler(HeartRateSensorListener heartRateSensorListener) {
+    /** Storage for all {@link BluetoothDevice} registered to Vitals Frame characteristic. */
+    private final BluetoothDeviceStorage vitalsFrameDeviceStorage;
+
+    /** Storage for all {@link BluetoothDevice} registered to Heart Rate Variability Summary characteristic. */
+    private final BluetoothDeviceStorage heartRateVariabilityDeviceStorage;
+
+    /** Storage for {@link BluetoothDevice} registered to Heart Rate Measurement characteristic for indications. */
+    private final BluetoothDeviceStorage indicationDeviceStorage;
+
+    /** Controller to start sensor for subscribed devices with. */
+    private final HeartRateSensorController heartRateSensorController;
+
+    /** Consumer of {@link HeartRateSensorController} standing for broadcast observers. */
+    private final Object broadcastObservers = new Object();
+
+    /** Server callback given when service was added, null if service is not added. */
+    private BluetoothServerCallback bluetoothServerCallback;
+
+    public HeartRateServiceRequestHandler(HeartRateSource heartRateSource,
+                                          HeartRateSensorController heartRateSensorController) {
+        this.heartRateSensorController = heartRateSensorController;
         heartRateGattService = new HeartRateGattService();
         registeredDeviceStorage = new BluetoothDeviceStorage();
+        vitalsFrameDeviceStorage = new BluetoothDeviceStorage();
+        heartRateVariabilityDeviceStorage = new BluetoothDeviceStorage();
+        indicationDeviceStorage = new BluetoothDeviceStorage();
         heartRateCharacteristicNotifier = new HeartRateCharacteristicNotifier(
                 heartRateGattService.getHeartRateMeasurementCharacteristic(),
-                heartRateSensorListener,
+                heartRateSource,
                 registeredDeviceStorage);
+        heartRateCharacteristicNotifier.setVitalsFrameNotifier(new VitalsFrameNotifier(
+                heartRateGattService.getVitalsFrameCharacteristic(),
+                heartRateSource,
+                vitalsFrameDeviceStorage));
+        heartRateCharacteristicNotifier.setHeartRateVariabilityNotifier(new HeartRateVariabilityNotifier(
+                heartRateGattService.getHeartRateVariabilitySummaryCharacteristic(),
+                heartRateSource,
+                heartRateVariabilityDeviceStorage));
     }
 
     /**
      * {@link GattServiceRequestHandler#onServiceAdded}
-     * <p>Register to {@link HeartRateSensorListener} to receive heart rate from sensor.
+     * <p>Register to {@link HeartRateSource} to receive heart rate from sensor.
      */
     @Override
     public void onServiceAdded(BluetoothServerCallback bluetoothServerCallback) {
+        this.bluetoothServerCallback = bluetoothServerCallback;
         heartRateCharacteristicNotifier.startNotification(bluetoothServerCallback);
+        updateBroadcastObservers();
+    }
+
+    /**
+     * {@link GattServiceRequestHandler#onBroadcastingChanged}
+     * <p>Start sensor for broadcast observers and schedule broadcast, or stop them.
+     */
+    @Override
+    public void onBroadcastingChanged() {
+        updateBroadcastObservers();
+        heartRateCharacteristicNotifier.onSubscribersChanged();
+    }
+
+    /**
+     * Acquire sensor for broadcast observers while Heart Rate Measurement is broadcast, release it otherwise.
+     */
+    private void updateBroadcastObservers() {
+        if (bluetoothServerCallback != null && bluetoothServerCallback.isBroadcasting(getBluetoothGattService())) {
+            heartRateSensorController.acquire(broadcastObservers);
+        } else {
+            heartRateSensorController.release(broadcastObservers);
+        }
     }
 
     /**
      * {@link GattServiceRequestHandler#onServiceAdded}
-     * <p>Unregister to {@link HeartRateSensorListener}.
+     * <p>Unregister to {@link HeartRateSource}.
      */
     @Override
     public void onServiceRemoved() {
+        for (BluetoothDevice device : registeredDeviceStorage.getAllDevices()) {
+            heartRateSensorController.release(device);
+        }
+        for (BluetoothDevice device : vitalsFrameDeviceStorage.getAllDevices()) {
+            heartRateSensorController.release(device);
+        }
+        for (BluetoothDevice device : heartRateVariabilityDeviceStorage.getAllDevices()) {
+            heartRateSensorController.release(device);
+        }
+        heartRateSensorController.release(broadcastObservers);
+        bluetoothServerCallback = null;
         registeredDeviceStorage.removeAllDevices();
+        vitalsFrameDeviceStorage.removeAllDevices();
+        heartRateVariabilityDeviceStorage.removeAllDevices();
+        indicationDeviceStorage.removeAllDevices();
         heartRateCharacteristicNotifier.stopNotification();
     }
 
@@ -67,10 +151,36 @@ public class HeartRateServiceRequestHandler implements GattServiceRequestHandler
     @Override
     public void onDeviceDisconnected(BluetoothDevice device) {
         registeredDeviceStorage.removeDevice(device);
+        vitalsFrameDeviceStorage.removeDevice(device);
+        heartRateVariabilityDeviceStorage.removeDevice(device);
+        indicationDeviceStorage.removeDevice(device);
+        heartRateSensorController.release(device);
+        heartRateCharacteristicNotifier.onDeviceDisconnected(device);
     }
 
     /**
-     * Determine wether remote device is registered for notifications about Heart Rate Measurement characteristic change or not.
+     * Save notification period written by remote device to Notification Period Control Point characteristic.
+     *
+     * @param device the remote device that has requested the write operation
+     * @param characteristic characteristic to be written
+     * @param offset offset into the value of the characteristic
+     * @param value value the client wants to assign to the characteristic
+     * @throws GattException if characteristic is not writable or value is malformed
+     */
+    @Override
+    public void onCharacteristicWrite(BluetoothDevice device, BluetoothGattCharacteristic characteristic,
+                                      int offset, byte[] value) throws GattException {
+        if (!NotificationPeriodControlPointCharacteristic.NOTIFICATION_PERIOD_CONTROL_POINT_UUID
+                .equals(characteristic.getUuid())) {
+            GattServiceRequestHandler.super.onCharacteristicWrite(device, characteristic, offset, value);
+            return;
+        }
+        heartRateCharacteristicNotifier.setNotificationPeriod(device,
+                NotificationPeriodControlPointCharacteristic.parsePeriod(value));
+    }
+
+    /**
+     * Determine wether remote device is registered for notifications about change of descriptor's characteristic or not.
      *
      * <p>Read descriptor request for Heart Rate service is the way for remote device to check status of registration
      * to Heart Rate Measurement characteristic.
@@ -79,21 +189,26 @@ public class HeartRateServiceRequestHandler implements GattServiceRequestHandler
      * @param descriptor descriptor to be read
      * @param offset offset into the value of the descriptor
      * @return {@link BluetoothGattDescriptor#ENABLE_NOTIFICATION_VALUE} if device is registered for notifications,
+     * {@link BluetoothGattDescriptor#ENABLE_INDICATION_VALUE} if device is registered for indications,
      * {@link BluetoothGattDescriptor#DISABLE_NOTIFICATION_VALUE} otherwise
      */
     @Override
     public byte[] onDescriptorRead(BluetoothDevice device, BluetoothGattDescriptor descriptor, int offset) {
-        if (registeredDeviceStorage.contains(device)) {
-            return BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE;
-        } else {
+        BluetoothDeviceStorage deviceStorage = getDeviceStorage(descriptor);
+        if (!deviceStorage.contains(device)) {
             return BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE;
+        } else if (deviceStorage == registeredDeviceStorage && indicationDeviceStorage.contains(device)) {
+            return BluetoothGattDescriptor.ENABLE_INDICATION_VALUE;
+        } else {
+            return BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE;
         }
     }
 
     /**
-     * Register (if given value is {@link BluetoothGattDescriptor#ENABLE_NOTIFICATION_VALUE}) or
+     * Register (if given value is {@link BluetoothGattDescriptor#ENABLE_NOTIFICATION_VALUE}
+     * or {@link BluetoothGattDescriptor#ENABLE_INDICATION_VALUE}) or
      * unregister (if given value is {@link BluetoothGattDescriptor#DISABLE_NOTIFICATION_VALUE})
-     * remote device for notifications about Heart Rate Measurement characteristic change.
+     * remote device for notifications or indications about change of descriptor's characteristic.
      *
      * <p>Write descriptor request for Heart Rate service is the way for remote device to subscribe/unsubscribe
      * for Heart Rate Measurement characteristic change notification.
@@ -101,16 +216,64 @@ public class HeartRateServiceRequestHandler implements GattServiceRequestHandler
      * @param device the remote device that has requested the read operation
      * @param descriptor descriptor to be read
      * @param offset offset into the value of the descriptor
+     * @throws GattException if indications are enabled for characteristic which does not support them,
+     * or value is none of the three defined configurations, so it is neither applied nor persisted
      */
     @Override
-    public void onDescriptorWrite(BluetoothDevice device, BluetoothGattDescriptor descriptor, int offset, byte[] value) {
+    public void onDescriptorWrite(BluetoothDevice device, BluetoothGattDescriptor descriptor, int offset, byte[] value)
+            throws GattException {
+        BluetoothDeviceStorage deviceStorage = getDeviceStorage(descriptor);
         if (Arrays.equals(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE, value)) {
             Log.d(TAG, String.format("Subscribe device %s to notifications", device));
-            registeredDeviceStorage.addDevice(device);
+            deviceStorage.addDevice(device);
+            if (deviceStorage == registeredDeviceStorage) {
+                indicationDeviceStorage.removeDevice(device);
+            }
+        } else if (Arrays.equals(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE, value)) {
+            if ((descriptor.getCharacteristic().getProperties()
+                    & BluetoothGattCharacteristic.PROPERTY_INDICATE) == 0) {
+                throw new GattException(String.format("Characteristic %s does not support indications",
+                        descriptor.getCharacteristic().getUuid()),
+                        ClientCharacteristicConfigurationDescriptor.CCCD_IMPROPERLY_CONFIGURED);
+            }
+            Log.d(TAG, String.format("Subscribe device %s to indications", device));
+            deviceStorage.addDevice(device);
+            indicationDeviceStorage.addDevice(device);
         } else if (Arrays.equals(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE, value)) {
             Log.d(TAG, String.format("Unsubscribe device %s from notifications", device));
-            registeredDeviceStorage.removeDevice(device);
+            deviceStorage.removeDevice(device);
+            if (deviceStorage == registeredDeviceStorage) {
+                indicationDeviceStorage.removeDevice(device);
+            }
+        } else {
+            throw new GattException(String.format("Invalid Client Characteristic Configuration value %s",
+                    Arrays.toString(value)), ClientCharacteristicConfigurationDescriptor.CCCD_IMPROPERLY_CONFIGURED);
+        }
+        if (registeredDeviceStorage.contains(device) || vitalsFrameDeviceStorage.contains(device)
+                || heartRateVariabilityDeviceStorage.contains(device)) {
+            heartRateSensorController.acquire(device);
+        } else {
+            heartRateSensorController.release(device);
+        }
+        heartRateCharacteristicNotifier.onSubscribersChanged();
+    }
+
+    /**
+     * Get storage of devices registered to characteristic of given descriptor.
+     *
+     * @param descriptor Client Characteristic Configuration descriptor
+     * @return storage of Vitals Frame or Heart Rate Variability Summary subscribers for their descriptors,
+     * of Heart Rate Measurement subscribers otherwise
+     */
+    private BluetoothDeviceStorage getDeviceStorage(BluetoothGattDescriptor descriptor) {
+        UUID characteristicUuid = descriptor.getCharacteristic().getUuid();
+        if (VitalsFrameCharacteristic.VITALS_FRAME_UUID.equals(characteristicUuid)) {
+            return vitalsFrameDeviceStorage;
+        } else if (HeartRateVariabilitySummaryCharacteristic.HEART_RATE_VARIABILITY_SUMMARY_UUID
+                .equals(characteristicUuid)) {
+            return heartRateVariabilityDeviceStorage;
         }
+        return registeredDeviceStorage;
     }
 
     @Override
@@ -1,24 +1,44 @@
 package com.google.heartrate.wearos.app.bluetooth.server.notifiers;
 
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
 import android.util.Log;
 
 import com.google.heartrate.wearos.app.bluetooth.server.BluetoothDeviceStorage;
 import com.google.heartrate.wearos.app.bluetooth.server.BluetoothServerCallback;
+import com.google.heartrate.wearos.app.bluetooth.server.GattEventLoop;
 import com.google.heartrate.wearos.app.gatt.GattException;
 import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.HeartRateMeasurementCharacteristic;
-import com.google.heartrate.wearos.app.sensors.HeartRateSensorListener;
+import com.google.heartrate.wearos.app.sensors.HeartRateSource;
 import com.google.heartrate.wearos.app.sensors.SensorException;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
 
 /**
  * Class {@link HeartRateCharacteristicNotifier} provides methods to schedule notification operations
  * about Heart Rate Measurement characteristic change.
+ *
+ * <p>Every subscribed device is notified with its own period, which device can request
+ * with {@link #setNotificationPeriod}, e.g. every second for live display and every minute for logger.
+ * Schedules of all devices, and of broadcast if it is started, are kept in {@link NotificationScheduler}
+ * of server, which is shared with notifiers of other service instances, so CPU is woken up once per tick
+ * however many instances have due devices in it. Heart rate is read and encoded once per tick
+ * for all devices due in it. Scheduling stops while there are no subscribed devices and no broadcast observers.
+ *
+ * <p>On every tick of its period device is notified only if {@link NotificationSuppressor} finds
+ * that heart rate changed enough or device has not been notified for too long, so steady heart rate
+ * costs one keep-alive per silence period whatever period device requested.
+ * {@link VitalsFrameNotifier} sends frames and {@link HeartRateVariabilityNotifier} sends variability summaries
+ * to their due subscribers on the same ticks.
+ *
+ * <p>Notifier state is owned by {@link GattEventLoop} thread: all public methods must be invoked on it
+ * and wakeups post notifications to it.
  */
 public class HeartRateCharacteristicNotifier {
     private static final String TAG = HeartRateCharacteristicNotifier.class.getSimpleName();
@@ -26,45 +46,122 @@ public class HeartRateCharacteristicNotifier {
     /**  Delay before first notification. */
     private static final long NOTIFY_FIRST_WAIT_PERIOD_MS = 1000;
 
-    /** Period between successive notifications. */
+    /** Default period between successive notifications of one device. */
     private static final long NOTIFY_WAIT_PERIOD_MS = 30 * 1000;
 
-    /** Instance of {@link ScheduledExecutorService} for notification scheduling. */
-    private ScheduledExecutorService notificationExecutor = Executors.newSingleThreadScheduledExecutor();
+    /** Default minimum change of heart rate to notify device about (bpm). */
+    private static final int DEFAULT_MIN_HEART_RATE_CHANGE = 2;
 
-    /** {@link ScheduledFuture} of notification timer. */
-    private ScheduledFuture<?> notificationTimerFuture;
+    /** Default maximum time device is left without notification. */
+    private static final long DEFAULT_MAX_SILENCE_PERIOD_MS = 60 * 1000;
+
+    /** Server callback to send notifications with, null if notifications are stopped. */
+    private BluetoothServerCallback bluetoothServerCallback;
+
+    /** Delay before first notification of new consumer (ticks). */
+    private long firstWaitTicks;
+
+    /** Default period between successive notifications (ticks). */
+    private long waitTicks;
+
+    /** Scheduler of consumers shared by notifiers of server, null if notifications are stopped. */
+    private NotificationScheduler notificationScheduler;
+
+    /** This notifier as client of {@link NotificationScheduler}. */
+    private final NotificationScheduler.Client schedulerClient = this::onConsumersDue;
+
+    /** Consumers by subscribed device. */
+    private final Map<BluetoothDevice, NotificationScheduler.Entry> consumerByDevice = new HashMap<>();
+
+    /** Consumer standing for broadcast observers, null if values are not broadcast. */
+    private NotificationScheduler.Entry broadcastConsumer;
+
+    /** Notification periods (ticks) requested by connected devices. */
+    private final Map<BluetoothDevice, Long> requestedPeriodByDevice = new HashMap<>();
+
+    /** Due devices subscribed to Heart Rate Measurement, reused between ticks. */
+    private final List<BluetoothDevice> heartRateMeasurementDevices = new ArrayList<>();
+
+    /** Due devices to send Vitals Frame to, reused between ticks. */
+    private final List<BluetoothDevice> vitalsFrameDevices = new ArrayList<>();
+
+    /** Due devices to send Heart Rate Variability Summary to, reused between ticks. */
+    private final List<BluetoothDevice> heartRateVariabilityDevices = new ArrayList<>();
 
     /** Heart Rate Measurement characteristic to notify about. */
     private final HeartRateMeasurementCharacteristic heartRateMeasurementCharacteristic;
 
-    /** Heart Rate sensor to get Heart Rate Measurement value from. */
-    private final HeartRateSensorListener heartRateSensorListener;
+    /** Source to get Heart Rate Measurement value from. */
+    private final HeartRateSource heartRateSource;
 
     /** Storage for all {@link BluetoothDevice} registered to Heart Rate Measurement characteristic. */
     private final BluetoothDeviceStorage registeredDeviceStorage;
 
+    /** Suppressor of notifications about insignificant heart rate changes. */
+    private final NotificationSuppressor notificationSuppressor;
+
+    /** Notifier of Vitals Frame subscribers, null if vitals frames are not sent. */
+    private VitalsFrameNotifier vitalsFrameNotifier;
+
+    /** Notifier of Heart Rate Variability Summary subscribers, null if summaries are not sent. */
+    private HeartRateVariabilityNotifier heartRateVariabilityNotifier;
+
     public HeartRateCharacteristicNotifier(HeartRateMeasurementCharacteristic heartRateMeasurementCharacteristic,
-                                           HeartRateSensorListener heartRateSensorListener,
+                                           HeartRateSource heartRateSource,
                                            BluetoothDeviceStorage registeredDeviceStorage) {
+        this(heartRateMeasurementCharacteristic, heartRateSource, registeredDeviceStorage,
+                DEFAULT_MIN_HEART_RATE_CHANGE, DEFAULT_MAX_SILENCE_PERIOD_MS);
+    }
+
+    /**
+     * Create notifier with given suppression thresholds.
+     *
+     * @param minHeartRateChange minimum change of heart rate to notify device about (bpm)
+     * @param maxSilencePeriodMs maximum time device is left without notification (milliseconds),
+     *                           rounded up to whole {@link NotificationScheduler#TICK_MS} ticks
+     */
+    public HeartRateCharacteristicNotifier(HeartRateMeasurementCharacteristic heartRateMeasurementCharacteristic,
+                                           HeartRateSource heartRateSource,
+                                           BluetoothDeviceStorage registeredDeviceStorage,
+                                           int minHeartRateChange,
+                                           long maxSilencePeriodMs) {
         this.heartRateMeasurementCharacteristic = heartRateMeasurementCharacteristic;
-        this.heartRateSensorListener = heartRateSensorListener;
+        this.heartRateSource = heartRateSource;
         this.registeredDeviceStorage = registeredDeviceStorage;
+        this.notificationSuppressor = new NotificationSuppressor(minHeartRateChange,
+                NotificationScheduler.toTicks(maxSilencePeriodMs));
     }
 
-    public void changeCharacteristic() throws GattException {
-        try {
-            heartRateMeasurementCharacteristic
-                    .setHeartRateCharacteristicValue(heartRateSensorListener.getCurrentHeartRateValue(), Optional.empty());
-        } catch (SensorException e) {
-            Log.e(TAG, String.format("Can not get value from sensor: %s", e.getMessage()));
-        }
+    /**
+     * Set notifier of Vitals Frame subscribers, which are scheduled together with Heart Rate Measurement ones.
+     *
+     * @param vitalsFrameNotifier notifier to run
+     */
+    public void setVitalsFrameNotifier(VitalsFrameNotifier vitalsFrameNotifier) {
+        this.vitalsFrameNotifier = vitalsFrameNotifier;
+    }
+
+    /**
+     * Set notifier of Heart Rate Variability Summary subscribers,
+     * which are scheduled together with Heart Rate Measurement ones.
+     *
+     * @param heartRateVariabilityNotifier notifier to run
+     */
+    public void setHeartRateVariabilityNotifier(HeartRateVariabilityNotifier heartRateVariabilityNotifier) {
+        this.heartRateVariabilityNotifier = heartRateVariabilityNotifier;
     }
 
-    private void notifyCharacteristicChanged(BluetoothServerCallback bluetoothServerCallback) {
-        bluetoothServerCallback.onCharacteristicChanged(
-                heartRateMeasurementCharacteristic.getBluetoothGattCharacteristic(),
-                registeredDeviceStorage.getAllDevices());
+    /**
+     * Set current heart rate value from sensor to characteristic.
+     *
+     * @return heart rate value set to characteristic
+     * @throws GattException if value can not be set to characteristic
+     * @throws SensorException if sensor has no value
+     */
+    public int changeCharacteristic() throws GattException, SensorException {
+        int heartRate = heartRateSource.getCurrentHeartRateValue();
+        heartRateMeasurementCharacteristic.setHeartRateCharacteristicValue(heartRate, Optional.empty());
+        return heartRate;
     }
 
     /** Start scheduled notification with default parameters. */
@@ -75,25 +172,266 @@ public class HeartRateCharacteristicNotifier {
 
     /**
      * Start scheduled run with given parameters.
-     * @param firstWaitPeriod delay before first notification (seconds)
-     * @param waitPeriod period between successive notifications (seconds)
+     * @param firstWaitPeriod delay before first notification (milliseconds)
+     * @param waitPeriod default period between successive notifications (milliseconds)
      */
     public void startNotification(long firstWaitPeriod, long waitPeriod, BluetoothServerCallback bluetoothServerCallback) {
-        notificationTimerFuture = notificationExecutor.scheduleWithFixedDelay(() -> {
-            try {
-                changeCharacteristic();
-                notifyCharacteristicChanged(bluetoothServerCallback);
-            } catch (GattException e) {
-                Log.e(TAG, e.getMessage());
-            }
-        }, firstWaitPeriod, waitPeriod, TimeUnit.MILLISECONDS);
+        this.bluetoothServerCallback = bluetoothServerCallback;
+        this.notificationScheduler = bluetoothServerCallback.getNotificationScheduler();
+        this.firstWaitTicks = NotificationScheduler.toTicks(firstWaitPeriod);
+        this.waitTicks = NotificationScheduler.toTicks(waitPeriod);
+        consumerByDevice.clear();
+        broadcastConsumer = null;
+        updateConsumers();
+    }
+
+    /**
+     * Resume scheduled notifications after the first device subscribed
+     * or stop them after the last device unsubscribed.
+     */
+    public void onSubscribersChanged() {
+        if (bluetoothServerCallback == null) {
+            return;
+        }
+        boolean hadConsumers = getConsumerCount() > 0;
+        updateConsumers();
+        if (getConsumerCount() == 0 && hadConsumers) {
+            Log.d(TAG, "No consumers left, stop scheduling notifications");
+        } else if (!hadConsumers && getConsumerCount() > 0) {
+            Log.d(TAG, "First consumer appeared, schedule notifications");
+        }
+    }
+
+    /**
+     * Set period device wants to be notified with. Period is kept until device disconnects,
+     * so device can request it before subscribing.
+     *
+     * @param device device which requested period
+     * @param periodSeconds (seconds) requested period, 0 to return to default period
+     */
+    public void setNotificationPeriod(BluetoothDevice device, int periodSeconds) {
+        if (periodSeconds == 0) {
+            Log.d(TAG, String.format("Device %s requested default notification period", device));
+            requestedPeriodByDevice.remove(device);
+        } else {
+            Log.d(TAG, String.format("Device %s requested notification period %d s", device, periodSeconds));
+            requestedPeriodByDevice.put(device, NotificationScheduler.toTicks(periodSeconds * 1000L));
+        }
+
+        NotificationScheduler.Entry consumer = consumerByDevice.get(device);
+        if (consumer == null || bluetoothServerCallback == null) {
+            return;
+        }
+        long periodTicks = getPeriodTicks(device);
+        if (notificationScheduler.getRemainingTicks(consumer) > periodTicks) {
+            /* Device which asked for faster rate should not wait for the rest of its old period */
+            notificationScheduler.schedule(consumer, periodTicks);
+        }
+        updateMaxReportLatency();
+    }
+
+    /**
+     * Forget notification period, suppression state and RR-Interval position of disconnected device.
+     *
+     * @param device disconnected device
+     */
+    public void onDeviceDisconnected(BluetoothDevice device) {
+        requestedPeriodByDevice.remove(device);
+        notificationSuppressor.removeDevice(device);
+        if (vitalsFrameNotifier != null) {
+            vitalsFrameNotifier.onDeviceDisconnected(device);
+        }
+        if (heartRateVariabilityNotifier != null) {
+            heartRateVariabilityNotifier.onDeviceDisconnected(device);
+        }
+        onSubscribersChanged();
     }
 
     /** Stop scheduled run. */
     public void stopNotification() {
-        if (notificationTimerFuture != null) {
-            notificationTimerFuture.cancel(true);
-            notificationTimerFuture = null;
+        if (notificationScheduler != null) {
+            for (NotificationScheduler.Entry consumer : consumerByDevice.values()) {
+                notificationScheduler.cancel(consumer);
+            }
+            if (broadcastConsumer != null) {
+                notificationScheduler.cancel(broadcastConsumer);
+            }
+        }
+        bluetoothServerCallback = null;
+        notificationScheduler = null;
+        consumerByDevice.clear();
+        broadcastConsumer = null;
+        notificationSuppressor.reset();
+        heartRateSource.setMaxReportLatency(Long.MAX_VALUE);
+    }
+
+    /**
+     * Get number of consumers with scheduled notifications.
+     *
+     * @return number of subscribed devices and broadcast, if values are broadcast
+     */
+    int getConsumerCount() {
+        return consumerByDevice.size() + (broadcastConsumer != null ? 1 : 0);
+    }
+
+    /**
+     * Bring schedules in line with current subscribers and broadcast state:
+     * schedule first notification for new consumers and cancel schedules of consumers which left.
+     */
+    private void updateConsumers() {
+        Iterator<Map.Entry<BluetoothDevice, NotificationScheduler.Entry>> iterator =
+                consumerByDevice.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<BluetoothDevice, NotificationScheduler.Entry> entry = iterator.next();
+            if (!isSubscribed(entry.getKey())) {
+                notificationScheduler.cancel(entry.getValue());
+                iterator.remove();
+            }
+        }
+        addConsumers(registeredDeviceStorage.getAllDevices());
+        if (vitalsFrameNotifier != null) {
+            addConsumers(vitalsFrameNotifier.getSubscribers());
+        }
+        if (heartRateVariabilityNotifier != null) {
+            addConsumers(heartRateVariabilityNotifier.getSubscribers());
+        }
+
+        boolean broadcasting = bluetoothServerCallback.isBroadcasting(
+                heartRateMeasurementCharacteristic.getBluetoothGattCharacteristic().getService());
+        if (broadcasting && broadcastConsumer == null) {
+            broadcastConsumer = new NotificationScheduler.Entry(schedulerClient, null);
+            notificationScheduler.schedule(broadcastConsumer, firstWaitTicks);
+        } else if (!broadcasting && broadcastConsumer != null) {
+            notificationScheduler.cancel(broadcastConsumer);
+            broadcastConsumer = null;
+        }
+        updateMaxReportLatency();
+    }
+
+    /**
+     * Let source batch values for no longer than the shortest period among consumers,
+     * so every notification carries value measured within its period.
+     */
+    private void updateMaxReportLatency() {
+        long minPeriodTicks = broadcastConsumer != null ? waitTicks : Long.MAX_VALUE;
+        for (BluetoothDevice device : consumerByDevice.keySet()) {
+            minPeriodTicks = Math.min(minPeriodTicks, getPeriodTicks(device));
+        }
+        heartRateSource.setMaxReportLatency(minPeriodTicks == Long.MAX_VALUE ?
+                Long.MAX_VALUE :
+                minPeriodTicks * NotificationScheduler.TICK_MS);
+    }
+
+    private void addConsumers(Set<BluetoothDevice> devices) {
+        for (BluetoothDevice device : devices) {
+            if (!consumerByDevice.containsKey(device)) {
+                NotificationScheduler.Entry consumer = new NotificationScheduler.Entry(schedulerClient, device);
+                consumerByDevice.put(device, consumer);
+                notificationScheduler.schedule(consumer, firstWaitTicks);
+            }
+        }
+    }
+
+    private boolean isSubscribed(BluetoothDevice device) {
+        return registeredDeviceStorage.contains(device)
+                || (vitalsFrameNotifier != null && vitalsFrameNotifier.getSubscribers().contains(device))
+                || (heartRateVariabilityNotifier != null
+                        && heartRateVariabilityNotifier.getSubscribers().contains(device));
+    }
+
+    private long getPeriodTicks(BluetoothDevice device) {
+        Long period = device == null ? null : requestedPeriodByDevice.get(device);
+        return period != null ? period : waitTicks;
+    }
+
+    /**
+     * Notify consumers due by now and schedule their next notifications.
+     * Invoked by {@link NotificationScheduler} on {@link GattEventLoop} thread.
+     */
+    private void onConsumersDue(List<NotificationScheduler.Entry> dueConsumers, long nowMs) {
+        BluetoothServerCallback callback = bluetoothServerCallback;
+        if (callback == null) {
+            return;
+        }
+        notifyConsumers(callback, dueConsumers, notificationScheduler.getCurrentTick());
+        for (NotificationScheduler.Entry consumer : dueConsumers) {
+            notificationScheduler.schedule(consumer, getPeriodTicks(consumer.getDevice()));
+        }
+        updateConsumers();
+    }
+
+    /**
+     * Notify due consumers about current heart rate. Value is set to characteristic once for all of them.
+     */
+    private void notifyConsumers(BluetoothServerCallback callback, List<NotificationScheduler.Entry> dueConsumers,
+                                 long nowTick) {
+        boolean broadcastDue = false;
+        heartRateMeasurementDevices.clear();
+        vitalsFrameDevices.clear();
+        heartRateVariabilityDevices.clear();
+        for (NotificationScheduler.Entry consumer : dueConsumers) {
+            BluetoothDevice device = consumer.getDevice();
+            if (device == null) {
+                broadcastDue = true;
+                continue;
+            }
+            if (registeredDeviceStorage.contains(device)) {
+                heartRateMeasurementDevices.add(device);
+            }
+            if (vitalsFrameNotifier != null && vitalsFrameNotifier.getSubscribers().contains(device)) {
+                vitalsFrameDevices.add(device);
+            }
+            if (heartRateVariabilityNotifier != null
+                    && heartRateVariabilityNotifier.getSubscribers().contains(device)) {
+                heartRateVariabilityDevices.add(device);
+            }
+        }
+
+        if (broadcastDue || !heartRateMeasurementDevices.isEmpty()) {
+            int heartRate = trySetCharacteristic();
+            if (heartRate != HeartRateSource.NO_VALUE_AVAILABLE) {
+                Set<BluetoothDevice> devicesToNotify = notificationSuppressor.selectDevices(
+                        heartRateMeasurementDevices, registeredDeviceStorage.getAllDevices(), heartRate, nowTick);
+                Set<BluetoothDevice> sentDevices = callback.onCharacteristicChanged(
+                        heartRateMeasurementCharacteristic.getBluetoothGattCharacteristic(), devicesToNotify);
+                /* Device which has not been notified is selected again on its next tick */
+                for (BluetoothDevice device : sentDevices) {
+                    notificationSuppressor.onSent(device, heartRate, nowTick);
+                }
+            }
+        }
+        if (vitalsFrameNotifier != null) {
+            vitalsFrameNotifier.notifyDevices(callback, vitalsFrameDevices);
+        }
+        if (heartRateVariabilityNotifier != null) {
+            heartRateVariabilityNotifier.notifyDevices(callback, heartRateVariabilityDevices);
+        }
+        heartRateMeasurementDevices.clear();
+        vitalsFrameDevices.clear();
+        heartRateVariabilityDevices.clear();
+    }
+
+    /**
+     * Set current heart rate value from sensor to characteristic without throwing.
+     * Sensor has no value until its first sample, e.g. for every tick of warm-up,
+     * so it is an expected state here rather than an error.
+     *
+     * @return heart rate value set to characteristic, {@link HeartRateSource#NO_VALUE_AVAILABLE}
+     * if sensor has no value or value has not been set
+     */
+    private int trySetCharacteristic() {
+        int heartRate = heartRateSource.peekCurrentHeartRateValue();
+        if (heartRate == HeartRateSource.NO_VALUE_AVAILABLE) {
+            Log.v(TAG, "No heart rate value yet, skip notification");
+            return HeartRateSource.NO_VALUE_AVAILABLE;
+        }
+        int status = heartRateMeasurementCharacteristic.trySetHeartRateCharacteristicValue(heartRate,
+                HeartRateMeasurementCharacteristic.NO_EXPENDED_ENERGY);
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            Log.e(TAG, String.format("Heart rate %d has not been set to characteristic, status %d",
+                    heartRate, status));
+            return HeartRateSource.NO_VALUE_AVAILABLE;
         }
+        return heartRate;
     }
 }
@@ -0,0 +1,133 @@
+package com.google.heartrate.wearos.app.bluetooth.server.notifiers;
+
+import android.bluetooth.BluetoothDevice;
+import android.util.Log;
+
+import com.google.heartrate.wearos.app.bluetooth.server.BluetoothDeviceStorage;
+import com.google.heartrate.wearos.app.bluetooth.server.BluetoothServerCallback;
+import com.google.heartrate.wearos.app.bluetooth.server.GattEventLoop;
+import com.google.heartrate.wearos.app.gatt.GattException;
+import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.HeartRateVariabilitySummary;
+import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.HeartRateVariabilitySummaryCharacteristic;
+import com.google.heartrate.wearos.app.sensors.HeartRateSource;
+import com.google.heartrate.wearos.app.sensors.HeartRateVariability;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class {@link HeartRateVariabilityNotifier} sends {@link HeartRateVariabilitySummary} to devices subscribed
+ * to Heart Rate Variability Summary characteristic.
+ *
+ * <p>Summaries are sent whenever {@link HeartRateCharacteristicNotifier} finds device due, so device gets
+ * one small notification per its period instead of every RR-Interval. Device is not notified
+ * if no beat has been added to window since its previous summary, e.g. while sensor has no contact.
+ * Summary is encoded once for all devices due in the same tick.
+ *
+ * <p>Notifier state is owned by {@link GattEventLoop} thread: all methods must be invoked on it.
+ */
+public class HeartRateVariabilityNotifier {
+    private static final String TAG = HeartRateVariabilityNotifier.class.getSimpleName();
+
+    /** Maximum value of UInt16 summary fields. */
+    private static final int MAX_UINT16 = 0xFFFF;
+
+    /** Heart Rate Variability Summary characteristic to notify about. */
+    private final HeartRateVariabilitySummaryCharacteristic summaryCharacteristic;
+
+    /** Source to get heart rate variability from. */
+    private final HeartRateSource heartRateSource;
+
+    /** Storage for all {@link BluetoothDevice} registered to Heart Rate Variability Summary characteristic. */
+    private final BluetoothDeviceStorage registeredDeviceStorage;
+
+    /** Statistics reused for every read from source. */
+    private final HeartRateVariability heartRateVariability = new HeartRateVariability();
+
+    /** Summary reused for every notification. */
+    private final HeartRateVariabilitySummary summary = new HeartRateVariabilitySummary();
+
+    /** Window sequence number of the last summary sent to device. */
+    private final Map<BluetoothDevice, Long> sentSequenceByDevice = new HashMap<>();
+
+    public HeartRateVariabilityNotifier(HeartRateVariabilitySummaryCharacteristic summaryCharacteristic,
+                                        HeartRateSource heartRateSource,
+                                        BluetoothDeviceStorage registeredDeviceStorage) {
+        this.summaryCharacteristic = summaryCharacteristic;
+        this.heartRateSource = heartRateSource;
+        this.registeredDeviceStorage = registeredDeviceStorage;
+    }
+
+    /**
+     * Get devices subscribed to Heart Rate Variability Summary characteristic.
+     *
+     * @return subscribed devices
+     */
+    public Set<BluetoothDevice> getSubscribers() {
+        return registeredDeviceStorage.getAllDevices();
+    }
+
+    /**
+     * Forget the last summary sent to disconnected device.
+     *
+     * @param device disconnected device
+     */
+    public void onDeviceDisconnected(BluetoothDevice device) {
+        sentSequenceByDevice.remove(device);
+    }
+
+    /**
+     * Send summary of current heart rate variability to given subscribed devices.
+     * Nothing is sent while source has no successive RR-Intervals.
+     *
+     * @param bluetoothServerCallback server callback to send notifications with
+     * @param dueDevices subscribed devices to notify
+     */
+    public void notifyDevices(BluetoothServerCallback bluetoothServerCallback,
+                              Collection<BluetoothDevice> dueDevices) {
+        sentSequenceByDevice.keySet().retainAll(registeredDeviceStorage.getAllDevices());
+        if (dueDevices.isEmpty()) {
+            return;
+        }
+        if (!heartRateSource.getHeartRateVariability(heartRateVariability)) {
+            Log.v(TAG, "No heart rate variability yet, skip notification");
+            return;
+        }
+        updateSummary();
+        try {
+            summaryCharacteristic.setSummary(summary);
+        } catch (GattException e) {
+            Log.e(TAG, String.format("Can not set heart rate variability summary: %s", e.getMessage()));
+            return;
+        }
+
+        long sequence = heartRateVariability.sequence;
+        for (BluetoothDevice device : dueDevices) {
+            Long sentSequence = sentSequenceByDevice.get(device);
+            if (sentSequence != null && sentSequence == sequence) {
+                continue;
+            }
+            if (bluetoothServerCallback.notifyDevice(device, summaryCharacteristic.getBluetoothGattCharacteristic())) {
+                sentSequenceByDevice.put(device, sequence);
+            }
+        }
+    }
+
+    /**
+     * Convert statistics to summary fields, saturating values which do not fit into UInt16.
+     */
+    private void updateSummary() {
+        summary.windowLength = toUInt16(heartRateVariability.windowSeconds);
+        summary.intervalCount = toUInt16(heartRateVariability.intervalCount);
+        summary.meanNn = toUInt16(Math.round(heartRateVariability.meanNnMs));
+        summary.sdnn = toUInt16(Math.round(heartRateVariability.sdnnMs * 10));
+        summary.rmssd = toUInt16(Math.round(heartRateVariability.rmssdMs * 10));
+        summary.pnn50 = toUInt16(Math.round(heartRateVariability.pnn50 * 10000));
+    }
+
+    private static int toUInt16(long value) {
+        return (int) Math.min(MAX_UINT16, Math.max(0, value));
+    }
+}
@@ -0,0 +1,306 @@
+package com.google.heartrate.wearos.app.bluetooth.server.notifiers;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.heartrate.wearos.app.bluetooth.server.GattEventLoop;
+import com.google.heartrate.wearos.app.power.WakeLockScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class {@link NotificationScheduler} keeps notification schedules of all notifiers of one server
+ * in one {@link TimingWheel} with {@link #TICK_MS} resolution.
+ *
+ * <p>Server may host several instances of a service, each with its own notifier and subscribers.
+ * Only the earliest expiration among all of them is scheduled with {@link WakeLockScheduler},
+ * so instances due in the same tick are served in one wakeup rather than each waking CPU up on its own alarm.
+ * On wakeup every {@link Client} with due entries gets all of them in one batch.
+ *
+ * <p>Scheduler state is owned by {@link GattEventLoop} thread: all public methods must be invoked on it
+ * and wakeups post due entries to it.
+ */
+public class NotificationScheduler {
+    private static final String TAG = NotificationScheduler.class.getSimpleName();
+
+    /** Resolution of notification schedules. */
+    public static final long TICK_MS = 1000;
+
+    /** Delay before wakeup rejected by full mailbox is posted again (milliseconds). */
+    private static final long WAKEUP_RETRY_DELAY_MS = TICK_MS / 10;
+
+    /**
+     * Owner of scheduled entries, e.g. notifier of one service instance.
+     */
+    public interface Client {
+
+        /**
+         * Handle entries of this client due by now. Entries are not scheduled anymore,
+         * client reschedules the ones which should be notified again.
+         *
+         * @param dueEntries due entries, list is reused after call returns
+         * @param nowMs current time (milliseconds of elapsed realtime)
+         */
+        void onEntriesDue(List<Entry> dueEntries, long nowMs);
+    }
+
+    /** {@link WakeLockScheduler} to wake CPU up for due entries. */
+    private final WakeLockScheduler wakeLockScheduler;
+
+    /** Event loop to handle due entries on. */
+    private final GattEventLoop eventLoop;
+
+    /** Time of tick 0 of timing wheel (milliseconds of elapsed realtime). */
+    private final long wheelStartMs;
+
+    /** Schedules of entries of all clients. */
+    private final TimingWheel<Entry> timingWheel = new TimingWheel<>(0);
+
+    /** Entries due in the current tick, reused between ticks. */
+    private final List<Entry> dueEntries = new ArrayList<>();
+
+    /** Clients with entries due in the current tick, reused between ticks. */
+    private final List<Client> dueClients = new ArrayList<>();
+
+    /** Due entries of one client, reused between clients. */
+    private final List<Entry> clientDueEntries = new ArrayList<>();
+
+    /** Scheduled wakeup for the earliest expiration, null if nothing is scheduled. */
+    private WakeLockScheduler.Wakeup wakeup;
+
+    /** Tick scheduled wakeup is for. */
+    private long wakeupTick;
+
+    /** Number of scheduled wakeups, used to ignore wakeups which fired right before they were cancelled. */
+    private long generation;
+
+    /** Whether due entries are being handed over to clients, wakeup is updated once after all of them. */
+    private boolean dispatching;
+
+    public NotificationScheduler(WakeLockScheduler wakeLockScheduler, GattEventLoop eventLoop) {
+        this.wakeLockScheduler = wakeLockScheduler;
+        this.eventLoop = eventLoop;
+        this.wheelStartMs = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Schedule entry to be due after given delay, replacing its previous schedule.
+     *
+     * @param entry entry to schedule
+     * @param delayTicks (ticks) delay from current tick, from 1 to {@link TimingWheel#MAX_DELAY_TICKS}
+     */
+    public void schedule(Entry entry, long delayTicks) {
+        if (timingWheel.isEmpty()) {
+            /* Idle wheel is not advanced by wakeups, so delay would count from the last busy tick */
+            timingWheel.advance(getTick(SystemClock.elapsedRealtime()), dueEntries);
+        }
+        /* Wheel is advanced only by wakeups, so it lags behind current tick until the pending wakeup fires */
+        long lagTicks = getCurrentTick() - timingWheel.getCurrentTick();
+        timingWheel.schedule(entry.timer, Math.min(TimingWheel.MAX_DELAY_TICKS, delayTicks + lagTicks));
+        updateWakeup();
+    }
+
+    /**
+     * Cancel schedule of entry, if it is scheduled.
+     *
+     * @param entry entry to cancel
+     */
+    public void cancel(Entry entry) {
+        timingWheel.cancel(entry.timer);
+        updateWakeup();
+    }
+
+    /**
+     * Get number of ticks left until entry is due.
+     *
+     * @param entry scheduled entry
+     * @return (ticks) delay from current tick until entry is due, 0 if it is overdue
+     */
+    public long getRemainingTicks(Entry entry) {
+        return Math.max(0, entry.timer.getExpirationTick() - getCurrentTick());
+    }
+
+    /**
+     * Get current tick. While due entries are handed over to clients, it is the tick they are due in.
+     *
+     * @return current tick
+     */
+    public long getCurrentTick() {
+        return Math.max(timingWheel.getCurrentTick(), getTick(SystemClock.elapsedRealtime()));
+    }
+
+    /**
+     * Determine whether entries of any client are scheduled or not.
+     *
+     * @return true if no entry is scheduled, false otherwise
+     */
+    public boolean isEmpty() {
+        return timingWheel.isEmpty();
+    }
+
+    /**
+     * Get number of scheduled entries of all clients.
+     *
+     * @return number of scheduled entries
+     */
+    public int size() {
+        return timingWheel.size();
+    }
+
+    /**
+     * Convert period to ticks, rounding up and keeping it within delays timing wheel supports.
+     *
+     * @param periodMs (milliseconds) period to convert
+     * @return (ticks) period from 1 to {@link TimingWheel#MAX_DELAY_TICKS}
+     */
+    public static long toTicks(long periodMs) {
+        return Math.min(TimingWheel.MAX_DELAY_TICKS, Math.max(1, (periodMs + TICK_MS - 1) / TICK_MS));
+    }
+
+    private long getTick(long nowMs) {
+        return (nowMs - wheelStartMs) / TICK_MS;
+    }
+
+    /**
+     * Schedule wakeup for the earliest expiration in timing wheel,
+     * unless wakeup is already scheduled for it or earlier.
+     */
+    private void updateWakeup() {
+        if (dispatching) {
+            return;
+        }
+        if (timingWheel.isEmpty()) {
+            cancelWakeup();
+            return;
+        }
+        long nextTick = timingWheel.getNextExpirationTick();
+        if (wakeup != null && wakeupTick <= nextTick) {
+            return;
+        }
+        cancelWakeup();
+        scheduleWakeup(nextTick);
+    }
+
+    private void scheduleWakeup(long tick) {
+        long scheduledGeneration = ++generation;
+        long delay = Math.max(0, wheelStartMs + tick * TICK_MS - SystemClock.elapsedRealtime());
+        wakeupTick = tick;
+        wakeup = wakeLockScheduler.scheduleWakeup(delay, () -> postWakeup(scheduledGeneration));
+    }
+
+    private void cancelWakeup() {
+        if (wakeup != null) {
+            wakeLockScheduler.cancelWakeup(wakeup);
+            wakeup = null;
+        }
+    }
+
+    /**
+     * Hand due entries over to event loop in a separate awake window,
+     * which is closed after clients have handled them.
+     * If mailbox is full, wakeup is retried shortly: scheduler waits for this wakeup
+     * and would not schedule another one.
+     *
+     * <p>Invoked on wakeup thread, so it must not touch scheduler state.
+     */
+    private void postWakeup(long scheduledGeneration) {
+        wakeLockScheduler.acquire();
+        boolean posted = eventLoop.post(() -> {
+            try {
+                onWakeup(scheduledGeneration);
+            } finally {
+                wakeLockScheduler.release();
+            }
+        });
+        if (!posted) {
+            wakeLockScheduler.release();
+            if (!eventLoop.isQuitting()) {
+                Log.w(TAG, String.format("Wakeup rejected, retry in %d ms", WAKEUP_RETRY_DELAY_MS));
+                /* Retry keeps generation, so it is ignored if wakeup is cancelled meanwhile */
+                wakeLockScheduler.scheduleWakeup(WAKEUP_RETRY_DELAY_MS, () -> postWakeup(scheduledGeneration));
+            }
+        }
+    }
+
+    /**
+     * Hand entries due by now over to their clients and schedule wakeup for the next due entries.
+     */
+    private void onWakeup(long scheduledGeneration) {
+        if (scheduledGeneration != generation || wakeup == null) {
+            Log.d(TAG, "Wakeup has been cancelled");
+            return;
+        }
+        wakeup = null;
+
+        long nowMs = SystemClock.elapsedRealtime();
+        dueEntries.clear();
+        timingWheel.advance(Math.max(wakeupTick, getTick(nowMs)), dueEntries);
+        for (Entry entry : dueEntries) {
+            if (!dueClients.contains(entry.client)) {
+                dueClients.add(entry.client);
+            }
+        }
+
+        dispatching = true;
+        try {
+            for (Client client : dueClients) {
+                clientDueEntries.clear();
+                for (Entry entry : dueEntries) {
+                    if (entry.client == client) {
+                        clientDueEntries.add(entry);
+                    }
+                }
+                client.onEntriesDue(clientDueEntries, nowMs);
+            }
+        } finally {
+            dispatching = false;
+            /* Lists are reused, but must not keep devices which disconnect before the next tick */
+            dueEntries.clear();
+            dueClients.clear();
+            clientDueEntries.clear();
+        }
+        updateWakeup();
+    }
+
+    /**
+     * Scheduled entry of a client: subscribed device or broadcast.
+     */
+    public static class Entry {
+
+        /** Client entry belongs to. */
+        private final Client client;
+
+        /** Subscribed device, null for broadcast. */
+        private final BluetoothDevice device;
+
+        /** Timer of the next due tick. */
+        private final TimingWheel.Timer<Entry> timer;
+
+        /**
+         * Create entry, which is not scheduled yet.
+         *
+         * @param client client entry belongs to
+         * @param device subscribed device, null for broadcast
+         */
+        public Entry(Client client, BluetoothDevice device) {
+            this.client = client;
+            this.device = device;
+            this.timer = new TimingWheel.Timer<>(this);
+        }
+
+        public BluetoothDevice getDevice() {
+            return device;
+        }
+
+        /**
+         * Determine whether entry is scheduled or not.
+         *
+         * @return true if entry is scheduled, false otherwise
+         */
+        public boolean isScheduled() {
+            return timer.isScheduled();
+        }
+    }
+}
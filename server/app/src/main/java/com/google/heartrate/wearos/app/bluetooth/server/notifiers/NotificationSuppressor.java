@@ -0,0 +1,134 @@
+package com.google.heartrate.wearos.app.bluetooth.server.notifiers;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link NotificationSuppressor} decides which subscribed devices need to be notified about new value.
+ *
+ * <p>Device is notified only when value moved at least by minimum change since the last value sent
+ * to this device, or when maximum silence interval passed since the last notification.
+ * State is kept per device, so every device converges to the latest value not later than
+ * maximum silence interval after value stopped changing.
+ *
+ * <p>Time is counted in {@link NotificationScheduler} ticks, so devices which are due on exact multiples
+ * of maximum silence interval get keep-alive on time whatever milliseconds their wakeups are late by.
+ */
+public class NotificationSuppressor {
+
+    /** Minimum change of value to notify device about. */
+    private final int minChange;
+
+    /** Maximum time device is left without notification (ticks). */
+    private final long maxSilenceTicks;
+
+    /** Last notified value and time by device. */
+    private final Map<BluetoothDevice, SubscriberState> stateByDevice = new HashMap<>();
+
+    /** Devices selected for notification by the last {@link #selectDevices} call. */
+    private final Set<BluetoothDevice> selectedDevices = new HashSet<>();
+
+    /**
+     * Create suppressor with given thresholds.
+     *
+     * @param minChange minimum change of value to notify device about
+     * @param maxSilenceTicks maximum time device is left without notification (ticks)
+     */
+    public NotificationSuppressor(int minChange, long maxSilenceTicks) {
+        this.minChange = minChange;
+        this.maxSilenceTicks = maxSilenceTicks;
+    }
+
+    /**
+     * Select subscribed devices which should be notified about given value now.
+     * Value is remembered as sent to device only by {@link #onSent}.
+     *
+     * <p>Returned set is reused by the next call.
+     *
+     * @param subscribedDevices all subscribed devices
+     * @param value new value
+     * @param nowTick current tick
+     * @return devices to notify
+     */
+    public Set<BluetoothDevice> selectDevices(Set<BluetoothDevice> subscribedDevices, int value, long nowTick) {
+        return selectDevices(subscribedDevices, subscribedDevices, value, nowTick);
+    }
+
+    /**
+     * Select devices among given due devices which should be notified about given value now.
+     * Value is remembered as sent to device only by {@link #onSent}, so device which has not been
+     * notified is selected again. State of devices which are not subscribed anymore is forgotten.
+     *
+     * <p>Returned set is reused by the next call.
+     *
+     * @param dueDevices subscribed devices which are due for notification
+     * @param subscribedDevices all subscribed devices
+     * @param value new value
+     * @param nowTick current tick
+     * @return devices to notify
+     */
+    public Set<BluetoothDevice> selectDevices(Collection<BluetoothDevice> dueDevices,
+                                              Set<BluetoothDevice> subscribedDevices, int value, long nowTick) {
+        stateByDevice.keySet().retainAll(subscribedDevices);
+        selectedDevices.clear();
+
+        for (BluetoothDevice device : dueDevices) {
+            SubscriberState state = stateByDevice.get(device);
+            if (state != null && Math.abs(value - state.lastSentValue) < minChange
+                    && nowTick - state.lastSentTick < maxSilenceTicks) {
+                continue;
+            }
+            selectedDevices.add(device);
+        }
+        return selectedDevices;
+    }
+
+    /**
+     * Remember value as sent to device.
+     *
+     * @param device device value has been sent to
+     * @param value sent value
+     * @param nowTick current tick
+     */
+    public void onSent(BluetoothDevice device, int value, long nowTick) {
+        SubscriberState state = stateByDevice.get(device);
+        if (state == null) {
+            state = new SubscriberState();
+            stateByDevice.put(device, state);
+        }
+        state.lastSentValue = value;
+        state.lastSentTick = nowTick;
+    }
+
+    /**
+     * Forget state of disconnected device, so it is not referenced until the next selection.
+     *
+     * @param device disconnected device
+     */
+    public void removeDevice(BluetoothDevice device) {
+        stateByDevice.remove(device);
+        selectedDevices.remove(device);
+    }
+
+    /**
+     * Forget state of all devices, so all of them are notified next time.
+     */
+    public void reset() {
+        stateByDevice.clear();
+    }
+
+    /** Last value sent to device. */
+    private static class SubscriberState {
+
+        /** Last value sent to device. */
+        private int lastSentValue;
+
+        /** Tick of the last notification sent to device. */
+        private long lastSentTick;
+    }
+}
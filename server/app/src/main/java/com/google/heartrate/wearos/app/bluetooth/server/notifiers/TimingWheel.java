@@ -0,0 +1,257 @@
+package com.google.heartrate.wearos.app.bluetooth.server.notifiers;
+
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel which schedules many timers with integer tick resolution.
+ *
+ * <p>Every level has {@link #SLOT_COUNT} slots, each slot of a level spans all slots of the level below.
+ * Timer is put into the lowest level its delay fits into. When the lowest level wraps around,
+ * timers of the next slot of the level above are cascaded down, so every timer is moved at most
+ * {@link #LEVEL_COUNT} times. Scheduling and cancelling take constant time and allocate nothing
+ * for already created timers, unlike one scheduled task per timer in an executor queue.
+ *
+ * <p>Wheel does not own a thread or clock: owner advances it to current tick and collects expired timers.
+ * Wheel is not thread safe.
+ *
+ * @param <T> type of item timers are scheduled for
+ */
+public class TimingWheel<T> {
+
+    /** Number of bits of tick which select slot in one level. */
+    private static final int SLOT_BITS = 6;
+
+    /** Number of slots in one level. */
+    private static final int SLOT_COUNT = 1 << SLOT_BITS;
+
+    /** Mask of tick bits which select slot in one level. */
+    private static final int SLOT_MASK = SLOT_COUNT - 1;
+
+    /** Number of levels. */
+    private static final int LEVEL_COUNT = 3;
+
+    /** Maximum delay (ticks) timer can be scheduled with. */
+    public static final long MAX_DELAY_TICKS = (1L << (SLOT_BITS * LEVEL_COUNT)) - 1;
+
+    /** Sentinels of timer lists by level and slot. */
+    private final Timer<T>[][] slots;
+
+    /** Tick wheel has been advanced to. */
+    private long currentTick;
+
+    /** Number of scheduled timers. */
+    private int size;
+
+    /**
+     * Create wheel starting at given tick.
+     *
+     * @param startTick tick to start at
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long startTick) {
+        currentTick = startTick;
+        slots = new Timer[LEVEL_COUNT][SLOT_COUNT];
+        for (int level = 0; level < LEVEL_COUNT; level++) {
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                Timer<T> sentinel = new Timer<>(null);
+                sentinel.previous = sentinel;
+                sentinel.next = sentinel;
+                slots[level][slot] = sentinel;
+            }
+        }
+    }
+
+    /**
+     * Schedule timer to expire given number of ticks after current tick.
+     * If timer is already scheduled, it is rescheduled.
+     *
+     * @param timer timer to schedule
+     * @param delayTicks delay (ticks), from 1 to {@link #MAX_DELAY_TICKS}
+     */
+    public void schedule(Timer<T> timer, long delayTicks) {
+        if (delayTicks < 1 || delayTicks > MAX_DELAY_TICKS) {
+            throw new IllegalArgumentException(String.format("Delay %d is out of range [1, %d]",
+                    delayTicks, MAX_DELAY_TICKS));
+        }
+        cancel(timer);
+        timer.expirationTick = currentTick + delayTicks;
+        insert(timer);
+        size++;
+    }
+
+    /**
+     * Cancel timer. Cancelling timer which is not scheduled does nothing.
+     *
+     * @param timer timer to cancel
+     */
+    public void cancel(Timer<T> timer) {
+        if (timer.isScheduled()) {
+            unlink(timer);
+            size--;
+        }
+    }
+
+    /**
+     * Advance wheel to given tick and collect items of timers expired up to it, in expiration order.
+     *
+     * @param tick tick to advance to, ticks before current tick are ignored
+     * @param expiredItems list to add items of expired timers to
+     */
+    public void advance(long tick, List<T> expiredItems) {
+        if (size == 0 && tick > currentTick) {
+            currentTick = tick;
+            return;
+        }
+        while (currentTick < tick) {
+            currentTick++;
+            if ((currentTick & SLOT_MASK) == 0) {
+                cascade(1);
+            }
+            Timer<T> sentinel = slots[0][(int) (currentTick & SLOT_MASK)];
+            while (sentinel.next != sentinel) {
+                Timer<T> timer = sentinel.next;
+                unlink(timer);
+                size--;
+                expiredItems.add(timer.item);
+            }
+        }
+    }
+
+    /**
+     * Get tick at which the earliest scheduled timer expires.
+     *
+     * @return expiration tick of the earliest timer or {@link Long#MAX_VALUE} if wheel is empty
+     */
+    public long getNextExpirationTick() {
+        long nextTick = Long.MAX_VALUE;
+        if (size == 0) {
+            return nextTick;
+        }
+        for (int level = 0; level < LEVEL_COUNT; level++) {
+            int shift = SLOT_BITS * level;
+            /* Timers of a level are in SLOT_COUNT slots after current one, the first non-empty slot has the earliest */
+            for (long index = (currentTick >> shift) + 1; index <= (currentTick >> shift) + SLOT_COUNT; index++) {
+                Timer<T> sentinel = slots[level][(int) (index & SLOT_MASK)];
+                if (sentinel.next != sentinel) {
+                    for (Timer<T> timer = sentinel.next; timer != sentinel; timer = timer.next) {
+                        nextTick = Math.min(nextTick, timer.expirationTick);
+                    }
+                    break;
+                }
+            }
+        }
+        return nextTick;
+    }
+
+    /**
+     * Get tick wheel has been advanced to.
+     *
+     * @return current tick
+     */
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Get number of scheduled timers.
+     *
+     * @return number of scheduled timers
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Determine whether there are scheduled timers or not.
+     *
+     * @return true if no timer is scheduled, false otherwise
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Move timers of the current slot of given level to lower levels.
+     * Level above is cascaded first when given level wraps around too.
+     */
+    private void cascade(int level) {
+        if (level >= LEVEL_COUNT) {
+            return;
+        }
+        int shift = SLOT_BITS * level;
+        int slot = (int) ((currentTick >> shift) & SLOT_MASK);
+        if (slot == 0) {
+            cascade(level + 1);
+        }
+        Timer<T> sentinel = slots[level][slot];
+        while (sentinel.next != sentinel) {
+            Timer<T> timer = sentinel.next;
+            unlink(timer);
+            insert(timer);
+        }
+    }
+
+    private void insert(Timer<T> timer) {
+        long delay = timer.expirationTick - currentTick;
+        int level = 0;
+        while (level < LEVEL_COUNT - 1 && delay >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        Timer<T> sentinel = slots[level][(int) ((timer.expirationTick >> (SLOT_BITS * level)) & SLOT_MASK)];
+        timer.previous = sentinel.previous;
+        timer.next = sentinel;
+        sentinel.previous.next = timer;
+        sentinel.previous = timer;
+    }
+
+    private static <T> void unlink(Timer<T> timer) {
+        timer.previous.next = timer.next;
+        timer.next.previous = timer.previous;
+        timer.previous = null;
+        timer.next = null;
+    }
+
+    /**
+     * Timer of one item, created once and rescheduled as many times as needed.
+     *
+     * @param <T> type of item
+     */
+    public static class Timer<T> {
+
+        /** Item timer is scheduled for. */
+        private final T item;
+
+        /** Tick timer expires at. */
+        private long expirationTick;
+
+        /** Neighbours in slot list, null if timer is not scheduled. */
+        private Timer<T> previous;
+        private Timer<T> next;
+
+        public Timer(T item) {
+            this.item = item;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        /**
+         * Get tick timer expires at.
+         *
+         * @return expiration tick, meaningful only while timer is scheduled
+         */
+        public long getExpirationTick() {
+            return expirationTick;
+        }
+
+        /**
+         * Determine whether timer is scheduled or not.
+         *
+         * @return true if timer is scheduled and has not expired yet, false otherwise
+         */
+        public boolean isScheduled() {
+            return next != null;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.google.heartrate.wearos.app.bluetooth.server.notifiers;
+
+import android.bluetooth.BluetoothDevice;
+import android.util.Log;
+
+import com.google.heartrate.wearos.app.bluetooth.server.BluetoothDeviceLink;
+import com.google.heartrate.wearos.app.bluetooth.server.BluetoothDeviceStorage;
+import com.google.heartrate.wearos.app.bluetooth.server.BluetoothServerCallback;
+import com.google.heartrate.wearos.app.bluetooth.server.GattEventLoop;
+import com.google.heartrate.wearos.app.gatt.FormatUtils;
+import com.google.heartrate.wearos.app.gatt.GattException;
+import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.VitalsFrame;
+import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.VitalsFrameCharacteristic;
+import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.VitalsFrameCodec;
+import com.google.heartrate.wearos.app.sensors.HeartRateSource;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class {@link VitalsFrameNotifier} sends {@link VitalsFrame} to devices subscribed to Vitals Frame characteristic.
+ *
+ * <p>Frames are sent whenever {@link HeartRateCharacteristicNotifier} finds device due, without suppression.
+ * Every device gets RR-Intervals it has not been sent yet, the oldest first, so devices notified at different rates
+ * do not steal intervals from each other. Frame is sized to negotiated MTU of every device and carries at most
+ * {@link VitalsFrame#MAX_RR_INTERVAL_COUNT} intervals: intervals which do not fit are sent with the following frames.
+ *
+ * <p>Only the last {@link #RR_INTERVAL_HISTORY_SIZE} intervals are kept, minutes of beats even at the highest
+ * heart rate. Device which falls further behind, e.g. with long notification period and small MTU,
+ * loses its oldest intervals and continues from the oldest kept one.
+ *
+ * <p>Notifier state is owned by {@link GattEventLoop} thread: all methods must be invoked on it.
+ */
+public class VitalsFrameNotifier {
+    private static final String TAG = VitalsFrameNotifier.class.getSimpleName();
+
+    /** Number of bytes taken by one RR-Interval in frame. */
+    private static final int RR_INTERVAL_SIZE = 2;
+
+    /** Number of the most recent RR-Intervals kept for devices which have not been sent them yet. */
+    static final int RR_INTERVAL_HISTORY_SIZE = 1024;
+
+    /** Vitals Frame characteristic to notify about. */
+    private final VitalsFrameCharacteristic vitalsFrameCharacteristic;
+
+    /** Source to get frame values from. */
+    private final HeartRateSource heartRateSource;
+
+    /** Storage for all {@link BluetoothDevice} registered to Vitals Frame characteristic. */
+    private final BluetoothDeviceStorage registeredDeviceStorage;
+
+    /** Frame reused for every notification. */
+    private final VitalsFrame frame = new VitalsFrame();
+
+    /** RR-Intervals drained from sensor, reused between drains. */
+    private final int[] drainedRrIntervals = new int[VitalsFrame.MAX_RR_INTERVAL_COUNT];
+
+    /** The most recent RR-Intervals, ring buffer indexed by interval sequence number. */
+    private final int[] rrIntervalHistory = new int[RR_INTERVAL_HISTORY_SIZE];
+
+    /** Sequence number of the next collected RR-Interval. */
+    private long nextRrIntervalSequence;
+
+    /** Sequence number of the first RR-Interval not sent yet by device. */
+    private final Map<BluetoothDevice, Long> nextRrIntervalSequenceByDevice = new HashMap<>();
+
+    public VitalsFrameNotifier(VitalsFrameCharacteristic vitalsFrameCharacteristic,
+                               HeartRateSource heartRateSource,
+                               BluetoothDeviceStorage registeredDeviceStorage) {
+        this.vitalsFrameCharacteristic = vitalsFrameCharacteristic;
+        this.heartRateSource = heartRateSource;
+        this.registeredDeviceStorage = registeredDeviceStorage;
+    }
+
+    /**
+     * Determine whether there are devices subscribed to Vitals Frame characteristic or not.
+     *
+     * @return true if there are subscribed devices, false otherwise
+     */
+    public boolean hasSubscribers() {
+        return !registeredDeviceStorage.getAllDevices().isEmpty();
+    }
+
+    /**
+     * Get devices subscribed to Vitals Frame characteristic.
+     *
+     * @return subscribed devices
+     */
+    public Set<BluetoothDevice> getSubscribers() {
+        return registeredDeviceStorage.getAllDevices();
+    }
+
+    /**
+     * Forget RR-Interval position of disconnected device, so it is not referenced until the next frame.
+     *
+     * @param device disconnected device
+     */
+    public void onDeviceDisconnected(BluetoothDevice device) {
+        nextRrIntervalSequenceByDevice.remove(device);
+    }
+
+    /**
+     * Send frame with current sensor values to given subscribed devices.
+     * Device which has subscribed since the previous call gets only RR-Intervals collected from now on.
+     * Nothing is sent while sensor has no value.
+     *
+     * @param bluetoothServerCallback server callback to send notifications with
+     * @param dueDevices subscribed devices to notify
+     */
+    public void notifyDevices(BluetoothServerCallback bluetoothServerCallback,
+                              Collection<BluetoothDevice> dueDevices) {
+        Set<BluetoothDevice> subscribers = registeredDeviceStorage.getAllDevices();
+        nextRrIntervalSequenceByDevice.keySet().retainAll(subscribers);
+        for (BluetoothDevice device : subscribers) {
+            if (!nextRrIntervalSequenceByDevice.containsKey(device)) {
+                nextRrIntervalSequenceByDevice.put(device, nextRrIntervalSequence);
+            }
+        }
+        collectRrIntervals();
+        int heartRate = heartRateSource.peekCurrentHeartRateValue();
+        if (dueDevices.isEmpty() || heartRate == HeartRateSource.NO_VALUE_AVAILABLE) {
+            return;
+        }
+        updateFrame(heartRate,
+                heartRateSource.getCurrentHeartRateTimeMs(),
+                heartRateSource.isSensorContactDetected());
+
+        for (BluetoothDevice device : dueDevices) {
+            Long deviceSequence = nextRrIntervalSequenceByDevice.get(device);
+            if (deviceSequence == null) {
+                continue;
+            }
+            BluetoothDeviceLink link = bluetoothServerCallback.getDeviceLink(device);
+            int payloadSize = link != null
+                    ? link.getMaxNotificationPayloadSize()
+                    : BluetoothDeviceLink.DEFAULT_MAX_NOTIFICATION_PAYLOAD_SIZE;
+            long oldestSequence = Math.max(deviceSequence, nextRrIntervalSequence - rrIntervalHistory.length);
+            if (oldestSequence > deviceSequence) {
+                Log.w(TAG, String.format("Device %s fell behind, %d RR-Intervals dropped",
+                        device, oldestSequence - deviceSequence));
+            }
+            try {
+                setRrIntervals(oldestSequence, payloadSize);
+                vitalsFrameCharacteristic.setFrame(frame);
+            } catch (GattException e) {
+                Log.e(TAG, String.format("Can not set frame for device %s: %s", device, e.getMessage()));
+                continue;
+            }
+            if (bluetoothServerCallback.notifyDevice(device,
+                    vitalsFrameCharacteristic.getBluetoothGattCharacteristic())) {
+                nextRrIntervalSequenceByDevice.put(device, oldestSequence + frame.rrIntervalCount);
+            }
+        }
+    }
+
+    /**
+     * Move RR-Intervals collected by sensor to history.
+     */
+    private void collectRrIntervals() {
+        int count = heartRateSource.drainRrIntervals(drainedRrIntervals);
+        for (int i = 0; i < count; i++) {
+            rrIntervalHistory[(int) (nextRrIntervalSequence % rrIntervalHistory.length)] = drainedRrIntervals[i];
+            nextRrIntervalSequence++;
+        }
+    }
+
+    /**
+     * Set sensor values to frame, without RR-Intervals.
+     *
+     * @param heartRate (bpm) current heart rate
+     * @param heartRateTimeMs (milliseconds since Unix epoch) time of current heart rate
+     * @param sensorContactDetected whether sensor has skin contact or not
+     */
+    private void updateFrame(int heartRate, long heartRateTimeMs, boolean sensorContactDetected) {
+        /* Energy Expended stays absent until there is a source of it */
+        int flags = VitalsFrame.SENSOR_CONTACT_SUPPORTED_FLAG;
+        if (!FormatUtils.isInUInt8Range(heartRate)) {
+            flags |= VitalsFrame.HEART_RATE_UINT16_FLAG;
+        }
+        if (sensorContactDetected) {
+            flags |= VitalsFrame.SENSOR_CONTACT_DETECTED_FLAG;
+        }
+        frame.flags = flags;
+        frame.heartRate = heartRate;
+        frame.timestamp = TimeUnit.MILLISECONDS.toSeconds(heartRateTimeMs);
+        frame.rrIntervalCount = 0;
+    }
+
+    /**
+     * Put as many RR-Intervals starting from given sequence number into frame as fit into given payload size.
+     *
+     * @param firstSequence sequence number of the oldest kept RR-Interval not sent to device yet
+     * @param payloadSize maximum number of bytes in notification value
+     */
+    private void setRrIntervals(long firstSequence, int payloadSize) {
+        frame.flags &= ~VitalsFrame.RR_INTERVAL_FLAG;
+        frame.rrIntervalCount = 0;
+        long available = nextRrIntervalSequence - firstSequence;
+        int fitCount = Math.max(0, (payloadSize - VitalsFrameCodec.encodedSize(frame)) / RR_INTERVAL_SIZE);
+        int count = (int) Math.min(available, Math.min(fitCount, frame.rrIntervals.length));
+        if (count == 0) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            long sequence = firstSequence + i;
+            frame.rrIntervals[i] = rrIntervalHistory[(int) (sequence % rrIntervalHistory.length)];
+        }
+        frame.rrIntervalCount = count;
+        frame.flags |= VitalsFrame.RR_INTERVAL_FLAG;
+    }
+}
@@ -113,16 +113,21 @@ public class GattCharacteristic implements GattAttribute {
      * @throws GattException if value can not be got
      */
     protected byte[] getValue() throws GattException {
-        try {
-            byte[] value = bluetoothGattCharacteristic.getValue();
-            if (value == null) {
-                throw new GattException(String.format("Value can not be " +
-                        "got from characteristic %s.", getUuid()));
-            }
-            return value;
-        } catch (Exception e) {
-            throw new GattException(e);
+        byte[] value = getValueOrNull();
+        if (value == null) {
+            throw new GattException(String.format("Value can not be " +
+                    "got from characteristic %s.", getUuid()));
         }
+        return value;
+    }
+
+    /**
+     * Get value from characteristic without throwing, for paths which run on every notification.
+     *
+     * @return value characteristic, null if value is not set
+     */
+    protected byte[] getValueOrNull() {
+        return bluetoothGattCharacteristic.getValue();
     }
 
     /**
@@ -141,11 +146,26 @@ public class GattCharacteristic implements GattAttribute {
                         "got from characteristic %s.", format, offset, getUuid()));
             }
             return value;
+        } catch (GattException e) {
+            throw e;
         } catch (Exception e) {
             throw new GattException(e);
         }
     }
 
+    /**
+     * Get int value from characteristic without throwing, for paths which run on every notification.
+     *
+     * @param format format at which the value should be get
+     * @param offset offset at which the value should be get
+     * @param defaultValue value to return if value can not be got
+     * @return int value in given format, default value if value is not set or too short
+     */
+    protected int getIntValue(int format, int offset, int defaultValue) {
+        Integer value = bluetoothGattCharacteristic.getIntValue(format, offset);
+        return value == null ? defaultValue : value;
+    }
+
     /**
      * Set int value to characteristic.
      *
@@ -155,12 +175,28 @@ public class GattCharacteristic implements GattAttribute {
      * @throws GattException if value can not be set
      */
     protected void setIntValue(int value, int format, int offset) throws GattException {
-        if (!bluetoothGattCharacteristic.setValue(value, format, offset)) {
+        int status = trySetIntValue(value, format, offset);
+        if (status != BluetoothGatt.GATT_SUCCESS) {
             throw new GattException(String.format("Value %d in format %d with offset %d has not been " +
-                    "set to characteristic %s.", value, format, offset, getUuid()));
+                    "set to characteristic %s.", value, format, offset, getUuid()), status);
         }
     }
 
+    /**
+     * Set int value to characteristic without throwing, for paths which run on every notification.
+     *
+     * @param value  value to set
+     * @param format format at which the value should be set
+     * @param offset offset at which the value should be set
+     * @return {@link BluetoothGatt#GATT_SUCCESS} if value is set,
+     * {@link BluetoothGatt#GATT_INVALID_ATTRIBUTE_LENGTH} if value does not fit at offset
+     */
+    protected int trySetIntValue(int value, int format, int offset) {
+        return bluetoothGattCharacteristic.setValue(value, format, offset) ?
+                BluetoothGatt.GATT_SUCCESS :
+                BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH;
+    }
+
     /**
      * Set value to characteristic.
      *
@@ -168,12 +204,25 @@ public class GattCharacteristic implements GattAttribute {
      * @throws GattException if value can not be set
      */
     protected void setValue(byte[] value) throws GattException {
-        if (!bluetoothGattCharacteristic.setValue(value)) {
+        int status = trySetValue(value);
+        if (status != BluetoothGatt.GATT_SUCCESS) {
             throw new GattException(String.format("Value %s can not be " +
-                    "set to characteristic %s.", Arrays.toString(value), getUuid()));
+                    "set to characteristic %s.", Arrays.toString(value), getUuid()), status);
         }
     }
 
+    /**
+     * Set value to characteristic without throwing, for paths which run on every notification.
+     *
+     * @param value value to set
+     * @return {@link BluetoothGatt#GATT_SUCCESS} if value is set, {@link BluetoothGatt#GATT_FAILURE} otherwise
+     */
+    protected int trySetValue(byte[] value) {
+        return bluetoothGattCharacteristic.setValue(value) ?
+                BluetoothGatt.GATT_SUCCESS :
+                BluetoothGatt.GATT_FAILURE;
+    }
+
     /**
      * Assert characteristic has read permissions.
      *
@@ -0,0 +1,60 @@
+package com.google.heartrate.wearos.app.gatt.generic.characteristics;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.google.heartrate.wearos.app.gatt.GattException;
+import com.google.heartrate.wearos.app.gatt.attributes.GattCharacteristic;
+
+import java.util.UUID;
+
+/**
+ * {@link DatabaseHashCharacteristic} class inherits {@link GattCharacteristic}
+ * and specifies set operation for Database Hash characteristic.
+ * <p>
+ * Client which has cached attribute database reads hash on reconnect and
+ * skips service discovery if hash is the one it has cached the database with.
+ * <table border="1">
+ *  <thead align="center">
+ *      <tr><th>Field</th><th>Requirement</th><th>Format</th></tr>
+ *  <thead>
+ *  <tbody align="center">
+ *      <tr><td> Database Hash </td><td> Mandatory </td><td> UInt128 </td></tr>
+ *  </tbody>
+ * </table>
+ */
+public class DatabaseHashCharacteristic extends GattCharacteristic {
+
+    /** Database Hash characteristic UUID. */
+    public static final UUID DATABASE_HASH_UUID = UUID
+            .fromString("00002b2a-0000-1000-8000-00805f9b34fb");
+
+    /** Number of bytes in characteristic value. */
+    private static final int VALUE_SIZE = 16;
+
+    /**
+     * Create {@link GattCharacteristic} for Database Hash characteristic.
+     * <br>Configure {@link GattCharacteristic} with Database Hash characteristic UUID,
+     * read property and read permission and zero hash until database is hashed.
+     */
+    public DatabaseHashCharacteristic() {
+        super(DATABASE_HASH_UUID,
+                BluetoothGattCharacteristic.PROPERTY_READ,
+                BluetoothGattCharacteristic.PERMISSION_READ);
+        trySetValue(new byte[VALUE_SIZE]);
+    }
+
+    /**
+     * Set hash as characteristic value.
+     *
+     * @param hash hash, least significant byte first
+     * @throws GattException if hash is not 128-bit
+     */
+    public void setHash(byte[] hash) throws GattException {
+        if (hash == null || hash.length != VALUE_SIZE) {
+            throw new GattException(String.format("Database hash must be %d bytes", VALUE_SIZE),
+                    BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH);
+        }
+        setValue(hash.clone());
+    }
+}
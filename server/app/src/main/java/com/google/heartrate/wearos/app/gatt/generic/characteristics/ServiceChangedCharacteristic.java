@@ -0,0 +1,58 @@
+package com.google.heartrate.wearos.app.gatt.generic.characteristics;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.google.heartrate.wearos.app.gatt.attributes.GattCharacteristic;
+import com.google.heartrate.wearos.app.gatt.attributes.GattDescriptor;
+import com.google.heartrate.wearos.app.gatt.heartrate.descriptors.ClientCharacteristicConfigurationDescriptor;
+
+import java.util.UUID;
+
+/**
+ * {@link ServiceChangedCharacteristic} class inherits {@link GattCharacteristic}
+ * and specifies value of Service Changed characteristic.
+ * <p>
+ * Server indicates the characteristic to subscribed clients when services it hosts change,
+ * so clients rediscover affected handle range. Server does not track handles of removed services,
+ * so affected range is always the whole database.
+ * <table border="1">
+ *  <thead align="center">
+ *      <tr><th>Field</th><th>Requirement</th><th>Format</th></tr>
+ *  <thead>
+ *  <tbody align="center">
+ *      <tr><td> Start of Affected Attribute Handle Range </td><td> Mandatory </td><td> UInt16 </td></tr>
+ *      <tr><td> End of Affected Attribute Handle Range </td><td> Mandatory </td><td> UInt16 </td></tr>
+ *  </tbody>
+ * </table>
+ */
+public class ServiceChangedCharacteristic extends GattCharacteristic {
+
+    /** Service Changed characteristic UUID. */
+    public static final UUID SERVICE_CHANGED_UUID = UUID
+            .fromString("00002a05-0000-1000-8000-00805f9b34fb");
+
+    /** First attribute handle of database. */
+    public static final int FIRST_HANDLE = 0x0001;
+
+    /** Last attribute handle of database. */
+    public static final int LAST_HANDLE = 0xFFFF;
+
+    /** Number of bytes in characteristic value. */
+    private static final int VALUE_SIZE = 4;
+
+    /**
+     * Create {@link GattCharacteristic} for Service Changed characteristic.
+     * <br>Configure {@link GattCharacteristic} with Service Changed characteristic UUID,
+     * property for indication, no read/write permissions, Client Characteristic Configuration descriptor
+     * and the whole database as affected handle range.
+     */
+    public ServiceChangedCharacteristic() {
+        super(SERVICE_CHANGED_UUID,
+                BluetoothGattCharacteristic.PROPERTY_INDICATE,
+                /* No permissions */ 0,
+                new GattDescriptor[] {new ClientCharacteristicConfigurationDescriptor()});
+        trySetValue(new byte[VALUE_SIZE]);
+        trySetIntValue(FIRST_HANDLE, BluetoothGattCharacteristic.FORMAT_UINT16, 0);
+        trySetIntValue(LAST_HANDLE, BluetoothGattCharacteristic.FORMAT_UINT16, 2);
+    }
+}
@@ -0,0 +1,68 @@
+package com.google.heartrate.wearos.app.gatt.generic.service;
+
+import android.bluetooth.BluetoothGattService;
+
+import com.google.heartrate.wearos.app.gatt.attributes.GattCharacteristic;
+import com.google.heartrate.wearos.app.gatt.attributes.GattService;
+import com.google.heartrate.wearos.app.gatt.generic.characteristics.DatabaseHashCharacteristic;
+import com.google.heartrate.wearos.app.gatt.generic.characteristics.ServiceChangedCharacteristic;
+
+import java.util.UUID;
+
+/**
+ * GenericAttributeGattService class inherits {@link GattService}
+ * and specifies characteristics which let clients cache attribute database of server.
+ * <p>
+ * Bluetooth stack hosts Generic Attribute service (0x1801) itself and does not let application
+ * add characteristics to it, so the characteristics are hosted in vendor service with the same layout.
+ * <p>
+ * Characteristic included in the service:
+ * <table>
+ *  <thead>
+ *      <tr><th>Characteristic/Descriptors</th><th>Requirement</th><th>Properties</th></tr>
+ *  <thead>
+ *  <tbody>
+ *      <tr><td> Service Changed </td><td> Mandatory </td><td> Indicate </td></tr>
+ *      <tr><td> Client Characteristic Configuration descriptor </td><td> Mandatory </td><td> Read, Write </td></tr>
+ *      <tr><td> Database Hash </td><td> Mandatory </td><td> Read </td></tr>
+ *  </tbody>
+ * </table>
+ */
+public class GenericAttributeGattService extends GattService {
+
+    /** Generic Attribute (vendor) service UUID. */
+    public static final UUID GENERIC_ATTRIBUTE_SERVICE_UUID = UUID
+            .fromString("8d7a1c54-4e0b-4f5e-9a63-2c1f0b7e3d91");
+
+    /** Service Changed characteristic. */
+    private final ServiceChangedCharacteristic serviceChangedCharacteristic;
+
+    /** Database Hash characteristic. */
+    private final DatabaseHashCharacteristic databaseHashCharacteristic;
+
+    /**
+     * Create {@link GattService} for Generic Attribute service.
+     * <br>Configure {@link GattService} with Generic Attribute (vendor) service UUID,
+     * primary type, Service Changed and Database Hash characteristics.
+     */
+    public GenericAttributeGattService() {
+        this(new ServiceChangedCharacteristic(), new DatabaseHashCharacteristic());
+    }
+
+    private GenericAttributeGattService(ServiceChangedCharacteristic serviceChangedCharacteristic,
+                                        DatabaseHashCharacteristic databaseHashCharacteristic) {
+        super(GENERIC_ATTRIBUTE_SERVICE_UUID,
+                BluetoothGattService.SERVICE_TYPE_PRIMARY,
+                new GattCharacteristic[]{ serviceChangedCharacteristic, databaseHashCharacteristic });
+        this.serviceChangedCharacteristic = serviceChangedCharacteristic;
+        this.databaseHashCharacteristic = databaseHashCharacteristic;
+    }
+
+    public ServiceChangedCharacteristic getServiceChangedCharacteristic() {
+        return serviceChangedCharacteristic;
+    }
+
+    public DatabaseHashCharacteristic getDatabaseHashCharacteristic() {
+        return databaseHashCharacteristic;
+    }
+}
@@ -0,0 +1,49 @@
+package com.google.heartrate.wearos.app.gatt.heartrate.characteristics;
+
+import com.google.heartrate.codec.Field;
+import com.google.heartrate.codec.Flags;
+import com.google.heartrate.codec.Format;
+import com.google.heartrate.codec.GattCodec;
+import com.google.heartrate.codec.Repeated;
+
+/**
+ * Declarative layout of Heart Rate Measurement characteristic value.
+ * <p>
+ * {@code HeartRateMeasurementCodec} is generated from this layout and encodes values into reusable buffers
+ * without allocations, unlike {@link HeartRateMeasurementCharacteristic} which is kept as handwritten reference.
+ * <p>
+ * Flags are not derived from field values, set bits of present fields before encoding.
+ */
+@GattCodec
+public class HeartRateMeasurement {
+
+    /** Heart Rate Measurement value is in UInt16 format. */
+    public static final int HEART_RATE_UINT16_FLAG = 0b00000001;
+
+    /** Energy Expended field is present. */
+    public static final int ENERGY_EXPENDED_FLAG = 0b00001000;
+
+    /** RR-Interval fields are present. */
+    public static final int RR_INTERVAL_FLAG = 0b00010000;
+
+    /** Maximum number of RR-Intervals, as many as fit into 20 bytes of default ATT MTU with UInt8 heart rate. */
+    public static final int MAX_RR_INTERVAL_COUNT = 9;
+
+    @Flags
+    public int flags;
+
+    /** (bpm) heart rate in UInt8 or UInt16 format. */
+    @Field(format = Format.UINT8, wideIf = HEART_RATE_UINT16_FLAG, wideFormat = Format.UINT16)
+    public int heartRate;
+
+    /** (kiloJoules) expended energy. */
+    @Field(format = Format.UINT16, presentIf = ENERGY_EXPENDED_FLAG)
+    public int energyExpended;
+
+    /** (1/1024 seconds) RR-Intervals, the oldest first. */
+    @Repeated(format = Format.UINT16, presentIf = RR_INTERVAL_FLAG, countField = "rrIntervalCount")
+    public final int[] rrIntervals = new int[MAX_RR_INTERVAL_COUNT];
+
+    /** Number of RR-Intervals in use. */
+    public int rrIntervalCount;
+}
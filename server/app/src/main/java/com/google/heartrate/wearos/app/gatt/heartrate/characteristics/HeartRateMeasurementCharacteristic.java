@@ -65,6 +65,9 @@ public class HeartRateMeasurementCharacteristic extends GattCharacteristic {
     private static final byte EXPENDED_ENERGY_FLAG = 0b00001000;
 
 
+    /** Expended energy value which means Energy Expended field is not present. */
+    public static final int NO_EXPENDED_ENERGY = -1;
+
     /** Number of bytes in characteristic value byte array containing flags. */
     private static final int FLAGS_SIZE = 1;
 
@@ -97,11 +100,13 @@ public class HeartRateMeasurementCharacteristic extends GattCharacteristic {
     /**
      * Create {@link GattCharacteristic} for Heart Rate Measurement characteristic.
      * <br>Configure {@link GattCharacteristic} with Heart Rate Measurement characteristic UUID,
-     * property for notification, no read/write permissions and Client Characteristic Configuration descriptor.
+     * properties for notification and indication, no read/write permissions
+     * and Client Characteristic Configuration descriptor.
+     * Indication is vendor extension for clients which need every value to be delivered.
      */
     public HeartRateMeasurementCharacteristic() {
         super(HEART_RATE_MEASUREMENT_UUID,
-                BluetoothGattCharacteristic.PROPERTY_NOTIFY,
+                BluetoothGattCharacteristic.PROPERTY_NOTIFY | BluetoothGattCharacteristic.PROPERTY_INDICATE,
                 /* No permissions */ 0,
                 new GattDescriptor[] {new ClientCharacteristicConfigurationDescriptor()});
     }
@@ -162,59 +167,6 @@ public class HeartRateMeasurementCharacteristic extends GattCharacteristic {
         return expendedEnergy;
     }
 
-    /**
-     * Set given flag info characteristic value byte array.
-     *
-     * @param flag flag to set
-     * @throws GattException if cannot set given flag
-     */
-    private void setFlag(byte flag) throws GattException {
-        setIntValue(getFlags() | flag, BluetoothGattCharacteristic.FORMAT_UINT8, FLAGS_OFFSET);
-    }
-
-    /**
-     * Set given heart rate measurement value info characteristic value byte array.
-     *
-     * @param heartRateMeasurement heart rate measurement value to set
-     * @throws GattException if cannot set given heart rate measurement value
-     */
-    private void setHeartRateMeasurementValue(int heartRateMeasurement) throws GattException {
-        int format;
-
-        if (FormatUtils.isInUInt8Range(heartRateMeasurement)) {
-            format = BluetoothGattCharacteristic.FORMAT_UINT8;
-
-            /* HR UInt8 format => Flags = 0b00000000 */
-            setFlag(HEART_RATE_MEASUREMENT_UINT8_FLAG);
-        } else {
-            format = BluetoothGattCharacteristic.FORMAT_UINT16;
-
-            /* HR UInt16 format => Flags = 0b00000001 */
-            setFlag(HEART_RATE_MEASUREMENT_UINT16_FLAG);
-        }
-
-        setIntValue(heartRateMeasurement, format, HEART_RATE_MEASUREMENT_OFFSET);
-    }
-
-    /**
-     * Set given expended energy value info characteristic value byte array.
-     *
-     * @param expendedEnergy expended energy value to set
-     * @throws GattException if cannot set given expended energy value
-     */
-    private void setExpandedEnergyValue(int expendedEnergy) throws GattException {
-        /* EE present => Flags = 0b0000100(0/1) */
-        setFlag(EXPENDED_ENERGY_FLAG);
-
-        int expendedEnergyOffset = isUInt16HeartRateFormat() ?
-                /* HR is in UInt16 format => EE offset is shifted */
-                EXPENDED_ENERGY_SHIFTED_OFFSET :
-                /* HR is in UInt8 format => EE offset is base */
-                EXPENDED_ENERGY_BASE_OFFSET;
-
-        setIntValue(expendedEnergy, BluetoothGattCharacteristic.FORMAT_UINT16, expendedEnergyOffset);
-    }
-
     /**
      * Set given Heart Rate Measurement and Expended Energy values to the characteristic.
      *
@@ -230,14 +182,54 @@ public class HeartRateMeasurementCharacteristic extends GattCharacteristic {
             FormatUtils.assertIsUInt16(expendedEnergy.get());
         }
 
-        int valueSize = calculateValueSize(heartRateMeasurement, expendedEnergy);
-        setValue(new byte[valueSize]);
+        int status = trySetHeartRateCharacteristicValue(heartRateMeasurement, expendedEnergy.orElse(NO_EXPENDED_ENERGY));
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            throw new GattException(String.format("Heart rate %d has not been set to characteristic %s",
+                    heartRateMeasurement, getUuid()), status);
+        }
+    }
 
-        setHeartRateMeasurementValue(heartRateMeasurement);
+    /**
+     * Set given Heart Rate Measurement and Expended Energy values to the characteristic without throwing,
+     * for notification path which runs on every tick.
+     * Characteristic value is not changed if values are out of their format range.
+     *
+     * @param heartRateMeasurement (bpm) heart rate measurement value in UInt8/UInt16 format
+     * @param expendedEnergy       (kiloJoules) expended energy value in UInt16 format,
+     *                             {@link #NO_EXPENDED_ENERGY} if not present
+     * @return {@link BluetoothGatt#GATT_SUCCESS} if value is set, failure status otherwise
+     */
+    public int trySetHeartRateCharacteristicValue(int heartRateMeasurement, int expendedEnergy) {
+        boolean expendedEnergyPresent = expendedEnergy != NO_EXPENDED_ENERGY;
+        if (!FormatUtils.isInUInt16Range(heartRateMeasurement)
+                || (expendedEnergyPresent && !FormatUtils.isInUInt16Range(expendedEnergy))) {
+            return BluetoothGatt.GATT_FAILURE;
+        }
 
-        if (expendedEnergy.isPresent()) {
-            setExpandedEnergyValue(expendedEnergy.get());
+        boolean uInt16HeartRate = !FormatUtils.isInUInt8Range(heartRateMeasurement);
+        int flags = uInt16HeartRate ? HEART_RATE_MEASUREMENT_UINT16_FLAG : HEART_RATE_MEASUREMENT_UINT8_FLAG;
+        if (expendedEnergyPresent) {
+            flags |= EXPENDED_ENERGY_FLAG;
+        }
+
+        int status = trySetValue(new byte[calculateValueSize(heartRateMeasurement, expendedEnergyPresent)]);
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            status = trySetIntValue(flags, BluetoothGattCharacteristic.FORMAT_UINT8, FLAGS_OFFSET);
+        }
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            status = trySetIntValue(heartRateMeasurement, uInt16HeartRate ?
+                            BluetoothGattCharacteristic.FORMAT_UINT16 :
+                            BluetoothGattCharacteristic.FORMAT_UINT8,
+                    HEART_RATE_MEASUREMENT_OFFSET);
+        }
+        if (status == BluetoothGatt.GATT_SUCCESS && expendedEnergyPresent) {
+            status = trySetIntValue(expendedEnergy, BluetoothGattCharacteristic.FORMAT_UINT16, uInt16HeartRate ?
+                    /* HR is in UInt16 format => EE offset is shifted */
+                    EXPENDED_ENERGY_SHIFTED_OFFSET :
+                    /* HR is in UInt8 format => EE offset is base */
+                    EXPENDED_ENERGY_BASE_OFFSET);
         }
+        return status;
     }
 
     /**
@@ -245,10 +237,10 @@ public class HeartRateMeasurementCharacteristic extends GattCharacteristic {
      * given heart rate measurement and expanded energy values.
      *
      * @param heartRateMeasurement heart rate measurement value
-     * @param optionalExpendedEnergy expanded energy value if present
+     * @param expendedEnergyPresent whether expended energy value is present or not
      * @return size of byte array for characteristic value
      */
-    private int calculateValueSize(int heartRateMeasurement, Optional<Integer> optionalExpendedEnergy) {
+    private int calculateValueSize(int heartRateMeasurement, boolean expendedEnergyPresent) {
         /* one byte for flags */
         int size = FLAGS_SIZE;
 
@@ -258,7 +250,7 @@ public class HeartRateMeasurementCharacteristic extends GattCharacteristic {
                 HEART_RATE_MEASUREMENT_UINT16_SIZE;
 
         /* two bytes for EE if present */
-        size += optionalExpendedEnergy.isPresent() ?
+        size += expendedEnergyPresent ?
                 EXPENDED_ENERGY_SIZE :
                 0;
 
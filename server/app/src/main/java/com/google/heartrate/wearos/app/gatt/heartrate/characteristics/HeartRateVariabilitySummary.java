@@ -0,0 +1,47 @@
+package com.google.heartrate.wearos.app.gatt.heartrate.characteristics;
+
+import com.google.heartrate.codec.Field;
+import com.google.heartrate.codec.Format;
+import com.google.heartrate.codec.GattCodec;
+
+/**
+ * Declarative layout of Heart Rate Variability Summary characteristic value.
+ * <p>
+ * Summary carries time domain heart rate variability over a sliding window of RR-Intervals,
+ * so clients which analyse variability do not need every interval streamed to them.
+ * Summary starts with format version, so clients can reject summaries they do not understand.
+ */
+@GattCodec
+public class HeartRateVariabilitySummary {
+
+    /** Current summary format version. */
+    public static final int VERSION = 1;
+
+    /** Summary format version. */
+    @Field(format = Format.UINT8)
+    public int version = VERSION;
+
+    /** (seconds) length of window statistics are computed over. */
+    @Field(format = Format.UINT16)
+    public int windowLength;
+
+    /** Number of RR-Intervals in window. */
+    @Field(format = Format.UINT16)
+    public int intervalCount;
+
+    /** (milliseconds) mean RR-Interval. */
+    @Field(format = Format.UINT16)
+    public int meanNn;
+
+    /** (1/10 milliseconds) standard deviation of RR-Intervals, SDNN. */
+    @Field(format = Format.UINT16)
+    public int sdnn;
+
+    /** (1/10 milliseconds) root mean square of successive differences, RMSSD. */
+    @Field(format = Format.UINT16)
+    public int rmssd;
+
+    /** (1/100 percent) share of successive differences longer than 50 milliseconds, pNN50. */
+    @Field(format = Format.UINT16)
+    public int pnn50;
+}
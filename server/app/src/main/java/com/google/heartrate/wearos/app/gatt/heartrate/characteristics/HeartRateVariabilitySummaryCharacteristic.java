@@ -0,0 +1,70 @@
+package com.google.heartrate.wearos.app.gatt.heartrate.characteristics;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.google.heartrate.codec.CodecException;
+import com.google.heartrate.wearos.app.gatt.GattException;
+import com.google.heartrate.wearos.app.gatt.attributes.GattCharacteristic;
+import com.google.heartrate.wearos.app.gatt.attributes.GattDescriptor;
+import com.google.heartrate.wearos.app.gatt.heartrate.descriptors.ClientCharacteristicConfigurationDescriptor;
+
+import java.util.UUID;
+
+/**
+ * {@link HeartRateVariabilitySummaryCharacteristic} class inherits {@link GattCharacteristic}
+ * and specifies set operation for vendor Heart Rate Variability Summary characteristic.
+ * <p>
+ * Variability analysis on client needs every RR-Interval streamed to it, so clients which need
+ * only variability subscribe to this characteristic instead and periodically receive statistics
+ * of the recent window computed on server. Value layout is described by {@link HeartRateVariabilitySummary}:
+ * <table border="1">
+ *  <thead align="center">
+ *      <tr><th>Field</th><th>Requirement</th><th>Format</th></tr>
+ *  <thead>
+ *  <tbody align="center">
+ *      <tr><td> Version </td><td> Mandatory </td><td> UInt8 </td></tr>
+ *      <tr><td> Window Length </td><td> Mandatory </td><td> UInt16 </td></tr>
+ *      <tr><td> RR-Interval Count </td><td> Mandatory </td><td> UInt16 </td></tr>
+ *      <tr><td> Mean NN </td><td> Mandatory </td><td> UInt16 </td></tr>
+ *      <tr><td> SDNN </td><td> Mandatory </td><td> UInt16 </td></tr>
+ *      <tr><td> RMSSD </td><td> Mandatory </td><td> UInt16 </td></tr>
+ *      <tr><td> pNN50 </td><td> Mandatory </td><td> UInt16 </td></tr>
+ *  </tbody>
+ * </table>
+ */
+public class HeartRateVariabilitySummaryCharacteristic extends GattCharacteristic {
+
+    /** Heart Rate Variability Summary characteristic UUID. */
+    public static final UUID HEART_RATE_VARIABILITY_SUMMARY_UUID = UUID
+            .fromString("8d7a1c55-4e0b-4f5e-9a63-2c1f0b7e3d91");
+
+    /**
+     * Create {@link GattCharacteristic} for Heart Rate Variability Summary characteristic.
+     * <br>Configure {@link GattCharacteristic} with Heart Rate Variability Summary characteristic UUID,
+     * property for notification, no read/write permissions and Client Characteristic Configuration descriptor.
+     */
+    public HeartRateVariabilitySummaryCharacteristic() {
+        super(HEART_RATE_VARIABILITY_SUMMARY_UUID,
+                BluetoothGattCharacteristic.PROPERTY_NOTIFY,
+                /* No permissions */ 0,
+                new GattDescriptor[] {new ClientCharacteristicConfigurationDescriptor()});
+    }
+
+    /**
+     * Encode given summary and set it as characteristic value.
+     *
+     * @param summary summary to set
+     * @return number of bytes in characteristic value
+     * @throws GattException if summary fields are out of their format range
+     */
+    public int setSummary(HeartRateVariabilitySummary summary) throws GattException {
+        byte[] value = new byte[HeartRateVariabilitySummaryCodec.encodedSize(summary)];
+        try {
+            HeartRateVariabilitySummaryCodec.encode(summary, value, 0);
+        } catch (CodecException e) {
+            throw new GattException(e);
+        }
+        setValue(value);
+        return value.length;
+    }
+}
@@ -0,0 +1,64 @@
+package com.google.heartrate.wearos.app.gatt.heartrate.characteristics;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.google.heartrate.wearos.app.gatt.GattException;
+import com.google.heartrate.wearos.app.gatt.attributes.GattCharacteristic;
+
+import java.util.UUID;
+
+/**
+ * {@link NotificationPeriodControlPointCharacteristic} class inherits {@link GattCharacteristic}
+ * and specifies write operation for vendor Notification Period Control Point characteristic.
+ * <p>
+ * Every device writes period it wants to be notified with, e.g. 1 second for live display
+ * or 60 seconds for logger. Period applies to all notifying characteristics of the service
+ * and is kept until device disconnects.
+ * <table border="1">
+ *  <thead align="center">
+ *      <tr><th>Field</th><th>Requirement</th><th>Format</th></tr>
+ *  <thead>
+ *  <tbody align="center">
+ *      <tr><td> Notification Period (seconds), 0 for default </td><td> Mandatory </td><td> UInt16 </td></tr>
+ *  </tbody>
+ * </table>
+ */
+public class NotificationPeriodControlPointCharacteristic extends GattCharacteristic {
+
+    /** Notification Period Control Point characteristic UUID. */
+    public static final UUID NOTIFICATION_PERIOD_CONTROL_POINT_UUID = UUID
+            .fromString("8d7a1c53-4e0b-4f5e-9a63-2c1f0b7e3d91");
+
+    /** Period value which requests default period. */
+    public static final int DEFAULT_PERIOD = 0;
+
+    /** Number of bytes in characteristic value. */
+    private static final int VALUE_SIZE = 2;
+
+    /**
+     * Create {@link GattCharacteristic} for Notification Period Control Point characteristic.
+     * <br>Configure {@link GattCharacteristic} with Notification Period Control Point characteristic UUID,
+     * write property and write permission.
+     */
+    public NotificationPeriodControlPointCharacteristic() {
+        super(NOTIFICATION_PERIOD_CONTROL_POINT_UUID,
+                BluetoothGattCharacteristic.PROPERTY_WRITE,
+                BluetoothGattCharacteristic.PERMISSION_WRITE);
+    }
+
+    /**
+     * Parse notification period written by device.
+     *
+     * @param value written value
+     * @return (seconds) requested period or {@link #DEFAULT_PERIOD}
+     * @throws GattException if value is not UInt16
+     */
+    public static int parsePeriod(byte[] value) throws GattException {
+        if (value == null || value.length != VALUE_SIZE) {
+            throw new GattException(String.format("Notification period must be %d bytes", VALUE_SIZE),
+                    BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH);
+        }
+        return (value[0] & 0xFF) | (value[1] & 0xFF) << 8;
+    }
+}
@@ -0,0 +1,68 @@
+package com.google.heartrate.wearos.app.gatt.heartrate.characteristics;
+
+import com.google.heartrate.codec.Field;
+import com.google.heartrate.codec.Flags;
+import com.google.heartrate.codec.Format;
+import com.google.heartrate.codec.GattCodec;
+import com.google.heartrate.codec.Repeated;
+
+/**
+ * Declarative layout of Vitals Frame characteristic value.
+ * <p>
+ * Frame carries everything client needs about one heart rate sample in a single notification:
+ * sample time, heart rate, sensor contact, expended energy and RR-Intervals since the previous frame.
+ * Flags have the same meaning as in {@link HeartRateMeasurement}, but frame starts with format version,
+ * so clients can reject frames they do not understand.
+ * <p>
+ * Flags are not derived from field values, set bits of present fields before encoding.
+ */
+@GattCodec
+public class VitalsFrame {
+
+    /** Current frame format version. */
+    public static final int VERSION = 1;
+
+    /** Heart rate value is in UInt16 format. */
+    public static final int HEART_RATE_UINT16_FLAG = 0b00000001;
+
+    /** Sensor has skin contact. */
+    public static final int SENSOR_CONTACT_DETECTED_FLAG = 0b00000010;
+
+    /** Sensor reports skin contact. */
+    public static final int SENSOR_CONTACT_SUPPORTED_FLAG = 0b00000100;
+
+    /** Energy Expended field is present. */
+    public static final int ENERGY_EXPENDED_FLAG = 0b00001000;
+
+    /** RR-Interval fields are present. */
+    public static final int RR_INTERVAL_FLAG = 0b00010000;
+
+    /** Maximum number of RR-Intervals in one frame. */
+    public static final int MAX_RR_INTERVAL_COUNT = 64;
+
+    /** Frame format version. */
+    @Field(format = Format.UINT8)
+    public int version = VERSION;
+
+    @Flags
+    public int flags;
+
+    /** (seconds since Unix epoch) time of heart rate sample. */
+    @Field(format = Format.UINT32)
+    public long timestamp;
+
+    /** (bpm) heart rate in UInt8 or UInt16 format. */
+    @Field(format = Format.UINT8, wideIf = HEART_RATE_UINT16_FLAG, wideFormat = Format.UINT16)
+    public int heartRate;
+
+    /** (kiloJoules) expended energy. */
+    @Field(format = Format.UINT16, presentIf = ENERGY_EXPENDED_FLAG)
+    public int energyExpended;
+
+    /** (1/1024 seconds) RR-Intervals, the oldest first. */
+    @Repeated(format = Format.UINT16, presentIf = RR_INTERVAL_FLAG, countField = "rrIntervalCount")
+    public final int[] rrIntervals = new int[MAX_RR_INTERVAL_COUNT];
+
+    /** Number of RR-Intervals in use. */
+    public int rrIntervalCount;
+}
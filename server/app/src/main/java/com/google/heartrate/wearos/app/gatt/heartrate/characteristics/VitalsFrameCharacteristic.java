@@ -0,0 +1,69 @@
+package com.google.heartrate.wearos.app.gatt.heartrate.characteristics;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.google.heartrate.codec.CodecException;
+import com.google.heartrate.wearos.app.gatt.GattException;
+import com.google.heartrate.wearos.app.gatt.attributes.GattCharacteristic;
+import com.google.heartrate.wearos.app.gatt.attributes.GattDescriptor;
+import com.google.heartrate.wearos.app.gatt.heartrate.descriptors.ClientCharacteristicConfigurationDescriptor;
+
+import java.util.UUID;
+
+/**
+ * {@link VitalsFrameCharacteristic} class inherits {@link GattCharacteristic}
+ * and specifies set operation for vendor Vitals Frame characteristic.
+ * <p>
+ * Standard Heart Rate Measurement carries one measure per notification and
+ * has no sample time, so clients which need several measures subscribe to this characteristic instead
+ * and receive them all in one notification. Value layout is described by {@link VitalsFrame}:
+ * <table border="1">
+ *  <thead align="center">
+ *      <tr><th>Field</th><th>Requirement</th><th>Format</th></tr>
+ *  <thead>
+ *  <tbody align="center">
+ *      <tr><td> Version </td><td> Mandatory </td><td> UInt8 </td></tr>
+ *      <tr><td> Flags </td><td> Mandatory </td><td> UInt8 </td></tr>
+ *      <tr><td> Timestamp </td><td> Mandatory </td><td> UInt32 </td></tr>
+ *      <tr><td> Heart Rate </td><td> Mandatory </td><td> UInt8/UInt16 </td></tr>
+ *      <tr><td> Energy Expended </td><td> Optional, Mandatory if Energy Expended flag </td><td> UInt16 </td></tr>
+ *      <tr><td> RR-Intervals </td><td> Optional, Mandatory if RR-Interval flag </td><td> UInt16[] </td></tr>
+ *  </tbody>
+ * </table>
+ */
+public class VitalsFrameCharacteristic extends GattCharacteristic {
+
+    /** Vitals Frame characteristic UUID. */
+    public static final UUID VITALS_FRAME_UUID = UUID
+            .fromString("8d7a1c52-4e0b-4f5e-9a63-2c1f0b7e3d91");
+
+    /**
+     * Create {@link GattCharacteristic} for Vitals Frame characteristic.
+     * <br>Configure {@link GattCharacteristic} with Vitals Frame characteristic UUID,
+     * property for notification, no read/write permissions and Client Characteristic Configuration descriptor.
+     */
+    public VitalsFrameCharacteristic() {
+        super(VITALS_FRAME_UUID,
+                BluetoothGattCharacteristic.PROPERTY_NOTIFY,
+                /* No permissions */ 0,
+                new GattDescriptor[] {new ClientCharacteristicConfigurationDescriptor()});
+    }
+
+    /**
+     * Encode given frame and set it as characteristic value.
+     *
+     * @param frame frame to set
+     * @return number of bytes in characteristic value
+     * @throws GattException if frame fields are out of their format range
+     */
+    public int setFrame(VitalsFrame frame) throws GattException {
+        byte[] value = new byte[VitalsFrameCodec.encodedSize(frame)];
+        try {
+            VitalsFrameCodec.encode(frame, value, 0);
+        } catch (CodecException e) {
+            throw new GattException(e);
+        }
+        setValue(value);
+        return value.length;
+    }
+}
@@ -20,6 +20,9 @@ public class ClientCharacteristicConfigurationDescriptor extends GattDescriptor
     public static final UUID CLIENT_CHARACTERISTIC_CONFIGURATION_UUID = UUID
             .fromString("00002902-0000-1000-8000-00805f9b34fb");
 
+    /** ATT error code for configuration which characteristic properties do not allow, e.g. indications. */
+    public static final int CCCD_IMPROPERLY_CONFIGURED = 0xFD;
+
     /**
      * Create {@link GattDescriptor} for Client Characteristic Configuration descriptor.
      * <br>Configure {@link GattDescriptor} with Client Characteristic Configuration UUID,
@@ -5,6 +5,9 @@ import android.bluetooth.BluetoothGattService;
 import com.google.heartrate.wearos.app.gatt.attributes.GattCharacteristic;
 import com.google.heartrate.wearos.app.gatt.attributes.GattService;
 import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.HeartRateMeasurementCharacteristic;
+import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.HeartRateVariabilitySummaryCharacteristic;
+import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.NotificationPeriodControlPointCharacteristic;
+import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.VitalsFrameCharacteristic;
 
 import java.util.UUID;
 
@@ -23,6 +26,11 @@ import java.util.UUID;
  *      <tr><td> Client Characteristic Configuration descriptor </td><td> Mandatory </td><td> Read, Write </td></tr>
  *      <tr><td> Body Sensor Location </td><td> Optional </td><td> Read </td></tr>
  *      <tr><td> Heart Rate Control Point </td><td> Optional, Mandatory if Energy Expended </td><td> Write </td></tr>
+ *      <tr><td> Vitals Frame (vendor) </td><td> Optional </td><td> Notify </td></tr>
+ *      <tr><td> Client Characteristic Configuration descriptor </td><td> Mandatory </td><td> Read, Write </td></tr>
+ *      <tr><td> Notification Period Control Point (vendor) </td><td> Optional </td><td> Write </td></tr>
+ *      <tr><td> Heart Rate Variability Summary (vendor) </td><td> Optional </td><td> Notify </td></tr>
+ *      <tr><td> Client Characteristic Configuration descriptor </td><td> Mandatory </td><td> Read, Write </td></tr>
  *  </tbody>
  * </table>
  * <p>
@@ -34,25 +42,56 @@ public class HeartRateGattService extends GattService {
     private static final String TAG = HeartRateGattService.class.getCanonicalName();
 
     /** Heart Rate service UUID. */
-    private static final UUID HEART_RATE_SERVICE_UUID = UUID
+    public static final UUID HEART_RATE_SERVICE_UUID = UUID
             .fromString("0000180d-0000-1000-8000-00805f9b34fb");
 
     /** Heart Rate characteristic. */
-    private static HeartRateMeasurementCharacteristic heartRateMeasurementCharacteristic =
-            new HeartRateMeasurementCharacteristic();
+    private final HeartRateMeasurementCharacteristic heartRateMeasurementCharacteristic;
+
+    /** Vitals Frame characteristic. */
+    private final VitalsFrameCharacteristic vitalsFrameCharacteristic;
+
+    /** Notification Period Control Point characteristic. */
+    private final NotificationPeriodControlPointCharacteristic notificationPeriodControlPointCharacteristic;
+
+    /** Heart Rate Variability Summary characteristic. */
+    private final HeartRateVariabilitySummaryCharacteristic heartRateVariabilitySummaryCharacteristic;
 
     /**
      * Create {@link GattService} for Heart Rate service.
      * <br>Configure {@link GattService} with Heart Rate service UUID,
-     * primary type and Heart Rate Measurement Characteristic.
+     * primary type, Heart Rate Measurement, Vitals Frame, Notification Period Control Point
+     * and Heart Rate Variability Summary characteristics.
+     * Every instance has its own characteristics, so server can host several instances with independent values.
      */
     public HeartRateGattService() {
+        this(new HeartRateMeasurementCharacteristic(), new VitalsFrameCharacteristic(),
+                new NotificationPeriodControlPointCharacteristic(), new HeartRateVariabilitySummaryCharacteristic());
+    }
+
+    private HeartRateGattService(HeartRateMeasurementCharacteristic heartRateMeasurementCharacteristic,
+                                 VitalsFrameCharacteristic vitalsFrameCharacteristic,
+                                 NotificationPeriodControlPointCharacteristic notificationPeriodControlPointCharacteristic,
+                                 HeartRateVariabilitySummaryCharacteristic heartRateVariabilitySummaryCharacteristic) {
         super(HEART_RATE_SERVICE_UUID,
                 BluetoothGattService.SERVICE_TYPE_PRIMARY,
-                new GattCharacteristic[]{ heartRateMeasurementCharacteristic });
+                new GattCharacteristic[]{ heartRateMeasurementCharacteristic, vitalsFrameCharacteristic,
+                        notificationPeriodControlPointCharacteristic, heartRateVariabilitySummaryCharacteristic });
+        this.heartRateMeasurementCharacteristic = heartRateMeasurementCharacteristic;
+        this.vitalsFrameCharacteristic = vitalsFrameCharacteristic;
+        this.notificationPeriodControlPointCharacteristic = notificationPeriodControlPointCharacteristic;
+        this.heartRateVariabilitySummaryCharacteristic = heartRateVariabilitySummaryCharacteristic;
     }
 
     public HeartRateMeasurementCharacteristic getHeartRateMeasurementCharacteristic() {
         return heartRateMeasurementCharacteristic;
     }
+
+    public VitalsFrameCharacteristic getVitalsFrameCharacteristic() {
+        return vitalsFrameCharacteristic;
+    }
+
+    public HeartRateVariabilitySummaryCharacteristic getHeartRateVariabilitySummaryCharacteristic() {
+        return heartRateVariabilitySummaryCharacteristic;
+    }
 }
@@ -0,0 +1,110 @@
+package com.google.heartrate.wearos.app.metrics;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Server-wide registry of named counters and gauges for field diagnostics.
+ *
+ * <p>Counters are backed by {@link LongAdder}, so they are incremented from binder, event loop
+ * and sensor threads without locks or contention. Gauges are sampled from their suppliers
+ * only when a snapshot is taken.
+ *
+ * <p>Components which count on a hot path should keep {@link Counter} returned by
+ * {@link #counter(String)} instead of looking it up by name every time.
+ */
+public class MetricsRegistry {
+
+    /** Counters by name. */
+    private final Map<String, Counter> counterByName = new ConcurrentHashMap<>();
+
+    /** Gauges by name. */
+    private final Map<String, LongSupplier> gaugeByName = new ConcurrentHashMap<>();
+
+    /**
+     * Get counter with given name, creating it on first use.
+     *
+     * @param name counter name
+     * @return counter with given name
+     */
+    public Counter counter(String name) {
+        Counter counter = counterByName.get(name);
+        if (counter == null) {
+            counter = counterByName.computeIfAbsent(name, key -> new Counter());
+        }
+        return counter;
+    }
+
+    /**
+     * Increment counter with given name by one.
+     *
+     * @param name counter name
+     */
+    public void increment(String name) {
+        counter(name).increment();
+    }
+
+    /**
+     * Register gauge which is sampled on snapshot. Registering gauge with the same name replaces it.
+     *
+     * @param name gauge name
+     * @param supplier supplier of current gauge value, must be thread safe
+     */
+    public void gauge(String name, LongSupplier supplier) {
+        gaugeByName.put(name, supplier);
+    }
+
+    /**
+     * Take snapshot of all counters and gauges.
+     *
+     * @return current values sorted by name
+     */
+    public SortedMap<String, Long> snapshot() {
+        SortedMap<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : counterByName.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, LongSupplier> entry : gaugeByName.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Print snapshot of all counters and gauges.
+     *
+     * @param writer writer to print metrics to
+     */
+    public void dump(PrintWriter writer) {
+        for (Map.Entry<String, Long> entry : snapshot().entrySet()) {
+            writer.println(String.format("%s: %d", entry.getKey(), entry.getValue()));
+        }
+    }
+
+    /**
+     * Monotonic counter.
+     */
+    public static class Counter {
+        private final LongAdder value = new LongAdder();
+
+        private Counter() {
+        }
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long delta) {
+            value.add(delta);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+}
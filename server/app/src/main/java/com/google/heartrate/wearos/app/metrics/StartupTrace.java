@@ -0,0 +1,88 @@
+package com.google.heartrate.wearos.app.metrics;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Trace of application startup milestones.
+ *
+ * <p>Every milestone is recorded once, the first time it is reached, as time since trace creation.
+ * Milestones are reached on different threads, so trace is thread safe.
+ */
+public class StartupTrace {
+    private static final String TAG = StartupTrace.class.getSimpleName();
+
+    /** Elapsed time of milestone which has not been reached yet. */
+    private static final long NOT_REACHED = -1;
+
+    /**
+     * Startup milestones.
+     */
+    public enum Milestone {
+        /** Foreground service is running. */
+        SERVICE_STARTED,
+        /** Heart rate sensor listener is registered. */
+        SENSOR_REGISTERED,
+        /** GATT server is opened. */
+        GATT_SERVER_OPENED,
+        /** First GATT service is added to GATT server. */
+        FIRST_SERVICE_ADDED,
+        /** First advertisement is started. */
+        FIRST_ADVERTISEMENT,
+        /** First device connection is accepted. */
+        FIRST_CONNECTION,
+        /** First notification is sent. */
+        FIRST_NOTIFICATION
+    }
+
+    /** Time of trace creation. */
+    private final long startedAtMs;
+
+    /** Time since trace creation by milestone ordinal. */
+    private final AtomicLongArray elapsedMsByMilestone = new AtomicLongArray(Milestone.values().length);
+
+    public StartupTrace() {
+        startedAtMs = SystemClock.elapsedRealtime();
+        for (int i = 0; i < elapsedMsByMilestone.length(); i++) {
+            elapsedMsByMilestone.set(i, NOT_REACHED);
+        }
+    }
+
+    /**
+     * Record that milestone is reached. Only the first time milestone is reached is recorded.
+     *
+     * @param milestone reached milestone
+     */
+    public void mark(Milestone milestone) {
+        long elapsedMs = SystemClock.elapsedRealtime() - startedAtMs;
+        if (elapsedMsByMilestone.compareAndSet(milestone.ordinal(), NOT_REACHED, elapsedMs)) {
+            Log.i(TAG, String.format("%s reached in %d ms", milestone, elapsedMs));
+        }
+    }
+
+    /**
+     * Get time since trace creation when milestone has been reached.
+     *
+     * @param milestone milestone to check
+     * @return elapsed time (milliseconds) or -1 if milestone has not been reached
+     */
+    public long getElapsedMs(Milestone milestone) {
+        return elapsedMsByMilestone.get(milestone.ordinal());
+    }
+
+    /**
+     * Print reached milestones.
+     *
+     * @param writer writer to print milestones to
+     */
+    public void dump(PrintWriter writer) {
+        for (Milestone milestone : Milestone.values()) {
+            long elapsedMs = getElapsedMs(milestone);
+            writer.println(String.format("Startup %s: %s", milestone,
+                    elapsedMs == NOT_REACHED ? "not reached" : elapsedMs + " ms"));
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package com.google.heartrate.wearos.app.power;
+
+import android.app.AlarmManager;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link WakeLockScheduler} keeps CPU awake only around actual work instead of holding
+ * {@link PowerManager#PARTIAL_WAKE_LOCK} for the whole life of the service.
+ *
+ * <p>Components open awake windows with {@link #acquire()} and close them with {@link #release()}.
+ * The wake lock is held while at least one window is open. Windows can be opened on behalf of an owner,
+ * e.g. remote device which is expected to confirm notification, with {@link #acquire(Object)}, so windows
+ * which will never be released by their owner are closed with {@link #releaseAll(Object)} without closing
+ * windows of other components. Periodic work wakes CPU up with
+ * {@link #scheduleWakeup}, which uses {@link AlarmManager#ELAPSED_REALTIME_WAKEUP} alarms,
+ * so CPU may suspend between runs.
+ *
+ * <p>Every window is closed if it is not released in {@link #MAX_AWAKE_WINDOW_MS}, windows which are
+ * opened later keep CPU awake for their own time. Alarms and window timeouts are handled on a dedicated
+ * wakeup thread rather than the main thread, so UI work does not delay them.
+ *
+ * <p>Wake lock held time and number of wakeups per hour are collected to measure battery impact.
+ */
+public class WakeLockScheduler {
+    private static final String TAG = WakeLockScheduler.class.getSimpleName();
+
+    /** Upper bound for one window to hold CPU awake, protects from windows which are never released. */
+    private static final long MAX_AWAKE_WINDOW_MS = 10 * 1000;
+
+    /** Number of milliseconds in one hour. */
+    private static final long HOUR_MS = 60 * 60 * 1000;
+
+    /** WakeLock to keep CPU awake during awake windows. */
+    private final PowerManager.WakeLock wakeLock;
+
+    /** {@link AlarmManager} to wake CPU up for scheduled work. */
+    private final AlarmManager alarmManager;
+
+    /** Thread alarms and awake window timeouts are received on, null if looper has been given. */
+    private final HandlerThread wakeupThread;
+
+    /** {@link Handler} to receive alarms and awake window timeouts on. */
+    private final Handler handler;
+
+    /** Time of scheduler creation. */
+    private final long createdAtMs;
+
+    /** Number of currently open awake windows. */
+    private int openWindowCount;
+
+    /** Owner of windows opened with {@link #acquire()}. */
+    private final Object unownedWindowOwner = new Object();
+
+    /** Open times of currently open awake windows by owner, the earliest opened first. */
+    private final Map<Object, Deque<Long>> openWindowsByOwner = new HashMap<>();
+
+    /** Time when wake lock has been acquired last time. */
+    private long acquiredAtMs;
+
+    /** Total wake lock held time not including current awake window. */
+    private long heldTimeMs;
+
+    /** Number of times wake lock has been acquired. */
+    private long wakeupCount;
+
+    /** Wakeups scheduled with {@link AlarmManager}, which have neither run nor been cancelled yet. */
+    private final Set<Wakeup> scheduledWakeups = new HashSet<>();
+
+    /** Whether scheduler has been closed, wakeups are not scheduled anymore. */
+    private boolean closed;
+
+    /** Close awake windows which are not released in {@link #MAX_AWAKE_WINDOW_MS}. */
+    private final Runnable awakeWindowTimeout = this::closeExpiredWindows;
+
+    public WakeLockScheduler(Context context) {
+        this(context, null);
+    }
+
+    /**
+     * Create scheduler which receives alarms on given looper, e.g. to drive it from test.
+     *
+     * @param context context to get system services from
+     * @param looper looper to receive alarms on, null to start dedicated wakeup thread
+     */
+    WakeLockScheduler(Context context, Looper looper) {
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+        wakeLock.setReferenceCounted(false);
+        alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        if (looper == null) {
+            wakeupThread = new HandlerThread(TAG);
+            wakeupThread.start();
+            looper = wakeupThread.getLooper();
+        } else {
+            wakeupThread = null;
+        }
+        handler = new Handler(looper);
+        createdAtMs = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Open awake window. CPU is held awake until every opened window is released.
+     */
+    public void acquire() {
+        acquire(unownedWindowOwner);
+    }
+
+    /**
+     * Open awake window on behalf of given owner.
+     *
+     * @param owner owner to close window with {@link #release(Object)} or {@link #releaseAll(Object)}
+     */
+    public synchronized void acquire(Object owner) {
+        long nowMs = SystemClock.elapsedRealtime();
+        Deque<Long> ownerWindows = openWindowsByOwner.get(owner);
+        if (ownerWindows == null) {
+            ownerWindows = new ArrayDeque<>();
+            openWindowsByOwner.put(owner, ownerWindows);
+        }
+        ownerWindows.add(nowMs);
+        openWindowCount++;
+        if (openWindowCount == 1) {
+            acquiredAtMs = nowMs;
+            wakeupCount++;
+            /* Not timed: every window is limited on its own by timeout */
+            wakeLock.acquire();
+            /* Windows opened later expire later, timeout is moved to them once earlier ones are closed */
+            handler.postDelayed(awakeWindowTimeout, MAX_AWAKE_WINDOW_MS);
+        }
+    }
+
+    /**
+     * Close awake window. Release wake lock if it was the last open window.
+     */
+    public void release() {
+        release(unownedWindowOwner);
+    }
+
+    /**
+     * Close the earliest open awake window of given owner. Release wake lock if it was the last open window.
+     * Nothing is closed if owner has no open windows.
+     *
+     * @param owner owner window has been opened on behalf of
+     */
+    public synchronized void release(Object owner) {
+        Deque<Long> ownerWindows = openWindowsByOwner.get(owner);
+        if (ownerWindows == null) {
+            return;
+        }
+        ownerWindows.poll();
+        if (ownerWindows.isEmpty()) {
+            openWindowsByOwner.remove(owner);
+        }
+        openWindowCount--;
+        if (openWindowCount == 0) {
+            releaseWakeLock();
+        }
+    }
+
+    /**
+     * Close all open awake windows of given owner. Release wake lock if no other windows are open.
+     *
+     * <p>Invoke when owner will never release its windows, e.g. when device disconnects
+     * before confirming notifications, so its windows do not keep CPU awake.
+     *
+     * @param owner owner windows have been opened on behalf of
+     */
+    public synchronized void releaseAll(Object owner) {
+        Deque<Long> ownerWindows = openWindowsByOwner.remove(owner);
+        if (ownerWindows == null) {
+            return;
+        }
+        openWindowCount -= ownerWindows.size();
+        if (openWindowCount == 0) {
+            releaseWakeLock();
+        }
+    }
+
+    /**
+     * Close all open awake windows of all owners and release wake lock, e.g. when service is destroyed.
+     */
+    public synchronized void releaseAll() {
+        if (openWindowCount == 0) {
+            return;
+        }
+        openWindowCount = 0;
+        openWindowsByOwner.clear();
+        releaseWakeLock();
+    }
+
+    /**
+     * Cancel scheduled wakeups, close all open awake windows and stop wakeup thread.
+     * Wakeups scheduled after close are not run.
+     */
+    public void close() {
+        List<Wakeup> wakeups;
+        synchronized (this) {
+            closed = true;
+            wakeups = new ArrayList<>(scheduledWakeups);
+            scheduledWakeups.clear();
+        }
+        /* Alarms outlive process, pending ones would wake CPU up only to find handler thread gone */
+        for (Wakeup wakeup : wakeups) {
+            alarmManager.cancel(wakeup);
+        }
+        releaseAll();
+        if (wakeupThread != null) {
+            wakeupThread.quitSafely();
+        }
+    }
+
+    /**
+     * Close windows open for {@link #MAX_AWAKE_WINDOW_MS} or longer
+     * and schedule timeout for the earliest of windows left open.
+     */
+    private synchronized void closeExpiredWindows() {
+        if (openWindowCount == 0) {
+            return;
+        }
+        long nowMs = SystemClock.elapsedRealtime();
+        long earliestOpenedAtMs = Long.MAX_VALUE;
+        int expiredWindowCount = 0;
+        Iterator<Deque<Long>> iterator = openWindowsByOwner.values().iterator();
+        while (iterator.hasNext()) {
+            Deque<Long> ownerWindows = iterator.next();
+            while (!ownerWindows.isEmpty() && nowMs - ownerWindows.peek() >= MAX_AWAKE_WINDOW_MS) {
+                ownerWindows.poll();
+                expiredWindowCount++;
+            }
+            if (ownerWindows.isEmpty()) {
+                iterator.remove();
+            } else {
+                earliestOpenedAtMs = Math.min(earliestOpenedAtMs, ownerWindows.peek());
+            }
+        }
+        if (expiredWindowCount > 0) {
+            Log.w(TAG, String.format("%d awake windows timed out, %d windows left open",
+                    expiredWindowCount, openWindowCount - expiredWindowCount));
+        }
+        openWindowCount -= expiredWindowCount;
+        if (openWindowCount == 0) {
+            releaseWakeLock();
+        } else {
+            handler.postDelayed(awakeWindowTimeout, earliestOpenedAtMs + MAX_AWAKE_WINDOW_MS - nowMs);
+        }
+    }
+
+    private void releaseWakeLock() {
+        handler.removeCallbacks(awakeWindowTimeout);
+        heldTimeMs += SystemClock.elapsedRealtime() - acquiredAtMs;
+        if (wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+    }
+
+    /**
+     * Wake CPU up after given delay and run given task in awake window.
+     *
+     * <p>Task runs on wakeup thread, so it should only hand work over to a worker
+     * after opening its own awake window with {@link #acquire()}.
+     *
+     * @param delayMs delay before task run
+     * @param task task to run
+     * @return {@link Wakeup} to cancel scheduled run
+     */
+    public Wakeup scheduleWakeup(long delayMs, Runnable task) {
+        Wakeup wakeup = new Wakeup(task);
+        /* Alarm is set under lock, so close does not miss alarm being set concurrently */
+        synchronized (this) {
+            if (closed) {
+                return wakeup;
+            }
+            scheduledWakeups.add(wakeup);
+            alarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP,
+                    SystemClock.elapsedRealtime() + delayMs,
+                    TAG,
+                    wakeup,
+                    handler);
+        }
+        return wakeup;
+    }
+
+    /**
+     * Cancel scheduled wakeup.
+     *
+     * @param wakeup wakeup to cancel
+     */
+    public void cancelWakeup(Wakeup wakeup) {
+        synchronized (this) {
+            scheduledWakeups.remove(wakeup);
+        }
+        alarmManager.cancel(wakeup);
+    }
+
+    /**
+     * Get total time wake lock has been held.
+     *
+     * @return wake lock held time (milliseconds)
+     */
+    public synchronized long getHeldTimeMs() {
+        long currentWindowMs = openWindowCount > 0 ? SystemClock.elapsedRealtime() - acquiredAtMs : 0;
+        return heldTimeMs + currentWindowMs;
+    }
+
+    /**
+     * Get average number of wake lock acquisitions per hour since scheduler creation.
+     *
+     * @return wakeups per hour
+     */
+    public synchronized double getWakeupsPerHour() {
+        long elapsedMs = Math.max(1, SystemClock.elapsedRealtime() - createdAtMs);
+        return (double) wakeupCount * HOUR_MS / elapsedMs;
+    }
+
+    /**
+     * Print wake lock metrics.
+     *
+     * @param writer writer to print metrics to
+     */
+    public void dump(PrintWriter writer) {
+        writer.println(String.format("WakeLock held time: %d ms", getHeldTimeMs()));
+        writer.println(String.format("WakeLock wakeups per hour: %.1f", getWakeupsPerHour()));
+    }
+
+    /**
+     * Scheduled wakeup, runs its task in awake window when alarm fires.
+     */
+    public class Wakeup implements AlarmManager.OnAlarmListener {
+
+        /** Task to run on wakeup. */
+        private final Runnable task;
+
+        private Wakeup(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void onAlarm() {
+            synchronized (WakeLockScheduler.this) {
+                scheduledWakeups.remove(this);
+            }
+            acquire();
+            try {
+                task.run();
+            } finally {
+                release();
+            }
+        }
+    }
+}
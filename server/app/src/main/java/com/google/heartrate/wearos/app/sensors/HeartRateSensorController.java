@@ -0,0 +1,212 @@
+package com.google.heartrate.wearos.app.sensors;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.google.heartrate.wearos.app.metrics.StartupTrace;
+import com.google.heartrate.wearos.app.power.WakeLockScheduler;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * {@link HeartRateSensorController} owns heart rate measurement on behalf of its consumers,
+ * e.g. remote devices subscribed to notifications or visible UI.
+ *
+ * <p>Measurement is started when the first consumer is acquired and stopped a grace period after
+ * the last consumer is released, so consumer which leaves and comes back shortly,
+ * e.g. device resubscribing after reconnection, does not restart sensor and lose its warm-up.
+ * Consumers are counted by identity: acquiring the same consumer twice needs only one release.
+ *
+ * <p>Methods may be invoked on any thread. Sensor is registered and unregistered on sensor thread,
+ * grace period is measured with {@link WakeLockScheduler} alarm, so it elapses while CPU is suspended.
+ */
+public class HeartRateSensorController {
+    private static final String TAG = HeartRateSensorController.class.getSimpleName();
+
+    /** Source to start and stop measurement of. */
+    private final HeartRateSource heartRateSource;
+
+    /** {@link Handler} of thread sensor is registered on. */
+    private final Handler sensorHandler;
+
+    /** {@link WakeLockScheduler} to schedule measurement stop with. */
+    private final WakeLockScheduler wakeLockScheduler;
+
+    /** Time (milliseconds) measurement keeps running after the last consumer is released. */
+    private final long gracePeriodMs;
+
+    /** Consumers measurement is running for. */
+    private final Set<Object> consumers = new HashSet<>();
+
+    /** Whether measurement is started or not, including grace period. */
+    private boolean measuring;
+
+    /** Scheduled measurement stop, null if stop is not scheduled. */
+    private WakeLockScheduler.Wakeup scheduledStop;
+
+    /** Number of scheduled stops, tells stale alarm from the current one. */
+    private long stopGeneration;
+
+    /** Number of consumers ever acquired, tells whether consumer came while sensor was being started. */
+    private long acquireGeneration;
+
+    /** Value of {@link #acquireGeneration} the latest start was posted with, tells stale start from the current one. */
+    private long startGeneration;
+
+    /** {@link StartupTrace} to mark sensor registration in, null if not set. */
+    private StartupTrace startupTrace;
+
+    /**
+     * Create controller of given source.
+     *
+     * @param heartRateSource source to start and stop measurement of
+     * @param sensorHandler handler of thread to register sensor on
+     * @param wakeLockScheduler scheduler to measure grace period with
+     * @param gracePeriodMs time (milliseconds) measurement keeps running after the last consumer is released
+     */
+    public HeartRateSensorController(HeartRateSource heartRateSource, Handler sensorHandler,
+                                     WakeLockScheduler wakeLockScheduler, long gracePeriodMs) {
+        this.heartRateSource = heartRateSource;
+        this.sensorHandler = sensorHandler;
+        this.wakeLockScheduler = wakeLockScheduler;
+        this.gracePeriodMs = gracePeriodMs;
+    }
+
+    /**
+     * Set {@link StartupTrace} to mark the first sensor registration in.
+     *
+     * @param startupTrace trace to mark milestone in
+     */
+    public synchronized void setStartupTrace(StartupTrace startupTrace) {
+        this.startupTrace = startupTrace;
+    }
+
+    /**
+     * Add consumer of heart rate. Start measurement if it is not running,
+     * cancel scheduled stop if measurement is in grace period.
+     *
+     * @param consumer consumer of heart rate, acquiring already acquired consumer does nothing
+     */
+    public synchronized void acquire(Object consumer) {
+        if (!consumers.add(consumer)) {
+            return;
+        }
+        acquireGeneration++;
+        cancelScheduledStop();
+        if (!measuring) {
+            measuring = true;
+            postStartMeasure();
+        }
+    }
+
+    /**
+     * Remove consumer of heart rate. Schedule measurement stop if it was the last consumer.
+     *
+     * @param consumer consumer of heart rate, releasing consumer which is not acquired does nothing
+     */
+    public synchronized void release(Object consumer) {
+        if (!consumers.remove(consumer) || !consumers.isEmpty()) {
+            return;
+        }
+        Log.d(TAG, String.format("No consumers, stop measurement in %d ms", gracePeriodMs));
+        long generation = ++stopGeneration;
+        scheduledStop = wakeLockScheduler.scheduleWakeup(gracePeriodMs, () -> onGracePeriodElapsed(generation));
+    }
+
+    /**
+     * Remove all consumers and stop measurement without grace period.
+     */
+    public synchronized void close() {
+        consumers.clear();
+        cancelScheduledStop();
+        stopMeasure();
+    }
+
+    /**
+     * Determine whether measurement is running or not, including grace period.
+     *
+     * @return true if measurement is running, false otherwise
+     */
+    public synchronized boolean isMeasuring() {
+        return measuring;
+    }
+
+    /**
+     * Get number of consumers measurement is running for.
+     *
+     * @return number of consumers
+     */
+    public synchronized int getConsumerCount() {
+        return consumers.size();
+    }
+
+    private synchronized void onGracePeriodElapsed(long generation) {
+        /* Alarm may be already delivered when it is cancelled */
+        if (scheduledStop == null || generation != stopGeneration) {
+            return;
+        }
+        scheduledStop = null;
+        stopMeasure();
+    }
+
+    private void cancelScheduledStop() {
+        if (scheduledStop != null) {
+            wakeLockScheduler.cancelWakeup(scheduledStop);
+            scheduledStop = null;
+        }
+    }
+
+    private void postStartMeasure() {
+        long generation = startGeneration = acquireGeneration;
+        sensorHandler.post(() -> startMeasure(generation));
+    }
+
+    private void stopMeasure() {
+        if (measuring) {
+            measuring = false;
+            /* Posted after start, so sensor is not registered after it is stopped */
+            sensorHandler.post(heartRateSource::stopMeasure);
+        }
+    }
+
+    /**
+     * Register sensor. Runs on sensor thread.
+     *
+     * @param generation value of {@link #acquireGeneration} start has been posted with
+     */
+    private void startMeasure(long generation) {
+        try {
+            heartRateSource.startMeasure();
+        } catch (SensorException e) {
+            Log.e(TAG, String.format("Can not start measurement: %s", e.getMessage()));
+            onStartMeasureFailed(generation);
+            return;
+        }
+        StartupTrace trace;
+        synchronized (this) {
+            trace = startupTrace;
+        }
+        if (trace != null) {
+            trace.mark(StartupTrace.Milestone.SENSOR_REGISTERED);
+        }
+    }
+
+    /**
+     * Retry start for consumers acquired while sensor was being started, they did not post start themselves.
+     * Otherwise next consumer retries, e.g. after body sensors permission is granted.
+     *
+     * @param generation value of {@link #acquireGeneration} failed start has been posted with
+     */
+    private synchronized void onStartMeasureFailed(long generation) {
+        if (generation != startGeneration || !measuring) {
+            /* Measurement has been stopped, or stopped and started again, after this start was posted */
+            return;
+        }
+        if (acquireGeneration != generation && !consumers.isEmpty()) {
+            postStartMeasure();
+        } else {
+            measuring = false;
+        }
+    }
+}
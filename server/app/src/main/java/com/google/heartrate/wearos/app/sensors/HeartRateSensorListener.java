@@ -6,19 +6,77 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.google.heartrate.wearos.app.R;
+import com.google.heartrate.wearos.app.metrics.MetricsRegistry;
+import com.google.heartrate.wearos.app.power.WakeLockScheduler;
+import com.google.heartrate.wearos.app.sensors.pipeline.SamplePipeline;
+
 /**
- * Listener for heart rate sensor.
+ * {@link HeartRateSource} backed by device heart rate sensor.
+ *
+ * <p>Sensor events and all processing they trigger run on thread of the {@link Handler} given on creation,
+ * so main thread work does not delay samples.
+ *
+ * <p>If device has heart beat sensor, intervals between successive beats are collected
+ * into {@link RrIntervalBuffer} as well, and their variability is kept in {@link HeartRateVariabilityWindow}.
+ *
+ * <p>Sensor events are converted to {@link SensorEventSink} callbacks before they are processed,
+ * so sessions recorded with {@link SensorRecorder} can be fed back with {@link SensorReplayer}.
+ *
+ * <p>Samples batched in hardware FIFO are delivered as a burst of {@link #onSensorChanged} calls
+ * within one sensor thread message. They are buffered and passed through {@link SamplePipeline}
+ * as one batch after the burst, instead of one pipeline pass per sample.
  */
-public class HeartRateSensorListener implements SensorEventListener {
+public class HeartRateSensorListener implements HeartRateSource, SensorEventListener, SensorEventSink {
     private static final String TAG = HeartRateSensorListener.class.getSimpleName();
 
     public static final String HEART_RATE_CHANGE = "com.google.app.androidos.walking.stepcontroller.HEART_RATE_CHANGE";
     public static final String HEART_RATE_VALUE = "com.google.app.androidos.walking.stepcontroller.HEART_RATE_VALUE";
 
-    /** Heart rate sensor data when sensor is not available or started. */
-    private static final int NO_VALUE_AVAILABLE = 0;
+    /** Maximum time sensor events are batched in hardware FIFO while CPU is suspended. */
+    private static final int MAX_REPORT_LATENCY_US = 10 * 1000 * 1000;
+
+    /** Number of microseconds in one millisecond. */
+    private static final int MICROS_IN_MILLISECOND = 1000;
+
+    /** Maximum number of samples processed by {@link SamplePipeline} at once, longer bursts are split. */
+    private static final int PIPELINE_CAPACITY = 16;
+
+    /** Weight of the last sample interval in average sample interval. */
+    private static final double SAMPLE_INTERVAL_SMOOTHING = 0.125;
+
+    /** Number of nanoseconds in one minute. */
+    private static final double NANOS_IN_MINUTE = 60e9;
+
+    /** Number of nanoseconds in one millisecond. */
+    private static final long NANOS_IN_MILLISECOND = 1_000_000L;
+
+    /** Number of nanoseconds in one second. */
+    private static final long NANOS_IN_SECOND = 1_000_000_000L;
+
+    /** Minimum interval (nanoseconds) between heart rate broadcasts, samples may come much faster. */
+    private static final long MIN_BROADCAST_INTERVAL_NS = NANOS_IN_SECOND;
+
+    /** Number of RR-Interval units in one second. */
+    private static final int RR_INTERVAL_UNITS_IN_SECOND = 1024;
+
+    /** Minimum plausible RR-Interval (1/1024 seconds), 240 bpm. */
+    private static final int MIN_RR_INTERVAL = RR_INTERVAL_UNITS_IN_SECOND / 4;
+
+    /** Maximum plausible RR-Interval (1/1024 seconds), 20 bpm, longer gaps mean missed beats. */
+    private static final int MAX_RR_INTERVAL = RR_INTERVAL_UNITS_IN_SECOND * 3;
+
+    /** Maximum number of RR-Intervals kept until they are drained. */
+    private static final int RR_INTERVAL_CAPACITY = 64;
+
+    /** Priority of thread sensor events are delivered on, above UI and default background threads. */
+    private static final int SENSOR_THREAD_PRIORITY = Process.THREAD_PRIORITY_DISPLAY;
 
     /** Sensor manager. */
     private final SensorManager sensorManager;
@@ -26,16 +84,123 @@ public class HeartRateSensorListener implements SensorEventListener {
     /** Heart rate sensor to listen to. */
     private final Sensor heartRateSensor;
 
+    /** Heart beat sensor to get RR-Intervals from, null if device has none. */
+    private final Sensor heartBeatSensor;
+
+    /** Listener of heart beat sensor, separate so beats are not mixed with heart rate samples. */
+    private final SensorEventListener heartBeatListener = new HeartBeatListener();
+
+    /** RR-Intervals between beats reported by heart beat sensor. */
+    private final RrIntervalBuffer rrIntervalBuffer = new RrIntervalBuffer(RR_INTERVAL_CAPACITY);
+
+    /** Heart rate variability of RR-Intervals between beats reported by heart beat sensor. */
+    private final HeartRateVariabilityWindow heartRateVariabilityWindow =
+            new HeartRateVariabilityWindow(HeartRateVariabilityWindow.DEFAULT_WINDOW_SECONDS);
+
+    /** Timestamp of the previous heart beat (nanoseconds), 0 if there was none. */
+    private long previousBeatTimestampNs;
+
     /** Application context. */
     private final Context context;
 
-    /** Heart rate value from last sensor update. */
-    private int currentHeartRateValue = NO_VALUE_AVAILABLE;
+    /** {@link Handler} of thread sensor events are delivered and processed on. */
+    private final Handler sensorHandler;
+
+    /** Pipeline to filter raw sensor samples with. */
+    private final SamplePipeline samplePipeline;
+
+    /** Timestamps of samples buffered until the burst is processed (nanoseconds). */
+    private final long[] burstTimestamps;
+
+    /** Heart rate values of samples buffered until the burst is processed (bpm). */
+    private final float[] burstValues;
+
+    /** Accuracies of samples buffered until the burst is processed. */
+    private final int[] burstAccuracies;
+
+    /** Number of buffered samples. */
+    private int burstCount;
+
+    /** Whether processing of buffered samples is posted to sensor thread. */
+    private boolean burstProcessingPosted;
+
+    /** Task processing buffered samples after the burst they were delivered in. */
+    private final Runnable burstProcessingTask = () -> {
+        burstProcessingPosted = false;
+        processBurst();
+    };
+
+    /** Heart rate value from last sensor update, written on sensor thread. */
+    private volatile int currentHeartRateValue = NO_VALUE_AVAILABLE;
 
-    public HeartRateSensorListener(Context context) {
+    /** Wall clock time last heart rate value has been measured at (milliseconds since Unix epoch). */
+    private volatile long currentHeartRateTimeMs;
+
+    /** Whether sensor reported skin contact with the last sample or accuracy change. */
+    private volatile boolean sensorContactDetected;
+
+    /** {@link WakeLockScheduler} to keep CPU awake while sensor batch is delivered, null if not set. */
+    private WakeLockScheduler wakeLockScheduler;
+
+    /** Counter of received sensor samples, null if metrics are not set. */
+    private MetricsRegistry.Counter sampleCounter;
+
+    /** Counter of samples dropped because of unreliable accuracy, null if metrics are not set. */
+    private MetricsRegistry.Counter droppedSampleCounter;
+
+    /** Sink every sensor event is copied to before it is processed, null if events are not recorded. */
+    private volatile SensorEventSink recorder;
+
+    /** Timestamp of the previous sensor sample (nanoseconds), 0 if there was none. */
+    private long previousSampleTimestampNs;
+
+    /** Report latency requested by consumers (microseconds), written on any thread. */
+    private volatile int requestedReportLatencyUs = MAX_REPORT_LATENCY_US;
+
+    /** Report latency sensors are registered with (microseconds), 0 if they are not registered. */
+    private int registeredReportLatencyUs;
+
+    /** Heart rate value broadcast last time, {@link #NO_VALUE_AVAILABLE} if there was none since start. */
+    private int broadcastHeartRate = NO_VALUE_AVAILABLE;
+
+    /** Timestamp of sample broadcast last time (nanoseconds). */
+    private long broadcastTimestampNs;
+
+    /** Smoothed interval between sensor samples (nanoseconds), 0 until two samples are received. */
+    private volatile double averageSampleIntervalNs;
+
+    /**
+     * Create listener which gets sensor events on thread of given {@link Handler}.
+     *
+     * @param context application context
+     * @param sensorHandler handler of thread to deliver and process sensor events on
+     */
+    public HeartRateSensorListener(Context context, Handler sensorHandler) {
+        this(context, sensorHandler,
+                SamplePipeline.parse(context.getString(R.string.sample_pipeline), PIPELINE_CAPACITY));
+    }
+
+    HeartRateSensorListener(Context context, Handler sensorHandler, SamplePipeline samplePipeline) {
         this.context = context;
+        this.sensorHandler = sensorHandler;
+        this.samplePipeline = samplePipeline;
+        burstTimestamps = new long[samplePipeline.getCapacity()];
+        burstValues = new float[samplePipeline.getCapacity()];
+        burstAccuracies = new int[samplePipeline.getCapacity()];
         sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
         heartRateSensor = sensorManager.getDefaultSensor(Sensor.TYPE_HEART_RATE);
+        heartBeatSensor = sensorManager.getDefaultSensor(Sensor.TYPE_HEART_BEAT);
+    }
+
+    /**
+     * Create and start thread to deliver sensor events on, so they are not delayed by main thread.
+     *
+     * @return started {@link HandlerThread}, owner should quit it when sensor is not used anymore
+     */
+    public static HandlerThread startSensorThread() {
+        HandlerThread sensorThread = new HandlerThread(TAG, SENSOR_THREAD_PRIORITY);
+        sensorThread.start();
+        return sensorThread;
     }
 
     /**
@@ -43,38 +208,300 @@ public class HeartRateSensorListener implements SensorEventListener {
      *
      * @throws SensorException when cannot start measurement
      */
+    @Override
     public void startMeasure() throws SensorException {
         Log.d(TAG, "Start measurement");
+        int reportLatencyUs = requestedReportLatencyUs;
         boolean sensorRegistered = sensorManager
-                .registerListener(this, heartRateSensor, SensorManager.SENSOR_DELAY_NORMAL, 0);
+                .registerListener(this, heartRateSensor, SensorManager.SENSOR_DELAY_NORMAL, reportLatencyUs,
+                        sensorHandler);
         if (!sensorRegistered) {
             throw new SensorException("Heart rate sensor not registered");
         } else {
             Log.d(TAG, "Heart rate sensor registered");
         }
+        registeredReportLatencyUs = reportLatencyUs;
+        if (heartBeatSensor == null) {
+            Log.d(TAG, "No heart beat sensor, RR-Intervals are not available");
+            return;
+        }
+        previousBeatTimestampNs = 0;
+        rrIntervalBuffer.clear();
+        heartRateVariabilityWindow.clear();
+        registerHeartBeatSensor(reportLatencyUs);
+    }
+
+    /**
+     * Register to heart beat sensor changes.
+     * RR-Intervals are optional, so failure to register does not stop heart rate measurement.
+     *
+     * @param reportLatencyUs (microseconds) maximum time beats are batched in hardware
+     */
+    private void registerHeartBeatSensor(int reportLatencyUs) {
+        if (!sensorManager.registerListener(heartBeatListener, heartBeatSensor, SensorManager.SENSOR_DELAY_FASTEST,
+                reportLatencyUs, sensorHandler)) {
+            Log.w(TAG, "Heart beat sensor not registered");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Sensors are batched for at most {@link #MAX_REPORT_LATENCY_US}, shorter latency makes them
+     * registered again, so consumer notified every second does not get values batched for seconds.
+     */
+    @Override
+    public void setMaxReportLatency(long latencyMs) {
+        int latencyUs = latencyMs >= MAX_REPORT_LATENCY_US / MICROS_IN_MILLISECOND ?
+                MAX_REPORT_LATENCY_US :
+                (int) latencyMs * MICROS_IN_MILLISECOND;
+        if (latencyUs == requestedReportLatencyUs) {
+            return;
+        }
+        requestedReportLatencyUs = latencyUs;
+        sensorHandler.post(this::updateReportLatency);
+    }
+
+    /**
+     * Register running sensors again with report latency requested by consumers. Runs on sensor thread.
+     */
+    private void updateReportLatency() {
+        int reportLatencyUs = requestedReportLatencyUs;
+        if (registeredReportLatencyUs == 0 || registeredReportLatencyUs == reportLatencyUs) {
+            return;
+        }
+        Log.d(TAG, String.format("Report latency changed to %d ms", reportLatencyUs / MICROS_IN_MILLISECOND));
+        sensorManager.unregisterListener(this);
+        if (!sensorManager.registerListener(this, heartRateSensor, SensorManager.SENSOR_DELAY_NORMAL,
+                reportLatencyUs, sensorHandler)) {
+            Log.e(TAG, "Heart rate sensor not registered again");
+            sensorManager.unregisterListener(heartBeatListener);
+            registeredReportLatencyUs = 0;
+            return;
+        }
+        registeredReportLatencyUs = reportLatencyUs;
+        if (heartBeatSensor != null) {
+            sensorManager.unregisterListener(heartBeatListener);
+            registerHeartBeatSensor(reportLatencyUs);
+        }
     }
 
     /**
      * Stop measurement heart rate data. Unregister from heart rate sensor changes.
+     * Last value is forgotten, so it is not reported as current after measurement is restarted.
      */
+    @Override
     public void stopMeasure() {
         Log.d(TAG, "Stop measurement");
         sensorManager.unregisterListener(this);
+        sensorManager.unregisterListener(heartBeatListener);
+        registeredReportLatencyUs = 0;
+        currentHeartRateValue = NO_VALUE_AVAILABLE;
+        broadcastHeartRate = NO_VALUE_AVAILABLE;
+        previousSampleTimestampNs = 0;
+        burstCount = 0;
+        samplePipeline.reset();
+    }
+
+    /**
+     * Set {@link WakeLockScheduler} to keep CPU awake while sensor events are processed.
+     *
+     * @param wakeLockScheduler scheduler to open awake windows with
+     */
+    public void setWakeLockScheduler(WakeLockScheduler wakeLockScheduler) {
+        this.wakeLockScheduler = wakeLockScheduler;
+    }
+
+    /**
+     * Set sink to copy every sensor event to before it is processed, e.g. {@link SensorRecorder}.
+     *
+     * @param recorder sink to copy events to, null to stop copying
+     */
+    public void setRecorder(SensorEventSink recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Set {@link MetricsRegistry} to count sensor samples and report sample rate in.
+     *
+     * @param metrics registry to report metrics to
+     */
+    public void setMetricsRegistry(MetricsRegistry metrics) {
+        droppedSampleCounter = metrics.counter("sensor.samples.dropped");
+        sampleCounter = metrics.counter("sensor.samples");
+        metrics.gauge("sensor.samples_per_minute", this::getSamplesPerMinute);
+    }
+
+    /**
+     * Get current sensor sample rate.
+     *
+     * @return number of samples per minute, 0 until two samples are received
+     */
+    private long getSamplesPerMinute() {
+        double intervalNs = averageSampleIntervalNs;
+        return intervalNs > 0 ? Math.round(NANOS_IN_MINUTE / intervalNs) : 0;
+    }
+
+    /**
+     * Count sample and update average interval between samples.
+     *
+     * @param timestampNs (nanoseconds) time of sample
+     */
+    private void countSample(long timestampNs) {
+        MetricsRegistry.Counter counter = sampleCounter;
+        if (counter != null) {
+            counter.increment();
+        }
+
+        if (previousSampleTimestampNs != 0 && timestampNs > previousSampleTimestampNs) {
+            double intervalNs = timestampNs - previousSampleTimestampNs;
+            double average = averageSampleIntervalNs;
+            averageSampleIntervalNs = average == 0 ?
+                    intervalNs :
+                    average + SAMPLE_INTERVAL_SMOOTHING * (intervalNs - average);
+        }
+        previousSampleTimestampNs = timestampNs;
     }
 
     /**
      * Callback invokes when heart rate value has been changed.
+     * Sample is buffered and processed with the rest of its burst.
      *
      * @param event event from heart rate sensor
      */
     @Override
     public void onSensorChanged(SensorEvent event) {
-        float heartRateFloat = event.values[0];
-        int heartRate = Math.round(heartRateFloat);
-        Log.d(TAG, String.format("onSensorChanged() - value=%d", heartRate));
+        SensorEventSink sink = recorder;
+        if (sink != null) {
+            sink.onHeartRateSample(event.timestamp, event.values[0], event.accuracy);
+        }
+
+        bufferSample(event.timestamp, event.values[0], event.accuracy);
+        if (!burstProcessingPosted) {
+            burstProcessingPosted = true;
+            sensorHandler.post(burstProcessingTask);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Sample is processed right away, together with samples still buffered before it.
+     */
+    @Override
+    public void onHeartRateSample(long timestampNs, float heartRate, int accuracy) {
+        SensorEventSink sink = recorder;
+        if (sink != null) {
+            sink.onHeartRateSample(timestampNs, heartRate, accuracy);
+        }
+
+        bufferSample(timestampNs, heartRate, accuracy);
+        processBurst();
+    }
+
+    /**
+     * Buffer sample until the burst it is delivered in is processed.
+     * Full buffer is processed first, so burst longer than pipeline capacity is split into several batches.
+     *
+     * @param timestampNs (nanoseconds) time of sample
+     * @param heartRate (bpm) heart rate value reported by sensor
+     * @param accuracy accuracy of sample
+     */
+    private void bufferSample(long timestampNs, float heartRate, int accuracy) {
+        if (burstCount == burstTimestamps.length) {
+            processBurst();
+        }
+        burstTimestamps[burstCount] = timestampNs;
+        burstValues[burstCount] = heartRate;
+        burstAccuracies[burstCount] = accuracy;
+        burstCount++;
+    }
 
+    /**
+     * Process buffered samples while CPU is kept awake.
+     */
+    private void processBurst() {
+        if (burstCount == 0) {
+            return;
+        }
+
+        WakeLockScheduler scheduler = wakeLockScheduler;
+        if (scheduler == null) {
+            processSamples();
+            return;
+        }
+
+        scheduler.acquire();
+        try {
+            processSamples();
+        } finally {
+            scheduler.release();
+        }
+    }
+
+    /**
+     * Pass heart rate values from buffered sensor samples through {@link SamplePipeline} as one batch,
+     * save the last filtered value and broadcast it if it has changed.
+     *
+     * <p>Samples without skin contact or with unreliable accuracy are dropped.
+     */
+    private void processSamples() {
+        int count = 0;
+        for (int i = 0; i < burstCount; i++) {
+            countSample(burstTimestamps[i]);
+            int accuracy = burstAccuracies[i];
+            sensorContactDetected = accuracy != SensorManager.SENSOR_STATUS_NO_CONTACT;
+            if (!isReliable(accuracy)) {
+                Log.d(TAG, String.format("onSensorChanged() - dropped, accuracy=%d", accuracy));
+                MetricsRegistry.Counter counter = droppedSampleCounter;
+                if (counter != null) {
+                    counter.increment();
+                }
+                continue;
+            }
+            /* Reliable samples are moved to the front in place, buffer is not used until the next burst */
+            burstTimestamps[count] = burstTimestamps[i];
+            burstValues[count] = burstValues[i];
+            count++;
+        }
+        burstCount = 0;
+        if (count == 0) {
+            return;
+        }
+
+        int outputCount = samplePipeline.process(burstTimestamps, burstValues, count);
+        if (outputCount == 0) {
+            Log.d(TAG, "onSensorChanged() - filtered out");
+            return;
+        }
+
+        int heartRate = Math.round(samplePipeline.getOutputValue(outputCount - 1));
+        Log.d(TAG, String.format("onSensorChanged() - value=%d, batch=%d", heartRate, count));
+
+        currentHeartRateTimeMs = toWallClockTimeMs(samplePipeline.getOutputTimestamp(outputCount - 1));
         currentHeartRateValue = heartRate;
 
+        for (int i = 0; i < outputCount; i++) {
+            broadcastHeartRate(Math.round(samplePipeline.getOutputValue(i)), samplePipeline.getOutputTimestamp(i));
+        }
+    }
+
+    /**
+     * Broadcast changed heart rate value to UI no more often than {@link #MIN_BROADCAST_INTERVAL_NS},
+     * so sources sampling at hundreds of hertz, e.g. {@link SyntheticHeartRateSource}, do not flood system IPC.
+     * Value changed within the interval is broadcast with the first sample after it.
+     *
+     * @param heartRate (bpm) filtered heart rate value
+     * @param timestampNs (nanoseconds) time of filtered sample
+     */
+    private void broadcastHeartRate(int heartRate, long timestampNs) {
+        if (heartRate == broadcastHeartRate) {
+            return;
+        }
+        if (broadcastHeartRate != NO_VALUE_AVAILABLE && timestampNs - broadcastTimestampNs < MIN_BROADCAST_INTERVAL_NS) {
+            return;
+        }
+        broadcastHeartRate = heartRate;
+        broadcastTimestampNs = timestampNs;
+
         Intent intent = new Intent(HEART_RATE_CHANGE);
         intent.putExtra(HEART_RATE_VALUE, heartRate);
 
@@ -82,20 +509,148 @@ public class HeartRateSensorListener implements SensorEventListener {
     }
 
     /**
-     * Get last heart rate value got from sensor.
+     * Convert sensor timestamp to wall clock time. Sensor timestamps are elapsed realtime of measurement,
+     * so samples delivered in one batch keep their own times rather than time of delivery.
      *
-     * @return last heart rate value got from sensor
-     * @throws SensorException if cannot get last heart rate value got from sensor
+     * @param timestampNs (nanoseconds) elapsed realtime of sample
+     * @return wall clock time of sample (milliseconds since Unix epoch)
      */
-    public int getCurrentHeartRateValue() throws SensorException {
-        if (currentHeartRateValue == NO_VALUE_AVAILABLE) {
-            throw new SensorException("No data available in heart rate sensor");
-        }
+    static long toWallClockTimeMs(long timestampNs) {
+        long bootTimeMs = System.currentTimeMillis() - SystemClock.elapsedRealtime();
+        return bootTimeMs + timestampNs / NANOS_IN_MILLISECOND;
+    }
+
+    @Override
+    public int peekCurrentHeartRateValue() {
         return currentHeartRateValue;
     }
 
+    @Override
+    public long getCurrentHeartRateTimeMs() {
+        return currentHeartRateTimeMs;
+    }
+
+    @Override
+    public boolean isSensorContactDetected() {
+        return sensorContactDetected;
+    }
+
+    /**
+     * {@inheritDoc}
+     * RR-Intervals are available only if device has heart beat sensor.
+     */
+    @Override
+    public int drainRrIntervals(int[] target) {
+        return rrIntervalBuffer.drain(target);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Statistics are available only if device has heart beat sensor.
+     */
+    @Override
+    public boolean getHeartRateVariability(HeartRateVariability target) {
+        return heartRateVariabilityWindow.read(target);
+    }
+
+    /**
+     * Convert interval between successive heart beats into RR-Interval and save it.
+     * Implausible intervals, e.g. after missed beats, are dropped
+     * and break sequence of successive intervals heart rate variability is computed over.
+     *
+     * @param timestampNs (nanoseconds) time of heart beat
+     */
+    void onHeartBeat(long timestampNs) {
+        long previousTimestampNs = previousBeatTimestampNs;
+        previousBeatTimestampNs = timestampNs;
+        if (previousTimestampNs == 0 || timestampNs <= previousTimestampNs) {
+            heartRateVariabilityWindow.breakSequence();
+            return;
+        }
+        long interval = (timestampNs - previousTimestampNs) * RR_INTERVAL_UNITS_IN_SECOND / NANOS_IN_SECOND;
+        if (interval < MIN_RR_INTERVAL || interval > MAX_RR_INTERVAL) {
+            Log.d(TAG, String.format("onHeartBeat() - dropped, interval=%d", interval));
+            heartRateVariabilityWindow.breakSequence();
+            return;
+        }
+        rrIntervalBuffer.add((int) interval);
+        heartRateVariabilityWindow.add((int) interval);
+    }
+
     @Override
     public void onAccuracyChanged(Sensor sensor, int accuracy) {
-        Log.d(TAG, "onAccuracyChanged() unsupported!");
+        onHeartRateAccuracyChanged(SystemClock.elapsedRealtimeNanos(), accuracy);
+    }
+
+    @Override
+    public void onHeartRateAccuracyChanged(long timestampNs, int accuracy) {
+        SensorEventSink sink = recorder;
+        if (sink != null) {
+            sink.onHeartRateAccuracyChanged(timestampNs, accuracy);
+        }
+
+        /* Samples delivered before accuracy change are processed with accuracy they were measured with */
+        processBurst();
+
+        Log.d(TAG, String.format("onAccuracyChanged() - accuracy=%d", accuracy));
+        sensorContactDetected = accuracy != SensorManager.SENSOR_STATUS_NO_CONTACT;
+        if (!isReliable(accuracy)) {
+            /* Samples before contact loss should not affect samples after it */
+            samplePipeline.reset();
+        }
+    }
+
+    /**
+     * Check whether samples with given accuracy can be used or not.
+     *
+     * @param accuracy accuracy of sensor samples
+     * @return true if sensor has skin contact and samples are reliable, false otherwise
+     */
+    private static boolean isReliable(int accuracy) {
+        return accuracy != SensorManager.SENSOR_STATUS_NO_CONTACT
+                && accuracy != SensorManager.SENSOR_STATUS_UNRELIABLE;
+    }
+
+    @Override
+    public void onHeartBeatSample(long timestampNs, int accuracy) {
+        SensorEventSink sink = recorder;
+        if (sink != null) {
+            sink.onHeartBeatSample(timestampNs, accuracy);
+        }
+
+        if (!isReliable(accuracy)) {
+            /* Beat after contact loss must not be paired with beat before it */
+            previousBeatTimestampNs = 0;
+            return;
+        }
+        onHeartBeat(timestampNs);
+    }
+
+    @Override
+    public void onHeartBeatAccuracyChanged(long timestampNs, int accuracy) {
+        SensorEventSink sink = recorder;
+        if (sink != null) {
+            sink.onHeartBeatAccuracyChanged(timestampNs, accuracy);
+        }
+
+        if (!isReliable(accuracy)) {
+            previousBeatTimestampNs = 0;
+        }
+    }
+
+    /**
+     * Listener of heart beat sensor, events of which are delivered on the same thread as heart rate samples.
+     */
+    private class HeartBeatListener implements SensorEventListener {
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            onHeartBeatSample(event.timestamp, event.accuracy);
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            onHeartBeatAccuracyChanged(SystemClock.elapsedRealtimeNanos(), accuracy);
+        }
     }
 }
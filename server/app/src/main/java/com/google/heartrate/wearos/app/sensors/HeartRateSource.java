@@ -0,0 +1,91 @@
+package com.google.heartrate.wearos.app.sensors;
+
+/**
+ * Source of heart rate values and RR-Intervals for notifiers and GATT handlers,
+ * e.g. {@link HeartRateSensorListener} backed by device sensor or {@link SyntheticHeartRateSource}.
+ *
+ * <p>Measurement is started and stopped by {@link HeartRateSensorController} on sensor thread,
+ * values are read on GATT event loop thread.
+ */
+public interface HeartRateSource {
+
+    /** Heart rate value when source is not started or has no value yet. */
+    int NO_VALUE_AVAILABLE = 0;
+
+    /**
+     * Start measurement.
+     *
+     * @throws SensorException when cannot start measurement
+     */
+    void startMeasure() throws SensorException;
+
+    /**
+     * Stop measurement. Last value is forgotten, so it is not reported as current after measurement is restarted.
+     */
+    void stopMeasure();
+
+    /**
+     * Set maximum time values may be delayed before they are reported, e.g. batched in sensor hardware
+     * while CPU is suspended. Consumers which are notified often need fresh values on every notification.
+     *
+     * @param latencyMs (milliseconds) maximum report latency, {@link Long#MAX_VALUE} if consumers need no bound
+     */
+    default void setMaxReportLatency(long latencyMs) {
+    }
+
+    /**
+     * Get last heart rate value without throwing, for notification path
+     * which runs on every tick whether source has data or not.
+     *
+     * @return last heart rate value, {@link #NO_VALUE_AVAILABLE} if there is none
+     */
+    int peekCurrentHeartRateValue();
+
+    /**
+     * Get last heart rate value.
+     *
+     * @return last heart rate value
+     * @throws SensorException if source has no value
+     */
+    default int getCurrentHeartRateValue() throws SensorException {
+        int heartRate = peekCurrentHeartRateValue();
+        if (heartRate == NO_VALUE_AVAILABLE) {
+            throw new SensorException("No data available in heart rate sensor");
+        }
+        return heartRate;
+    }
+
+    /**
+     * Get wall clock time when last heart rate value was measured, which is earlier than its delivery
+     * if samples are batched by sensor.
+     *
+     * @return time of last heart rate value (milliseconds since Unix epoch), 0 if there is no value
+     */
+    long getCurrentHeartRateTimeMs();
+
+    /**
+     * Determine whether sensor has skin contact or not.
+     *
+     * @return true if sensor reported contact with the last sample, false otherwise
+     */
+    boolean isSensorContactDetected();
+
+    /**
+     * Move RR-Intervals collected since the previous call to given array, the oldest first.
+     * If array is shorter than number of collected intervals, only the most recent ones are moved.
+     *
+     * @param target array to move (1/1024 seconds) RR-Intervals to
+     * @return number of moved intervals, 0 if source has no RR-Intervals
+     */
+    int drainRrIntervals(int[] target);
+
+    /**
+     * Get heart rate variability over RR-Intervals of recent beats.
+     *
+     * @param target statistics to fill
+     * @return true if statistics are available, false if source has no successive RR-Intervals
+     */
+    default boolean getHeartRateVariability(HeartRateVariability target) {
+        return false;
+    }
+}
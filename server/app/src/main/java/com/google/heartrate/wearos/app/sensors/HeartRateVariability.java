@@ -0,0 +1,34 @@
+package com.google.heartrate.wearos.app.sensors;
+
+/**
+ * Time domain heart rate variability statistics over RR-Intervals of a sliding window,
+ * filled by {@link HeartRateVariabilityWindow}.
+ *
+ * <p>Instance is reused between reads, so notification path does not allocate.
+ */
+public class HeartRateVariability {
+
+    /** (seconds) length of window statistics are computed over. */
+    public int windowSeconds;
+
+    /** Number of RR-Intervals in window. */
+    public int intervalCount;
+
+    /** Number of differences between successive RR-Intervals in window. */
+    public int differenceCount;
+
+    /** Number of RR-Intervals added to window since it was created or cleared, to tell new statistics from old. */
+    public long sequence;
+
+    /** (milliseconds) mean RR-Interval. */
+    public double meanNnMs;
+
+    /** (milliseconds) standard deviation of RR-Intervals, SDNN. */
+    public double sdnnMs;
+
+    /** (milliseconds) root mean square of successive differences, RMSSD. */
+    public double rmssdMs;
+
+    /** Fraction of successive differences longer than 50 milliseconds, pNN50, from 0 to 1. */
+    public double pnn50;
+}
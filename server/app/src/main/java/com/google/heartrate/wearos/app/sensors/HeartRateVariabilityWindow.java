@@ -0,0 +1,195 @@
+package com.google.heartrate.wearos.app.sensors;
+
+/**
+ * Sliding window of RR-Intervals with time domain heart rate variability statistics:
+ * SDNN, RMSSD and pNN50 (see {@link HeartRateVariability}).
+ *
+ * <p>Window keeps the most recent intervals which together last no longer than window length.
+ * Statistics are kept as running integer sums of intervals, of their squares, of squared differences
+ * between successive intervals and count of differences longer than 50 milliseconds, so adding a beat
+ * and evicting the oldest one are O(1) and sums do not drift however long window runs.
+ *
+ * <p>Difference is taken only between intervals of successive beats: after {@link #breakSequence()},
+ * e.g. when a beat is missed or sensor loses contact, the next interval is kept without difference
+ * to the interval before the gap.
+ *
+ * <p>Intervals are added on sensor thread and statistics are read on GATT event loop thread.
+ */
+public class HeartRateVariabilityWindow {
+
+    /** Default length of window (seconds), standard ultra-short-term recording. */
+    public static final int DEFAULT_WINDOW_SECONDS = 60;
+
+    /** Number of RR-Interval units in one second. */
+    private static final int UNITS_IN_SECOND = 1024;
+
+    /** Number of milliseconds in one second. */
+    private static final int MILLIS_IN_SECOND = 1000;
+
+    /** Shortest RR-Interval window is sized for (1/1024 seconds), 240 bpm. */
+    private static final int MIN_INTERVAL = UNITS_IN_SECOND / 4;
+
+    /** Difference between successive intervals counted by pNN50 (milliseconds). */
+    private static final int NN50_THRESHOLD_MS = 50;
+
+    /** Length of window (seconds). */
+    private final int windowSeconds;
+
+    /** Length of window (1/1024 seconds). */
+    private final long windowUnits;
+
+    /** Intervals in window (1/1024 seconds), ring buffer. */
+    private final int[] intervals;
+
+    /** Whether interval at the same index has difference to the interval before it counted in sums. */
+    private final boolean[] successive;
+
+    /** Index of the oldest interval. */
+    private int head;
+
+    /** Number of intervals in window. */
+    private int size;
+
+    /** Sum of intervals in window. */
+    private long sum;
+
+    /** Sum of squares of intervals in window. */
+    private long sumOfSquares;
+
+    /** Sum of squared differences between successive intervals in window. */
+    private long sumOfSquaredDifferences;
+
+    /** Number of differences between successive intervals in window. */
+    private int differenceCount;
+
+    /** Number of differences longer than {@link #NN50_THRESHOLD_MS}. */
+    private int nn50Count;
+
+    /** Whether the next interval follows the newest one without a gap. */
+    private boolean nextSuccessive;
+
+    /** Number of intervals added since window was created or cleared. */
+    private long sequence;
+
+    /**
+     * Create window of given length.
+     *
+     * @param windowSeconds (seconds) length of window
+     * @throws IllegalArgumentException if length is not positive
+     */
+    public HeartRateVariabilityWindow(int windowSeconds) {
+        if (windowSeconds <= 0) {
+            throw new IllegalArgumentException(String.format("Window length %d s must be positive", windowSeconds));
+        }
+        this.windowSeconds = windowSeconds;
+        this.windowUnits = (long) windowSeconds * UNITS_IN_SECOND;
+        int capacity = (int) (windowUnits / MIN_INTERVAL) + 1;
+        intervals = new int[capacity];
+        successive = new boolean[capacity];
+    }
+
+    /**
+     * Add interval of the next beat and evict the oldest intervals which no longer fit into window.
+     * The newest interval is kept even if it is longer than window.
+     *
+     * @param interval (1/1024 seconds) RR-Interval
+     */
+    public synchronized void add(int interval) {
+        boolean hasDifference = size > 0 && nextSuccessive;
+        if (hasDifference) {
+            addDifference(interval - intervals[(head + size - 1) % intervals.length], 1);
+        }
+        if (size == intervals.length) {
+            evictOldest();
+        }
+        int index = (head + size) % intervals.length;
+        intervals[index] = interval;
+        successive[index] = hasDifference;
+        size++;
+        sum += interval;
+        sumOfSquares += (long) interval * interval;
+        sequence++;
+        nextSuccessive = true;
+
+        while (size > 1 && sum > windowUnits) {
+            evictOldest();
+        }
+    }
+
+    /**
+     * Mark gap in beat sequence, so the next interval is not compared with the newest one.
+     */
+    public synchronized void breakSequence() {
+        nextSuccessive = false;
+    }
+
+    /**
+     * Remove all intervals.
+     */
+    public synchronized void clear() {
+        head = 0;
+        size = 0;
+        sum = 0;
+        sumOfSquares = 0;
+        sumOfSquaredDifferences = 0;
+        differenceCount = 0;
+        nn50Count = 0;
+        nextSuccessive = false;
+        sequence = 0;
+    }
+
+    /**
+     * Compute statistics of intervals in window.
+     *
+     * @param target statistics to fill, statistics which need more intervals are set to 0
+     * @return true if window has at least one difference between successive intervals, so all statistics are set,
+     * false otherwise
+     */
+    public synchronized boolean read(HeartRateVariability target) {
+        target.windowSeconds = windowSeconds;
+        target.intervalCount = size;
+        target.differenceCount = differenceCount;
+        target.sequence = sequence;
+        target.meanNnMs = size > 0 ? toMillis((double) sum / size) : 0;
+        /* Integer numerator keeps variance exact, floating point subtraction of large sums would cancel out */
+        target.sdnnMs = size > 1
+                ? toMillis(Math.sqrt((double) (size * sumOfSquares - sum * sum) / ((long) size * (size - 1))))
+                : 0;
+        target.rmssdMs = differenceCount > 0
+                ? toMillis(Math.sqrt((double) sumOfSquaredDifferences / differenceCount))
+                : 0;
+        target.pnn50 = differenceCount > 0 ? (double) nn50Count / differenceCount : 0;
+        return differenceCount > 0;
+    }
+
+    private void evictOldest() {
+        int oldest = intervals[head];
+        head = (head + 1) % intervals.length;
+        size--;
+        sum -= oldest;
+        sumOfSquares -= (long) oldest * oldest;
+        if (size > 0 && successive[head]) {
+            /* The new oldest interval loses its difference to the evicted one */
+            addDifference(intervals[head] - oldest, -1);
+            successive[head] = false;
+        }
+    }
+
+    /**
+     * Add difference to or remove it from sums.
+     *
+     * @param difference (1/1024 seconds) difference between successive intervals
+     * @param sign 1 to add difference, -1 to remove it
+     */
+    private void addDifference(int difference, int sign) {
+        sumOfSquaredDifferences += sign * (long) difference * difference;
+        differenceCount += sign;
+        if ((long) Math.abs(difference) * MILLIS_IN_SECOND > (long) NN50_THRESHOLD_MS * UNITS_IN_SECOND) {
+            nn50Count += sign;
+        }
+    }
+
+    private static double toMillis(double units) {
+        return units * MILLIS_IN_SECOND / UNITS_IN_SECOND;
+    }
+}
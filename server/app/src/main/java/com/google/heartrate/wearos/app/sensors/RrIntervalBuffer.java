@@ -0,0 +1,68 @@
+package com.google.heartrate.wearos.app.sensors;
+
+/**
+ * Bounded buffer of RR-Intervals between successive heart beats.
+ *
+ * <p>Intervals are added on sensor thread and drained on GATT event loop thread. When buffer is full,
+ * the oldest interval is overwritten, so a consumer which drains rarely gets the most recent beats.
+ */
+public class RrIntervalBuffer {
+
+    /** Intervals in (1/1024 seconds), ring buffer. */
+    private final int[] intervals;
+
+    /** Index of the oldest interval. */
+    private int head;
+
+    /** Number of intervals in buffer. */
+    private int size;
+
+    /**
+     * Create buffer of given capacity.
+     *
+     * @param capacity maximum number of intervals kept in buffer
+     */
+    public RrIntervalBuffer(int capacity) {
+        intervals = new int[capacity];
+    }
+
+    /**
+     * Add interval, overwriting the oldest one if buffer is full.
+     *
+     * @param interval (1/1024 seconds) RR-Interval
+     */
+    public synchronized void add(int interval) {
+        intervals[(head + size) % intervals.length] = interval;
+        if (size < intervals.length) {
+            size++;
+        } else {
+            head = (head + 1) % intervals.length;
+        }
+    }
+
+    /**
+     * Move intervals to given array, the oldest first, and clear buffer.
+     * If array is shorter than number of intervals, only the most recent ones are moved.
+     *
+     * @param target array to move intervals to
+     * @return number of moved intervals
+     */
+    public synchronized int drain(int[] target) {
+        int count = Math.min(size, target.length);
+        int first = head + size - count;
+        for (int i = 0; i < count; i++) {
+            target[i] = intervals[(first + i) % intervals.length];
+        }
+        head = 0;
+        size = 0;
+        return count;
+    }
+
+    /**
+     * Remove all intervals.
+     */
+    public synchronized void clear() {
+        head = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,41 @@
+package com.google.heartrate.wearos.app.sensors;
+
+/**
+ * Receiver of raw heart rate and heart beat sensor events, independent of {@link android.hardware.SensorEvent},
+ * so events can be recorded and replayed outside of device.
+ */
+public interface SensorEventSink {
+
+    /**
+     * Callback invokes when heart rate sensor reports sample.
+     *
+     * @param timestampNs (nanoseconds) time of sample
+     * @param heartRate (bpm) heart rate value
+     * @param accuracy accuracy of sample
+     */
+    void onHeartRateSample(long timestampNs, float heartRate, int accuracy);
+
+    /**
+     * Callback invokes when accuracy of heart rate sensor is changed.
+     *
+     * @param timestampNs (nanoseconds) time of change
+     * @param accuracy new accuracy
+     */
+    void onHeartRateAccuracyChanged(long timestampNs, int accuracy);
+
+    /**
+     * Callback invokes when heart beat sensor reports beat.
+     *
+     * @param timestampNs (nanoseconds) time of beat
+     * @param accuracy accuracy of beat
+     */
+    void onHeartBeatSample(long timestampNs, int accuracy);
+
+    /**
+     * Callback invokes when accuracy of heart beat sensor is changed.
+     *
+     * @param timestampNs (nanoseconds) time of change
+     * @param accuracy new accuracy
+     */
+    void onHeartBeatAccuracyChanged(long timestampNs, int accuracy);
+}
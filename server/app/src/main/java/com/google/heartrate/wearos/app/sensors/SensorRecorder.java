@@ -0,0 +1,156 @@
+package com.google.heartrate.wearos.app.sensors;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link SensorRecorder} writes sensor events into a compact binary session file,
+ * which {@link SensorReplayer} feeds back to {@link SensorEventSink}.
+ *
+ * <p>File starts with format version byte followed by one record per event.
+ * Record is event type byte, difference from timestamp of the previous record (nanoseconds)
+ * as zigzag variable length integer, heart rate as float for heart rate samples only, and accuracy byte.
+ * Heart rate sample at 1 Hz takes 11 bytes, so hour of measurement takes about 40 KB.
+ *
+ * <p>Events are delivered on sensor thread, while recorder may be closed on any thread.
+ * Recording stops on the first write error.
+ */
+public class SensorRecorder implements SensorEventSink, AutoCloseable {
+    private static final String TAG = SensorRecorder.class.getSimpleName();
+
+    /** Version of file format. */
+    static final int FORMAT_VERSION = 1;
+
+    /** Record type of heart rate sample. */
+    static final int HEART_RATE_SAMPLE = 1;
+
+    /** Record type of heart rate sensor accuracy change. */
+    static final int HEART_RATE_ACCURACY_CHANGE = 2;
+
+    /** Record type of heart beat. */
+    static final int HEART_BEAT_SAMPLE = 3;
+
+    /** Record type of heart beat sensor accuracy change. */
+    static final int HEART_BEAT_ACCURACY_CHANGE = 4;
+
+    /** Stream to write records to, null after recording is stopped. */
+    private DataOutputStream output;
+
+    /** Timestamp of the previous record (nanoseconds), 0 before the first record. */
+    private long previousTimestampNs;
+
+    /** Number of written records. */
+    private int recordCount;
+
+    /**
+     * Create recorder which writes session to given stream. Stream is closed with recorder.
+     *
+     * @param stream stream to write session to
+     * @throws IOException if header can not be written
+     */
+    public SensorRecorder(OutputStream stream) throws IOException {
+        output = new DataOutputStream(new BufferedOutputStream(stream));
+        output.writeByte(FORMAT_VERSION);
+    }
+
+    @Override
+    public synchronized void onHeartRateSample(long timestampNs, float heartRate, int accuracy) {
+        if (output == null) {
+            return;
+        }
+        try {
+            writeHeader(HEART_RATE_SAMPLE, timestampNs);
+            output.writeFloat(heartRate);
+            output.writeByte(accuracy);
+        } catch (IOException e) {
+            stop(e);
+        }
+    }
+
+    @Override
+    public synchronized void onHeartRateAccuracyChanged(long timestampNs, int accuracy) {
+        writeAccuracy(HEART_RATE_ACCURACY_CHANGE, timestampNs, accuracy);
+    }
+
+    @Override
+    public synchronized void onHeartBeatSample(long timestampNs, int accuracy) {
+        writeAccuracy(HEART_BEAT_SAMPLE, timestampNs, accuracy);
+    }
+
+    @Override
+    public synchronized void onHeartBeatAccuracyChanged(long timestampNs, int accuracy) {
+        writeAccuracy(HEART_BEAT_ACCURACY_CHANGE, timestampNs, accuracy);
+    }
+
+    /**
+     * Get number of written records.
+     *
+     * @return number of records
+     */
+    public synchronized int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Flush written records and close stream. Events after close are ignored.
+     */
+    @Override
+    public synchronized void close() {
+        if (output == null) {
+            return;
+        }
+        try {
+            output.close();
+            Log.d(TAG, String.format("Recorded %d sensor events", recordCount));
+        } catch (IOException e) {
+            Log.e(TAG, String.format("Can not close sensor recording: %s", e.getMessage()));
+        }
+        output = null;
+    }
+
+    private void writeAccuracy(int type, long timestampNs, int accuracy) {
+        if (output == null) {
+            return;
+        }
+        try {
+            writeHeader(type, timestampNs);
+            output.writeByte(accuracy);
+        } catch (IOException e) {
+            stop(e);
+        }
+    }
+
+    private void writeHeader(int type, long timestampNs) throws IOException {
+        output.writeByte(type);
+        writeVarLong(output, zigzag(timestampNs - previousTimestampNs));
+        previousTimestampNs = timestampNs;
+        recordCount++;
+    }
+
+    private void stop(IOException e) {
+        Log.e(TAG, String.format("Can not record sensor event, recording stopped: %s", e.getMessage()));
+        close();
+    }
+
+    /**
+     * Map signed value to unsigned one, so small negative differences take few bytes too.
+     */
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Write value 7 bits per byte, the lowest bits first, high bit of byte tells whether more bytes follow.
+     */
+    private static void writeVarLong(DataOutputStream output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+}
@@ -0,0 +1,119 @@
+package com.google.heartrate.wearos.app.sensors;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SensorReplayer} feeds session recorded with {@link SensorRecorder} to {@link SensorEventSink},
+ * e.g. {@link HeartRateSensorListener}, so processing, notification and GATT code run on real-world traces
+ * without device.
+ *
+ * <p>Events are delivered on the calling thread. Events are spaced by their recorded timestamps
+ * divided by replay speed, {@link #MAXIMUM_SPEED} delivers them without waiting.
+ * Timestamps are delivered as recorded, so time based processing behaves as it did on device.
+ */
+public class SensorReplayer implements AutoCloseable {
+
+    /** Replay speed which delivers events without waiting. */
+    public static final double MAXIMUM_SPEED = Double.POSITIVE_INFINITY;
+
+    /** Stream to read records from. */
+    private final DataInputStream input;
+
+    /**
+     * Create replayer of session from given stream. Stream is closed with replayer.
+     *
+     * @param stream stream to read session from
+     * @throws IOException if stream is not a session of supported format
+     */
+    public SensorReplayer(InputStream stream) throws IOException {
+        input = new DataInputStream(new BufferedInputStream(stream));
+        int version = input.readUnsignedByte();
+        if (version != SensorRecorder.FORMAT_VERSION) {
+            throw new IOException(String.format("Unsupported sensor recording version %d", version));
+        }
+    }
+
+    /**
+     * Deliver all remaining events to given sink.
+     *
+     * @param sink sink to deliver events to
+     * @param speed replay speed, 1 to keep recorded pace, {@link #MAXIMUM_SPEED} to deliver events without waiting
+     * @return number of delivered events
+     * @throws IOException if session can not be read or is truncated in the middle of record
+     * @throws InterruptedException if calling thread is interrupted while waiting for the next event
+     */
+    public int replay(SensorEventSink sink, double speed) throws IOException, InterruptedException {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException(String.format("Replay speed %f is not positive", speed));
+        }
+        long startNs = System.nanoTime();
+        long firstTimestampNs = 0;
+        long timestampNs = 0;
+        int count = 0;
+
+        int type;
+        while ((type = input.read()) != -1) {
+            timestampNs += unzigzag(readVarLong(input));
+            if (count == 0) {
+                firstTimestampNs = timestampNs;
+            }
+            if (speed != MAXIMUM_SPEED) {
+                waitUntil(startNs + (long) ((timestampNs - firstTimestampNs) / speed));
+            }
+
+            switch (type) {
+                case SensorRecorder.HEART_RATE_SAMPLE:
+                    float heartRate = input.readFloat();
+                    sink.onHeartRateSample(timestampNs, heartRate, input.readByte());
+                    break;
+                case SensorRecorder.HEART_RATE_ACCURACY_CHANGE:
+                    sink.onHeartRateAccuracyChanged(timestampNs, input.readByte());
+                    break;
+                case SensorRecorder.HEART_BEAT_SAMPLE:
+                    sink.onHeartBeatSample(timestampNs, input.readByte());
+                    break;
+                case SensorRecorder.HEART_BEAT_ACCURACY_CHANGE:
+                    sink.onHeartBeatAccuracyChanged(timestampNs, input.readByte());
+                    break;
+                default:
+                    throw new IOException(String.format("Unknown sensor record type %d", type));
+            }
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    private static void waitUntil(long deadlineNs) throws InterruptedException {
+        /* Sleep rounds to milliseconds and may return before deadline */
+        long remainingNs = deadlineNs - System.nanoTime();
+        while (remainingNs > 0) {
+            TimeUnit.NANOSECONDS.sleep(remainingNs);
+            remainingNs = deadlineNs - System.nanoTime();
+        }
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readVarLong(DataInputStream input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed timestamp in sensor recording");
+    }
+}
@@ -0,0 +1,388 @@
+package com.google.heartrate.wearos.app.sensors;
+
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * {@link HeartRateSource} which generates realistic heart rate and RR-Interval patterns
+ * instead of reading device sensor, at rates far above real sensor, to stress every downstream stage.
+ *
+ * <p>Heart rate follows one of {@link Pattern}s, beats are spaced by current heart rate,
+ * so RR-Intervals are consistent with reported values. Generation is deterministic for given seed.
+ *
+ * <p>Once started, samples are generated in batches on thread of the {@link Handler} given on creation,
+ * so number of samples matches configured rate over time. {@link #generate} produces samples immediately
+ * on calling thread, e.g. in benchmarks. Every generated event is also delivered to {@link SensorEventSink}
+ * if one is set, e.g. to {@link HeartRateSensorListener} to run its processing on synthetic samples.
+ */
+public class SyntheticHeartRateSource implements HeartRateSource {
+    private static final String TAG = SyntheticHeartRateSource.class.getSimpleName();
+
+    /** Maximum number of generated samples per second. */
+    public static final int MAX_SAMPLE_RATE_HZ = 10_000;
+
+    /** Separator of pattern and sample rate in specification. */
+    private static final String ARGUMENT_SEPARATOR = ":";
+
+    /** Interval between generated batches (milliseconds). */
+    private static final long BATCH_PERIOD_MS = 10;
+
+    /** Number of nanoseconds in one second. */
+    private static final long NANOS_IN_SECOND = 1_000_000_000L;
+
+    /** Number of RR-Interval units in one second. */
+    private static final int RR_INTERVAL_UNITS_IN_SECOND = 1024;
+
+    /** Maximum number of RR-Intervals kept until they are drained. */
+    private static final int RR_INTERVAL_CAPACITY = 64;
+
+    /** Heart rate at rest (bpm). */
+    private static final double REST_HEART_RATE = 62;
+
+    /** Amplitude of heart rate change with breathing at rest (bpm). */
+    private static final double RESPIRATORY_AMPLITUDE = 3;
+
+    /** Breathing frequency at rest (Hz). */
+    private static final double RESPIRATORY_FREQUENCY_HZ = 0.25;
+
+    /** Standard deviation of sample noise (bpm). */
+    private static final double NOISE_BPM = 0.5;
+
+    /** Heart rate reached during work interval (bpm). */
+    private static final double WORK_HEART_RATE = 165;
+
+    /** Heart rate reached during recovery interval (bpm). */
+    private static final double RECOVERY_HEART_RATE = 105;
+
+    /** Duration of work interval (seconds). */
+    private static final double WORK_PERIOD_S = 60;
+
+    /** Duration of work and recovery interval (seconds). */
+    private static final double TRAINING_CYCLE_S = 150;
+
+    /** Time constant of heart rate approaching its target (seconds). */
+    private static final double HEART_RATE_TIME_CONSTANT_S = 15;
+
+    /** Probability of beat being premature. */
+    private static final double PREMATURE_BEAT_PROBABILITY = 0.1;
+
+    /** Premature beat interval relative to regular one, followed by compensatory pause of 2 minus this. */
+    private static final double PREMATURE_BEAT_RATIO = 0.6;
+
+    /** Period of skin contact loss (seconds). */
+    private static final double DROPOUT_CYCLE_S = 30;
+
+    /** Duration of skin contact loss (seconds). */
+    private static final double DROPOUT_PERIOD_S = 5;
+
+    /**
+     * Heart rate pattern to generate.
+     */
+    public enum Pattern {
+
+        /** Resting heart rate with respiratory sinus arrhythmia. */
+        REST,
+
+        /** Alternating work and recovery intervals, heart rate lags behind intensity. */
+        INTERVAL_TRAINING,
+
+        /** Resting heart rate with premature beats followed by compensatory pauses. */
+        ARRHYTHMIA,
+
+        /** Resting heart rate with periodic loss of skin contact. */
+        DROPOUTS
+    }
+
+    /** Pattern to generate. */
+    private final Pattern pattern;
+
+    /** Interval between samples (nanoseconds). */
+    private final long samplePeriodNs;
+
+    /** Seed of noise, so runs with the same seed produce the same samples. */
+    private final long seed;
+
+    /** {@link Handler} of thread to generate samples on after start. */
+    private final Handler handler;
+
+    /** Generated RR-Intervals. */
+    private final RrIntervalBuffer rrIntervalBuffer = new RrIntervalBuffer(RR_INTERVAL_CAPACITY);
+
+    /** Heart rate variability of generated RR-Intervals. */
+    private final HeartRateVariabilityWindow heartRateVariabilityWindow =
+            new HeartRateVariabilityWindow(HeartRateVariabilityWindow.DEFAULT_WINDOW_SECONDS);
+
+    /** Task generating samples due since the previous batch. */
+    private final Runnable batchTask = this::generateDueSamples;
+
+    /** Noise generator. */
+    private Random random;
+
+    /** Sink to copy generated events to, null if events are not copied. */
+    private volatile SensorEventSink sink;
+
+    /** Last generated heart rate value, {@link #NO_VALUE_AVAILABLE} if there is none. */
+    private volatile int currentHeartRateValue = NO_VALUE_AVAILABLE;
+
+    /** Wall clock time of last heart rate value (milliseconds since Unix epoch). */
+    private volatile long currentHeartRateTimeMs;
+
+    /** Whether skin contact is simulated with the last sample. */
+    private volatile boolean sensorContactDetected;
+
+    /** Timestamp of the first sample (nanoseconds). */
+    private long startTimestampNs;
+
+    /** Number of generated samples since start. */
+    private long sampleCount;
+
+    /** Heart rate which follows pattern target (bpm). */
+    private double heartRate;
+
+    /** Timestamp of the previous beat (nanoseconds), 0 if there was none since contact. */
+    private long previousBeatTimestampNs;
+
+    /** Timestamp of the next beat (nanoseconds), 0 if beats are not tracked, e.g. without contact. */
+    private long nextBeatTimestampNs;
+
+    /** Whether the previous beat was premature, so the next one comes after compensatory pause. */
+    private boolean compensatoryPause;
+
+    /** Elapsed realtime of start (nanoseconds), to tell number of due samples. */
+    private long startRealtimeNs;
+
+    /** Whether samples are generated on handler thread or not. */
+    private boolean measuring;
+
+    /**
+     * Create source of given pattern.
+     *
+     * @param pattern heart rate pattern to generate
+     * @param sampleRateHz number of samples per second, up to {@link #MAX_SAMPLE_RATE_HZ}
+     * @param seed seed of noise
+     * @param handler handler of thread to generate samples on after start
+     */
+    public SyntheticHeartRateSource(Pattern pattern, int sampleRateHz, long seed, Handler handler) {
+        if (sampleRateHz < 1 || sampleRateHz > MAX_SAMPLE_RATE_HZ) {
+            throw new IllegalArgumentException(String.format("Sample rate %d Hz is out of range 1-%d",
+                    sampleRateHz, MAX_SAMPLE_RATE_HZ));
+        }
+        this.pattern = pattern;
+        this.samplePeriodNs = NANOS_IN_SECOND / sampleRateHz;
+        this.seed = seed;
+        this.handler = handler;
+        reset(0);
+    }
+
+    /**
+     * Create source from specification {@code pattern:rate}, e.g. {@code interval_training:1000}.
+     *
+     * @param specification pattern name and number of samples per second
+     * @param handler handler of thread to generate samples on after start
+     * @return described source
+     * @throws IllegalArgumentException if specification is malformed
+     */
+    public static SyntheticHeartRateSource parse(String specification, Handler handler) {
+        String[] parts = specification.trim().split(ARGUMENT_SEPARATOR);
+        if (parts.length != 2) {
+            throw new IllegalArgumentException(String.format("Malformed synthetic source %s", specification));
+        }
+        try {
+            Pattern pattern = Pattern.valueOf(parts[0].toUpperCase(Locale.US));
+            return new SyntheticHeartRateSource(pattern, Integer.parseInt(parts[1]), /* seed */ 0, handler);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Malformed synthetic source %s", specification), e);
+        }
+    }
+
+    /**
+     * Set sink to copy every generated event to.
+     *
+     * @param sink sink to copy events to, null to stop copying
+     */
+    public void setSink(SensorEventSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Start generating samples at configured rate on handler thread. Must be invoked on handler thread.
+     */
+    @Override
+    public void startMeasure() {
+        Log.d(TAG, String.format("Start generating %s at %d Hz", pattern, NANOS_IN_SECOND / samplePeriodNs));
+        startRealtimeNs = SystemClock.elapsedRealtimeNanos();
+        reset(startRealtimeNs);
+        measuring = true;
+        handler.post(batchTask);
+    }
+
+    @Override
+    public void stopMeasure() {
+        Log.d(TAG, "Stop generating");
+        measuring = false;
+        handler.removeCallbacks(batchTask);
+        reset(0);
+    }
+
+    @Override
+    public int peekCurrentHeartRateValue() {
+        return currentHeartRateValue;
+    }
+
+    @Override
+    public long getCurrentHeartRateTimeMs() {
+        return currentHeartRateTimeMs;
+    }
+
+    @Override
+    public boolean isSensorContactDetected() {
+        return sensorContactDetected;
+    }
+
+    @Override
+    public int drainRrIntervals(int[] target) {
+        return rrIntervalBuffer.drain(target);
+    }
+
+    @Override
+    public boolean getHeartRateVariability(HeartRateVariability target) {
+        return heartRateVariabilityWindow.read(target);
+    }
+
+    /**
+     * Generate given number of samples immediately, continuing from the last generated sample.
+     *
+     * @param count number of samples to generate
+     */
+    public void generate(int count) {
+        SensorEventSink eventSink = sink;
+        for (int i = 0; i < count; i++) {
+            generateSample(eventSink);
+        }
+        currentHeartRateTimeMs = System.currentTimeMillis();
+    }
+
+    /**
+     * Get number of samples generated since start.
+     *
+     * @return number of generated samples
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Generate samples due since the previous batch and schedule the next batch. Runs on handler thread.
+     */
+    private void generateDueSamples() {
+        if (!measuring) {
+            return;
+        }
+        long dueCount = (SystemClock.elapsedRealtimeNanos() - startRealtimeNs) / samplePeriodNs + 1;
+        generate((int) Math.min(Integer.MAX_VALUE, dueCount - sampleCount));
+        handler.postDelayed(batchTask, BATCH_PERIOD_MS);
+    }
+
+    private void reset(long timestampNs) {
+        random = new Random(seed);
+        startTimestampNs = timestampNs;
+        sampleCount = 0;
+        heartRate = REST_HEART_RATE;
+        previousBeatTimestampNs = 0;
+        nextBeatTimestampNs = 0;
+        compensatoryPause = false;
+        rrIntervalBuffer.clear();
+        heartRateVariabilityWindow.clear();
+        currentHeartRateValue = NO_VALUE_AVAILABLE;
+        sensorContactDetected = false;
+    }
+
+    private void generateSample(SensorEventSink eventSink) {
+        long timestampNs = startTimestampNs + sampleCount * samplePeriodNs;
+        double timeS = (double) (sampleCount * samplePeriodNs) / NANOS_IN_SECOND;
+        sampleCount++;
+
+        updateHeartRate(timeS);
+        boolean contact = pattern != Pattern.DROPOUTS || timeS % DROPOUT_CYCLE_S < DROPOUT_CYCLE_S - DROPOUT_PERIOD_S;
+        if (contact != sensorContactDetected && eventSink != null) {
+            eventSink.onHeartRateAccuracyChanged(timestampNs, contact ?
+                    SensorManager.SENSOR_STATUS_ACCURACY_HIGH :
+                    SensorManager.SENSOR_STATUS_NO_CONTACT);
+        }
+        sensorContactDetected = contact;
+
+        if (!contact) {
+            /* Beat after contact loss must not be paired with beat before it */
+            nextBeatTimestampNs = 0;
+            if (eventSink != null) {
+                eventSink.onHeartRateSample(timestampNs, 0, SensorManager.SENSOR_STATUS_NO_CONTACT);
+            }
+            return;
+        }
+
+        float value = (float) (heartRate + random.nextGaussian() * NOISE_BPM);
+        currentHeartRateValue = Math.max(1, Math.round(value));
+        if (eventSink != null) {
+            eventSink.onHeartRateSample(timestampNs, value, SensorManager.SENSOR_STATUS_ACCURACY_HIGH);
+        }
+        generateBeats(timestampNs, eventSink);
+    }
+
+    /**
+     * Move heart rate towards target of pattern at given time.
+     */
+    private void updateHeartRate(double timeS) {
+        double respiratory = RESPIRATORY_AMPLITUDE * Math.sin(2 * Math.PI * RESPIRATORY_FREQUENCY_HZ * timeS);
+        if (pattern != Pattern.INTERVAL_TRAINING) {
+            heartRate = REST_HEART_RATE + respiratory;
+            return;
+        }
+        double target = timeS % TRAINING_CYCLE_S < WORK_PERIOD_S ? WORK_HEART_RATE : RECOVERY_HEART_RATE;
+        double periodS = (double) samplePeriodNs / NANOS_IN_SECOND;
+        heartRate += (target - heartRate) * (1 - Math.exp(-periodS / HEART_RATE_TIME_CONSTANT_S));
+    }
+
+    /**
+     * Emit beats due until given time, spaced by current heart rate.
+     */
+    private void generateBeats(long timestampNs, SensorEventSink eventSink) {
+        if (nextBeatTimestampNs == 0) {
+            previousBeatTimestampNs = 0;
+            nextBeatTimestampNs = timestampNs + nextBeatIntervalNs();
+        }
+        while (nextBeatTimestampNs <= timestampNs) {
+            if (previousBeatTimestampNs != 0) {
+                int interval = (int) ((nextBeatTimestampNs - previousBeatTimestampNs)
+                        * RR_INTERVAL_UNITS_IN_SECOND / NANOS_IN_SECOND);
+                rrIntervalBuffer.add(interval);
+                heartRateVariabilityWindow.add(interval);
+            } else {
+                heartRateVariabilityWindow.breakSequence();
+            }
+            if (eventSink != null) {
+                eventSink.onHeartBeatSample(nextBeatTimestampNs, SensorManager.SENSOR_STATUS_ACCURACY_HIGH);
+            }
+            previousBeatTimestampNs = nextBeatTimestampNs;
+            nextBeatTimestampNs += nextBeatIntervalNs();
+        }
+    }
+
+    private long nextBeatIntervalNs() {
+        double intervalNs = 60.0 * NANOS_IN_SECOND / heartRate;
+        if (pattern == Pattern.ARRHYTHMIA) {
+            if (compensatoryPause) {
+                compensatoryPause = false;
+                intervalNs *= 2 - PREMATURE_BEAT_RATIO;
+            } else if (random.nextDouble() < PREMATURE_BEAT_PROBABILITY) {
+                compensatoryPause = true;
+                intervalNs *= PREMATURE_BEAT_RATIO;
+            }
+        }
+        return (long) intervalNs;
+    }
+}
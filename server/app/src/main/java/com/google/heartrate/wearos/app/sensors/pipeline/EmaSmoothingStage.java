@@ -0,0 +1,49 @@
+package com.google.heartrate.wearos.app.sensors.pipeline;
+
+/**
+ * {@link SampleStage} which smooths sample values with exponential moving average.
+ */
+public class EmaSmoothingStage implements SampleStage {
+
+    /** Weight of the new value, between 0 (no change) and 1 (no smoothing). */
+    private final float alpha;
+
+    /** Whether there is a smoothed value or not. */
+    private boolean hasAverage;
+
+    /** Current smoothed value. */
+    private float average;
+
+    /**
+     * Create stage with given smoothing factor.
+     *
+     * @param alpha weight of the new value, between 0 (exclusive) and 1 (inclusive)
+     */
+    public EmaSmoothingStage(float alpha) {
+        if (alpha <= 0 || alpha > 1) {
+            throw new IllegalArgumentException(String.format("Smoothing factor %f is out of (0, 1]", alpha));
+        }
+        this.alpha = alpha;
+    }
+
+    @Override
+    public int process(long[] timestamps, float[] values, int count, long[] outTimestamps, float[] outValues) {
+        for (int i = 0; i < count; i++) {
+            if (hasAverage) {
+                average += alpha * (values[i] - average);
+            } else {
+                average = values[i];
+                hasAverage = true;
+            }
+
+            outTimestamps[i] = timestamps[i];
+            outValues[i] = average;
+        }
+        return count;
+    }
+
+    @Override
+    public void reset() {
+        hasAverage = false;
+    }
+}
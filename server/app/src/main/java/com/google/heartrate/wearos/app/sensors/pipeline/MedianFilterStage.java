@@ -0,0 +1,73 @@
+package com.google.heartrate.wearos.app.sensors.pipeline;
+
+/**
+ * {@link SampleStage} which replaces every sample value with the median of the last window of values.
+ */
+public class MedianFilterStage implements SampleStage {
+
+    /** Ring buffer with the last window of values. */
+    private final float[] window;
+
+    /** Scratch array to sort window in. */
+    private final float[] sortedWindow;
+
+    /** Index in ring buffer to write next value to. */
+    private int nextIndex;
+
+    /** Number of values in ring buffer. */
+    private int size;
+
+    /**
+     * Create stage with given window size.
+     *
+     * @param windowSize number of values to take median of
+     */
+    public MedianFilterStage(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException(String.format("Median window size %d is not positive", windowSize));
+        }
+        window = new float[windowSize];
+        sortedWindow = new float[windowSize];
+    }
+
+    @Override
+    public int process(long[] timestamps, float[] values, int count, long[] outTimestamps, float[] outValues) {
+        for (int i = 0; i < count; i++) {
+            window[nextIndex] = values[i];
+            nextIndex = (nextIndex + 1) % window.length;
+            size = Math.min(size + 1, window.length);
+
+            outTimestamps[i] = timestamps[i];
+            outValues[i] = median();
+        }
+        return count;
+    }
+
+    /**
+     * Calculate median of values in ring buffer with insertion sort, windows are small.
+     *
+     * @return median of values in ring buffer
+     */
+    private float median() {
+        for (int i = 0; i < size; i++) {
+            float value = window[i];
+            int j = i - 1;
+            while (j >= 0 && sortedWindow[j] > value) {
+                sortedWindow[j + 1] = sortedWindow[j];
+                j--;
+            }
+            sortedWindow[j + 1] = value;
+        }
+
+        int middle = size / 2;
+        return size % 2 == 1 ?
+                sortedWindow[middle] :
+                (sortedWindow[middle - 1] + sortedWindow[middle]) / 2;
+    }
+
+    @Override
+    public void reset() {
+        nextIndex = 0;
+        size = 0;
+    }
+}
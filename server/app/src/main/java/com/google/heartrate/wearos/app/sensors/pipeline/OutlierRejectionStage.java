@@ -0,0 +1,76 @@
+package com.google.heartrate.wearos.app.sensors.pipeline;
+
+/**
+ * {@link SampleStage} which drops samples out of physiological range
+ * and samples which change faster than allowed from the last accepted sample.
+ */
+public class OutlierRejectionStage implements SampleStage {
+
+    /** Number of nanoseconds in one second. */
+    private static final float NANOS_IN_SECOND = 1e9f;
+
+    /** Minimum accepted value. */
+    private final float minValue;
+
+    /** Maximum accepted value. */
+    private final float maxValue;
+
+    /** Maximum accepted change of value per second. */
+    private final float maxChangePerSecond;
+
+    /** Whether there is an accepted sample to compare with or not. */
+    private boolean hasLastSample;
+
+    /** Timestamp of the last accepted sample. */
+    private long lastTimestamp;
+
+    /** Value of the last accepted sample. */
+    private float lastValue;
+
+    /**
+     * Create stage with given limits.
+     *
+     * @param minValue minimum accepted value
+     * @param maxValue maximum accepted value
+     * @param maxChangePerSecond maximum accepted change of value per second
+     */
+    public OutlierRejectionStage(float minValue, float maxValue, float maxChangePerSecond) {
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+        this.maxChangePerSecond = maxChangePerSecond;
+    }
+
+    @Override
+    public int process(long[] timestamps, float[] values, int count, long[] outTimestamps, float[] outValues) {
+        int outCount = 0;
+        for (int i = 0; i < count; i++) {
+            float value = values[i];
+            if (value < minValue || value > maxValue) {
+                continue;
+            }
+
+            if (hasLastSample) {
+                float elapsedSeconds = (timestamps[i] - lastTimestamp) / NANOS_IN_SECOND;
+                /* Allow at least one second of change, so close samples are not rejected */
+                float maxChange = maxChangePerSecond * Math.max(1f, elapsedSeconds);
+                if (Math.abs(value - lastValue) > maxChange) {
+                    continue;
+                }
+            }
+
+            hasLastSample = true;
+            lastTimestamp = timestamps[i];
+            lastValue = value;
+
+            outTimestamps[outCount] = timestamps[i];
+            outValues[outCount] = value;
+            outCount++;
+        }
+        return outCount;
+    }
+
+    @Override
+    public void reset() {
+        hasLastSample = false;
+    }
+}
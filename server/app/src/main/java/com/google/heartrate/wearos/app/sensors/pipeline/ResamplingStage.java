@@ -0,0 +1,106 @@
+package com.google.heartrate.wearos.app.sensors.pipeline;
+
+/**
+ * {@link SampleStage} which resamples irregular samples to a fixed output rate.
+ *
+ * <p>Output samples are placed on a grid of multiples of output period. Values between two input
+ * samples are linearly interpolated. If there are more grid points since the last input sample
+ * than output arrays can hold, only the latest of them are produced.
+ */
+public class ResamplingStage implements SampleStage {
+
+    /** Period between output samples (nanoseconds). */
+    private final long outputPeriodNs;
+
+    /** Whether there is a previous input sample or not. */
+    private boolean hasPreviousSample;
+
+    /** Timestamp of the previous input sample. */
+    private long previousTimestamp;
+
+    /** Value of the previous input sample. */
+    private float previousValue;
+
+    /** Timestamp of the next output sample. */
+    private long nextOutputTimestamp;
+
+    /**
+     * Create stage with given output period.
+     *
+     * @param outputPeriodNs period between output samples (nanoseconds)
+     */
+    public ResamplingStage(long outputPeriodNs) {
+        if (outputPeriodNs <= 0) {
+            throw new IllegalArgumentException(String.format("Output period %d is not positive", outputPeriodNs));
+        }
+        this.outputPeriodNs = outputPeriodNs;
+    }
+
+    @Override
+    public int process(long[] timestamps, float[] values, int count, long[] outTimestamps, float[] outValues) {
+        int outCount = 0;
+        for (int i = 0; i < count; i++) {
+            long timestamp = timestamps[i];
+            float value = values[i];
+
+            if (!hasPreviousSample) {
+                hasPreviousSample = true;
+                nextOutputTimestamp = ceilToPeriod(timestamp);
+                previousTimestamp = timestamp;
+                previousValue = value;
+            }
+
+            if (nextOutputTimestamp <= timestamp) {
+                long pointCount = (timestamp - nextOutputTimestamp) / outputPeriodNs + 1;
+                long freeCount = outTimestamps.length - outCount;
+                if (pointCount > freeCount) {
+                    nextOutputTimestamp += (pointCount - freeCount) * outputPeriodNs;
+                }
+            }
+
+            while (nextOutputTimestamp <= timestamp) {
+                outTimestamps[outCount] = nextOutputTimestamp;
+                outValues[outCount] = interpolate(timestamp, value, nextOutputTimestamp);
+                outCount++;
+                nextOutputTimestamp += outputPeriodNs;
+            }
+
+            previousTimestamp = timestamp;
+            previousValue = value;
+        }
+        return outCount;
+    }
+
+    /**
+     * Interpolate value between previous sample and given sample at given time.
+     *
+     * @param timestamp timestamp of the current sample
+     * @param value value of the current sample
+     * @param outputTimestamp time to interpolate value at
+     * @return interpolated value
+     */
+    private float interpolate(long timestamp, float value, long outputTimestamp) {
+        long interval = timestamp - previousTimestamp;
+        if (interval <= 0 || outputTimestamp <= previousTimestamp) {
+            return value;
+        }
+        float fraction = (float) (outputTimestamp - previousTimestamp) / interval;
+        return previousValue + fraction * (value - previousValue);
+    }
+
+    /**
+     * Round given timestamp up to the multiple of output period.
+     *
+     * @param timestamp timestamp to round
+     * @return the smallest multiple of output period not less than given timestamp
+     */
+    private long ceilToPeriod(long timestamp) {
+        long remainder = Math.floorMod(timestamp, outputPeriodNs);
+        return remainder == 0 ? timestamp : timestamp - remainder + outputPeriodNs;
+    }
+
+    @Override
+    public void reset() {
+        hasPreviousSample = false;
+    }
+}
@@ -0,0 +1,214 @@
+package com.google.heartrate.wearos.app.sensors.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chain of {@link SampleStage}s between sensor and notifier.
+ *
+ * <p>All buffers are allocated on creation, so processing of samples does not allocate.
+ * Stages pass samples to each other through two pairs of buffers used in turns.
+ *
+ * <p>Pipeline can be described with comma separated specification of stages, for example
+ * {@code "outlier:30:220:30,median:5,ema:0.3,resample:1000"}:
+ * <ul>
+ *     <li>{@code outlier:<min>:<max>:<maxChangePerSecond>} - {@link OutlierRejectionStage}</li>
+ *     <li>{@code median:<windowSize>} - {@link MedianFilterStage}</li>
+ *     <li>{@code ema:<alpha>} - {@link EmaSmoothingStage}</li>
+ *     <li>{@code resample:<periodMs>} - {@link ResamplingStage}</li>
+ * </ul>
+ * Empty specification describes pipeline which passes samples unchanged.
+ */
+public class SamplePipeline {
+
+    /** Separator between stages in pipeline specification. */
+    private static final String STAGE_SEPARATOR = ",";
+
+    /** Separator between stage name and arguments in pipeline specification. */
+    private static final String ARGUMENT_SEPARATOR = ":";
+
+    /** Stages to pass samples through. */
+    private final SampleStage[] stages;
+
+    /** Maximum number of samples in a batch. */
+    private final int capacity;
+
+    /** Buffers with timestamps, used in turns as input and output of stages. */
+    private final long[][] timestampBuffers;
+
+    /** Buffers with values, used in turns as input and output of stages. */
+    private final float[][] valueBuffers;
+
+    /** Index of buffers with the last output. */
+    private int outputBufferIndex;
+
+    /** Number of samples in the last output. */
+    private int outputCount;
+
+    /**
+     * Create pipeline with given stages.
+     *
+     * @param capacity maximum number of samples in a batch, both input and output
+     * @param stages stages to pass samples through in given order
+     */
+    public SamplePipeline(int capacity, SampleStage... stages) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(String.format("Pipeline capacity %d is not positive", capacity));
+        }
+        this.capacity = capacity;
+        this.stages = stages.clone();
+        timestampBuffers = new long[][]{new long[capacity], new long[capacity]};
+        valueBuffers = new float[][]{new float[capacity], new float[capacity]};
+    }
+
+    /**
+     * Create pipeline from specification.
+     *
+     * @param specification comma separated specification of stages
+     * @param capacity maximum number of samples in a batch
+     * @return pipeline with described stages
+     * @throws IllegalArgumentException if specification is malformed
+     */
+    public static SamplePipeline parse(String specification, int capacity) {
+        List<SampleStage> stages = new ArrayList<>();
+        for (String stageSpecification : specification.split(STAGE_SEPARATOR)) {
+            stageSpecification = stageSpecification.trim();
+            if (!stageSpecification.isEmpty()) {
+                stages.add(parseStage(stageSpecification));
+            }
+        }
+        return new SamplePipeline(capacity, stages.toArray(new SampleStage[0]));
+    }
+
+    /**
+     * Create stage from specification.
+     *
+     * @param specification specification of one stage
+     * @return described stage
+     * @throws IllegalArgumentException if specification is malformed
+     */
+    private static SampleStage parseStage(String specification) {
+        String[] parts = specification.split(ARGUMENT_SEPARATOR);
+        try {
+            switch (parts[0]) {
+                case "outlier":
+                    checkArgumentCount(specification, parts, 3);
+                    return new OutlierRejectionStage(Float.parseFloat(parts[1]),
+                            Float.parseFloat(parts[2]), Float.parseFloat(parts[3]));
+                case "median":
+                    checkArgumentCount(specification, parts, 1);
+                    return new MedianFilterStage(Integer.parseInt(parts[1]));
+                case "ema":
+                    checkArgumentCount(specification, parts, 1);
+                    return new EmaSmoothingStage(Float.parseFloat(parts[1]));
+                case "resample":
+                    checkArgumentCount(specification, parts, 1);
+                    return new ResamplingStage(TimeUnit.MILLISECONDS.toNanos(Long.parseLong(parts[1])));
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown stage %s", specification));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Malformed stage %s", specification), e);
+        }
+    }
+
+    private static void checkArgumentCount(String specification, String[] parts, int expected) {
+        if (parts.length - 1 != expected) {
+            throw new IllegalArgumentException(String.format("Stage %s expects %d arguments, but has %d",
+                    specification, expected, parts.length - 1));
+        }
+    }
+
+    /**
+     * Pass one sample through all stages.
+     *
+     * @param timestamp sample timestamp (nanoseconds)
+     * @param value sample value
+     * @return number of output samples
+     */
+    public int process(long timestamp, float value) {
+        timestampBuffers[0][0] = timestamp;
+        valueBuffers[0][0] = value;
+        return processBuffered(1);
+    }
+
+    /**
+     * Pass batch of samples through all stages.
+     *
+     * @param timestamps sample timestamps (nanoseconds)
+     * @param values sample values
+     * @param count number of samples, not greater than pipeline capacity
+     * @return number of output samples
+     */
+    public int process(long[] timestamps, float[] values, int count) {
+        if (count > capacity) {
+            throw new IllegalArgumentException(String.format("Batch of %d samples exceeds capacity %d",
+                    count, capacity));
+        }
+        System.arraycopy(timestamps, 0, timestampBuffers[0], 0, count);
+        System.arraycopy(values, 0, valueBuffers[0], 0, count);
+        return processBuffered(count);
+    }
+
+    private int processBuffered(int count) {
+        int input = 0;
+        for (SampleStage stage : stages) {
+            int output = 1 - input;
+            count = stage.process(timestampBuffers[input], valueBuffers[input], count,
+                    timestampBuffers[output], valueBuffers[output]);
+            input = output;
+        }
+        outputBufferIndex = input;
+        outputCount = count;
+        return count;
+    }
+
+    /**
+     * Get maximum number of samples in a batch.
+     *
+     * @return pipeline capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get number of samples in the last output.
+     *
+     * @return number of output samples
+     */
+    public int getOutputCount() {
+        return outputCount;
+    }
+
+    /**
+     * Get timestamp of output sample.
+     *
+     * @param index index of output sample
+     * @return output sample timestamp (nanoseconds)
+     */
+    public long getOutputTimestamp(int index) {
+        return timestampBuffers[outputBufferIndex][index];
+    }
+
+    /**
+     * Get value of output sample.
+     *
+     * @param index index of output sample
+     * @return output sample value
+     */
+    public float getOutputValue(int index) {
+        return valueBuffers[outputBufferIndex][index];
+    }
+
+    /**
+     * Forget state of all stages, e.g. after sensor lost contact.
+     */
+    public void reset() {
+        for (SampleStage stage : stages) {
+            stage.reset();
+        }
+        outputCount = 0;
+    }
+}
@@ -0,0 +1,27 @@
+package com.google.heartrate.wearos.app.sensors.pipeline;
+
+/**
+ * Interface for one stage of {@link SamplePipeline}.
+ *
+ * <p>Stage reads a batch of samples from primitive input arrays and writes processed samples to
+ * primitive output arrays. Stages may keep state between batches, but must not allocate per sample.
+ */
+public interface SampleStage {
+
+    /**
+     * Process batch of samples.
+     *
+     * @param timestamps input sample timestamps (nanoseconds)
+     * @param values input sample values
+     * @param count number of input samples
+     * @param outTimestamps array to write output sample timestamps to
+     * @param outValues array to write output sample values to
+     * @return number of output samples, not greater than length of output arrays
+     */
+    int process(long[] timestamps, float[] values, int count, long[] outTimestamps, float[] outValues);
+
+    /**
+     * Forget state collected from previous batches.
+     */
+    void reset();
+}
@@ -0,0 +1,147 @@
+package com.google.heartrate.wearos.app;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Opt-in micro benchmark run from unit tests.
+ *
+ * <p>Timings and allocations depend on machine and JIT, so benchmark runs only when its property is set,
+ * e.g. {@code ./gradlew test -Dbenchmark.pipeline.samples=10000000}, and only reports.
+ * Phases are warmed up before they are measured, so class loading and compilation are not measured.
+ * Results are written to report, {@code build/reports/benchmark/<name>.txt} by default,
+ * instead of test output.
+ */
+public final class Benchmark {
+
+    /** Property with directory of benchmark reports. */
+    private static final String REPORT_DIRECTORY_PROPERTY = "benchmark.report.dir";
+
+    private static final String DEFAULT_REPORT_DIRECTORY = "build/reports/benchmark";
+
+    /** Part of measured runs done in warm up. */
+    private static final int WARM_UP_DIVISOR = 10;
+
+    /**
+     * Measured work.
+     */
+    public interface Phase {
+
+        /**
+         * Run work given number of times.
+         *
+         * @param count number of runs
+         * @return result of work, reported so work is not optimized away
+         * @throws Exception if work fails, benchmark fails as well
+         */
+        long run(int count) throws Exception;
+    }
+
+    /** Name of benchmark, also name of its report. */
+    private final String name;
+
+    /** Number of measured runs of every phase. */
+    private final int count;
+
+    /** Lines of report. */
+    private final StringBuilder report = new StringBuilder();
+
+    private Benchmark(String name, int count) {
+        this.name = name;
+        this.count = count;
+        report.append(String.format("%s: %d runs%n", name, count));
+    }
+
+    /**
+     * Start benchmark if it has been requested, skip calling test otherwise.
+     *
+     * @param name name of benchmark and its report
+     * @param countProperty property with number of runs of every phase
+     * @return started benchmark
+     */
+    public static Benchmark start(String name, String countProperty) {
+        assumeTrue(String.format("Benchmark is run with -D%s", countProperty),
+                System.getProperty(countProperty) != null);
+        return new Benchmark(name, Integer.getInteger(countProperty));
+    }
+
+    /**
+     * Get number of measured runs of every phase.
+     *
+     * @return number of runs
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Run phases without measuring them, before any of them is measured.
+     *
+     * @param phases phases to warm up
+     * @throws Exception if phase fails
+     */
+    public void warmUp(Phase... phases) throws Exception {
+        for (Phase phase : phases) {
+            phase.run(count / WARM_UP_DIVISOR);
+        }
+    }
+
+    /**
+     * Measure time and allocations of phase and add them to report.
+     *
+     * @param phaseName name of phase in report
+     * @param phase phase to measure
+     * @return result of phase
+     * @throws Exception if phase fails
+     */
+    public long measure(String phaseName, Phase phase) throws Exception {
+        long allocatedBefore = allocatedBytes();
+        long startNs = System.nanoTime();
+        long result = phase.run(count);
+        long elapsedNs = System.nanoTime() - startNs;
+        long allocated = allocatedBefore < 0 ? -1 : allocatedBytes() - allocatedBefore;
+
+        double runsPerSecond = count * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsedNs);
+        report.append(String.format("%s: %d ms, %.0f runs/s, %d bytes allocated, result %d%n",
+                phaseName, TimeUnit.NANOSECONDS.toMillis(elapsedNs), runsPerSecond, allocated, result));
+        return result;
+    }
+
+    /**
+     * Write report of measured phases.
+     *
+     * @throws IOException if report cannot be written
+     */
+    public void writeReport() throws IOException {
+        File file = new File(System.getProperty(REPORT_DIRECTORY_PROPERTY, DEFAULT_REPORT_DIRECTORY), name + ".txt");
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(report.toString());
+        }
+    }
+
+    /**
+     * Get number of bytes allocated by current thread, if JVM supports it.
+     *
+     * @return allocated bytes or -1 if not supported
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
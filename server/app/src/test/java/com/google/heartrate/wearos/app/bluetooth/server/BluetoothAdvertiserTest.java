@@ -0,0 +1,351 @@
+package com.google.heartrate.wearos.app.bluetooth.server;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.AdvertiseCallback;
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSet;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
+import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.bluetooth.le.PeriodicAdvertisingParameters;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.ParcelUuid;
+
+import com.google.heartrate.wearos.app.metrics.StartupTrace;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadow.api.Shadow;
+import org.robolectric.shadows.ShadowBluetoothAdapter;
+import org.robolectric.shadows.ShadowPackageManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE, shadows = {
+        BluetoothAdvertiserTest.RecordingBluetoothAdapter.class,
+        BluetoothAdvertiserTest.RecordingLeAdvertiser.class,
+        BluetoothAdvertiserTest.RecordingAdvertisingSet.class})
+public class BluetoothAdvertiserTest {
+    private static final UUID HEART_RATE_SERVICE_UUID = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+    private static final UUID OTHER_SERVICE_UUID = UUID.fromString("0000180f-0000-1000-8000-00805f9b34fb");
+
+    private static final byte[] HEART_RATE_VALUE = new byte[]{0x00, 72};
+
+    /** Whether stand-in adapter supports extended and periodic advertising. */
+    private static boolean extendedAdvertisingSupported;
+
+    /** Advertising sets started by advertiser, in order they were started. */
+    private static final List<StartedAdvertisingSet> startedSets = new ArrayList<>();
+
+    /** Callbacks advertising sets were stopped with. */
+    private static final List<AdvertisingSetCallback> stoppedSetCallbacks = new ArrayList<>();
+
+    /** Number of connectable advertisements started. */
+    private static int advertisingStartCount;
+
+    private BluetoothAdvertiser advertiser;
+
+    @Before
+    public void setUp() throws Exception {
+        extendedAdvertisingSupported = false;
+        startedSets.clear();
+        stoppedSetCallbacks.clear();
+        advertisingStartCount = 0;
+
+        Context context = RuntimeEnvironment.application;
+        ((ShadowBluetoothAdapter) Shadow.extract(BluetoothAdapter.getDefaultAdapter())).setEnabled(true);
+        ((ShadowPackageManager) Shadow.extract(context.getPackageManager()))
+                .setSystemFeature(PackageManager.FEATURE_BLUETOOTH_LE, true);
+        advertiser = new BluetoothAdvertiser(context, new StartupTrace());
+    }
+
+    @Test
+    public void startBroadcastingStartsNonConnectableAdvertisingSetTest() {
+        advertiser.startBroadcasting(HEART_RATE_SERVICE_UUID, true);
+
+        assertTrue(advertiser.isBroadcasting(HEART_RATE_SERVICE_UUID));
+        assertFalse(advertiser.isBroadcasting(OTHER_SERVICE_UUID));
+        assertEquals(1, startedSets.size());
+        StartedAdvertisingSet started = startedSets.get(0);
+        assertFalse(started.parameters.isConnectable());
+        assertFalse(started.parameters.isScannable());
+        assertTrue(started.parameters.isLegacy());
+        assertNull(started.periodicParameters);
+        assertNull(started.periodicData);
+        /* No value yet: service is announced without service data */
+        assertEquals(Collections.singletonList(new ParcelUuid(HEART_RATE_SERVICE_UUID)),
+                started.advertiseData.getServiceUuids());
+        assertTrue(started.advertiseData.getServiceData().isEmpty());
+    }
+
+    @Test
+    public void payloadIsValueWithSequenceNumberTest() {
+        advertiser.startBroadcasting(HEART_RATE_SERVICE_UUID, true);
+        RecordingAdvertisingSet advertisingSet = startAdvertisingSet(0);
+
+        advertiser.updateBroadcastData(HEART_RATE_SERVICE_UUID, HEART_RATE_VALUE);
+        advertiser.updateBroadcastData(HEART_RATE_SERVICE_UUID, HEART_RATE_VALUE);
+
+        assertEquals(2, advertisingSet.advertisingData.size());
+        assertArrayEquals(new byte[]{0x00, 72, 1}, getServiceData(advertisingSet.advertisingData.get(0)));
+        assertArrayEquals(new byte[]{0x00, 72, 2}, getServiceData(advertisingSet.advertisingData.get(1)));
+    }
+
+    @Test
+    public void sequenceNumberWrapsAroundAfterOneByteTest() {
+        advertiser.startBroadcasting(HEART_RATE_SERVICE_UUID, true);
+        RecordingAdvertisingSet advertisingSet = startAdvertisingSet(0);
+
+        for (int i = 0; i < 256; i++) {
+            advertiser.updateBroadcastData(HEART_RATE_SERVICE_UUID, HEART_RATE_VALUE);
+        }
+
+        assertArrayEquals(new byte[]{0x00, 72, (byte) 255}, getServiceData(advertisingSet.advertisingData.get(254)));
+        assertArrayEquals(new byte[]{0x00, 72, 0}, getServiceData(advertisingSet.advertisingData.get(255)));
+    }
+
+    @Test
+    public void payloadIsValueWithoutSequenceNumberTest() {
+        advertiser.startBroadcasting(HEART_RATE_SERVICE_UUID, false);
+        RecordingAdvertisingSet advertisingSet = startAdvertisingSet(0);
+
+        advertiser.updateBroadcastData(HEART_RATE_SERVICE_UUID, HEART_RATE_VALUE);
+
+        assertArrayEquals(HEART_RATE_VALUE, getServiceData(advertisingSet.advertisingData.get(0)));
+    }
+
+    @Test
+    public void valuesOfOtherServicesAreNotBroadcastTest() {
+        advertiser.startBroadcasting(HEART_RATE_SERVICE_UUID, true);
+        RecordingAdvertisingSet advertisingSet = startAdvertisingSet(0);
+
+        advertiser.updateBroadcastData(OTHER_SERVICE_UUID, HEART_RATE_VALUE);
+        advertiser.updateBroadcastData(HEART_RATE_SERVICE_UUID, null);
+
+        assertTrue(advertisingSet.advertisingData.isEmpty());
+    }
+
+    @Test
+    public void valueBeforeAdvertisingSetStartedIsAppliedOnStartTest() {
+        advertiser.startBroadcasting(HEART_RATE_SERVICE_UUID, true);
+        advertiser.updateBroadcastData(HEART_RATE_SERVICE_UUID, HEART_RATE_VALUE);
+
+        RecordingAdvertisingSet advertisingSet = startAdvertisingSet(0);
+
+        assertEquals(1, advertisingSet.advertisingData.size());
+        assertArrayEquals(new byte[]{0x00, 72, 1}, getServiceData(advertisingSet.advertisingData.get(0)));
+    }
+
+    @Test
+    public void failedAdvertisingSetIsNotUpdatedTest() {
+        advertiser.startBroadcasting(HEART_RATE_SERVICE_UUID, true);
+        AdvertisingSet advertisingSet = Shadow.newInstanceOf(AdvertisingSet.class);
+        startedSets.get(0).callback.onAdvertisingSetStarted(advertisingSet, 0,
+                AdvertisingSetCallback.ADVERTISE_FAILED_INTERNAL_ERROR);
+
+        advertiser.updateBroadcastData(HEART_RATE_SERVICE_UUID, HEART_RATE_VALUE);
+
+        RecordingAdvertisingSet recordingSet = Shadow.extract(advertisingSet);
+        assertTrue(recordingSet.advertisingData.isEmpty());
+    }
+
+    @Test
+    public void periodicAdvertisingIsUsedIfSupportedTest() {
+        extendedAdvertisingSupported = true;
+
+        advertiser.startBroadcasting(HEART_RATE_SERVICE_UUID, true);
+        StartedAdvertisingSet started = startedSets.get(0);
+        RecordingAdvertisingSet advertisingSet = startAdvertisingSet(0);
+        advertiser.updateBroadcastData(HEART_RATE_SERVICE_UUID, HEART_RATE_VALUE);
+
+        assertFalse(started.parameters.isLegacy());
+        assertNotNull(started.periodicParameters);
+        assertNotNull(started.periodicData);
+        assertArrayEquals(new byte[]{0x00, 72, 1}, getServiceData(advertisingSet.advertisingData.get(0)));
+        assertArrayEquals(new byte[]{0x00, 72, 1}, getServiceData(advertisingSet.periodicAdvertisingData.get(0)));
+    }
+
+    @Test
+    public void stopBroadcastingStopsAdvertisingSetTest() {
+        advertiser.startBroadcasting(HEART_RATE_SERVICE_UUID, true);
+        RecordingAdvertisingSet advertisingSet = startAdvertisingSet(0);
+
+        advertiser.stopBroadcasting();
+        advertiser.updateBroadcastData(HEART_RATE_SERVICE_UUID, HEART_RATE_VALUE);
+
+        assertFalse(advertiser.isBroadcasting(HEART_RATE_SERVICE_UUID));
+        assertEquals(Collections.singletonList(startedSets.get(0).callback), stoppedSetCallbacks);
+        assertTrue(advertisingSet.advertisingData.isEmpty());
+
+        /* Stopping again is no-op */
+        advertiser.stopBroadcasting();
+        assertEquals(1, stoppedSetCallbacks.size());
+    }
+
+    @Test
+    public void advertisingSetStartedAfterStopIsNotUpdatedTest() {
+        advertiser.startBroadcasting(HEART_RATE_SERVICE_UUID, true);
+        advertiser.updateBroadcastData(HEART_RATE_SERVICE_UUID, HEART_RATE_VALUE);
+        advertiser.stopBroadcasting();
+
+        RecordingAdvertisingSet advertisingSet = startAdvertisingSet(0);
+
+        assertTrue(advertisingSet.advertisingData.isEmpty());
+    }
+
+    @Test
+    public void startBroadcastingTwiceStartsOneAdvertisingSetTest() {
+        advertiser.startBroadcasting(HEART_RATE_SERVICE_UUID, true);
+        advertiser.startBroadcasting(OTHER_SERVICE_UUID, true);
+
+        assertEquals(1, startedSets.size());
+        assertTrue(advertiser.isBroadcasting(HEART_RATE_SERVICE_UUID));
+        assertFalse(advertiser.isBroadcasting(OTHER_SERVICE_UUID));
+    }
+
+    @Test
+    public void broadcastIsRestartedWithSequenceAfterAdapterRestartTest() throws Exception {
+        advertiser.startBroadcasting(HEART_RATE_SERVICE_UUID, true);
+        startAdvertisingSet(0);
+        advertiser.updateBroadcastData(HEART_RATE_SERVICE_UUID, HEART_RATE_VALUE);
+
+        advertiser.onAdapterOff();
+        advertiser.updateBroadcastData(HEART_RATE_SERVICE_UUID, HEART_RATE_VALUE);
+        advertiser.onAdapterOn(Collections.singleton(HEART_RATE_SERVICE_UUID));
+
+        assertEquals(1, advertisingStartCount);
+        assertEquals(2, startedSets.size());
+        /* The latest value is advertised right away by restarted set */
+        assertArrayEquals(new byte[]{0x00, 72, 2}, getServiceData(startedSets.get(1).advertiseData));
+    }
+
+    /**
+     * Complete start of advertising set with given index successfully.
+     *
+     * @param index index of started advertising set
+     * @return shadow of started advertising set
+     */
+    private RecordingAdvertisingSet startAdvertisingSet(int index) {
+        AdvertisingSet advertisingSet = Shadow.newInstanceOf(AdvertisingSet.class);
+        startedSets.get(index).callback.onAdvertisingSetStarted(advertisingSet, 0,
+                AdvertisingSetCallback.ADVERTISE_SUCCESS);
+        return Shadow.extract(advertisingSet);
+    }
+
+    private static byte[] getServiceData(AdvertiseData advertiseData) {
+        return advertiseData.getServiceData().get(new ParcelUuid(HEART_RATE_SERVICE_UUID));
+    }
+
+    /**
+     * Arguments advertising set was started with.
+     */
+    private static class StartedAdvertisingSet {
+        private final AdvertisingSetParameters parameters;
+        private final AdvertiseData advertiseData;
+        private final PeriodicAdvertisingParameters periodicParameters;
+        private final AdvertiseData periodicData;
+        private final AdvertisingSetCallback callback;
+
+        private StartedAdvertisingSet(AdvertisingSetParameters parameters, AdvertiseData advertiseData,
+                                      PeriodicAdvertisingParameters periodicParameters, AdvertiseData periodicData,
+                                      AdvertisingSetCallback callback) {
+            this.parameters = parameters;
+            this.advertiseData = advertiseData;
+            this.periodicParameters = periodicParameters;
+            this.periodicData = periodicData;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Stand-in for {@link BluetoothAdapter} with LE advertiser and configurable advertising features.
+     */
+    @Implements(BluetoothAdapter.class)
+    public static class RecordingBluetoothAdapter extends ShadowBluetoothAdapter {
+
+        @Implementation
+        protected BluetoothLeAdvertiser getBluetoothLeAdvertiser() {
+            return Shadow.newInstanceOf(BluetoothLeAdvertiser.class);
+        }
+
+        @Implementation
+        protected boolean isLeExtendedAdvertisingSupported() {
+            return extendedAdvertisingSupported;
+        }
+
+        @Implementation
+        protected boolean isLePeriodicAdvertisingSupported() {
+            return extendedAdvertisingSupported;
+        }
+    }
+
+    /**
+     * Stand-in for {@link BluetoothLeAdvertiser} which records started and stopped advertisements.
+     */
+    @Implements(BluetoothLeAdvertiser.class)
+    public static class RecordingLeAdvertiser {
+
+        @Implementation
+        protected void startAdvertising(AdvertiseSettings settings, AdvertiseData advertiseData,
+                                        AdvertiseCallback callback) {
+            advertisingStartCount++;
+        }
+
+        @Implementation
+        protected void stopAdvertising(AdvertiseCallback callback) {
+        }
+
+        @Implementation
+        protected void startAdvertisingSet(AdvertisingSetParameters parameters, AdvertiseData advertiseData,
+                                           AdvertiseData scanResponse,
+                                           PeriodicAdvertisingParameters periodicParameters,
+                                           AdvertiseData periodicData, AdvertisingSetCallback callback) {
+            startedSets.add(new StartedAdvertisingSet(parameters, advertiseData, periodicParameters,
+                    periodicData, callback));
+        }
+
+        @Implementation
+        protected void stopAdvertisingSet(AdvertisingSetCallback callback) {
+            stoppedSetCallbacks.add(callback);
+        }
+    }
+
+    /**
+     * Stand-in for {@link AdvertisingSet} which records data set to it.
+     */
+    @Implements(AdvertisingSet.class)
+    public static class RecordingAdvertisingSet {
+        private final List<AdvertiseData> advertisingData = new ArrayList<>();
+        private final List<AdvertiseData> periodicAdvertisingData = new ArrayList<>();
+
+        @Implementation
+        protected void setAdvertisingData(AdvertiseData advertiseData) {
+            advertisingData.add(advertiseData);
+        }
+
+        @Implementation
+        protected void setPeriodicAdvertisingData(AdvertiseData periodicData) {
+            periodicAdvertisingData.add(periodicData);
+        }
+    }
+}
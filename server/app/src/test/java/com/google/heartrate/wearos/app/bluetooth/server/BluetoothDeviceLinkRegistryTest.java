@@ -0,0 +1,101 @@
+package com.google.heartrate.wearos.app.bluetooth.server;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.os.Build;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE)
+public class BluetoothDeviceLinkRegistryTest {
+
+    private static final UUID CHARACTERISTIC_UUID = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+
+    private final BluetoothDeviceLinkRegistry registry = new BluetoothDeviceLinkRegistry();
+    private BluetoothDevice device;
+    private BluetoothDevice otherDevice;
+
+    @Before
+    public void setUp() {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        device = adapter.getRemoteDevice("00:11:22:33:44:01");
+        otherDevice = adapter.getRemoteDevice("00:11:22:33:44:02");
+    }
+
+    @Test
+    public void disconnectRemovesLinkOfDeviceOnlyTest() {
+        BluetoothDeviceLink link = registry.addLink(device);
+        BluetoothDeviceLink otherLink = registry.addLink(otherDevice);
+        assertSame(link, registry.getLink(device));
+
+        registry.removeLink(device);
+
+        assertNull(registry.getLink(device));
+        assertEquals(BluetoothDeviceLink.State.DISCONNECTED, link.getState());
+        assertSame(otherLink, registry.getLink(otherDevice));
+        assertEquals(1, registry.getAllLinks().size());
+    }
+
+    @Test
+    public void removingUnknownDeviceDoesNothingTest() {
+        registry.addLink(device);
+
+        registry.removeLink(otherDevice);
+
+        assertEquals(1, registry.getAllLinks().size());
+    }
+
+    @Test
+    public void reconnectCreatesNewLinkTest() {
+        BluetoothDeviceLink link = registry.addLink(device);
+        link.onMtuChanged(185);
+        registry.removeLink(device);
+
+        BluetoothDeviceLink reconnectedLink = registry.addLink(device);
+
+        assertNotSame(link, reconnectedLink);
+        assertEquals(BluetoothDeviceLink.State.CONNECTED, reconnectedLink.getState());
+        assertEquals(BluetoothDeviceLink.DEFAULT_MTU, reconnectedLink.getMtu());
+    }
+
+    @Test
+    public void removeAllLinksDisconnectsEveryLinkTest() {
+        BluetoothDeviceLink link = registry.addLink(device);
+        BluetoothDeviceLink otherLink = registry.addLink(otherDevice);
+
+        registry.removeAllLinks();
+
+        assertTrue(registry.getAllLinks().isEmpty());
+        assertEquals(BluetoothDeviceLink.State.DISCONNECTED, link.getState());
+        assertEquals(BluetoothDeviceLink.State.DISCONNECTED, otherLink.getState());
+    }
+
+    @Test
+    public void subscribedLinksAreCountedTest() {
+        BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(CHARACTERISTIC_UUID,
+                BluetoothGattCharacteristic.PROPERTY_NOTIFY, BluetoothGattCharacteristic.PERMISSION_READ);
+        registry.addLink(device).onCharacteristicConfigurationChanged(characteristic,
+                BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+        registry.addLink(otherDevice);
+        assertEquals(1, registry.getSubscribedLinkCount());
+
+        registry.removeLink(device);
+
+        assertEquals(0, registry.getSubscribedLinkCount());
+    }
+}
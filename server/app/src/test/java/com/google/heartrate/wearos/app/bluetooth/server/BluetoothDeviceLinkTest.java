@@ -0,0 +1,99 @@
+package com.google.heartrate.wearos.app.bluetooth.server;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.os.Build;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE)
+public class BluetoothDeviceLinkTest {
+
+    private static final String ADDRESS = "00:11:22:33:44:01";
+
+    private static final int MTU = 185;
+
+    private BluetoothDeviceLink link;
+
+    @Before
+    public void setUp() {
+        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(ADDRESS);
+        link = new BluetoothDeviceLink(device);
+    }
+
+    @Test
+    public void newLinkIsConnectedWithDefaultMtuAnd1MPhyTest() {
+        assertEquals(BluetoothDeviceLink.State.CONNECTED, link.getState());
+        assertEquals(BluetoothDeviceLink.DEFAULT_MTU, link.getMtu());
+        assertEquals(BluetoothDeviceLink.DEFAULT_MAX_NOTIFICATION_PAYLOAD_SIZE, link.getMaxNotificationPayloadSize());
+        assertFalse(link.isLe2MPhy());
+    }
+
+    @Test
+    public void linkIsReadyAfterRequestedPhyUpdateTest() {
+        link.onConnected(/* PHY update requested */ true);
+        assertEquals(BluetoothDeviceLink.State.PHY_UPDATE_REQUESTED, link.getState());
+
+        link.onMtuChanged(MTU);
+        assertEquals(BluetoothDeviceLink.State.PHY_UPDATE_REQUESTED, link.getState());
+        assertEquals(MTU, link.getMtu());
+        assertEquals(MTU - 3, link.getMaxNotificationPayloadSize());
+
+        link.onPhyUpdate(BluetoothDevice.PHY_LE_2M, BluetoothDevice.PHY_LE_2M);
+        assertEquals(BluetoothDeviceLink.State.READY, link.getState());
+        assertTrue(link.isLe2MPhy());
+
+        link.onDisconnected();
+        assertEquals(BluetoothDeviceLink.State.DISCONNECTED, link.getState());
+    }
+
+    @Test
+    public void linkIsReadyRightAwayWithoutPhyUpdateTest() {
+        link.onConnected(/* PHY update requested */ false);
+
+        assertEquals(BluetoothDeviceLink.State.READY, link.getState());
+        assertFalse(link.isLe2MPhy());
+    }
+
+    @Test
+    public void failedPhyUpdateFallsBackTo1MPhyTest() {
+        link.onConnected(/* PHY update requested */ true);
+
+        link.onPhyUpdateFailed();
+
+        assertEquals(BluetoothDeviceLink.State.READY, link.getState());
+        assertEquals(BluetoothDevice.PHY_LE_1M, link.getTxPhy());
+        assertEquals(BluetoothDevice.PHY_LE_1M, link.getRxPhy());
+        assertFalse(link.isLe2MPhy());
+    }
+
+    @Test
+    public void phyChangedByRemoteDeviceKeepsLinkReadyTest() {
+        link.onConnected(/* PHY update requested */ true);
+        link.onPhyUpdate(BluetoothDevice.PHY_LE_2M, BluetoothDevice.PHY_LE_2M);
+
+        /* Remote device may switch PHY later on its own */
+        link.onPhyUpdate(BluetoothDevice.PHY_LE_1M, BluetoothDevice.PHY_LE_2M);
+
+        assertEquals(BluetoothDeviceLink.State.READY, link.getState());
+        assertFalse(link.isLe2MPhy());
+    }
+
+    @Test
+    public void disconnectFromPhyUpdateRequestedTest() {
+        link.onConnected(/* PHY update requested */ true);
+
+        link.onDisconnected();
+
+        assertEquals(BluetoothDeviceLink.State.DISCONNECTED, link.getState());
+    }
+}
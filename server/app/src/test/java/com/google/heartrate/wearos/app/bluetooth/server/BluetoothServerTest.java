@@ -0,0 +1,422 @@
+package com.google.heartrate.wearos.app.bluetooth.server;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattServer;
+import android.bluetooth.BluetoothGattServerCallback;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.le.AdvertiseCallback;
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
+import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.bluetooth.le.PeriodicAdvertisingParameters;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.heartrate.wearos.app.bluetooth.server.handlers.HeartRateServiceRequestHandler;
+import com.google.heartrate.wearos.app.gatt.heartrate.descriptors.ClientCharacteristicConfigurationDescriptor;
+import com.google.heartrate.wearos.app.gatt.heartrate.service.HeartRateGattService;
+import com.google.heartrate.wearos.app.metrics.MetricsRegistry;
+import com.google.heartrate.wearos.app.metrics.StartupTrace;
+import com.google.heartrate.wearos.app.power.WakeLockScheduler;
+import com.google.heartrate.wearos.app.sensors.HeartRateSensorController;
+import com.google.heartrate.wearos.app.sensors.HeartRateSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadow.api.Shadow;
+import org.robolectric.shadows.ShadowBluetoothAdapter;
+import org.robolectric.shadows.ShadowBluetoothDevice;
+import org.robolectric.shadows.ShadowBluetoothManager;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.shadows.ShadowPackageManager;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Test of {@link BluetoothServer} lifecycle against fake {@link BluetoothGattServer}, which adds services
+ * only when test confirms them, as stack reports every service added asynchronously.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE, shadows = {
+        BluetoothServerTest.FakeBluetoothManager.class,
+        ServerSoakTest.StandInBluetoothAdapter.class,
+        BluetoothServerTest.FakeGattServer.class,
+        BluetoothServerTest.FakeLeAdvertiser.class})
+@LooperMode(LooperMode.Mode.PAUSED)
+public class BluetoothServerTest {
+
+    private static final String ADDRESS = "00:11:22:33:44:01";
+
+    private static final long GRACE_PERIOD_MS = 30_000;
+
+    private static final int MTU = 185;
+
+    private static final UUID HEART_RATE_MEASUREMENT_UUID = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+
+    /** GATT servers opened by {@link BluetoothServer}, in order they were opened. */
+    private static final List<FakeGattServer> openedGattServers = new CopyOnWriteArrayList<>();
+
+    /** Number of connectable advertisements started. */
+    private static volatile int advertisingStartCount;
+
+    /** Number of broadcast advertising sets started. */
+    private static volatile int broadcastStartCount;
+
+    private WakeLockScheduler wakeLockScheduler;
+    private BluetoothAdapter adapter;
+    private BluetoothServer server;
+    private BluetoothServerCallback callback;
+    private HeartRateSensorController controller;
+    private HeartRateServiceRequestHandler heartRateHandler;
+
+    @Before
+    public void setUp() throws Exception {
+        openedGattServers.clear();
+
+        Context context = RuntimeEnvironment.application;
+        adapter = BluetoothAdapter.getDefaultAdapter();
+        ((ShadowBluetoothAdapter) Shadow.extract(adapter)).setEnabled(true);
+        ((ShadowPackageManager) Shadow.extract(context.getPackageManager()))
+                .setSystemFeature(PackageManager.FEATURE_BLUETOOTH_LE, true);
+
+        wakeLockScheduler = new WakeLockScheduler(context);
+        server = new BluetoothServer(context, wakeLockScheduler, new StartupTrace(), new MetricsRegistry());
+        callback = (BluetoothServerCallback) getGattServer().callback;
+        controller = new HeartRateSensorController(mock(HeartRateSource.class), new Handler(Looper.getMainLooper()),
+                wakeLockScheduler, GRACE_PERIOD_MS);
+        heartRateHandler = createHeartRateHandler();
+        server.registerGattServiceHandler(heartRateHandler);
+        server.start();
+        /* Generic Attribute and Heart Rate services */
+        confirmServices(2);
+        /* Advertising is restarted for every registered service, only restarts after setup are counted */
+        advertisingStartCount = 0;
+        broadcastStartCount = 0;
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        controller.close();
+        wakeLockScheduler.close();
+    }
+
+    @Test
+    public void fullMailboxDoesNotDropDisconnectAndServiceAddedTest() throws Exception {
+        BluetoothDevice device = adapter.getRemoteDevice(ADDRESS);
+        callback.onConnectionStateChange(device, BluetoothGatt.GATT_SUCCESS, BluetoothGatt.STATE_CONNECTED);
+        server.registerGattServiceHandler(createHeartRateHandler());
+        server.registerGattServiceHandler(createHeartRateHandler());
+        awaitEventLoop();
+        assertNotNull(server.deviceLinkRegistry.getLink(device));
+        /* The second instance is being added, the third one waits for it */
+        assertEquals(3, getGattServer().services.size());
+
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        assertTrue(server.eventLoop.post(() -> {
+            blocked.countDown();
+            awaitQuietly(unblock);
+        }));
+        assertTrue(blocked.await(1, TimeUnit.SECONDS));
+        while (server.eventLoop.post(() -> { })) {
+            /* Fill mailbox until events are rejected */
+        }
+
+        callback.onConnectionStateChange(device, BluetoothGatt.GATT_SUCCESS, BluetoothGatt.STATE_DISCONNECTED);
+        callback.onServiceAdded(BluetoothGatt.GATT_SUCCESS, getGattServer().services.get(2));
+        unblock.countDown();
+        awaitEventLoop();
+
+        assertNull(server.deviceLinkRegistry.getLink(device));
+        /* Server has moved on to the next queued service */
+        assertEquals(4, getGattServer().services.size());
+    }
+
+    @Test
+    public void adapterRestartRestoresServicesInOrderAndAdvertisingTest() throws Exception {
+        server.startBroadcasting(HeartRateGattService.HEART_RATE_SERVICE_UUID, /* include sequence number */ false);
+        BluetoothDevice device = adapter.getRemoteDevice(ADDRESS);
+        callback.onConnectionStateChange(device, BluetoothGatt.GATT_SUCCESS, BluetoothGatt.STATE_CONNECTED);
+        awaitEventLoop();
+        FakeGattServer closedGattServer = getGattServer();
+        List<BluetoothGattService> services = closedGattServer.services;
+        assertEquals(0, advertisingStartCount);
+        assertEquals(1, broadcastStartCount);
+
+        changeAdapterState(BluetoothAdapter.STATE_OFF);
+
+        assertTrue(closedGattServer.closed);
+        assertNull(server.deviceLinkRegistry.getLink(device));
+        assertEquals(1, openedGattServers.size());
+
+        changeAdapterState(BluetoothAdapter.STATE_ON);
+
+        assertEquals(2, openedGattServers.size());
+        assertFalse(getGattServer().closed);
+        confirmServices(services.size());
+        for (int i = 0; i < services.size(); i++) {
+            assertSame(services.get(i), getGattServer().services.get(i));
+        }
+        assertEquals(1, advertisingStartCount);
+        assertEquals(2, broadcastStartCount);
+        assertTrue(server.isBroadcasting(heartRateHandler.getBluetoothGattService()));
+        assertTrue(server.getLastRecoveryTimeMs() >= 0);
+    }
+
+    @Test
+    public void adapterOnWhileMailboxIsFullRestoresServerTest() throws Exception {
+        changeAdapterState(BluetoothAdapter.STATE_OFF);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        assertTrue(server.eventLoop.post(() -> {
+            blocked.countDown();
+            awaitQuietly(unblock);
+        }));
+        assertTrue(blocked.await(1, TimeUnit.SECONDS));
+        while (server.eventLoop.post(() -> { })) {
+            /* Fill mailbox until events are rejected */
+        }
+
+        RuntimeEnvironment.application.sendBroadcast(new Intent(BluetoothAdapter.ACTION_STATE_CHANGED)
+                .putExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.STATE_ON));
+        ShadowLooper.idleMainLooper();
+        unblock.countDown();
+        awaitEventLoop();
+
+        assertEquals(2, openedGattServers.size());
+        confirmServices(2);
+        assertEquals(1, advertisingStartCount);
+    }
+
+    @Test
+    public void linkFollowsConnectionFromConnectToDisconnectTest() throws Exception {
+        BluetoothDevice device = adapter.getRemoteDevice(ADDRESS);
+
+        callback.onConnectionStateChange(device, BluetoothGatt.GATT_SUCCESS, BluetoothGatt.STATE_CONNECTED);
+        awaitEventLoop();
+        BluetoothDeviceLink link = server.deviceLinkRegistry.getLink(device);
+        /* Stand-in adapter does not support LE 2M PHY, so it is not requested */
+        assertEquals(BluetoothDeviceLink.State.READY, link.getState());
+
+        callback.onMtuChanged(device, MTU);
+        callback.onPhyUpdate(device, BluetoothDevice.PHY_LE_2M, BluetoothDevice.PHY_LE_2M, BluetoothGatt.GATT_FAILURE);
+        awaitEventLoop();
+        assertEquals(MTU, link.getMtu());
+        assertEquals(BluetoothDevice.PHY_LE_1M, link.getTxPhy());
+        assertEquals(BluetoothDevice.PHY_LE_1M, link.getRxPhy());
+
+        callback.onConnectionStateChange(device, BluetoothGatt.GATT_SUCCESS, BluetoothGatt.STATE_DISCONNECTED);
+        awaitEventLoop();
+        assertNull(server.deviceLinkRegistry.getLink(device));
+        assertEquals(BluetoothDeviceLink.State.DISCONNECTED, link.getState());
+    }
+
+    @Test
+    public void invalidClientCharacteristicConfigurationIsRejectedAndNotPersistedTest() throws Exception {
+        BluetoothDevice device = adapter.getRemoteDevice(ADDRESS);
+        ((ShadowBluetoothDevice) Shadow.extract(device)).setBondState(BluetoothDevice.BOND_BONDED);
+        callback.onConnectionStateChange(device, BluetoothGatt.GATT_SUCCESS, BluetoothGatt.STATE_CONNECTED);
+        BluetoothGattCharacteristic characteristic = heartRateHandler.getBluetoothGattService()
+                .getCharacteristic(HEART_RATE_MEASUREMENT_UUID);
+        BluetoothGattDescriptor descriptor = characteristic.getDescriptor(
+                ClientCharacteristicConfigurationDescriptor.CLIENT_CHARACTERISTIC_CONFIGURATION_UUID);
+        callback.onDescriptorWriteRequest(device, 1, descriptor, false, true, 0,
+                BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+        awaitEventLoop();
+        assertEquals(BluetoothGatt.GATT_SUCCESS, getGattServer().responseStatus);
+
+        /* Both configuration bits, reserved bit and value of wrong length */
+        byte[][] invalidValues = {{0x03, 0x00}, {0x04, 0x00}, {0x01}};
+        for (byte[] value : invalidValues) {
+            callback.onDescriptorWriteRequest(device, 2, descriptor, false, true, 0, value);
+            awaitEventLoop();
+
+            assertEquals(ClientCharacteristicConfigurationDescriptor.CCCD_IMPROPERLY_CONFIGURED,
+                    getGattServer().responseStatus);
+        }
+
+        /* Subscription is kept as it was before rejected writes */
+        assertTrue(server.deviceLinkRegistry.getLink(device).isSubscribed(characteristic));
+        assertEquals(1, controller.getConsumerCount());
+        List<BondedSubscriptionStore.Subscription> subscriptions =
+                server.subscriptionStore.getSubscriptions(ADDRESS);
+        assertEquals(1, subscriptions.size());
+        assertArrayEquals(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE, subscriptions.get(0).getValue());
+    }
+
+    /**
+     * Deliver Bluetooth adapter state change to server and wait until server has handled it.
+     */
+    private void changeAdapterState(int state) throws InterruptedException {
+        RuntimeEnvironment.application.sendBroadcast(new Intent(BluetoothAdapter.ACTION_STATE_CHANGED)
+                .putExtra(BluetoothAdapter.EXTRA_STATE, state));
+        ShadowLooper.idleMainLooper();
+        awaitEventLoop();
+    }
+
+    private HeartRateServiceRequestHandler createHeartRateHandler() {
+        return new HeartRateServiceRequestHandler(mock(HeartRateSource.class), controller);
+    }
+
+    private static FakeGattServer getGattServer() {
+        return openedGattServers.get(openedGattServers.size() - 1);
+    }
+
+    /**
+     * Report services added one by one, as stack does, until given number of services is added.
+     */
+    private void confirmServices(int serviceCount) throws InterruptedException {
+        FakeGattServer gattServer = getGattServer();
+        for (int i = 0; i < serviceCount; i++) {
+            awaitEventLoop();
+            assertEquals(i + 1, gattServer.services.size());
+            gattServer.callback.onServiceAdded(BluetoothGatt.GATT_SUCCESS, gattServer.services.get(i));
+        }
+        awaitEventLoop();
+        assertEquals(serviceCount, gattServer.services.size());
+    }
+
+    private void awaitEventLoop() throws InterruptedException {
+        do {
+            CountDownLatch latch = new CountDownLatch(1);
+            assertTrue(server.eventLoop.post(latch::countDown));
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } while (server.eventLoop.getMailboxDepth() > 0);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stand-in for {@link BluetoothManager} which opens {@link FakeGattServer}.
+     */
+    @Implements(BluetoothManager.class)
+    public static class FakeBluetoothManager extends ShadowBluetoothManager {
+
+        @Implementation
+        protected BluetoothGattServer openGattServer(Context context, BluetoothGattServerCallback callback) {
+            BluetoothGattServer gattServer = Shadow.newInstanceOf(BluetoothGattServer.class);
+            FakeGattServer fakeGattServer = Shadow.extract(gattServer);
+            fakeGattServer.callback = callback;
+            openedGattServers.add(fakeGattServer);
+            return gattServer;
+        }
+    }
+
+    /**
+     * Stand-in for {@link BluetoothGattServer} which records services it is asked to add,
+     * addition is reported by test.
+     */
+    @Implements(BluetoothGattServer.class)
+    public static class FakeGattServer {
+        private BluetoothGattServerCallback callback;
+        private final List<BluetoothGattService> services = new CopyOnWriteArrayList<>();
+        private volatile boolean closed;
+
+        /** Status of the last response sent. */
+        private volatile int responseStatus = -1;
+
+        @Implementation
+        protected boolean addService(BluetoothGattService service) {
+            services.add(service);
+            return true;
+        }
+
+        @Implementation
+        protected boolean removeService(BluetoothGattService service) {
+            return services.remove(service);
+        }
+
+        @Implementation
+        protected boolean sendResponse(BluetoothDevice device, int requestId, int status, int offset, byte[] value) {
+            responseStatus = status;
+            return true;
+        }
+
+        @Implementation
+        protected boolean notifyCharacteristicChanged(BluetoothDevice device,
+                                                      BluetoothGattCharacteristic characteristic, boolean confirm) {
+            return true;
+        }
+
+        @Implementation
+        protected void setPreferredPhy(BluetoothDevice device, int txPhy, int rxPhy, int phyOptions) {
+        }
+
+        @Implementation
+        protected void cancelConnection(BluetoothDevice device) {
+        }
+
+        @Implementation
+        protected void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * Stand-in for {@link BluetoothLeAdvertiser} which counts started advertisements.
+     */
+    @Implements(BluetoothLeAdvertiser.class)
+    public static class FakeLeAdvertiser {
+
+        @Implementation
+        protected void startAdvertising(AdvertiseSettings settings, AdvertiseData advertiseData,
+                                        AdvertiseCallback callback) {
+            advertisingStartCount++;
+        }
+
+        @Implementation
+        protected void stopAdvertising(AdvertiseCallback callback) {
+        }
+
+        @Implementation
+        protected void startAdvertisingSet(AdvertisingSetParameters parameters, AdvertiseData advertiseData,
+                                           AdvertiseData scanResponse,
+                                           PeriodicAdvertisingParameters periodicParameters,
+                                           AdvertiseData periodicData, AdvertisingSetCallback callback) {
+            broadcastStartCount++;
+        }
+
+        @Implementation
+        protected void stopAdvertisingSet(AdvertisingSetCallback callback) {
+        }
+    }
+}
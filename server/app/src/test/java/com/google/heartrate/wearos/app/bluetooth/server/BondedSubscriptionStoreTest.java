@@ -0,0 +1,196 @@
+package com.google.heartrate.wearos.app.bluetooth.server;
+
+import android.bluetooth.BluetoothGattDescriptor;
+import android.os.Build;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE)
+public class BondedSubscriptionStoreTest {
+
+    private static final String ADDRESS = "00:11:22:33:AA:FF";
+    private static final String OTHER_ADDRESS = "00:11:22:33:44:66";
+    private static final UUID SERVICE_UUID = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+    private static final UUID CHARACTERISTIC_UUID = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(temporaryFolder.getRoot(), "subscriptions.bin");
+    }
+
+    @Test
+    public void subscriptionSurvivesReloadTest() {
+        BondedSubscriptionStore store = new BondedSubscriptionStore(file, Runnable::run);
+        store.saveSubscription(ADDRESS, SERVICE_UUID, 0, CHARACTERISTIC_UUID,
+                BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+
+        List<BondedSubscriptionStore.Subscription> subscriptions =
+                new BondedSubscriptionStore(file, Runnable::run).getSubscriptions(ADDRESS);
+
+        assertEquals(1, subscriptions.size());
+        assertEquals(SERVICE_UUID, subscriptions.get(0).getServiceUuid());
+        assertEquals(0, subscriptions.get(0).getServiceInstance());
+        assertEquals(CHARACTERISTIC_UUID, subscriptions.get(0).getCharacteristicUuid());
+        assertArrayEquals(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE, subscriptions.get(0).getValue());
+        assertEquals(1 + 2 + 41, file.length());
+    }
+
+    @Test
+    public void serviceInstancesAreSavedSeparatelyTest() {
+        BondedSubscriptionStore store = new BondedSubscriptionStore(file, Runnable::run);
+        store.saveSubscription(ADDRESS, SERVICE_UUID, 0, CHARACTERISTIC_UUID,
+                BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+        store.saveSubscription(ADDRESS, SERVICE_UUID, 1, CHARACTERISTIC_UUID,
+                BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
+
+        store.saveSubscription(ADDRESS, SERVICE_UUID, 0, CHARACTERISTIC_UUID,
+                BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+
+        List<BondedSubscriptionStore.Subscription> subscriptions =
+                new BondedSubscriptionStore(file, Runnable::run).getSubscriptions(ADDRESS);
+        assertEquals(1, subscriptions.size());
+        assertEquals(1, subscriptions.get(0).getServiceInstance());
+        assertArrayEquals(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE, subscriptions.get(0).getValue());
+    }
+
+    @Test
+    public void singleInstanceFileIsLoadedAsFirstInstanceTest() throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(file))) {
+            output.writeByte(1);
+            output.writeShort(1);
+            output.write(new byte[]{0x00, 0x11, 0x22, 0x33, (byte) 0xAA, (byte) 0xFF});
+            output.writeLong(SERVICE_UUID.getMostSignificantBits());
+            output.writeLong(SERVICE_UUID.getLeastSignificantBits());
+            output.writeLong(CHARACTERISTIC_UUID.getMostSignificantBits());
+            output.writeLong(CHARACTERISTIC_UUID.getLeastSignificantBits());
+            output.write(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+        }
+
+        List<BondedSubscriptionStore.Subscription> subscriptions =
+                new BondedSubscriptionStore(file, Runnable::run).getSubscriptions(ADDRESS);
+
+        assertEquals(1, subscriptions.size());
+        assertEquals(SERVICE_UUID, subscriptions.get(0).getServiceUuid());
+        assertEquals(0, subscriptions.get(0).getServiceInstance());
+        assertEquals(CHARACTERISTIC_UUID, subscriptions.get(0).getCharacteristicUuid());
+        assertArrayEquals(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE, subscriptions.get(0).getValue());
+    }
+
+    @Test
+    public void disableValueRemovesSubscriptionTest() {
+        BondedSubscriptionStore store = new BondedSubscriptionStore(file, Runnable::run);
+        store.saveSubscription(ADDRESS, SERVICE_UUID, 0, CHARACTERISTIC_UUID,
+                BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+
+        store.saveSubscription(ADDRESS, SERVICE_UUID, 0, CHARACTERISTIC_UUID,
+                BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+
+        assertTrue(store.getSubscriptions(ADDRESS).isEmpty());
+        assertTrue(new BondedSubscriptionStore(file, Runnable::run).getSubscriptions(ADDRESS).isEmpty());
+    }
+
+    @Test
+    public void newValueReplacesOldValueTest() {
+        BondedSubscriptionStore store = new BondedSubscriptionStore(file, Runnable::run);
+        store.saveSubscription(ADDRESS, SERVICE_UUID, 0, CHARACTERISTIC_UUID,
+                BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+
+        store.saveSubscription(ADDRESS, SERVICE_UUID, 0, CHARACTERISTIC_UUID,
+                BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
+
+        List<BondedSubscriptionStore.Subscription> subscriptions =
+                new BondedSubscriptionStore(file, Runnable::run).getSubscriptions(ADDRESS);
+        assertEquals(1, subscriptions.size());
+        assertArrayEquals(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE, subscriptions.get(0).getValue());
+    }
+
+    @Test
+    public void removeDeviceKeepsOtherDevicesTest() {
+        BondedSubscriptionStore store = new BondedSubscriptionStore(file, Runnable::run);
+        store.saveSubscription(ADDRESS, SERVICE_UUID, 0, CHARACTERISTIC_UUID,
+                BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+        store.saveSubscription(OTHER_ADDRESS, SERVICE_UUID, 0, CHARACTERISTIC_UUID,
+                BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+
+        store.removeDevice(ADDRESS);
+
+        BondedSubscriptionStore reloaded = new BondedSubscriptionStore(file, Runnable::run);
+        assertTrue(reloaded.getSubscriptions(ADDRESS).isEmpty());
+        assertEquals(1, reloaded.getSubscriptions(OTHER_ADDRESS).size());
+    }
+
+    @Test
+    public void unchangedValueIsNotWrittenTest() {
+        List<Runnable> writes = new ArrayList<>();
+        BondedSubscriptionStore store = new BondedSubscriptionStore(file, writes::add);
+        store.saveSubscription(ADDRESS, SERVICE_UUID, 0, CHARACTERISTIC_UUID,
+                BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+        writes.remove(0).run();
+
+        store.saveSubscription(ADDRESS, SERVICE_UUID, 0, CHARACTERISTIC_UUID,
+                BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+        store.saveSubscription(OTHER_ADDRESS, SERVICE_UUID, 0, CHARACTERISTIC_UUID,
+                BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+        store.removeDevice(OTHER_ADDRESS);
+
+        assertTrue(writes.isEmpty());
+    }
+
+    @Test
+    public void changesWhileWriteIsQueuedAreCoalescedTest() {
+        List<Runnable> writes = new ArrayList<>();
+        BondedSubscriptionStore store = new BondedSubscriptionStore(file, writes::add);
+
+        store.saveSubscription(ADDRESS, SERVICE_UUID, 0, CHARACTERISTIC_UUID,
+                BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+        store.saveSubscription(ADDRESS, SERVICE_UUID, 0, CHARACTERISTIC_UUID,
+                BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
+        store.saveSubscription(OTHER_ADDRESS, SERVICE_UUID, 0, CHARACTERISTIC_UUID,
+                BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+
+        assertEquals(1, writes.size());
+        assertTrue(new BondedSubscriptionStore(file, Runnable::run).getSubscriptions(ADDRESS).isEmpty());
+
+        writes.remove(0).run();
+
+        BondedSubscriptionStore reloaded = new BondedSubscriptionStore(file, Runnable::run);
+        assertArrayEquals(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE,
+                reloaded.getSubscriptions(ADDRESS).get(0).getValue());
+        assertEquals(1, reloaded.getSubscriptions(OTHER_ADDRESS).size());
+    }
+
+    @Test
+    public void corruptedFileIsIgnoredTest() throws IOException {
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(new byte[]{1, 0, 5, 0x11});
+        }
+
+        BondedSubscriptionStore store = new BondedSubscriptionStore(file, Runnable::run);
+
+        assertTrue(store.getSubscriptions(ADDRESS).isEmpty());
+    }
+}
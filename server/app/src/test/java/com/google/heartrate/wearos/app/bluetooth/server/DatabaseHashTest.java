@@ -0,0 +1,146 @@
+package com.google.heartrate.wearos.app.bluetooth.server;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.os.Build;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE)
+public class DatabaseHashTest {
+
+    /** Key of RFC 4493 test vectors. */
+    private static final byte[] RFC_4493_KEY = bytes("2b7e151628aed2a6abf7158809cf4f3c");
+
+    /** Message of RFC 4493 test vectors, shorter vectors take its prefix. */
+    private static final byte[] RFC_4493_MESSAGE = bytes("6bc1bee22e409f96e93d7e117393172a"
+            + "ae2d8a571e03ac9c9eb76fac45af8e51"
+            + "30c81c46a35ce411e5fbc1191a0a52ef"
+            + "f69f2445df4f9b17ad2b417be66c3710");
+
+    private static final UUID HEART_RATE_SERVICE_UUID = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+    private static final UUID HEART_RATE_MEASUREMENT_UUID = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+    private static final UUID VENDOR_SERVICE_UUID = UUID.fromString("8d7a1c54-4e0b-4f5e-9a63-2c1f0b7e3d91");
+
+    @Test
+    public void aesCmacMatchesRfc4493VectorsTest() {
+        assertArrayEquals(bytes("bb1d6929e95937287fa37d129b756746"),
+                DatabaseHash.aesCmac(RFC_4493_KEY, new byte[0]));
+        assertArrayEquals(bytes("070a16b46b4d4144f79bdd9dd04a287c"),
+                DatabaseHash.aesCmac(RFC_4493_KEY, prefix(16)));
+        assertArrayEquals(bytes("dfa66747de9ae63030ca32611497c827"),
+                DatabaseHash.aesCmac(RFC_4493_KEY, prefix(40)));
+        assertArrayEquals(bytes("51f0bebf7e3b9d92fc49741779363cfe"),
+                DatabaseHash.aesCmac(RFC_4493_KEY, prefix(64)));
+    }
+
+    @Test
+    public void sameLayoutHasSameHashTest() {
+        DatabaseHash first = new DatabaseHash();
+        first.addService(heartRateService(1));
+        first.addService(vendorService(10));
+
+        DatabaseHash second = new DatabaseHash();
+        /* Services are hashed in handle order, not in order they are added */
+        second.addService(vendorService(10));
+        second.addService(heartRateService(1));
+
+        assertEquals(DatabaseHash.HASH_SIZE, first.getValue().length);
+        assertArrayEquals(first.getValue(), second.getValue());
+    }
+
+    @Test
+    public void addingAndRemovingServiceChangesHashTest() {
+        DatabaseHash databaseHash = new DatabaseHash();
+        databaseHash.addService(heartRateService(1));
+        byte[] initialHash = databaseHash.getValue();
+
+        BluetoothGattService vendorService = vendorService(10);
+        databaseHash.addService(vendorService);
+        byte[] extendedHash = databaseHash.getValue();
+        assertFalse(Arrays.equals(initialHash, extendedHash));
+
+        assertTrue(databaseHash.removeService(vendorService));
+        assertArrayEquals(initialHash, databaseHash.getValue());
+        assertFalse(databaseHash.removeService(vendorService));
+    }
+
+    @Test
+    public void movedHandlesChangeHashTest() {
+        DatabaseHash first = new DatabaseHash();
+        first.addService(heartRateService(1));
+
+        DatabaseHash second = new DatabaseHash();
+        second.addService(heartRateService(5));
+
+        assertFalse(Arrays.equals(first.getValue(), second.getValue()));
+    }
+
+    @Test
+    public void changedPropertiesChangeHashTest() {
+        DatabaseHash first = new DatabaseHash();
+        first.addService(heartRateService(1));
+
+        DatabaseHash second = new DatabaseHash();
+        BluetoothGattService service = service(HEART_RATE_SERVICE_UUID, 1, HEART_RATE_MEASUREMENT_UUID,
+                BluetoothGattCharacteristic.PROPERTY_INDICATE);
+        second.addService(service);
+
+        assertFalse(Arrays.equals(first.getValue(), second.getValue()));
+    }
+
+    private static BluetoothGattService heartRateService(int handle) {
+        return service(HEART_RATE_SERVICE_UUID, handle, HEART_RATE_MEASUREMENT_UUID,
+                BluetoothGattCharacteristic.PROPERTY_NOTIFY);
+    }
+
+    private static BluetoothGattService vendorService(int handle) {
+        return service(VENDOR_SERVICE_UUID, handle, UUID.fromString("8d7a1c52-4e0b-4f5e-9a63-2c1f0b7e3d91"),
+                BluetoothGattCharacteristic.PROPERTY_READ);
+    }
+
+    /**
+     * Create service with one characteristic and handles assigned as stack does.
+     */
+    private static BluetoothGattService service(UUID serviceUuid, int handle, UUID characteristicUuid,
+                                                int properties) {
+        BluetoothGattService service = new BluetoothGattService(serviceUuid,
+                BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        BluetoothGattCharacteristic characteristic =
+                new BluetoothGattCharacteristic(characteristicUuid, properties, /* permissions */ 0);
+        service.addCharacteristic(characteristic);
+        /* Instance ids are hidden API which server sets from handles after service is added */
+        ReflectionHelpers.callInstanceMethod(service, "setInstanceId",
+                ReflectionHelpers.ClassParameter.from(int.class, handle));
+        ReflectionHelpers.callInstanceMethod(characteristic, "setInstanceId",
+                ReflectionHelpers.ClassParameter.from(int.class, handle + 2));
+        return service;
+    }
+
+    private static byte[] prefix(int length) {
+        byte[] message = new byte[length];
+        System.arraycopy(RFC_4493_MESSAGE, 0, message, 0, length);
+        return message;
+    }
+
+    private static byte[] bytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,258 @@
+package com.google.heartrate.wearos.app.bluetooth.server;
+
+import android.os.Build;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE)
+public class GattEventLoopTest {
+
+    private static final int MAILBOX_CAPACITY = 4;
+
+    private GattEventLoop eventLoop;
+
+    @Before
+    public void setUp() {
+        eventLoop = new GattEventLoop(MAILBOX_CAPACITY);
+        eventLoop.start();
+    }
+
+    @After
+    public void tearDown() {
+        eventLoop.quitSafely();
+    }
+
+    @Test
+    public void eventsRunInOrderOnLoopThreadTest() throws InterruptedException {
+        List<Integer> order = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        boolean[] onLoopThread = new boolean[1];
+
+        for (int i = 0; i < MAILBOX_CAPACITY - 1; i++) {
+            int index = i;
+            eventLoop.post(() -> order.add(index));
+        }
+        eventLoop.post(() -> {
+            onLoopThread[0] = eventLoop.isLoopThread();
+            done.countDown();
+        });
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(3, order.size());
+        assertEquals(Integer.valueOf(0), order.get(0));
+        assertEquals(Integer.valueOf(2), order.get(2));
+        assertTrue(onLoopThread[0]);
+        assertFalse(eventLoop.isLoopThread());
+    }
+
+    @Test
+    public void fullMailboxRejectsEventsTest() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        eventLoop.post(() -> {
+            blocked.countDown();
+            awaitQuietly(unblock);
+        });
+        assertTrue(blocked.await(1, TimeUnit.SECONDS));
+
+        for (int i = 0; i < MAILBOX_CAPACITY; i++) {
+            assertTrue(eventLoop.post(() -> { }));
+        }
+        assertFalse(eventLoop.post(() -> { }));
+
+        assertEquals(MAILBOX_CAPACITY, eventLoop.getMailboxDepth());
+        assertEquals(MAILBOX_CAPACITY, eventLoop.getMaxMailboxDepth());
+        assertEquals(1, eventLoop.getRejectedEventCount());
+        unblock.countDown();
+    }
+
+    @Test
+    public void pendingEventsAreDrainedInOneBatchTest() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(MAILBOX_CAPACITY);
+        eventLoop.post(() -> {
+            blocked.countDown();
+            awaitQuietly(unblock);
+        });
+        assertTrue(blocked.await(1, TimeUnit.SECONDS));
+        for (int i = 0; i < MAILBOX_CAPACITY; i++) {
+            eventLoop.post(done::countDown);
+        }
+
+        unblock.countDown();
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(2, eventLoop.getBatchCount());
+    }
+
+    @Test
+    public void failedEventDoesNotStopLoopTest() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+
+        eventLoop.post(() -> {
+            throw new IllegalStateException("broken event");
+        });
+        eventLoop.post(done::countDown);
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void quitSafelyProcessesPendingEventsTest() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        eventLoop.post(done::countDown);
+
+        eventLoop.quitSafely();
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertFalse(eventLoop.post(() -> { }));
+    }
+
+    @Test
+    public void quitSafelyStopsIdleLoopTest() throws InterruptedException {
+        Thread loopThread = getLoopThread();
+
+        eventLoop.quitSafely();
+
+        loopThread.join(TimeUnit.SECONDS.toMillis(1));
+        assertFalse(loopThread.isAlive());
+    }
+
+    @Test
+    public void quitSafelyWithFullMailboxProcessesPendingEventsTest() throws InterruptedException {
+        Thread loopThread = getLoopThread();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(MAILBOX_CAPACITY);
+        eventLoop.post(() -> {
+            blocked.countDown();
+            awaitQuietly(unblock);
+        });
+        assertTrue(blocked.await(1, TimeUnit.SECONDS));
+        for (int i = 0; i < MAILBOX_CAPACITY; i++) {
+            assertTrue(eventLoop.post(done::countDown));
+        }
+
+        eventLoop.quitSafely();
+        unblock.countDown();
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        loopThread.join(TimeUnit.SECONDS.toMillis(1));
+        assertFalse(loopThread.isAlive());
+        assertEquals(0, eventLoop.getRejectedEventCount());
+    }
+
+    @Test
+    public void controlEventTakesReservedPlaceInFullMailboxTest() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        eventLoop.post(() -> {
+            blocked.countDown();
+            awaitQuietly(unblock);
+        });
+        assertTrue(blocked.await(1, TimeUnit.SECONDS));
+        for (int i = 0; i < MAILBOX_CAPACITY; i++) {
+            assertTrue(eventLoop.post(() -> { }));
+        }
+        assertFalse(eventLoop.post(() -> { }));
+
+        assertTrue(eventLoop.postControl(done::countDown));
+        unblock.countDown();
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(1, eventLoop.getRejectedEventCount());
+    }
+
+    @Test
+    public void controlEventWaitsForPlaceWhenReservedPlacesAreTakenTest() throws InterruptedException {
+        GattEventLoop smallEventLoop = new GattEventLoop(MAILBOX_CAPACITY, /* control capacity */ 1);
+        smallEventLoop.start();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        smallEventLoop.post(() -> {
+            blocked.countDown();
+            awaitQuietly(unblock);
+        });
+        assertTrue(blocked.await(1, TimeUnit.SECONDS));
+        for (int i = 0; i < MAILBOX_CAPACITY; i++) {
+            assertTrue(smallEventLoop.post(() -> { }));
+        }
+        assertTrue(smallEventLoop.postControl(done::countDown));
+
+        boolean[] posted = new boolean[1];
+        Thread poster = new Thread(() -> posted[0] = smallEventLoop.postControl(done::countDown));
+        poster.start();
+        poster.join(200);
+        /* Both normal and reserved places are taken, so poster waits for the loop */
+        assertTrue(poster.isAlive());
+
+        unblock.countDown();
+        poster.join(TimeUnit.SECONDS.toMillis(1));
+        assertTrue(posted[0]);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(0, smallEventLoop.getRejectedEventCount());
+        smallEventLoop.quitSafely();
+    }
+
+    @Test
+    public void controlEventPostedOnLoopThreadInFullMailboxRunsTest() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        boolean[] posted = new boolean[1];
+        eventLoop.post(() -> {
+            while (eventLoop.post(() -> { })) {
+                /* Fill mailbox from loop thread, which can not wait for a place */
+            }
+            posted[0] = eventLoop.postControl(done::countDown);
+        });
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertTrue(posted[0]);
+    }
+
+    @Test
+    public void controlEventIsRejectedAfterQuitTest() {
+        eventLoop.quitSafely();
+
+        assertFalse(eventLoop.postControl(() -> { }));
+    }
+
+    /**
+     * Get thread of event loop by running event on it.
+     */
+    private Thread getLoopThread() throws InterruptedException {
+        Thread[] loopThread = new Thread[1];
+        CountDownLatch done = new CountDownLatch(1);
+        eventLoop.post(() -> {
+            loopThread[0] = Thread.currentThread();
+            done.countDown();
+        });
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        return loopThread[0];
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
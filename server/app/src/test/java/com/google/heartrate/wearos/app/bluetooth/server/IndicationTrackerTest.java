@@ -0,0 +1,278 @@
+package com.google.heartrate.wearos.app.bluetooth.server;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.os.Build;
+
+import com.google.heartrate.wearos.app.metrics.MetricsRegistry;
+import com.google.heartrate.wearos.app.power.WakeLockScheduler;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE)
+public class IndicationTrackerTest {
+
+    private static final UUID CHARACTERISTIC_UUID = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+
+    private static final byte[] FIRST_VALUE = {0, 70};
+    private static final byte[] SECOND_VALUE = {0, 71};
+    private static final byte[] THIRD_VALUE = {0, 72};
+
+    private BluetoothDevice slowDevice;
+    private BluetoothDevice fastDevice;
+    private BluetoothGattCharacteristic characteristic;
+    private MetricsRegistry metrics;
+    private IndicationTracker tracker;
+
+    /** Whether sender accepts indications or not. */
+    private boolean senderAccepts = true;
+
+    /** Whether event loop accepts events or not, accepted events run right away. */
+    private boolean eventLoopAccepts = true;
+
+    /** Values handed over to sender by device address. */
+    private final List<String> sentDevices = new ArrayList<>();
+    private final List<byte[]> sentValues = new ArrayList<>();
+
+    /** Devices which confirmed indications, by address. */
+    private final List<String> confirmedDevices = new ArrayList<>();
+
+    /** Devices with links failed by indication timeout, by address. */
+    private final List<String> failedLinkDevices = new ArrayList<>();
+
+    /** Wakeups scheduled with their delays. */
+    private final List<Long> scheduledDelays = new ArrayList<>();
+    private final List<Runnable> scheduledTasks = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        slowDevice = adapter.getRemoteDevice("00:11:22:33:44:55");
+        fastDevice = adapter.getRemoteDevice("00:11:22:33:44:66");
+        characteristic = new BluetoothGattCharacteristic(CHARACTERISTIC_UUID,
+                BluetoothGattCharacteristic.PROPERTY_INDICATE, 0);
+
+        WakeLockScheduler wakeLockScheduler = mock(WakeLockScheduler.class);
+        when(wakeLockScheduler.scheduleWakeup(anyLong(), any())).thenAnswer(invocation -> {
+            scheduledDelays.add(invocation.getArgument(0));
+            scheduledTasks.add(invocation.getArgument(1));
+            return mock(WakeLockScheduler.Wakeup.class);
+        });
+
+        GattEventLoop eventLoop = mock(GattEventLoop.class);
+        when(eventLoop.post(any())).thenAnswer(invocation -> {
+            if (eventLoopAccepts) {
+                ((Runnable) invocation.getArgument(0)).run();
+            }
+            return eventLoopAccepts;
+        });
+
+        metrics = new MetricsRegistry();
+        tracker = new IndicationTracker((device, sentCharacteristic) -> {
+            if (senderAccepts) {
+                sentDevices.add(device.getAddress());
+                sentValues.add(sentCharacteristic.getValue().clone());
+            }
+            return senderAccepts;
+        }, (device, confirmedCharacteristic) -> {
+            assertSame(characteristic, confirmedCharacteristic);
+            confirmedDevices.add(device.getAddress());
+        }, device -> failedLinkDevices.add(device.getAddress()), wakeLockScheduler, eventLoop, metrics);
+    }
+
+    @Test
+    public void valueWaitsForConfirmationOfPreviousOneTest() {
+        indicate(slowDevice, FIRST_VALUE);
+        indicate(slowDevice, SECOND_VALUE);
+
+        assertEquals(1, sentValues.size());
+        assertEquals(1, tracker.getQueuedCount(slowDevice));
+
+        assertTrue(tracker.onCompleted(slowDevice, BluetoothGatt.GATT_SUCCESS));
+
+        assertEquals(2, sentValues.size());
+        assertArrayEquals(FIRST_VALUE, sentValues.get(0));
+        assertArrayEquals(SECOND_VALUE, sentValues.get(1));
+        assertEquals(1L, (long) metrics.snapshot().get("indication.confirmed"));
+        assertEquals(1, confirmedDevices.size());
+    }
+
+    @Test
+    public void slowDeviceDoesNotDelayOtherDevicesTest() {
+        indicate(slowDevice, FIRST_VALUE);
+        indicate(slowDevice, SECOND_VALUE);
+        indicate(fastDevice, SECOND_VALUE);
+
+        assertEquals(2, sentValues.size());
+        assertEquals(fastDevice.getAddress(), sentDevices.get(1));
+        assertEquals(2, tracker.getOutstandingCount());
+    }
+
+    @Test
+    public void notificationCompletionIsNotTakenForConfirmationTest() {
+        indicate(slowDevice, FIRST_VALUE);
+        indicate(slowDevice, SECOND_VALUE);
+        tracker.onNotificationSent(slowDevice);
+
+        assertFalse(tracker.onCompleted(slowDevice, BluetoothGatt.GATT_SUCCESS));
+        assertEquals(1, sentValues.size());
+
+        assertTrue(tracker.onCompleted(slowDevice, BluetoothGatt.GATT_SUCCESS));
+        assertEquals(2, sentValues.size());
+    }
+
+    @Test
+    public void failedIndicationIsNotReportedAsConfirmedTest() {
+        indicate(slowDevice, FIRST_VALUE);
+
+        assertTrue(tracker.onCompleted(slowDevice, BluetoothGatt.GATT_FAILURE));
+        assertTrue(confirmedDevices.isEmpty());
+
+        runLastWakeup();
+        assertTrue(tracker.onCompleted(slowDevice, BluetoothGatt.GATT_SUCCESS));
+        assertEquals(slowDevice.getAddress(), confirmedDevices.get(0));
+    }
+
+    @Test
+    public void characteristicValueIsRestoredAfterQueuedValueIsSentTest() {
+        indicate(slowDevice, FIRST_VALUE);
+        indicate(slowDevice, SECOND_VALUE);
+        characteristic.setValue(THIRD_VALUE);
+
+        tracker.onCompleted(slowDevice, BluetoothGatt.GATT_SUCCESS);
+
+        assertArrayEquals(SECOND_VALUE, sentValues.get(1));
+        assertArrayEquals(THIRD_VALUE, characteristic.getValue());
+    }
+
+    @Test
+    public void unconfirmedIndicationFailsLinkTest() {
+        indicate(slowDevice, FIRST_VALUE);
+        indicate(slowDevice, SECOND_VALUE);
+        indicate(fastDevice, FIRST_VALUE);
+        assertEquals(IndicationTracker.CONFIRMATION_TIMEOUT_MS, (long) scheduledDelays.get(0));
+
+        scheduledTasks.get(0).run();
+
+        /* Nothing is sent again over failed link */
+        assertEquals(2, scheduledTasks.size());
+        assertEquals(1, tracker.getOutstandingCount());
+        assertEquals(0, tracker.getQueuedCount(slowDevice));
+        assertEquals(slowDevice.getAddress(), failedLinkDevices.get(0));
+        assertEquals(1, failedLinkDevices.size());
+        assertEquals(1L, (long) metrics.snapshot().get("indication.timeout"));
+        assertEquals(1L, (long) metrics.snapshot().get("indication.dropped"));
+
+        indicate(slowDevice, THIRD_VALUE);
+        assertEquals(2, sentValues.size());
+        assertEquals(2L, (long) metrics.snapshot().get("indication.dropped"));
+
+        /* Device connected again gets indications */
+        tracker.removeDevice(slowDevice);
+        indicate(slowDevice, THIRD_VALUE);
+        assertEquals(3, sentValues.size());
+    }
+
+    @Test
+    public void indicationIsDroppedAfterMaxAttemptsTest() {
+        indicate(slowDevice, FIRST_VALUE);
+        indicate(slowDevice, SECOND_VALUE);
+
+        for (int attempt = 1; attempt < IndicationTracker.MAX_ATTEMPTS; attempt++) {
+            assertTrue(tracker.onCompleted(slowDevice, BluetoothGatt.GATT_FAILURE));
+            runLastWakeup();
+        }
+        assertTrue(tracker.onCompleted(slowDevice, BluetoothGatt.GATT_FAILURE));
+
+        assertEquals(IndicationTracker.MAX_ATTEMPTS + 1, sentValues.size());
+        assertArrayEquals(SECOND_VALUE, sentValues.get(IndicationTracker.MAX_ATTEMPTS));
+        assertEquals(1L, (long) metrics.snapshot().get("indication.failed"));
+    }
+
+    @Test
+    public void indicationRejectedByStackIsRetriedTest() {
+        senderAccepts = false;
+        indicate(slowDevice, FIRST_VALUE);
+        assertEquals(0, tracker.getOutstandingCount());
+        assertEquals(IndicationTracker.RETRY_DELAY_MS, (long) scheduledDelays.get(0));
+
+        senderAccepts = true;
+        runLastWakeup();
+
+        assertEquals(1, sentValues.size());
+        assertArrayEquals(FIRST_VALUE, sentValues.get(0));
+    }
+
+    @Test
+    public void timeoutRejectedByFullMailboxIsRetriedTest() {
+        indicate(slowDevice, FIRST_VALUE);
+        indicate(slowDevice, SECOND_VALUE);
+
+        eventLoopAccepts = false;
+        runLastWakeup();
+
+        assertEquals(2, scheduledTasks.size());
+        assertEquals(IndicationTracker.RETRY_DELAY_MS, (long) scheduledDelays.get(1));
+        assertEquals(1, tracker.getOutstandingCount());
+
+        eventLoopAccepts = true;
+        runLastWakeup();
+
+        assertEquals(0, tracker.getOutstandingCount());
+        assertEquals(1L, (long) metrics.snapshot().get("indication.timeout"));
+    }
+
+    @Test
+    public void oldestValueIsDroppedWhenQueueIsFullTest() {
+        indicate(slowDevice, FIRST_VALUE);
+        for (int i = 0; i < IndicationTracker.MAX_QUEUED_INDICATIONS; i++) {
+            indicate(slowDevice, SECOND_VALUE);
+        }
+        indicate(slowDevice, THIRD_VALUE);
+
+        assertEquals(IndicationTracker.MAX_QUEUED_INDICATIONS, tracker.getQueuedCount(slowDevice));
+        assertEquals(1L, (long) metrics.snapshot().get("indication.dropped"));
+    }
+
+    @Test
+    public void disconnectedDeviceIsForgottenTest() {
+        indicate(slowDevice, FIRST_VALUE);
+        indicate(slowDevice, SECOND_VALUE);
+
+        tracker.removeDevice(slowDevice);
+
+        assertEquals(0, tracker.getOutstandingCount());
+        assertEquals(0, tracker.getQueuedCount(slowDevice));
+        assertFalse(tracker.onCompleted(slowDevice, BluetoothGatt.GATT_SUCCESS));
+    }
+
+    private void indicate(BluetoothDevice device, byte[] value) {
+        characteristic.setValue(value);
+        tracker.indicate(device, characteristic);
+    }
+
+    private void runLastWakeup() {
+        scheduledTasks.get(scheduledTasks.size() - 1).run();
+    }
+}
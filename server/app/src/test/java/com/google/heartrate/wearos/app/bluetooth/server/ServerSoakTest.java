@@ -0,0 +1,688 @@
+package com.google.heartrate.wearos.app.bluetooth.server;
+
+import android.app.AlarmManager;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattServer;
+import android.bluetooth.BluetoothGattServerCallback;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.le.AdvertiseCallback;
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
+import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.bluetooth.le.PeriodicAdvertisingParameters;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.google.heartrate.wearos.app.bluetooth.server.handlers.HeartRateServiceRequestHandler;
+import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.NotificationPeriodControlPointCharacteristic;
+import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.VitalsFrameCharacteristic;
+import com.google.heartrate.wearos.app.gatt.heartrate.descriptors.ClientCharacteristicConfigurationDescriptor;
+import com.google.heartrate.wearos.app.gatt.heartrate.service.HeartRateGattService;
+import com.google.heartrate.wearos.app.metrics.MetricsRegistry;
+import com.google.heartrate.wearos.app.metrics.StartupTrace;
+import com.google.heartrate.wearos.app.power.WakeLockScheduler;
+import com.google.heartrate.wearos.app.sensors.HeartRateSensorController;
+import com.google.heartrate.wearos.app.sensors.HeartRateSource;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadow.api.Shadow;
+import org.robolectric.shadows.ShadowAlarmManager;
+import org.robolectric.shadows.ShadowBluetoothAdapter;
+import org.robolectric.shadows.ShadowBluetoothManager;
+import org.robolectric.shadows.ShadowLog;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.shadows.ShadowPackageManager;
+import org.robolectric.shadows.ShadowPowerManager;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Soak test of server stack: {@link BluetoothServer}, {@link BluetoothServerCallback},
+ * {@link HeartRateServiceRequestHandler} with its notifiers and {@link BluetoothDeviceStorage}s
+ * run against stand-in {@link BluetoothGattServer}, which completes every notification and confirms
+ * every indication right away, for many notification ticks while clients connect, subscribe
+ * in different ways and disconnect.
+ *
+ * <p>Every build runs a short churn which checks that server keeps state only for connected devices
+ * and leaves no subscriptions, wake locks or wakeups behind once all clients are gone.
+ *
+ * <p>Soak, which also checks that heap retained after GC stays flat, that disconnected {@link BluetoothDevice}s
+ * are not referenced by server, and that event loop allocates less than budget per tick, depends on GC
+ * and is run only on request, e.g. {@code ./gradlew test --tests '*ServerSoakTest' -Dsoak.cycles=2000000}.
+ * Soak results are written to JSON report, {@code build/reports/soak/server-soak.json} by default.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE, shadows = {
+        ServerSoakTest.StandInBluetoothManager.class,
+        ServerSoakTest.StandInBluetoothAdapter.class,
+        ServerSoakTest.StandInGattServer.class,
+        ServerSoakTest.StandInLeAdvertiser.class})
+@LooperMode(LooperMode.Mode.PAUSED)
+public class ServerSoakTest {
+
+    /** Property with number of notification ticks to run. */
+    private static final String CYCLES_PROPERTY = "soak.cycles";
+
+    /** Property with path of JSON report. */
+    private static final String REPORT_PROPERTY = "soak.report";
+
+    /** Number of notification ticks in churn run by every build. */
+    private static final int CHURN_CYCLE_COUNT = 500;
+
+    private static final String DEFAULT_REPORT_PATH = "build/reports/soak/server-soak.json";
+
+    /** Number of heap measurements during run, the first one is taken after warm-up. */
+    private static final int CHECKPOINT_COUNT = 10;
+
+    /** Part of run to warm up caches, pools and JIT before the first heap measurement. */
+    private static final double WARM_UP_FRACTION = 0.1;
+
+    /** Maximum growth of retained heap between the first and the last checkpoint. */
+    private static final long MAX_RETAINED_HEAP_GROWTH_BYTES = 2 * 1024 * 1024;
+
+    /** Maximum number of bytes allocated by event loop per notification tick. */
+    private static final long MAX_ALLOCATED_BYTES_PER_CYCLE = 64 * 1024;
+
+    /** Clients are picked from a pool of addresses, as a watch sees the same few phones again and again. */
+    private static final int ADDRESS_POOL_SIZE = 32;
+
+    private static final int MAX_CONNECTED_DEVICES = 8;
+
+    /** Probability to connect a new client on a tick, while there is room for it. */
+    private static final double CONNECT_PROBABILITY = 0.1;
+
+    private static final int MIN_SESSION_CYCLES = 5;
+
+    private static final int MAX_SESSION_CYCLES = 200;
+
+    /** Number of the most recent disconnected devices checked for leaks. */
+    private static final int TRACKED_DEVICE_COUNT = 1024;
+
+    private static final UUID HEART_RATE_MEASUREMENT_UUID = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+
+    private static final int MTU = 185;
+
+    private static final long GRACE_PERIOD_MS = 30_000;
+
+    /** Time to let pass on tick without scheduled wakeups. */
+    private static final long IDLE_TICK_MS = 1000;
+
+    /** GATT server opened by {@link BluetoothServer}, set by stand-in manager. */
+    private static StandInGattServer standInGattServer;
+
+    private final Random random = new Random(42);
+
+    private Context context;
+    private AlarmManager alarmManager;
+    private WakeLockScheduler wakeLockScheduler;
+    private BluetoothAdapter adapter;
+    private BluetoothServer server;
+    private BluetoothServerCallback callback;
+    private HeartRateSensorController controller;
+    private final SteppingHeartRateSource heartRateSource = new SteppingHeartRateSource();
+
+    private BluetoothGattDescriptor heartRateDescriptor;
+    private BluetoothGattDescriptor vitalsFrameDescriptor;
+    private BluetoothGattCharacteristic periodCharacteristic;
+
+    /** Connected clients, the earliest connected first. */
+    private final List<Session> sessions = new ArrayList<>();
+
+    /** Weak references to the most recent disconnected devices. */
+    private final Deque<WeakReference<BluetoothDevice>> disconnectedDevices = new ArrayDeque<>();
+
+    private int requestId;
+    private long sessionCount;
+    private long loopThreadId;
+
+    @Before
+    public void setUp() throws Exception {
+        context = RuntimeEnvironment.application;
+        alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        adapter = BluetoothAdapter.getDefaultAdapter();
+        ((ShadowBluetoothAdapter) Shadow.extract(adapter)).setEnabled(true);
+        ((ShadowPackageManager) Shadow.extract(context.getPackageManager()))
+                .setSystemFeature(PackageManager.FEATURE_BLUETOOTH_LE, true);
+
+        wakeLockScheduler = new WakeLockScheduler(context);
+        server = new BluetoothServer(context, wakeLockScheduler, new StartupTrace(), new MetricsRegistry());
+        callback = (BluetoothServerCallback) standInGattServer.callback;
+        controller = new HeartRateSensorController(heartRateSource, new Handler(Looper.getMainLooper()),
+                wakeLockScheduler, GRACE_PERIOD_MS);
+        HeartRateServiceRequestHandler requestHandler = new HeartRateServiceRequestHandler(heartRateSource, controller);
+        server.registerGattServiceHandler(requestHandler);
+        server.start();
+        server.eventLoop.post(() -> loopThreadId = Thread.currentThread().getId());
+        awaitEventLoop();
+
+        BluetoothGattService service = requestHandler.getBluetoothGattService();
+        heartRateDescriptor = service.getCharacteristic(HEART_RATE_MEASUREMENT_UUID).getDescriptor(
+                ClientCharacteristicConfigurationDescriptor.CLIENT_CHARACTERISTIC_CONFIGURATION_UUID);
+        vitalsFrameDescriptor = service.getCharacteristic(VitalsFrameCharacteristic.VITALS_FRAME_UUID).getDescriptor(
+                ClientCharacteristicConfigurationDescriptor.CLIENT_CHARACTERISTIC_CONFIGURATION_UUID);
+        periodCharacteristic = service.getCharacteristic(
+                NotificationPeriodControlPointCharacteristic.NOTIFICATION_PERIOD_CONTROL_POINT_UUID);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        controller.close();
+        wakeLockScheduler.close();
+    }
+
+    @Test
+    public void churnKeepsStateOfConnectedDevicesOnlyTest() throws Exception {
+        for (long cycle = 0; cycle < CHURN_CYCLE_COUNT; cycle++) {
+            churn(cycle);
+            runNextTick();
+            assertEquals(sessions.size(), server.deviceLinkRegistry.getAllLinks().size());
+            assertTrue(server.notificationScheduler.size() <= sessions.size());
+            assertTrue(controller.getConsumerCount() <= sessions.size());
+        }
+        assertTrue("Nothing has been notified", standInGattServer.notificationCount > 0);
+        assertTrue("Nothing has been indicated", standInGattServer.indicationCount > 0);
+
+        while (!sessions.isEmpty()) {
+            disconnect(sessions.get(0));
+        }
+        awaitEventLoop();
+        assertNoDeviceStateLeft();
+        assertFalse("Wake lock is held without clients", ShadowPowerManager.getLatestWakeLock().isHeld());
+
+        /* The only wakeup left is sensor stop after grace period */
+        runNextTick();
+        assertFalse(controller.isMeasuring());
+        assertTrue("Wakeups are scheduled without clients",
+                ((ShadowAlarmManager) Shadow.extract(alarmManager)).getScheduledAlarms().isEmpty());
+    }
+
+    @Test
+    public void serverSoakTest() throws Exception {
+        /* Heap and allocation measurements depend on GC, so soak runs only on request */
+        assumeTrue(String.format("Soak is run with -D%s", CYCLES_PROPERTY),
+                System.getProperty(CYCLES_PROPERTY) != null);
+        long cycleCount = Long.getLong(CYCLES_PROPERTY);
+        long warmUpCycles = (long) (cycleCount * WARM_UP_FRACTION);
+        long checkpointPeriod = Math.max(1, (cycleCount - warmUpCycles) / (CHECKPOINT_COUNT - 1));
+
+        List<Long> retainedHeap = new ArrayList<>();
+        long allocatedAtWarmUp = 0;
+        long startNs = System.nanoTime();
+        long warmUpNs = startNs;
+
+        for (long cycle = 0; cycle < cycleCount; cycle++) {
+            churn(cycle);
+            runNextTick();
+            if (cycle >= warmUpCycles && (cycle - warmUpCycles) % checkpointPeriod == 0) {
+                if (retainedHeap.isEmpty()) {
+                    allocatedAtWarmUp = loopAllocatedBytes();
+                    warmUpNs = System.nanoTime();
+                }
+                retainedHeap.add(retainedHeapBytes());
+            }
+        }
+        long measuredCycles = cycleCount - warmUpCycles;
+        long allocated = loopAllocatedBytes() - allocatedAtWarmUp;
+        long measuredNs = System.nanoTime() - warmUpNs;
+
+        while (!sessions.isEmpty()) {
+            disconnect(sessions.get(0));
+        }
+        awaitEventLoop();
+        retainedHeap.add(retainedHeapBytes());
+        int leakedDevices = countLeakedDevices();
+
+        long heapGrowth = retainedHeap.get(retainedHeap.size() - 1) - retainedHeap.get(0);
+        long allocatedPerCycle = allocated < 0 ? -1 : allocated / Math.max(1, measuredCycles);
+        long allocationRate = allocated < 0 ? -1 : allocated * TimeUnit.SECONDS.toNanos(1) / Math.max(1, measuredNs);
+        Map<String, Long> metrics = server.metrics.snapshot();
+
+        JSONObject report = new JSONObject()
+                .put("cycles", cycleCount)
+                .put("warm_up_cycles", warmUpCycles)
+                .put("sessions", sessionCount)
+                .put("notifications_sent", standInGattServer.notificationCount)
+                .put("indications_sent", standInGattServer.indicationCount)
+                .put("duration_ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs))
+                .put("retained_heap_bytes", new JSONArray(retainedHeap))
+                .put("retained_heap_growth_bytes", heapGrowth)
+                .put("max_retained_heap_growth_bytes", MAX_RETAINED_HEAP_GROWTH_BYTES)
+                .put("tracked_disconnected_devices", disconnectedDevices.size())
+                .put("leaked_devices", leakedDevices)
+                .put("loop_allocated_bytes", allocated)
+                .put("allocated_bytes_per_cycle", allocatedPerCycle)
+                .put("max_allocated_bytes_per_cycle", MAX_ALLOCATED_BYTES_PER_CYCLE)
+                .put("allocation_rate_bytes_per_second", allocationRate)
+                .put("rejected_events", metrics.get("gatt.events.rejected"))
+                .put("max_mailbox_depth", metrics.get("gatt.mailbox.max_depth"));
+        writeReport(report);
+
+        assertTrue("Nothing has been notified", standInGattServer.notificationCount > 0);
+        assertEquals("Disconnected devices are still referenced", 0, leakedDevices);
+        assertNoDeviceStateLeft();
+        assertTrue(String.format("Retained heap has grown by %d bytes", heapGrowth),
+                heapGrowth < MAX_RETAINED_HEAP_GROWTH_BYTES);
+        if (allocated >= 0) {
+            assertTrue(String.format("Event loop allocated %d bytes per cycle", allocatedPerCycle),
+                    allocatedPerCycle < MAX_ALLOCATED_BYTES_PER_CYCLE);
+        }
+    }
+
+    /**
+     * Check that server keeps nothing for devices after all of them have disconnected.
+     */
+    private void assertNoDeviceStateLeft() {
+        assertEquals(0, server.deviceLinkRegistry.getAllLinks().size());
+        assertEquals(0, server.indicationTracker.getOutstandingCount());
+        assertTrue("Notifications are scheduled without subscribers", server.notificationScheduler.isEmpty());
+        assertEquals(0, controller.getConsumerCount());
+    }
+
+    /**
+     * Disconnect clients whose session is over and maybe connect a new one.
+     */
+    private void churn(long cycle) {
+        Iterator<Session> iterator = sessions.iterator();
+        while (iterator.hasNext()) {
+            Session session = iterator.next();
+            if (session.endCycle <= cycle) {
+                iterator.remove();
+                endSession(session);
+            }
+        }
+        if (sessions.size() < MAX_CONNECTED_DEVICES && random.nextDouble() < CONNECT_PROBABILITY) {
+            connect(cycle);
+        }
+    }
+
+    /**
+     * Connect client with address from pool, which is not connected now, and subscribe it in random way.
+     */
+    private void connect(long cycle) {
+        String address;
+        do {
+            address = String.format("00:11:22:33:44:%02X", random.nextInt(ADDRESS_POOL_SIZE));
+        } while (isConnected(address));
+        /* New instance for every connection, as stack creates it */
+        BluetoothDevice device = adapter.getRemoteDevice(address);
+        Session session = new Session(device,
+                cycle + MIN_SESSION_CYCLES + random.nextInt(MAX_SESSION_CYCLES - MIN_SESSION_CYCLES));
+        sessions.add(session);
+        sessionCount++;
+
+        callback.onConnectionStateChange(device, BluetoothGatt.GATT_SUCCESS, BluetoothGatt.STATE_CONNECTED);
+        callback.onMtuChanged(device, MTU);
+        if (random.nextBoolean()) {
+            /* Explicit period makes device due every tick, stepping heart rate passes suppression */
+            callback.onCharacteristicWriteRequest(device, ++requestId, periodCharacteristic, false, true, 0,
+                    new byte[] {1, 0});
+        }
+        switch (random.nextInt(4)) {
+            case 0:
+                writeDescriptor(device, heartRateDescriptor, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+                break;
+            case 1:
+                writeDescriptor(device, heartRateDescriptor, BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
+                break;
+            case 2:
+                writeDescriptor(device, vitalsFrameDescriptor, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+                break;
+            default:
+                writeDescriptor(device, heartRateDescriptor, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+                writeDescriptor(device, vitalsFrameDescriptor, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+        }
+    }
+
+    private void disconnect(Session session) {
+        sessions.remove(session);
+        endSession(session);
+    }
+
+    /**
+     * Unsubscribe client politely or just drop connection, and remember device to check it is not leaked.
+     */
+    private void endSession(Session session) {
+        BluetoothDevice device = session.device;
+        if (random.nextBoolean()) {
+            writeDescriptor(device, heartRateDescriptor, BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+            writeDescriptor(device, vitalsFrameDescriptor, BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+        }
+        callback.onConnectionStateChange(device, BluetoothGatt.GATT_SUCCESS, BluetoothGatt.STATE_DISCONNECTED);
+
+        if (disconnectedDevices.size() == TRACKED_DEVICE_COUNT) {
+            disconnectedDevices.poll();
+        }
+        disconnectedDevices.add(new WeakReference<>(device));
+    }
+
+    private void writeDescriptor(BluetoothDevice device, BluetoothGattDescriptor descriptor, byte[] value) {
+        callback.onDescriptorWriteRequest(device, ++requestId, descriptor, false, true, 0, value);
+    }
+
+    private boolean isConnected(String address) {
+        for (Session session : sessions) {
+            if (session.device.getAddress().equals(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move clock to the earliest scheduled wakeup and deliver it, as alarm manager does,
+     * then wait until event loop has sent all notifications and processed their completions.
+     */
+    private void runNextTick() throws InterruptedException {
+        awaitEventLoop();
+        ShadowAlarmManager.ScheduledAlarm nextAlarm = null;
+        for (ShadowAlarmManager.ScheduledAlarm alarm
+                : ((ShadowAlarmManager) Shadow.extract(alarmManager)).getScheduledAlarms()) {
+            if (nextAlarm == null || alarm.triggerAtTime < nextAlarm.triggerAtTime) {
+                nextAlarm = alarm;
+            }
+        }
+        if (nextAlarm == null) {
+            ShadowLooper.idleMainLooper(IDLE_TICK_MS, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        long delayMs = nextAlarm.triggerAtTime - SystemClock.elapsedRealtime();
+        if (delayMs > 0) {
+            ShadowLooper.idleMainLooper(delayMs, TimeUnit.MILLISECONDS);
+        }
+        heartRateSource.step();
+        alarmManager.cancel(nextAlarm.onAlarmListener);
+        nextAlarm.onAlarmListener.onAlarm();
+        awaitEventLoop();
+        ShadowLooper.idleMainLooper();
+    }
+
+    /**
+     * Wait until event loop has processed everything posted to it, including events posted by processed ones.
+     */
+    private void awaitEventLoop() throws InterruptedException {
+        do {
+            CountDownLatch latch = new CountDownLatch(1);
+            assertTrue(server.eventLoop.post(latch::countDown));
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } while (server.eventLoop.getMailboxDepth() > 0);
+    }
+
+    /**
+     * Measure heap retained after full GC. Robolectric keeps every log line, so logs are dropped first.
+     */
+    private static long retainedHeapBytes() {
+        ShadowLog.clear();
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            System.runFinalization();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    private int countLeakedDevices() {
+        ShadowLog.clear();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            System.runFinalization();
+        }
+        int leaked = 0;
+        for (WeakReference<BluetoothDevice> reference : disconnectedDevices) {
+            if (reference.get() != null) {
+                leaked++;
+            }
+        }
+        return leaked;
+    }
+
+    /**
+     * Get number of bytes allocated by event loop thread, if JVM supports it.
+     *
+     * @return allocated bytes or -1 if not supported
+     */
+    private long loopAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(loopThreadId);
+        }
+        return -1;
+    }
+
+    private static void writeReport(JSONObject report) throws IOException, JSONException {
+        File file = new File(System.getProperty(REPORT_PROPERTY, DEFAULT_REPORT_PATH));
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(report.toString(2));
+        }
+    }
+
+    /**
+     * Connected client.
+     */
+    private static class Session {
+        private final BluetoothDevice device;
+
+        /** Tick to disconnect on. */
+        private final long endCycle;
+
+        private Session(BluetoothDevice device, long endCycle) {
+            this.device = device;
+            this.endCycle = endCycle;
+        }
+    }
+
+    /**
+     * {@link HeartRateSource} which changes heart rate every tick enough to pass notification suppression.
+     */
+    private static class SteppingHeartRateSource implements HeartRateSource {
+        private volatile int heartRate = NO_VALUE_AVAILABLE;
+        private volatile int rrInterval;
+
+        private void step() {
+            heartRate = heartRate >= 180 ? 60 : heartRate + 5;
+            rrInterval = 60 * 1024 / heartRate;
+        }
+
+        @Override
+        public void startMeasure() {
+        }
+
+        @Override
+        public void stopMeasure() {
+        }
+
+        @Override
+        public int peekCurrentHeartRateValue() {
+            return heartRate;
+        }
+
+        @Override
+        public long getCurrentHeartRateTimeMs() {
+            return heartRate == NO_VALUE_AVAILABLE ? 0 : System.currentTimeMillis();
+        }
+
+        @Override
+        public boolean isSensorContactDetected() {
+            return true;
+        }
+
+        @Override
+        public int drainRrIntervals(int[] target) {
+            if (rrInterval == 0 || target.length == 0) {
+                return 0;
+            }
+            target[0] = rrInterval;
+            return 1;
+        }
+    }
+
+    /**
+     * Stand-in for {@link BluetoothManager} which opens {@link StandInGattServer}.
+     */
+    @Implements(BluetoothManager.class)
+    public static class StandInBluetoothManager extends ShadowBluetoothManager {
+
+        @Implementation
+        protected BluetoothGattServer openGattServer(Context context, BluetoothGattServerCallback callback) {
+            BluetoothGattServer gattServer = Shadow.newInstanceOf(BluetoothGattServer.class);
+            standInGattServer = Shadow.extract(gattServer);
+            standInGattServer.callback = callback;
+            return gattServer;
+        }
+    }
+
+    /**
+     * Stand-in for {@link BluetoothAdapter} with LE advertiser and without LE 2M PHY.
+     */
+    @Implements(BluetoothAdapter.class)
+    public static class StandInBluetoothAdapter extends ShadowBluetoothAdapter {
+
+        @Implementation
+        protected BluetoothLeAdvertiser getBluetoothLeAdvertiser() {
+            return Shadow.newInstanceOf(BluetoothLeAdvertiser.class);
+        }
+
+        @Implementation
+        protected boolean isLe2MPhySupported() {
+            return false;
+        }
+
+        @Implementation
+        protected boolean isLeExtendedAdvertisingSupported() {
+            return false;
+        }
+
+        @Implementation
+        protected boolean isLePeriodicAdvertisingSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Stand-in for {@link BluetoothGattServer}: services are added and every notification
+     * or indication is completed right away, as by a fast client on good link.
+     * Devices are not referenced, so they can be checked for leaks in server.
+     */
+    @Implements(BluetoothGattServer.class)
+    public static class StandInGattServer {
+        private BluetoothGattServerCallback callback;
+        private volatile long notificationCount;
+        private volatile long indicationCount;
+
+        @Implementation
+        protected boolean addService(BluetoothGattService service) {
+            callback.onServiceAdded(BluetoothGatt.GATT_SUCCESS, service);
+            return true;
+        }
+
+        @Implementation
+        protected boolean removeService(BluetoothGattService service) {
+            return true;
+        }
+
+        @Implementation
+        protected boolean sendResponse(BluetoothDevice device, int requestId, int status, int offset, byte[] value) {
+            return true;
+        }
+
+        @Implementation
+        protected boolean notifyCharacteristicChanged(BluetoothDevice device,
+                                                      BluetoothGattCharacteristic characteristic, boolean confirm) {
+            if (confirm) {
+                indicationCount++;
+            } else {
+                notificationCount++;
+            }
+            callback.onNotificationSent(device, BluetoothGatt.GATT_SUCCESS);
+            return true;
+        }
+
+        @Implementation
+        protected void setPreferredPhy(BluetoothDevice device, int txPhy, int rxPhy, int phyOptions) {
+        }
+
+        @Implementation
+        protected void close() {
+        }
+    }
+
+    /**
+     * Stand-in for {@link BluetoothLeAdvertiser} which advertises nothing.
+     */
+    @Implements(BluetoothLeAdvertiser.class)
+    public static class StandInLeAdvertiser {
+
+        @Implementation
+        protected void startAdvertising(AdvertiseSettings settings, AdvertiseData advertiseData,
+                                        AdvertiseCallback callback) {
+        }
+
+        @Implementation
+        protected void stopAdvertising(AdvertiseCallback callback) {
+        }
+
+        @Implementation
+        protected void startAdvertisingSet(AdvertisingSetParameters parameters, AdvertiseData advertiseData,
+                                           AdvertiseData scanResponse,
+                                           PeriodicAdvertisingParameters periodicParameters,
+                                           AdvertiseData periodicData, AdvertisingSetCallback callback) {
+        }
+
+        @Implementation
+        protected void stopAdvertisingSet(AdvertisingSetCallback callback) {
+        }
+    }
+}
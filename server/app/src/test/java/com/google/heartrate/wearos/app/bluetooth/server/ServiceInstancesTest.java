@@ -0,0 +1,376 @@
+package com.google.heartrate.wearos.app.bluetooth.server;
+
+import android.app.AlarmManager;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattServer;
+import android.bluetooth.BluetoothGattServerCallback;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothManager;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.google.heartrate.wearos.app.bluetooth.server.handlers.HeartRateServiceRequestHandler;
+import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.NotificationPeriodControlPointCharacteristic;
+import com.google.heartrate.wearos.app.gatt.heartrate.descriptors.ClientCharacteristicConfigurationDescriptor;
+import com.google.heartrate.wearos.app.gatt.heartrate.service.HeartRateGattService;
+import com.google.heartrate.wearos.app.metrics.MetricsRegistry;
+import com.google.heartrate.wearos.app.metrics.StartupTrace;
+import com.google.heartrate.wearos.app.power.WakeLockScheduler;
+import com.google.heartrate.wearos.app.sensors.HeartRateSensorController;
+import com.google.heartrate.wearos.app.sensors.HeartRateSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadow.api.Shadow;
+import org.robolectric.shadows.ShadowAlarmManager;
+import org.robolectric.shadows.ShadowBluetoothAdapter;
+import org.robolectric.shadows.ShadowBluetoothDevice;
+import org.robolectric.shadows.ShadowBluetoothManager;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.shadows.ShadowPackageManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test of {@link BluetoothServer} hosting two Heart Rate service instances with different heart rate sources.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE, shadows = {
+        ServiceInstancesTest.RecordingBluetoothManager.class,
+        ServerSoakTest.StandInBluetoothAdapter.class,
+        ServiceInstancesTest.RecordingGattServer.class,
+        ServerSoakTest.StandInLeAdvertiser.class})
+@LooperMode(LooperMode.Mode.PAUSED)
+public class ServiceInstancesTest {
+
+    private static final String ADDRESS = "00:11:22:33:44:01";
+    private static final String OTHER_ADDRESS = "00:11:22:33:44:02";
+
+    private static final UUID HEART_RATE_MEASUREMENT_UUID = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+
+    private static final int WATCH_HEART_RATE = 70;
+    private static final int STRAP_HEART_RATE = 120;
+
+    private static final long GRACE_PERIOD_MS = 30_000;
+
+    /** Generic Attribute service and two Heart Rate service instances. */
+    private static final int SERVICE_COUNT = 3;
+
+    /** GATT server opened by {@link BluetoothServer}, set by recording manager. */
+    private static RecordingGattServer recordingGattServer;
+
+    private AlarmManager alarmManager;
+    private WakeLockScheduler wakeLockScheduler;
+    private BluetoothAdapter adapter;
+    private BluetoothServer server;
+    private BluetoothServerCallback callback;
+    private HeartRateSensorController watchController;
+    private HeartRateSensorController strapController;
+    private HeartRateServiceRequestHandler watchHandler;
+    private HeartRateServiceRequestHandler strapHandler;
+    private int requestId;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = RuntimeEnvironment.application;
+        alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        adapter = BluetoothAdapter.getDefaultAdapter();
+        ((ShadowBluetoothAdapter) Shadow.extract(adapter)).setEnabled(true);
+        ((ShadowPackageManager) Shadow.extract(context.getPackageManager()))
+                .setSystemFeature(PackageManager.FEATURE_BLUETOOTH_LE, true);
+
+        wakeLockScheduler = new WakeLockScheduler(context);
+        server = new BluetoothServer(context, wakeLockScheduler, new StartupTrace(), new MetricsRegistry());
+        callback = (BluetoothServerCallback) recordingGattServer.callback;
+        Handler sensorHandler = new Handler(Looper.getMainLooper());
+        FixedHeartRateSource watchSource = new FixedHeartRateSource(WATCH_HEART_RATE);
+        FixedHeartRateSource strapSource = new FixedHeartRateSource(STRAP_HEART_RATE);
+        watchController = new HeartRateSensorController(watchSource, sensorHandler, wakeLockScheduler, GRACE_PERIOD_MS);
+        strapController = new HeartRateSensorController(strapSource, sensorHandler, wakeLockScheduler, GRACE_PERIOD_MS);
+        watchHandler = new HeartRateServiceRequestHandler(watchSource, watchController);
+        strapHandler = new HeartRateServiceRequestHandler(strapSource, strapController);
+        server.registerGattServiceHandler(watchHandler);
+        server.registerGattServiceHandler(strapHandler);
+        server.start();
+        /* Services are added one by one, each after stack has confirmed the previous one */
+        while (recordingGattServer.services.size() < SERVICE_COUNT) {
+            awaitEventLoop();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        watchController.close();
+        strapController.close();
+        wakeLockScheduler.close();
+    }
+
+    @Test
+    public void instancesHaveOwnCharacteristicsTest() {
+        assertNotSame(getHeartRateMeasurement(watchHandler), getHeartRateMeasurement(strapHandler));
+        assertTrue(recordingGattServer.services.contains(watchHandler.getBluetoothGattService()));
+        assertTrue(recordingGattServer.services.contains(strapHandler.getBluetoothGattService()));
+    }
+
+    @Test
+    public void instancesNotifyOwnSubscribersInOneWakeupTest() throws Exception {
+        BluetoothDevice watchClient = connect(ADDRESS);
+        BluetoothDevice strapClient = connect(OTHER_ADDRESS);
+        subscribe(watchClient, watchHandler);
+        subscribe(strapClient, strapHandler);
+        awaitEventLoop();
+
+        assertEquals(1, getScheduledAlarms().size());
+        runNextTick();
+
+        assertEquals(2, recordingGattServer.notifications.size());
+        assertNotified(watchClient, getHeartRateMeasurement(watchHandler), WATCH_HEART_RATE);
+        assertNotified(strapClient, getHeartRateMeasurement(strapHandler), STRAP_HEART_RATE);
+    }
+
+    @Test
+    public void bondedSubscriptionIsRestoredToItsInstanceTest() throws Exception {
+        BluetoothDevice device = connect(ADDRESS);
+        ((ShadowBluetoothDevice) Shadow.extract(device)).setBondState(BluetoothDevice.BOND_BONDED);
+        subscribe(device, strapHandler);
+        callback.onConnectionStateChange(device, BluetoothGatt.GATT_SUCCESS, BluetoothGatt.STATE_DISCONNECTED);
+        awaitEventLoop();
+
+        /* New instance for every connection, as stack creates it */
+        BluetoothDevice reconnected = adapter.getRemoteDevice(ADDRESS);
+        ((ShadowBluetoothDevice) Shadow.extract(reconnected)).setBondState(BluetoothDevice.BOND_BONDED);
+        callback.onConnectionStateChange(reconnected, BluetoothGatt.GATT_SUCCESS, BluetoothGatt.STATE_CONNECTED);
+        awaitEventLoop();
+        runNextTick();
+
+        assertEquals(1, recordingGattServer.notifications.size());
+        assertNotified(reconnected, getHeartRateMeasurement(strapHandler), STRAP_HEART_RATE);
+    }
+
+    @Test
+    public void broadcastKeepsSensorOfFirstInstanceRunningTest() throws Exception {
+        server.startBroadcasting(HeartRateGattService.HEART_RATE_SERVICE_UUID, /* include sequence number */ false);
+        awaitEventLoop();
+
+        /* Observers do not subscribe, so nobody but broadcast needs the sensor */
+        assertEquals(1, watchController.getConsumerCount());
+        assertTrue(watchController.isMeasuring());
+        assertEquals(0, strapController.getConsumerCount());
+
+        server.stopBroadcasting();
+        awaitEventLoop();
+        assertEquals(0, watchController.getConsumerCount());
+    }
+
+    private BluetoothDevice connect(String address) {
+        BluetoothDevice device = adapter.getRemoteDevice(address);
+        callback.onConnectionStateChange(device, BluetoothGatt.GATT_SUCCESS, BluetoothGatt.STATE_CONNECTED);
+        return device;
+    }
+
+    /**
+     * Subscribe device to Heart Rate Measurement of given instance with explicit period,
+     * so it is due every tick.
+     */
+    private void subscribe(BluetoothDevice device, HeartRateServiceRequestHandler requestHandler) {
+        BluetoothGattService service = requestHandler.getBluetoothGattService();
+        callback.onCharacteristicWriteRequest(device, ++requestId, service.getCharacteristic(
+                NotificationPeriodControlPointCharacteristic.NOTIFICATION_PERIOD_CONTROL_POINT_UUID),
+                false, true, 0, new byte[] {1, 0});
+        callback.onDescriptorWriteRequest(device, ++requestId, getHeartRateMeasurement(requestHandler).getDescriptor(
+                ClientCharacteristicConfigurationDescriptor.CLIENT_CHARACTERISTIC_CONFIGURATION_UUID),
+                false, true, 0, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+    }
+
+    private static BluetoothGattCharacteristic getHeartRateMeasurement(HeartRateServiceRequestHandler requestHandler) {
+        return requestHandler.getBluetoothGattService()
+                .getCharacteristic(HEART_RATE_MEASUREMENT_UUID);
+    }
+
+    private static void assertNotified(BluetoothDevice device, BluetoothGattCharacteristic characteristic,
+                                       int heartRate) {
+        for (Notification notification : recordingGattServer.notifications) {
+            if (notification.device == device) {
+                assertSame(characteristic, notification.characteristic);
+                assertEquals(heartRate, notification.value[1] & 0xFF);
+                return;
+            }
+        }
+        throw new AssertionError(String.format("Device %s has not been notified", device.getAddress()));
+    }
+
+    private List<ShadowAlarmManager.ScheduledAlarm> getScheduledAlarms() {
+        return ((ShadowAlarmManager) Shadow.extract(alarmManager)).getScheduledAlarms();
+    }
+
+    /**
+     * Move clock to the earliest scheduled wakeup and deliver it, as alarm manager does,
+     * then wait until event loop has sent all notifications.
+     */
+    private void runNextTick() throws InterruptedException {
+        awaitEventLoop();
+        ShadowAlarmManager.ScheduledAlarm nextAlarm = null;
+        for (ShadowAlarmManager.ScheduledAlarm alarm : getScheduledAlarms()) {
+            if (nextAlarm == null || alarm.triggerAtTime < nextAlarm.triggerAtTime) {
+                nextAlarm = alarm;
+            }
+        }
+        assertTrue("No wakeup scheduled", nextAlarm != null);
+
+        long delayMs = nextAlarm.triggerAtTime - SystemClock.elapsedRealtime();
+        if (delayMs > 0) {
+            ShadowLooper.idleMainLooper(delayMs, TimeUnit.MILLISECONDS);
+        }
+        alarmManager.cancel(nextAlarm.onAlarmListener);
+        nextAlarm.onAlarmListener.onAlarm();
+        awaitEventLoop();
+    }
+
+    private void awaitEventLoop() throws InterruptedException {
+        do {
+            CountDownLatch latch = new CountDownLatch(1);
+            assertTrue(server.eventLoop.post(latch::countDown));
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } while (server.eventLoop.getMailboxDepth() > 0);
+    }
+
+    /**
+     * Notification sent by server, with value characteristic had when it was sent.
+     */
+    private static class Notification {
+        private final BluetoothDevice device;
+        private final BluetoothGattCharacteristic characteristic;
+        private final byte[] value;
+
+        private Notification(BluetoothDevice device, BluetoothGattCharacteristic characteristic) {
+            this.device = device;
+            this.characteristic = characteristic;
+            this.value = characteristic.getValue().clone();
+        }
+    }
+
+    /**
+     * {@link HeartRateSource} which always measures the same heart rate.
+     */
+    private static class FixedHeartRateSource implements HeartRateSource {
+        private final int heartRate;
+
+        private FixedHeartRateSource(int heartRate) {
+            this.heartRate = heartRate;
+        }
+
+        @Override
+        public void startMeasure() {
+        }
+
+        @Override
+        public void stopMeasure() {
+        }
+
+        @Override
+        public int peekCurrentHeartRateValue() {
+            return heartRate;
+        }
+
+        @Override
+        public long getCurrentHeartRateTimeMs() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public boolean isSensorContactDetected() {
+            return true;
+        }
+
+        @Override
+        public int drainRrIntervals(int[] target) {
+            return 0;
+        }
+    }
+
+    /**
+     * Stand-in for {@link BluetoothManager} which opens {@link RecordingGattServer}.
+     */
+    @Implements(BluetoothManager.class)
+    public static class RecordingBluetoothManager extends ShadowBluetoothManager {
+
+        @Implementation
+        protected BluetoothGattServer openGattServer(Context context, BluetoothGattServerCallback callback) {
+            BluetoothGattServer gattServer = Shadow.newInstanceOf(BluetoothGattServer.class);
+            recordingGattServer = Shadow.extract(gattServer);
+            recordingGattServer.callback = callback;
+            return gattServer;
+        }
+    }
+
+    /**
+     * Stand-in for {@link BluetoothGattServer} which adds services right away
+     * and records every notification it sends.
+     */
+    @Implements(BluetoothGattServer.class)
+    public static class RecordingGattServer {
+        private BluetoothGattServerCallback callback;
+        private final List<BluetoothGattService> services = new CopyOnWriteArrayList<>();
+        private final List<Notification> notifications = new ArrayList<>();
+
+        @Implementation
+        protected boolean addService(BluetoothGattService service) {
+            services.add(service);
+            callback.onServiceAdded(BluetoothGatt.GATT_SUCCESS, service);
+            return true;
+        }
+
+        @Implementation
+        protected boolean removeService(BluetoothGattService service) {
+            return services.remove(service);
+        }
+
+        @Implementation
+        protected boolean sendResponse(BluetoothDevice device, int requestId, int status, int offset, byte[] value) {
+            return true;
+        }
+
+        @Implementation
+        protected boolean notifyCharacteristicChanged(BluetoothDevice device,
+                                                      BluetoothGattCharacteristic characteristic, boolean confirm) {
+            notifications.add(new Notification(device, characteristic));
+            callback.onNotificationSent(device, BluetoothGatt.GATT_SUCCESS);
+            return true;
+        }
+
+        @Implementation
+        protected void setPreferredPhy(BluetoothDevice device, int txPhy, int rxPhy, int phyOptions) {
+        }
+
+        @Implementation
+        protected void close() {
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.google.heartrate.wearos.app.bluetooth.server.handlers;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.os.Build;
+
+import com.google.heartrate.wearos.app.bluetooth.server.BluetoothServerCallback;
+import com.google.heartrate.wearos.app.gatt.GattException;
+import com.google.heartrate.wearos.app.gatt.generic.characteristics.DatabaseHashCharacteristic;
+import com.google.heartrate.wearos.app.gatt.generic.characteristics.ServiceChangedCharacteristic;
+import com.google.heartrate.wearos.app.gatt.heartrate.descriptors.ClientCharacteristicConfigurationDescriptor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadow.api.Shadow;
+import org.robolectric.shadows.ShadowBluetoothDevice;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE)
+public class GenericAttributeServiceRequestHandlerTest {
+
+    private static final byte[] FIRST_HASH = hash(1);
+    private static final byte[] SECOND_HASH = hash(2);
+
+    private BluetoothServerCallback callback;
+    private GenericAttributeServiceRequestHandler handler;
+    private BluetoothGattCharacteristic serviceChanged;
+    private BluetoothGattDescriptor serviceChangedConfiguration;
+    private BluetoothDevice bondedDevice;
+    private BluetoothDevice device;
+
+    @Before
+    public void setUp() {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        bondedDevice = adapter.getRemoteDevice("00:11:22:33:44:55");
+        ((ShadowBluetoothDevice) Shadow.extract(bondedDevice)).setBondState(BluetoothDevice.BOND_BONDED);
+        device = adapter.getRemoteDevice("00:11:22:33:44:66");
+        ((ShadowBluetoothDevice) Shadow.extract(device)).setBondState(BluetoothDevice.BOND_NONE);
+
+        callback = mock(BluetoothServerCallback.class);
+        handler = new GenericAttributeServiceRequestHandler(RuntimeEnvironment.application);
+        handler.onServiceAdded(callback);
+        handler.onDatabaseChanged(FIRST_HASH);
+
+        serviceChanged = handler.getBluetoothGattService()
+                .getCharacteristic(ServiceChangedCharacteristic.SERVICE_CHANGED_UUID);
+        serviceChangedConfiguration = serviceChanged.getDescriptor(
+                ClientCharacteristicConfigurationDescriptor.CLIENT_CHARACTERISTIC_CONFIGURATION_UUID);
+    }
+
+    @Test
+    public void readReturnsDatabaseHashTest() throws GattException {
+        BluetoothGattCharacteristic databaseHash = handler.getBluetoothGattService()
+                .getCharacteristic(DatabaseHashCharacteristic.DATABASE_HASH_UUID);
+
+        assertArrayEquals(FIRST_HASH, handler.onCharacteristicRead(device, databaseHash, 0));
+
+        handler.onDatabaseChanged(SECOND_HASH);
+        assertArrayEquals(SECOND_HASH, handler.onCharacteristicRead(device, databaseHash, 0));
+    }
+
+    @Test
+    public void subscribedDevicesAreIndicatedOnDatabaseChangedTest() throws GattException {
+        subscribe(device);
+        subscribe(bondedDevice);
+        verify(callback, never()).indicateDevice(any(), any());
+
+        handler.onDatabaseChanged(SECOND_HASH);
+
+        verify(callback).indicateDevice(device, serviceChanged);
+        verify(callback).indicateDevice(bondedDevice, serviceChanged);
+        assertArrayEquals(new byte[]{0x01, 0x00, (byte) 0xFF, (byte) 0xFF}, serviceChanged.getValue());
+    }
+
+    @Test
+    public void bondedDeviceIsIndicatedOnReconnectAfterDatabaseChangedTest() throws GattException {
+        subscribe(bondedDevice);
+        handler.onDeviceDisconnected(bondedDevice);
+
+        handler.onDatabaseChanged(SECOND_HASH);
+        verify(callback, never()).indicateDevice(any(), any());
+
+        /* Subscription is restored by server on reconnect */
+        subscribe(bondedDevice);
+        verify(callback).indicateDevice(bondedDevice, serviceChanged);
+        handler.onIndicationConfirmed(bondedDevice, serviceChanged);
+
+        handler.onDeviceDisconnected(bondedDevice);
+        subscribe(bondedDevice);
+        verify(callback, times(1)).indicateDevice(eq(bondedDevice), any());
+    }
+
+    @Test
+    public void bondedDeviceIsIndicatedAgainIfItHasNotConfirmedTest() throws GattException {
+        subscribe(bondedDevice);
+        handler.onDatabaseChanged(SECOND_HASH);
+        verify(callback).indicateDevice(bondedDevice, serviceChanged);
+
+        /* Device disconnects before it confirms indication */
+        handler.onDeviceDisconnected(bondedDevice);
+        subscribe(bondedDevice);
+        verify(callback, times(2)).indicateDevice(bondedDevice, serviceChanged);
+
+        handler.onIndicationConfirmed(bondedDevice, serviceChanged);
+        handler.onDeviceDisconnected(bondedDevice);
+        subscribe(bondedDevice);
+        verify(callback, times(2)).indicateDevice(bondedDevice, serviceChanged);
+    }
+
+    @Test
+    public void confirmationRemembersHashIndicationWasSentForTest() throws GattException {
+        subscribe(bondedDevice);
+        handler.onDatabaseChanged(SECOND_HASH);
+        handler.onDatabaseChanged(hash(3));
+
+        /* Only indication about the older change is confirmed before device disconnects */
+        handler.onIndicationConfirmed(bondedDevice, serviceChanged);
+        handler.onDeviceDisconnected(bondedDevice);
+        subscribe(bondedDevice);
+
+        verify(callback, times(3)).indicateDevice(bondedDevice, serviceChanged);
+    }
+
+    @Test
+    public void readOfDatabaseHashRemembersHashTest() throws GattException {
+        subscribe(bondedDevice);
+        handler.onDatabaseChanged(SECOND_HASH);
+        handler.onCharacteristicRead(bondedDevice, handler.getBluetoothGattService()
+                .getCharacteristic(DatabaseHashCharacteristic.DATABASE_HASH_UUID), 0);
+
+        handler.onDeviceDisconnected(bondedDevice);
+        subscribe(bondedDevice);
+
+        verify(callback, times(1)).indicateDevice(bondedDevice, serviceChanged);
+    }
+
+    @Test
+    public void bondedDeviceIsNotIndicatedOnReconnectIfDatabaseIsUnchangedTest() throws GattException {
+        subscribe(bondedDevice);
+        handler.onDeviceDisconnected(bondedDevice);
+
+        /* Services are added back after adapter restart with the same layout */
+        handler.onDatabaseChanged(SECOND_HASH);
+        handler.onDatabaseChanged(FIRST_HASH);
+        subscribe(bondedDevice);
+
+        verify(callback, never()).indicateDevice(any(), any());
+    }
+
+    @Test
+    public void knownHashSurvivesHandlerRestartTest() throws GattException {
+        subscribe(bondedDevice);
+
+        GenericAttributeServiceRequestHandler restartedHandler =
+                new GenericAttributeServiceRequestHandler(RuntimeEnvironment.application);
+        restartedHandler.onServiceAdded(callback);
+        restartedHandler.onDatabaseChanged(SECOND_HASH);
+        restartedHandler.onDescriptorWrite(bondedDevice, serviceChangedConfiguration, 0,
+                BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
+
+        verify(callback).indicateDevice(eq(bondedDevice), any());
+    }
+
+    @Test
+    public void unsubscribedDeviceIsNotIndicatedTest() throws GattException {
+        subscribe(device);
+        handler.onDescriptorWrite(device, serviceChangedConfiguration, 0,
+                BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+
+        assertArrayEquals(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE,
+                handler.onDescriptorRead(device, serviceChangedConfiguration, 0));
+        handler.onDatabaseChanged(SECOND_HASH);
+        verify(callback, never()).indicateDevice(any(), any());
+    }
+
+    @Test
+    public void notificationsAreRejectedTest() {
+        try {
+            handler.onDescriptorWrite(device, serviceChangedConfiguration, 0,
+                    BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+            fail("Notifications must be rejected");
+        } catch (GattException e) {
+            assertEquals(ClientCharacteristicConfigurationDescriptor.CCCD_IMPROPERLY_CONFIGURED, e.getStatus());
+        }
+        assertArrayEquals(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE,
+                handler.onDescriptorRead(device, serviceChangedConfiguration, 0));
+    }
+
+    private void subscribe(BluetoothDevice device) throws GattException {
+        handler.onDescriptorWrite(device, serviceChangedConfiguration, 0,
+                BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
+    }
+
+    private static byte[] hash(int value) {
+        byte[] hash = new byte[16];
+        Arrays.fill(hash, (byte) value);
+        return hash;
+    }
+}
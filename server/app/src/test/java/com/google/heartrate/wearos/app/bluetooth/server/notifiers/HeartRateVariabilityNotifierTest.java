@@ -0,0 +1,165 @@
+package com.google.heartrate.wearos.app.bluetooth.server.notifiers;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.os.Build;
+
+import com.google.heartrate.wearos.app.bluetooth.server.BluetoothDeviceStorage;
+import com.google.heartrate.wearos.app.bluetooth.server.BluetoothServerCallback;
+import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.HeartRateVariabilitySummary;
+import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.HeartRateVariabilitySummaryCharacteristic;
+import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.HeartRateVariabilitySummaryCodec;
+import com.google.heartrate.wearos.app.sensors.HeartRateSensorListener;
+import com.google.heartrate.wearos.app.sensors.HeartRateVariability;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE)
+public class HeartRateVariabilityNotifierTest {
+
+    private HeartRateSensorListener sensorListener;
+    private BluetoothServerCallback callback;
+    private BluetoothDeviceStorage deviceStorage;
+    private HeartRateVariabilityNotifier notifier;
+    private BluetoothDevice firstDevice;
+    private BluetoothDevice secondDevice;
+
+    /** Statistics returned by sensor, null if sensor has none. */
+    private HeartRateVariability statistics;
+
+    /** Summaries decoded from notified values by device. */
+    private final Map<BluetoothDevice, HeartRateVariabilitySummary> summaryByDevice = new HashMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        firstDevice = adapter.getRemoteDevice("00:11:22:33:44:55");
+        secondDevice = adapter.getRemoteDevice("00:11:22:33:44:66");
+
+        statistics = new HeartRateVariability();
+        statistics.windowSeconds = 60;
+        statistics.intervalCount = 70;
+        statistics.differenceCount = 69;
+        statistics.sequence = 70;
+        statistics.meanNnMs = 857.42;
+        statistics.sdnnMs = 48.26;
+        statistics.rmssdMs = 31.04;
+        statistics.pnn50 = 0.12345;
+
+        sensorListener = mock(HeartRateSensorListener.class);
+        when(sensorListener.getHeartRateVariability(any())).thenAnswer(invocation -> {
+            if (statistics == null) {
+                return false;
+            }
+            HeartRateVariability target = invocation.getArgument(0);
+            target.windowSeconds = statistics.windowSeconds;
+            target.intervalCount = statistics.intervalCount;
+            target.differenceCount = statistics.differenceCount;
+            target.sequence = statistics.sequence;
+            target.meanNnMs = statistics.meanNnMs;
+            target.sdnnMs = statistics.sdnnMs;
+            target.rmssdMs = statistics.rmssdMs;
+            target.pnn50 = statistics.pnn50;
+            return true;
+        });
+
+        callback = mock(BluetoothServerCallback.class);
+        doAnswer(invocation -> {
+            BluetoothDevice device = invocation.getArgument(0);
+            BluetoothGattCharacteristic characteristic = invocation.getArgument(1);
+            byte[] value = characteristic.getValue();
+            HeartRateVariabilitySummary summary = new HeartRateVariabilitySummary();
+            HeartRateVariabilitySummaryCodec.decode(value, 0, value.length, summary);
+            summaryByDevice.put(device, summary);
+            return true;
+        }).when(callback).notifyDevice(any(), any());
+
+        deviceStorage = new BluetoothDeviceStorage();
+        notifier = new HeartRateVariabilityNotifier(new HeartRateVariabilitySummaryCharacteristic(),
+                sensorListener, deviceStorage);
+    }
+
+    @Test
+    public void summaryCarriesStatisticsTest() {
+        deviceStorage.addDevice(firstDevice);
+
+        notifier.notifyDevices(callback, deviceStorage.getAllDevices());
+
+        HeartRateVariabilitySummary summary = summaryByDevice.get(firstDevice);
+        assertEquals(HeartRateVariabilitySummary.VERSION, summary.version);
+        assertEquals(60, summary.windowLength);
+        assertEquals(70, summary.intervalCount);
+        assertEquals(857, summary.meanNn);
+        assertEquals(483, summary.sdnn);
+        assertEquals(310, summary.rmssd);
+        assertEquals(1235, summary.pnn50);
+    }
+
+    @Test
+    public void outOfRangeStatisticsSaturateTest() {
+        statistics.sdnnMs = 10_000;
+        deviceStorage.addDevice(firstDevice);
+
+        notifier.notifyDevices(callback, deviceStorage.getAllDevices());
+
+        assertEquals(0xFFFF, summaryByDevice.get(firstDevice).sdnn);
+    }
+
+    @Test
+    public void summaryIsNotResentWithoutNewBeatsTest() {
+        deviceStorage.addDevice(firstDevice);
+        deviceStorage.addDevice(secondDevice);
+
+        notifier.notifyDevices(callback, Collections.singleton(firstDevice));
+        notifier.notifyDevices(callback, deviceStorage.getAllDevices());
+
+        verify(callback, times(1)).notifyDevice(eq(firstDevice), any());
+        verify(callback, times(1)).notifyDevice(eq(secondDevice), any());
+
+        statistics.sequence++;
+        notifier.notifyDevices(callback, Collections.singleton(firstDevice));
+
+        verify(callback, times(2)).notifyDevice(eq(firstDevice), any());
+    }
+
+    @Test
+    public void reconnectedDeviceGetsSummaryAgainTest() {
+        deviceStorage.addDevice(firstDevice);
+        notifier.notifyDevices(callback, deviceStorage.getAllDevices());
+
+        notifier.onDeviceDisconnected(firstDevice);
+        notifier.notifyDevices(callback, deviceStorage.getAllDevices());
+
+        verify(callback, times(2)).notifyDevice(eq(firstDevice), any());
+    }
+
+    @Test
+    public void nothingIsSentWithoutStatisticsTest() {
+        statistics = null;
+        deviceStorage.addDevice(firstDevice);
+
+        notifier.notifyDevices(callback, deviceStorage.getAllDevices());
+
+        verify(callback, never()).notifyDevice(any(), any());
+    }
+}
@@ -0,0 +1,234 @@
+package com.google.heartrate.wearos.app.bluetooth.server.notifiers;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.os.Build;
+
+import com.google.heartrate.wearos.app.bluetooth.server.GattEventLoop;
+import com.google.heartrate.wearos.app.power.WakeLockScheduler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class NotificationSchedulerTest {
+
+    private final GattEventLoop eventLoop = new GattEventLoop();
+    private WakeLockScheduler wakeLockScheduler;
+    private NotificationScheduler scheduler;
+    private BluetoothDevice firstDevice;
+    private BluetoothDevice secondDevice;
+
+    /** Delays and tasks of scheduled wakeups, in order they were scheduled. */
+    private final List<Long> wakeupDelays = new ArrayList<>();
+    private final List<Runnable> wakeupTasks = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        firstDevice = adapter.getRemoteDevice("00:11:22:33:44:55");
+        secondDevice = adapter.getRemoteDevice("00:11:22:33:44:66");
+
+        wakeLockScheduler = mock(WakeLockScheduler.class);
+        when(wakeLockScheduler.scheduleWakeup(anyLong(), any())).thenAnswer(invocation -> {
+            wakeupDelays.add(invocation.getArgument(0));
+            wakeupTasks.add(invocation.getArgument(1));
+            return mock(WakeLockScheduler.Wakeup.class);
+        });
+        eventLoop.start();
+        scheduler = new NotificationScheduler(wakeLockScheduler, eventLoop);
+    }
+
+    @After
+    public void tearDown() {
+        eventLoop.quitSafely();
+    }
+
+    @Test
+    public void clientsDueInOneTickShareWakeupTest() throws Exception {
+        RecordingClient firstClient = new RecordingClient();
+        RecordingClient secondClient = new RecordingClient();
+        NotificationScheduler.Entry firstEntry = new NotificationScheduler.Entry(firstClient, firstDevice);
+        NotificationScheduler.Entry secondEntry = new NotificationScheduler.Entry(secondClient, secondDevice);
+
+        scheduler.schedule(firstEntry, 1);
+        scheduler.schedule(secondEntry, 1);
+        assertEquals(1, wakeupTasks.size());
+
+        ShadowLooper.idleMainLooper(NotificationScheduler.TICK_MS, TimeUnit.MILLISECONDS);
+        fireWakeup(0);
+
+        assertEquals(1, firstClient.batches.size());
+        assertSame(firstDevice, firstClient.batches.get(0).get(0).getDevice());
+        assertEquals(1, secondClient.batches.size());
+        assertSame(secondDevice, secondClient.batches.get(0).get(0).getDevice());
+        assertTrue(scheduler.isEmpty());
+    }
+
+    @Test
+    public void rescheduledEntriesGetOneWakeupTest() throws Exception {
+        RecordingClient client = new RecordingClient(2);
+        scheduler.schedule(new NotificationScheduler.Entry(client, firstDevice), 1);
+        scheduler.schedule(new NotificationScheduler.Entry(client, secondDevice), 1);
+
+        ShadowLooper.idleMainLooper(NotificationScheduler.TICK_MS, TimeUnit.MILLISECONDS);
+        fireWakeup(0);
+
+        assertEquals(1, client.batches.size());
+        assertEquals(2, client.batches.get(0).size());
+        assertEquals(2, scheduler.size());
+        /* Rescheduling inside batch schedules the next wakeup once */
+        assertEquals(2, wakeupTasks.size());
+        assertEquals(2 * NotificationScheduler.TICK_MS, (long) wakeupDelays.get(1));
+    }
+
+    @Test
+    public void cancelLastEntryCancelsWakeupTest() throws Exception {
+        RecordingClient client = new RecordingClient();
+        NotificationScheduler.Entry entry = new NotificationScheduler.Entry(client, firstDevice);
+        scheduler.schedule(entry, 1);
+
+        scheduler.cancel(entry);
+
+        assertFalse(entry.isScheduled());
+        verify(wakeLockScheduler).cancelWakeup(any());
+        fireWakeup(0);
+        assertTrue(client.batches.isEmpty());
+    }
+
+    @Test
+    public void idleSchedulerCountsDelayFromNowTest() {
+        ShadowLooper.idleMainLooper(10 * NotificationScheduler.TICK_MS, TimeUnit.MILLISECONDS);
+
+        scheduler.schedule(new NotificationScheduler.Entry(new RecordingClient(), firstDevice), 2);
+
+        long delayMs = wakeupDelays.get(0);
+        assertTrue(String.format("Delay %d ms", delayMs), delayMs > NotificationScheduler.TICK_MS);
+        assertTrue(String.format("Delay %d ms", delayMs), delayMs <= 2 * NotificationScheduler.TICK_MS);
+    }
+
+    @Test
+    public void delayCountsFromNowWhileWakeupIsPendingTest() throws Exception {
+        RecordingClient client = new RecordingClient();
+        NotificationScheduler.Entry firstEntry = new NotificationScheduler.Entry(client, firstDevice);
+        NotificationScheduler.Entry secondEntry = new NotificationScheduler.Entry(client, secondDevice);
+        scheduler.schedule(firstEntry, 1);
+        /* Wakeup of the first entry is late, so wheel is still at tick 0 */
+        ShadowLooper.idleMainLooper(3 * NotificationScheduler.TICK_MS, TimeUnit.MILLISECONDS);
+
+        scheduler.schedule(secondEntry, 2);
+
+        assertEquals(2, scheduler.getRemainingTicks(secondEntry));
+        fireWakeup(0);
+        assertEquals(1, client.batches.size());
+        assertEquals(1, client.batches.get(0).size());
+        assertSame(firstDevice, client.batches.get(0).get(0).getDevice());
+        assertTrue(secondEntry.isScheduled());
+        assertEquals(2 * NotificationScheduler.TICK_MS, (long) wakeupDelays.get(1));
+    }
+
+    @Test
+    public void wakeupRejectedByFullMailboxIsRetriedTest() throws Exception {
+        GattEventLoop smallEventLoop = new GattEventLoop(4);
+        smallEventLoop.start();
+        try {
+            NotificationScheduler smallScheduler = new NotificationScheduler(wakeLockScheduler, smallEventLoop);
+            RecordingClient client = new RecordingClient();
+            smallScheduler.schedule(new NotificationScheduler.Entry(client, firstDevice), 1);
+            ShadowLooper.idleMainLooper(NotificationScheduler.TICK_MS, TimeUnit.MILLISECONDS);
+
+            /* Loop is busy with one event while the rest of events fill its mailbox */
+            CountDownLatch busy = new CountDownLatch(1);
+            CountDownLatch unblock = new CountDownLatch(1);
+            assertTrue(smallEventLoop.post(() -> {
+                busy.countDown();
+                try {
+                    unblock.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            assertTrue(busy.await(10, TimeUnit.SECONDS));
+            while (smallEventLoop.post(() -> { })) {
+                /* Fill mailbox */
+            }
+
+            wakeupTasks.get(0).run();
+
+            assertEquals(2, wakeupTasks.size());
+            assertTrue(client.batches.isEmpty());
+
+            unblock.countDown();
+            CountDownLatch drained = new CountDownLatch(1);
+            while (!smallEventLoop.post(drained::countDown)) {
+                Thread.yield();
+            }
+            assertTrue(drained.await(10, TimeUnit.SECONDS));
+            wakeupTasks.get(1).run();
+            CountDownLatch handled = new CountDownLatch(1);
+            assertTrue(smallEventLoop.post(handled::countDown));
+            assertTrue(handled.await(10, TimeUnit.SECONDS));
+
+            assertEquals(1, client.batches.size());
+            assertEquals(2, wakeupTasks.size());
+        } finally {
+            smallEventLoop.quitSafely();
+        }
+    }
+
+    private void fireWakeup(int index) throws InterruptedException {
+        wakeupTasks.get(index).run();
+        CountDownLatch latch = new CountDownLatch(1);
+        assertTrue(eventLoop.post(latch::countDown));
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Client which records due batches and reschedules due entries with given period.
+     */
+    private class RecordingClient implements NotificationScheduler.Client {
+        private final List<List<NotificationScheduler.Entry>> batches = new ArrayList<>();
+        private final long periodTicks;
+
+        private RecordingClient() {
+            this(0);
+        }
+
+        private RecordingClient(long periodTicks) {
+            this.periodTicks = periodTicks;
+        }
+
+        @Override
+        public void onEntriesDue(List<NotificationScheduler.Entry> dueEntries, long nowMs) {
+            batches.add(new ArrayList<>(dueEntries));
+            if (periodTicks > 0) {
+                for (NotificationScheduler.Entry entry : dueEntries) {
+                    scheduler.schedule(entry, periodTicks);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.google.heartrate.wearos.app.bluetooth.server.notifiers;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.os.Build;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE)
+public class NotificationSuppressorTest {
+
+    private static final int MIN_CHANGE = 2;
+    private static final long MAX_SILENCE_TICKS = 60;
+
+    private NotificationSuppressor suppressor;
+    private BluetoothDevice firstDevice;
+    private BluetoothDevice secondDevice;
+
+    @Before
+    public void setUp() {
+        suppressor = new NotificationSuppressor(MIN_CHANGE, MAX_SILENCE_TICKS);
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        firstDevice = adapter.getRemoteDevice("00:11:22:33:44:55");
+        secondDevice = adapter.getRemoteDevice("00:11:22:33:44:66");
+    }
+
+    @Test
+    public void newSubscriberIsNotifiedTest() {
+        Set<BluetoothDevice> subscribers = Collections.singleton(firstDevice);
+
+        assertEquals(subscribers, suppressor.selectDevices(subscribers, 70, 0));
+    }
+
+    @Test
+    public void smallChangeIsSuppressedTest() {
+        Set<BluetoothDevice> subscribers = Collections.singleton(firstDevice);
+        send(subscribers, 70, 0);
+
+        assertTrue(suppressor.selectDevices(subscribers, 70, 1).isEmpty());
+        assertTrue(suppressor.selectDevices(subscribers, 71, 2).isEmpty());
+        assertEquals(subscribers, suppressor.selectDevices(subscribers, 72, 3));
+    }
+
+    @Test
+    public void driftIsMeasuredFromLastSentValueTest() {
+        Set<BluetoothDevice> subscribers = Collections.singleton(firstDevice);
+        send(subscribers, 70, 0);
+
+        assertTrue(suppressor.selectDevices(subscribers, 71, 1).isEmpty());
+        assertTrue(suppressor.selectDevices(subscribers, 69, 2).isEmpty());
+        assertEquals(subscribers, suppressor.selectDevices(subscribers, 68, 3));
+    }
+
+    @Test
+    public void keepAliveIsSentAfterMaxSilenceTest() {
+        Set<BluetoothDevice> subscribers = Collections.singleton(firstDevice);
+        send(subscribers, 70, 0);
+
+        assertTrue(suppressor.selectDevices(subscribers, 71, MAX_SILENCE_TICKS - 1).isEmpty());
+        assertEquals(subscribers, suppressor.selectDevices(subscribers, 71, MAX_SILENCE_TICKS));
+    }
+
+    @Test
+    public void stateIsKeptPerSubscriberTest() {
+        send(Collections.singleton(firstDevice), 70, 0);
+        Set<BluetoothDevice> subscribers = new HashSet<>(Arrays.asList(firstDevice, secondDevice));
+
+        assertEquals(Collections.singleton(secondDevice), suppressor.selectDevices(subscribers, 71, 1));
+    }
+
+    @Test
+    public void resubscribedDeviceIsNotifiedTest() {
+        Set<BluetoothDevice> subscribers = Collections.singleton(firstDevice);
+        send(subscribers, 70, 0);
+        send(Collections.emptySet(), 70, 1);
+
+        assertEquals(subscribers, suppressor.selectDevices(subscribers, 70, 2));
+    }
+
+    @Test
+    public void valueWhichHasNotBeenSentIsSelectedAgainTest() {
+        Set<BluetoothDevice> subscribers = Collections.singleton(firstDevice);
+        send(subscribers, 70, 0);
+
+        /* Change is selected, but notification fails */
+        assertEquals(subscribers, suppressor.selectDevices(subscribers, 75, 1));
+
+        assertEquals(subscribers, suppressor.selectDevices(subscribers, 75, 2));
+    }
+
+    @Test
+    public void keepAliveIsSentOnTickOfExactSilencePeriodTest() {
+        Set<BluetoothDevice> subscribers = Collections.singleton(firstDevice);
+        long periodTicks = MAX_SILENCE_TICKS / 2;
+        send(subscribers, 70, 0);
+
+        /* Device due every half of silence period gets keep-alive on its second tick, not third */
+        assertTrue(suppressor.selectDevices(subscribers, 70, periodTicks).isEmpty());
+        assertEquals(subscribers, suppressor.selectDevices(subscribers, 70, 2 * periodTicks));
+    }
+
+    /**
+     * Select devices and remember value as sent to every selected device.
+     */
+    private void send(Set<BluetoothDevice> subscribers, int value, long nowTick) {
+        for (BluetoothDevice device : suppressor.selectDevices(subscribers, value, nowTick)) {
+            suppressor.onSent(device, value, nowTick);
+        }
+    }
+}
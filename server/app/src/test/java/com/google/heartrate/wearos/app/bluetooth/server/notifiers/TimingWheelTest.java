@@ -0,0 +1,108 @@
+package com.google.heartrate.wearos.app.bluetooth.server.notifiers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelTest {
+
+    private static final long START_TICK = 1_000;
+
+    private final TimingWheel<String> wheel = new TimingWheel<>(START_TICK);
+    private final List<String> expired = new ArrayList<>();
+
+    @Test
+    public void timersExpireInOrderTest() {
+        wheel.schedule(new TimingWheel.Timer<>("late"), 5);
+        wheel.schedule(new TimingWheel.Timer<>("early"), 2);
+
+        wheel.advance(START_TICK + 1, expired);
+        assertTrue(expired.isEmpty());
+
+        wheel.advance(START_TICK + 5, expired);
+        assertEquals(Arrays.asList("early", "late"), expired);
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void timersCascadeFromUpperLevelsTest() {
+        long[] delays = {63, 64, 65, 4095, 4096, 4097, TimingWheel.MAX_DELAY_TICKS};
+        for (long delay : delays) {
+            TimingWheel.Timer<String> timer = new TimingWheel.Timer<>(Long.toString(delay));
+            wheel.schedule(timer, delay);
+            assertEquals(START_TICK + delay, timer.getExpirationTick());
+        }
+
+        for (long delay : delays) {
+            assertEquals(START_TICK + delay, wheel.getNextExpirationTick());
+            wheel.advance(START_TICK + delay - 1, expired);
+            assertTrue(expired.isEmpty());
+            wheel.advance(START_TICK + delay, expired);
+            assertEquals(Collections.singletonList(Long.toString(delay)), expired);
+            expired.clear();
+        }
+        assertEquals(Long.MAX_VALUE, wheel.getNextExpirationTick());
+    }
+
+    @Test
+    public void cancelledTimerDoesNotExpireTest() {
+        TimingWheel.Timer<String> timer = new TimingWheel.Timer<>("cancelled");
+        wheel.schedule(timer, 10);
+
+        wheel.cancel(timer);
+        wheel.advance(START_TICK + 10, expired);
+
+        assertFalse(timer.isScheduled());
+        assertTrue(expired.isEmpty());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void rescheduledTimerExpiresOnceTest() {
+        TimingWheel.Timer<String> timer = new TimingWheel.Timer<>("timer");
+        wheel.schedule(timer, 100);
+        wheel.schedule(timer, 3);
+
+        wheel.advance(START_TICK + 200, expired);
+
+        assertEquals(Collections.singletonList("timer"), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void randomTimersExpireAtTheirTicksTest() {
+        Random random = new Random(42);
+        List<TimingWheel.Timer<String>> timers = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            TimingWheel.Timer<String> timer = new TimingWheel.Timer<>(Integer.toString(i));
+            wheel.schedule(timer, 1 + random.nextInt(10_000));
+            timers.add(timer);
+        }
+
+        long tick = START_TICK;
+        while (!wheel.isEmpty()) {
+            long next = wheel.getNextExpirationTick();
+            assertTrue(next > tick);
+            tick = next;
+            wheel.advance(tick, expired);
+            assertFalse(expired.isEmpty());
+            for (String item : expired) {
+                assertEquals(tick, timers.get(Integer.parseInt(item)).getExpirationTick());
+            }
+            expired.clear();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void delayAboveMaximumIsRejectedTest() {
+        wheel.schedule(new TimingWheel.Timer<>("timer"), TimingWheel.MAX_DELAY_TICKS + 1);
+    }
+}
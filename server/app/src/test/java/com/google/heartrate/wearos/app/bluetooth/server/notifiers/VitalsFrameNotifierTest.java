@@ -0,0 +1,240 @@
+package com.google.heartrate.wearos.app.bluetooth.server.notifiers;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.os.Build;
+
+import com.google.heartrate.wearos.app.bluetooth.server.BluetoothDeviceLink;
+import com.google.heartrate.wearos.app.bluetooth.server.BluetoothDeviceStorage;
+import com.google.heartrate.wearos.app.bluetooth.server.BluetoothServerCallback;
+import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.VitalsFrame;
+import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.VitalsFrameCharacteristic;
+import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.VitalsFrameCodec;
+import com.google.heartrate.wearos.app.sensors.HeartRateSensorListener;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE)
+public class VitalsFrameNotifierTest {
+
+    private static final int HEART_RATE = 72;
+    private static final long HEART_RATE_TIME_MS = 1_600_000_000_500L;
+
+    /** Payload size of device which negotiated the largest LE Data Length. */
+    private static final int LARGE_PAYLOAD_SIZE = 244;
+
+    /** Number of RR-Intervals collected between ticks. */
+    private static final int RR_INTERVAL_COUNT = 20;
+
+    private HeartRateSensorListener sensorListener;
+    private BluetoothServerCallback callback;
+    private BluetoothDeviceStorage deviceStorage;
+    private VitalsFrameNotifier notifier;
+    private BluetoothDevice firstDevice;
+    private BluetoothDevice secondDevice;
+
+    /** Frames decoded from notified values by device. */
+    private final Map<BluetoothDevice, VitalsFrame> frameByDevice = new HashMap<>();
+
+    /** Number of RR-Intervals drained from sensor, every interval is 800 plus its number. */
+    private int drainedCount;
+
+    /** Notified values by device. */
+    private final Map<BluetoothDevice, byte[]> valueByDevice = new HashMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        firstDevice = adapter.getRemoteDevice("00:11:22:33:44:55");
+        secondDevice = adapter.getRemoteDevice("00:11:22:33:44:66");
+
+        sensorListener = mock(HeartRateSensorListener.class);
+        when(sensorListener.peekCurrentHeartRateValue()).thenReturn(HEART_RATE);
+        when(sensorListener.getCurrentHeartRateTimeMs()).thenReturn(HEART_RATE_TIME_MS);
+        when(sensorListener.isSensorContactDetected()).thenReturn(true);
+        when(sensorListener.drainRrIntervals(any())).thenAnswer(invocation -> {
+            int[] target = invocation.getArgument(0);
+            for (int i = 0; i < RR_INTERVAL_COUNT; i++) {
+                target[i] = 800 + drainedCount++;
+            }
+            return RR_INTERVAL_COUNT;
+        });
+
+        callback = mock(BluetoothServerCallback.class);
+        doAnswer(invocation -> {
+            BluetoothDevice device = invocation.getArgument(0);
+            BluetoothGattCharacteristic characteristic = invocation.getArgument(1);
+            byte[] value = characteristic.getValue().clone();
+            VitalsFrame frame = new VitalsFrame();
+            VitalsFrameCodec.decode(value, 0, value.length, frame);
+            valueByDevice.put(device, value);
+            frameByDevice.put(device, frame);
+            return true;
+        }).when(callback).notifyDevice(any(), any());
+
+        deviceStorage = new BluetoothDeviceStorage();
+        notifier = new VitalsFrameNotifier(new VitalsFrameCharacteristic(), sensorListener, deviceStorage);
+    }
+
+    @Test
+    public void frameCarriesSensorValuesTest() throws Exception {
+        deviceStorage.addDevice(firstDevice);
+
+        notifier.notifyDevices(callback, deviceStorage.getAllDevices());
+
+        VitalsFrame frame = frameByDevice.get(firstDevice);
+        assertEquals(VitalsFrame.VERSION, frame.version);
+        assertEquals(HEART_RATE, frame.heartRate);
+        assertEquals(HEART_RATE_TIME_MS / 1000, frame.timestamp);
+        assertEquals(VitalsFrame.SENSOR_CONTACT_SUPPORTED_FLAG | VitalsFrame.SENSOR_CONTACT_DETECTED_FLAG,
+                frame.flags & (VitalsFrame.SENSOR_CONTACT_SUPPORTED_FLAG | VitalsFrame.SENSOR_CONTACT_DETECTED_FLAG));
+        assertEquals(0, frame.flags & VitalsFrame.ENERGY_EXPENDED_FLAG);
+    }
+
+    @Test
+    public void frameIsSizedToDefaultMtuTest() throws Exception {
+        deviceStorage.addDevice(firstDevice);
+
+        notifier.notifyDevices(callback, deviceStorage.getAllDevices());
+
+        byte[] value = valueByDevice.get(firstDevice);
+        VitalsFrame frame = frameByDevice.get(firstDevice);
+        assertTrue(value.length <= BluetoothDeviceLink.DEFAULT_MAX_NOTIFICATION_PAYLOAD_SIZE);
+        assertTrue(frame.rrIntervalCount > 0 && frame.rrIntervalCount < RR_INTERVAL_COUNT);
+        assertIntervalsFrom(0, frame);
+    }
+
+    @Test
+    public void frameIsSizedToMtuOfEveryDeviceTest() throws Exception {
+        BluetoothDeviceLink largeLink = mock(BluetoothDeviceLink.class);
+        when(largeLink.getMaxNotificationPayloadSize()).thenReturn(LARGE_PAYLOAD_SIZE);
+        when(callback.getDeviceLink(secondDevice)).thenReturn(largeLink);
+        deviceStorage.addDevice(firstDevice);
+        deviceStorage.addDevice(secondDevice);
+
+        notifier.notifyDevices(callback, deviceStorage.getAllDevices());
+
+        assertTrue(frameByDevice.get(firstDevice).rrIntervalCount < RR_INTERVAL_COUNT);
+        assertEquals(RR_INTERVAL_COUNT, frameByDevice.get(secondDevice).rrIntervalCount);
+        assertIntervalsFrom(0, frameByDevice.get(firstDevice));
+        assertIntervalsFrom(0, frameByDevice.get(secondDevice));
+    }
+
+    @Test
+    public void frameWithoutIntervalsHasNoIntervalFlagTest() throws Exception {
+        doReturn(0).when(sensorListener).drainRrIntervals(any());
+        deviceStorage.addDevice(firstDevice);
+
+        notifier.notifyDevices(callback, deviceStorage.getAllDevices());
+
+        VitalsFrame frame = frameByDevice.get(firstDevice);
+        assertEquals(0, frame.flags & VitalsFrame.RR_INTERVAL_FLAG);
+        assertEquals(0, frame.rrIntervalCount);
+    }
+
+    @Test
+    public void slowDeviceGetsIntervalsSinceItsPreviousFrameTest() throws Exception {
+        BluetoothDeviceLink largeLink = mock(BluetoothDeviceLink.class);
+        when(largeLink.getMaxNotificationPayloadSize()).thenReturn(LARGE_PAYLOAD_SIZE);
+        when(callback.getDeviceLink(any())).thenReturn(largeLink);
+        deviceStorage.addDevice(firstDevice);
+        deviceStorage.addDevice(secondDevice);
+
+        notifier.notifyDevices(callback, Collections.singleton(firstDevice));
+        notifier.notifyDevices(callback, deviceStorage.getAllDevices());
+
+        assertEquals(RR_INTERVAL_COUNT, frameByDevice.get(firstDevice).rrIntervalCount);
+        assertEquals(2 * RR_INTERVAL_COUNT, frameByDevice.get(secondDevice).rrIntervalCount);
+        assertIntervalsFrom(RR_INTERVAL_COUNT, frameByDevice.get(firstDevice));
+        assertIntervalsFrom(0, frameByDevice.get(secondDevice));
+    }
+
+    @Test
+    public void intervalsWhichDoNotFitAreSentWithNextFramesTest() throws Exception {
+        deviceStorage.addDevice(firstDevice);
+        List<Integer> sentIntervals = new ArrayList<>();
+
+        for (int tick = 0; tick < 10; tick++) {
+            notifier.notifyDevices(callback, deviceStorage.getAllDevices());
+            VitalsFrame frame = frameByDevice.get(firstDevice);
+            for (int i = 0; i < frame.rrIntervalCount; i++) {
+                sentIntervals.add(frame.rrIntervals[i]);
+            }
+        }
+
+        /* Frame of default MTU is smaller than intervals of a tick, so backlog grows, but nothing is skipped */
+        assertTrue(sentIntervals.size() < drainedCount);
+        for (int i = 0; i < sentIntervals.size(); i++) {
+            assertEquals(800 + i, (int) sentIntervals.get(i));
+        }
+    }
+
+    @Test
+    public void deviceTooFarBehindLosesOldestIntervalsTest() throws Exception {
+        BluetoothDeviceLink largeLink = mock(BluetoothDeviceLink.class);
+        when(largeLink.getMaxNotificationPayloadSize()).thenReturn(LARGE_PAYLOAD_SIZE);
+        when(callback.getDeviceLink(any())).thenReturn(largeLink);
+        deviceStorage.addDevice(firstDevice);
+        notifier.notifyDevices(callback, Collections.emptySet());
+
+        /* Device is not due until more intervals are collected than history keeps */
+        while (drainedCount <= VitalsFrameNotifier.RR_INTERVAL_HISTORY_SIZE + RR_INTERVAL_COUNT) {
+            notifier.notifyDevices(callback, Collections.emptySet());
+        }
+        notifier.notifyDevices(callback, deviceStorage.getAllDevices());
+
+        VitalsFrame frame = frameByDevice.get(firstDevice);
+        assertEquals(VitalsFrame.MAX_RR_INTERVAL_COUNT, frame.rrIntervalCount);
+        assertIntervalsFrom(drainedCount - VitalsFrameNotifier.RR_INTERVAL_HISTORY_SIZE, frame);
+    }
+
+    @Test
+    public void intervalsAreDrainedWithoutDueDevicesTest() throws Exception {
+        notifier.notifyDevices(callback, Collections.emptySet());
+
+        verify(sensorListener).drainRrIntervals(any());
+        verify(callback, never()).notifyDevice(any(), any());
+    }
+
+    @Test
+    public void nothingIsSentWithoutSensorValueTest() throws Exception {
+        when(sensorListener.peekCurrentHeartRateValue()).thenReturn(HeartRateSensorListener.NO_VALUE_AVAILABLE);
+        deviceStorage.addDevice(firstDevice);
+
+        notifier.notifyDevices(callback, deviceStorage.getAllDevices());
+
+        verify(sensorListener).drainRrIntervals(any());
+        verify(callback, never()).notifyDevice(any(), any());
+    }
+
+    /**
+     * Assert that frame carries successive intervals starting from interval with given number.
+     */
+    private static void assertIntervalsFrom(int first, VitalsFrame frame) {
+        for (int i = 0; i < frame.rrIntervalCount; i++) {
+            assertEquals(800 + first + i, frame.rrIntervals[i]);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.google.heartrate.wearos.app.gatt.heartrate.characteristics;
+
+import com.google.heartrate.codec.GenerateRoundTripTests;
+
+/**
+ * Requests generated round-trip tests for codecs of characteristic layouts.
+ */
+@GenerateRoundTripTests({HeartRateMeasurement.class, VitalsFrame.class, HeartRateVariabilitySummary.class})
+class CodecRoundTripTests {
+}
@@ -1,7 +1,9 @@
 package com.google.heartrate.wearos.app.gatt.heartrate.characteristics;
 
+import android.bluetooth.BluetoothGatt;
 import android.os.Build;
 
+import com.google.heartrate.wearos.app.gatt.FormatUtils;
 import com.google.heartrate.wearos.app.gatt.GattException;
 
 import org.jetbrains.annotations.NotNull;
@@ -13,6 +15,7 @@ import org.robolectric.annotation.Config;
 
 import java.util.Optional;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThrows;
 
@@ -141,4 +144,34 @@ public class HeartRateMeasurementCharacteristicTest {
         characteristic.setHeartRateCharacteristicValue(heartRateUInt8Value, Optional.empty());
         assertThrows(GattException.class, () -> characteristic.getExpendedEnergyValue());
     }
+
+    @Test
+    public void trySetValueMatchesSetValueTest() throws GattException {
+        HeartRateMeasurementCharacteristic throwingCharacteristic = new HeartRateMeasurementCharacteristic();
+        int[] heartRateValues = {0, 70, 1 << 8, FormatUtils.MAX_UINT16};
+
+        for (int heartRate : heartRateValues) {
+            assertEquals(BluetoothGatt.GATT_SUCCESS, characteristic.trySetHeartRateCharacteristicValue(heartRate,
+                    HeartRateMeasurementCharacteristic.NO_EXPENDED_ENERGY));
+            throwingCharacteristic.setHeartRateCharacteristicValue(heartRate, Optional.empty());
+            assertArrayEquals(throwingCharacteristic.read(null, 0), characteristic.read(null, 0));
+
+            assertEquals(BluetoothGatt.GATT_SUCCESS, characteristic.trySetHeartRateCharacteristicValue(heartRate, 1234));
+            throwingCharacteristic.setHeartRateCharacteristicValue(heartRate, Optional.of(1234));
+            assertArrayEquals(throwingCharacteristic.read(null, 0), characteristic.read(null, 0));
+        }
+    }
+
+    @Test
+    public void trySetValueOutOfRangeReturnsFailureTest() throws GattException {
+        characteristic.setHeartRateCharacteristicValue(70, Optional.of(1234));
+
+        assertEquals(BluetoothGatt.GATT_FAILURE, characteristic.trySetHeartRateCharacteristicValue(
+                FormatUtils.MAX_UINT16 + 1, HeartRateMeasurementCharacteristic.NO_EXPENDED_ENERGY));
+        assertEquals(BluetoothGatt.GATT_FAILURE, characteristic.trySetHeartRateCharacteristicValue(
+                70, FormatUtils.MAX_UINT16 + 1));
+
+        assertEquals(70, characteristic.getHeartRateMeasurementValue());
+        assertEquals(1234, characteristic.getExpendedEnergyValue());
+    }
 }
@@ -0,0 +1,151 @@
+package com.google.heartrate.wearos.app.gatt.heartrate.characteristics;
+
+import android.os.Build;
+
+import com.google.heartrate.codec.CodecException;
+import com.google.heartrate.wearos.app.Benchmark;
+import com.google.heartrate.wearos.app.gatt.FormatUtils;
+import com.google.heartrate.wearos.app.gatt.GattException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compare generated {@link HeartRateMeasurementCodec} with handwritten {@link HeartRateMeasurementCharacteristic}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE)
+public class HeartRateMeasurementCodecTest {
+
+    /** Number of values encoded with the same measurement and buffer. */
+    private static final int REUSED_VALUE_COUNT = 1000;
+
+    /** Size of buffer which fits any Heart Rate Measurement value. */
+    private static final int BUFFER_SIZE = 5 + 2 * HeartRateMeasurement.MAX_RR_INTERVAL_COUNT;
+
+    /** Property with number of values to encode in comparison benchmark. */
+    private static final String BENCHMARK_VALUES_PROPERTY = "benchmark.codec.values";
+
+    private static final int[] HEART_RATE_VALUES = {0, 60, 255, 256, FormatUtils.MAX_UINT16};
+
+    private static final int[] EXPENDED_ENERGY_VALUES = {-1, 0, 1234, FormatUtils.MAX_UINT16};
+
+    @Test
+    public void generatedEncoderMatchesHandwrittenEncoderTest() throws GattException, CodecException {
+        HeartRateMeasurementCharacteristic characteristic = new HeartRateMeasurementCharacteristic();
+        HeartRateMeasurement measurement = new HeartRateMeasurement();
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        for (int heartRate : HEART_RATE_VALUES) {
+            for (int expendedEnergy : EXPENDED_ENERGY_VALUES) {
+                Optional<Integer> optionalExpendedEnergy =
+                        expendedEnergy < 0 ? Optional.empty() : Optional.of(expendedEnergy);
+                characteristic.setHeartRateCharacteristicValue(heartRate, optionalExpendedEnergy);
+
+                set(measurement, heartRate, expendedEnergy);
+                int size = HeartRateMeasurementCodec.encode(measurement, buffer, 0);
+
+                assertArrayEquals(characteristic.read(null, 0), Arrays.copyOf(buffer, size));
+            }
+        }
+    }
+
+    @Test
+    public void generatedDecoderReadsHandwrittenValueTest() throws GattException, CodecException {
+        HeartRateMeasurementCharacteristic characteristic = new HeartRateMeasurementCharacteristic();
+        characteristic.setHeartRateCharacteristicValue(300, Optional.of(1234));
+        byte[] value = characteristic.read(null, 0);
+
+        HeartRateMeasurement measurement = new HeartRateMeasurement();
+        assertEquals(value.length, HeartRateMeasurementCodec.decode(value, 0, value.length, measurement));
+        assertEquals(300, measurement.heartRate);
+        assertEquals(1234, measurement.energyExpended);
+        assertEquals(0, measurement.rrIntervalCount);
+    }
+
+    @Test
+    public void reusedMeasurementAndBufferEncodeEveryValueTest() throws GattException, CodecException {
+        HeartRateMeasurementCharacteristic characteristic = new HeartRateMeasurementCharacteristic();
+        HeartRateMeasurement measurement = new HeartRateMeasurement();
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        for (int i = 0; i < REUSED_VALUE_COUNT; i++) {
+            int heartRate = HEART_RATE_VALUES[i % HEART_RATE_VALUES.length];
+            /* Alternate values with and without expended energy, so stale fields would be encoded */
+            int expendedEnergy = i % 2 == 0 ? i & FormatUtils.MAX_UINT16 : -1;
+            Optional<Integer> optionalExpendedEnergy =
+                    expendedEnergy < 0 ? Optional.empty() : Optional.of(expendedEnergy);
+            characteristic.setHeartRateCharacteristicValue(heartRate, optionalExpendedEnergy);
+
+            set(measurement, heartRate, expendedEnergy);
+            int size = HeartRateMeasurementCodec.encode(measurement, buffer, 0);
+
+            assertArrayEquals(characteristic.read(null, 0), Arrays.copyOf(buffer, size));
+        }
+    }
+
+    @Test
+    public void encodeBenchmarkTest() throws Exception {
+        Benchmark benchmark = Benchmark.start("heart-rate-encoder", BENCHMARK_VALUES_PROPERTY);
+        HeartRateMeasurementCharacteristic characteristic = new HeartRateMeasurementCharacteristic();
+        HeartRateMeasurement measurement = new HeartRateMeasurement();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        Benchmark.Phase handwritten = count -> runHandwritten(characteristic, count);
+        Benchmark.Phase generated = count -> runGenerated(measurement, buffer, count);
+
+        benchmark.warmUp(handwritten, generated);
+        benchmark.measure("handwritten", handwritten);
+        benchmark.measure("generated", generated);
+        benchmark.writeReport();
+    }
+
+    /**
+     * @return number of encoded values
+     */
+    private static int runHandwritten(HeartRateMeasurementCharacteristic characteristic, int count)
+            throws GattException {
+        for (int i = 0; i < count; i++) {
+            characteristic.setHeartRateCharacteristicValue(HEART_RATE_VALUES[i % HEART_RATE_VALUES.length],
+                    Optional.of(i & FormatUtils.MAX_UINT16));
+        }
+        return count;
+    }
+
+    /**
+     * @return total size of encoded values
+     */
+    private static long runGenerated(HeartRateMeasurement measurement, byte[] buffer, int count)
+            throws CodecException {
+        long size = 0;
+        for (int i = 0; i < count; i++) {
+            set(measurement, HEART_RATE_VALUES[i % HEART_RATE_VALUES.length], i & FormatUtils.MAX_UINT16);
+            size += HeartRateMeasurementCodec.encode(measurement, buffer, 0);
+        }
+        return size;
+    }
+
+    /**
+     * Set measurement fields and flags the way handwritten encoder does.
+     *
+     * @param expendedEnergy expended energy or negative if not present
+     */
+    private static void set(HeartRateMeasurement measurement, int heartRate, int expendedEnergy) {
+        measurement.flags = 0;
+        if (!FormatUtils.isInUInt8Range(heartRate)) {
+            measurement.flags |= HeartRateMeasurement.HEART_RATE_UINT16_FLAG;
+        }
+        if (expendedEnergy >= 0) {
+            measurement.flags |= HeartRateMeasurement.ENERGY_EXPENDED_FLAG;
+        }
+        measurement.heartRate = heartRate;
+        measurement.energyExpended = expendedEnergy;
+    }
+}
@@ -0,0 +1,74 @@
+package com.google.heartrate.wearos.app.metrics;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void counterIsCreatedOnceTest() {
+        MetricsRegistry metrics = new MetricsRegistry();
+
+        assertSame(metrics.counter("requests"), metrics.counter("requests"));
+    }
+
+    @Test
+    public void concurrentIncrementsAreNotLostTest() throws InterruptedException {
+        MetricsRegistry metrics = new MetricsRegistry();
+        int threadCount = 8;
+        int incrementCount = 10_000;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < incrementCount; j++) {
+                    metrics.increment("requests");
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(threadCount * incrementCount, metrics.counter("requests").get());
+    }
+
+    @Test
+    public void snapshotSamplesGaugesTest() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        AtomicLong connected = new AtomicLong(1);
+        metrics.gauge("devices.connected", connected::get);
+        metrics.counter("callback.onMtuChanged").add(3);
+
+        connected.set(2);
+        SortedMap<String, Long> snapshot = metrics.snapshot();
+
+        assertEquals(Long.valueOf(2), snapshot.get("devices.connected"));
+        assertEquals(Long.valueOf(3), snapshot.get("callback.onMtuChanged"));
+        assertEquals("callback.onMtuChanged", snapshot.firstKey());
+    }
+
+    @Test
+    public void dumpPrintsAllMetricsTest() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.increment("gatt.error.status.6");
+        metrics.gauge("sensor.samples_per_minute", () -> 60);
+        StringWriter output = new StringWriter();
+
+        metrics.dump(new PrintWriter(output));
+
+        assertTrue(output.toString().contains("gatt.error.status.6: 1"));
+        assertTrue(output.toString().contains("sensor.samples_per_minute: 60"));
+    }
+}
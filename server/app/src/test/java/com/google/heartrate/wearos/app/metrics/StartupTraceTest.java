@@ -0,0 +1,51 @@
+package com.google.heartrate.wearos.app.metrics;
+
+import android.os.Build;
+import android.os.SystemClock;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE)
+public class StartupTraceTest {
+
+    @Test
+    public void milestoneIsNotReachedUntilMarkedTest() {
+        StartupTrace trace = new StartupTrace();
+
+        assertEquals(-1, trace.getElapsedMs(StartupTrace.Milestone.FIRST_NOTIFICATION));
+    }
+
+    @Test
+    public void onlyFirstMarkIsRecordedTest() {
+        StartupTrace trace = new StartupTrace();
+        SystemClock.sleep(100);
+        trace.mark(StartupTrace.Milestone.FIRST_CONNECTION);
+        SystemClock.sleep(200);
+        trace.mark(StartupTrace.Milestone.FIRST_CONNECTION);
+
+        assertEquals(100, trace.getElapsedMs(StartupTrace.Milestone.FIRST_CONNECTION));
+    }
+
+    @Test
+    public void dumpPrintsAllMilestonesTest() {
+        StartupTrace trace = new StartupTrace();
+        SystemClock.sleep(50);
+        trace.mark(StartupTrace.Milestone.FIRST_ADVERTISEMENT);
+        StringWriter output = new StringWriter();
+
+        trace.dump(new PrintWriter(output));
+
+        assertTrue(output.toString().contains("Startup FIRST_ADVERTISEMENT: 50 ms"));
+        assertTrue(output.toString().contains("Startup FIRST_NOTIFICATION: not reached"));
+    }
+}
@@ -0,0 +1,156 @@
+package com.google.heartrate.wearos.app.power;
+
+import android.app.AlarmManager;
+import android.content.Context;
+import android.os.Build;
+import android.os.Looper;
+import android.os.PowerManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadow.api.Shadow;
+import org.robolectric.shadows.ShadowAlarmManager;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.shadows.ShadowPowerManager;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE)
+public class WakeLockSchedulerTest {
+
+    private final Object firstOwner = new Object();
+    private final Object secondOwner = new Object();
+
+    private WakeLockScheduler wakeLockScheduler;
+    private PowerManager.WakeLock wakeLock;
+    private ShadowAlarmManager alarmManager;
+
+    @Before
+    public void setUp() {
+        wakeLockScheduler = new WakeLockScheduler(RuntimeEnvironment.application, Looper.getMainLooper());
+        wakeLock = ShadowPowerManager.getLatestWakeLock();
+        alarmManager = Shadow.extract(RuntimeEnvironment.application.getSystemService(Context.ALARM_SERVICE));
+    }
+
+    @After
+    public void tearDown() {
+        wakeLockScheduler.close();
+    }
+
+    @Test
+    public void wakeLockIsHeldUntilEveryWindowIsReleasedTest() {
+        wakeLockScheduler.acquire();
+        wakeLockScheduler.acquire(firstOwner);
+        assertTrue(wakeLock.isHeld());
+
+        wakeLockScheduler.release();
+        assertTrue(wakeLock.isHeld());
+
+        wakeLockScheduler.release(firstOwner);
+        assertFalse(wakeLock.isHeld());
+    }
+
+    @Test
+    public void releaseAllOfOwnerKeepsWindowsOfOtherOwnersTest() {
+        wakeLockScheduler.acquire(firstOwner);
+        wakeLockScheduler.acquire(firstOwner);
+        wakeLockScheduler.acquire(secondOwner);
+
+        wakeLockScheduler.releaseAll(firstOwner);
+        assertTrue(wakeLock.isHeld());
+
+        wakeLockScheduler.release(secondOwner);
+        assertFalse(wakeLock.isHeld());
+    }
+
+    @Test
+    public void releaseOfOwnerWithoutWindowsKeepsWindowsOfOtherOwnersTest() {
+        wakeLockScheduler.acquire();
+        wakeLockScheduler.acquire(firstOwner);
+        wakeLockScheduler.releaseAll(firstOwner);
+
+        /* Late release by owner, which windows have already been closed */
+        wakeLockScheduler.release(firstOwner);
+        wakeLockScheduler.releaseAll(secondOwner);
+
+        assertTrue(wakeLock.isHeld());
+        wakeLockScheduler.release();
+        assertFalse(wakeLock.isHeld());
+    }
+
+    @Test
+    public void releaseAllClosesWindowsOfAllOwnersTest() {
+        wakeLockScheduler.acquire();
+        wakeLockScheduler.acquire(firstOwner);
+
+        wakeLockScheduler.releaseAll();
+        assertFalse(wakeLock.isHeld());
+
+        /* Windows closed by releaseAll are not counted again */
+        wakeLockScheduler.acquire(secondOwner);
+        wakeLockScheduler.release(firstOwner);
+        assertTrue(wakeLock.isHeld());
+    }
+
+    @Test
+    public void everyWindowTimesOutOnItsOwnTest() {
+        wakeLockScheduler.acquire(firstOwner);
+        ShadowLooper.idleMainLooper(6, TimeUnit.SECONDS);
+        wakeLockScheduler.acquire(secondOwner);
+        ShadowLooper.idleMainLooper(5, TimeUnit.SECONDS);
+
+        /* Window of the first owner has timed out, window opened later is still open */
+        assertTrue(wakeLock.isHeld());
+        wakeLockScheduler.release(firstOwner);
+        assertTrue(wakeLock.isHeld());
+
+        ShadowLooper.idleMainLooper(5, TimeUnit.SECONDS);
+        assertFalse(wakeLock.isHeld());
+    }
+
+    @Test
+    public void closeCancelsScheduledWakeupsTest() {
+        Runnable task = () -> {
+            throw new AssertionError("Wakeup has run after close");
+        };
+        wakeLockScheduler.scheduleWakeup(1000, task);
+        wakeLockScheduler.scheduleWakeup(2000, task);
+        assertEquals(2, alarmManager.getScheduledAlarms().size());
+
+        wakeLockScheduler.close();
+
+        assertTrue(alarmManager.getScheduledAlarms().isEmpty());
+        /* Scheduler is closed, so nothing is scheduled anymore */
+        wakeLockScheduler.scheduleWakeup(1000, task);
+        assertTrue(alarmManager.getScheduledAlarms().isEmpty());
+    }
+
+    @Test
+    public void closeCancelsOnlyPendingWakeupsTest() {
+        int[] runCount = new int[1];
+        WakeLockScheduler.Wakeup ranWakeup = wakeLockScheduler.scheduleWakeup(1000, () -> runCount[0]++);
+        WakeLockScheduler.Wakeup cancelledWakeup = wakeLockScheduler.scheduleWakeup(2000, () -> runCount[0]++);
+        wakeLockScheduler.scheduleWakeup(3000, () -> runCount[0]++);
+        wakeLockScheduler.cancelWakeup(cancelledWakeup);
+        /* Alarm manager forgets alarm once it is delivered */
+        RuntimeEnvironment.application.getSystemService(AlarmManager.class).cancel(ranWakeup);
+        ranWakeup.onAlarm();
+        assertEquals(1, runCount[0]);
+        assertEquals(1, alarmManager.getScheduledAlarms().size());
+
+        wakeLockScheduler.close();
+
+        assertTrue(alarmManager.getScheduledAlarms().isEmpty());
+        assertFalse(wakeLock.isHeld());
+    }
+}
@@ -0,0 +1,168 @@
+package com.google.heartrate.wearos.app.sensors;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.heartrate.wearos.app.power.WakeLockScheduler;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class HeartRateSensorControllerTest {
+
+    private static final long GRACE_PERIOD_MS = 30_000;
+
+    private HeartRateSensorListener listener;
+    private WakeLockScheduler wakeLockScheduler;
+    private HeartRateSensorController controller;
+
+    private final Object firstConsumer = new Object();
+    private final Object secondConsumer = new Object();
+
+    @Before
+    public void setUp() {
+        listener = mock(HeartRateSensorListener.class);
+        wakeLockScheduler = mock(WakeLockScheduler.class);
+        when(wakeLockScheduler.scheduleWakeup(anyLong(), any()))
+                .thenAnswer(invocation -> mock(WakeLockScheduler.Wakeup.class));
+        controller = new HeartRateSensorController(listener, new Handler(Looper.getMainLooper()),
+                wakeLockScheduler, GRACE_PERIOD_MS);
+    }
+
+    @Test
+    public void sensorIsNotStartedWithoutConsumersTest() throws Exception {
+        idleSensorThread();
+
+        verify(listener, never()).startMeasure();
+        assertFalse(controller.isMeasuring());
+    }
+
+    @Test
+    public void sensorIsStartedOnceForManyConsumersTest() throws Exception {
+        controller.acquire(firstConsumer);
+        controller.acquire(secondConsumer);
+        controller.acquire(firstConsumer);
+        idleSensorThread();
+
+        verify(listener, times(1)).startMeasure();
+        assertEquals(2, controller.getConsumerCount());
+    }
+
+    @Test
+    public void sensorIsStoppedAfterGracePeriodTest() throws Exception {
+        controller.acquire(firstConsumer);
+        controller.acquire(secondConsumer);
+        controller.release(firstConsumer);
+        verify(wakeLockScheduler, never()).scheduleWakeup(anyLong(), any());
+
+        controller.release(secondConsumer);
+        Runnable stop = captureScheduledStop();
+        idleSensorThread();
+        verify(listener, never()).stopMeasure();
+
+        stop.run();
+        idleSensorThread();
+        verify(listener).stopMeasure();
+        assertFalse(controller.isMeasuring());
+    }
+
+    @Test
+    public void consumerInGracePeriodKeepsSensorRunningTest() throws Exception {
+        controller.acquire(firstConsumer);
+        controller.release(firstConsumer);
+        Runnable stop = captureScheduledStop();
+
+        controller.acquire(secondConsumer);
+        verify(wakeLockScheduler).cancelWakeup(any());
+        /* Alarm delivered before it was cancelled */
+        stop.run();
+        idleSensorThread();
+
+        verify(listener, times(1)).startMeasure();
+        verify(listener, never()).stopMeasure();
+        assertTrue(controller.isMeasuring());
+    }
+
+    @Test
+    public void failedStartIsRetriedByNextConsumerTest() throws Exception {
+        doThrow(new SensorException("Heart rate sensor not registered")).when(listener).startMeasure();
+        controller.acquire(firstConsumer);
+        idleSensorThread();
+        assertFalse(controller.isMeasuring());
+
+        controller.acquire(secondConsumer);
+        idleSensorThread();
+
+        verify(listener, times(2)).startMeasure();
+    }
+
+    @Test
+    public void failedStartIsRetriedForConsumerAcquiredWhileStartingTest() throws Exception {
+        doThrow(new SensorException("Heart rate sensor not registered")).doNothing().when(listener).startMeasure();
+        controller.acquire(firstConsumer);
+        /* Start is posted, but not run yet */
+        controller.acquire(secondConsumer);
+        idleSensorThread();
+
+        verify(listener, times(2)).startMeasure();
+        assertTrue(controller.isMeasuring());
+    }
+
+    @Test
+    public void staleFailedStartKeepsNewStartTest() throws Exception {
+        doThrow(new SensorException("Heart rate sensor not registered")).doNothing().when(listener).startMeasure();
+        controller.acquire(firstConsumer);
+        controller.close();
+        controller.acquire(secondConsumer);
+        idleSensorThread();
+
+        verify(listener, times(2)).startMeasure();
+        assertTrue(controller.isMeasuring());
+    }
+
+    @Test
+    public void closeStopsSensorWithoutGracePeriodTest() throws Exception {
+        controller.acquire(firstConsumer);
+        idleSensorThread();
+
+        controller.close();
+        idleSensorThread();
+
+        verify(listener).stopMeasure();
+        assertEquals(0, controller.getConsumerCount());
+        assertFalse(controller.isMeasuring());
+    }
+
+    private Runnable captureScheduledStop() {
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(wakeLockScheduler).scheduleWakeup(eq(GRACE_PERIOD_MS), captor.capture());
+        return captor.getValue();
+    }
+
+    private static void idleSensorThread() {
+        ShadowLooper.idleMainLooper();
+    }
+}
@@ -0,0 +1,297 @@
+package com.google.heartrate.wearos.app.sensors;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.hardware.SensorEvent;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import com.google.heartrate.wearos.app.sensors.pipeline.SamplePipeline;
+import com.google.heartrate.wearos.app.sensors.pipeline.SampleStage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class HeartRateSensorListenerTest {
+
+    private static final int SAMPLE_COUNT = 50;
+    private static final long SAMPLE_PERIOD_MS = 20;
+
+    /** Number of samples sensor delivers at once after batching them in hardware. */
+    private static final int BATCH_SIZE = 10;
+
+    /** Maximum number of samples in pipeline batch. */
+    private static final int PIPELINE_CAPACITY = 16;
+
+    /** Allowed difference (milliseconds) between wall clock read by test and by listener. */
+    private static final double WALL_CLOCK_TOLERANCE_MS = 100;
+
+    private HandlerThread sensorThread;
+    private DeliveryRecordingContext context;
+    private HeartRateSensorListener listener;
+
+    @Before
+    public void setUp() {
+        sensorThread = HeartRateSensorListener.startSensorThread();
+        context = new DeliveryRecordingContext(RuntimeEnvironment.application, SAMPLE_COUNT);
+        listener = new HeartRateSensorListener(context, new Handler(sensorThread.getLooper()),
+                SamplePipeline.parse("", 1));
+    }
+
+    @After
+    public void tearDown() {
+        sensorThread.quit();
+    }
+
+    @Test
+    public void samplesAreProcessedOnSensorThreadTest() throws InterruptedException {
+        deliverSamples(1, 0);
+
+        assertTrue(context.processed.tryAcquire(1, 1, TimeUnit.SECONDS));
+        assertEquals(sensorThread, context.processingThread);
+    }
+
+    @Test
+    public void samplesAreProcessedInOrderWhileMainThreadIsBlockedTest() throws Exception {
+        Thread sensorHal = new Thread(() -> deliverSamples(SAMPLE_COUNT, SAMPLE_PERIOD_MS));
+        sensorHal.start();
+
+        /* Main thread is blocked until every sample is processed, like by long UI frame */
+        assertTrue(context.processed.tryAcquire(SAMPLE_COUNT, 10, TimeUnit.SECONDS));
+
+        sensorHal.join();
+        assertEquals(sensorThread, context.processingThread);
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            assertEquals(70 + i, context.processedValues[i]);
+        }
+        assertEquals(70 + SAMPLE_COUNT - 1, listener.getCurrentHeartRateValue());
+    }
+
+    @Test
+    public void noValueBeforeFirstSampleTest() {
+        assertEquals(HeartRateSensorListener.NO_VALUE_AVAILABLE, listener.peekCurrentHeartRateValue());
+        assertThrows(SensorException.class, () -> listener.getCurrentHeartRateValue());
+    }
+
+    @Test
+    public void batchedSamplesKeepTimeOfMeasurementTest() {
+        ShadowLooper.idleMainLooper(1, TimeUnit.MINUTES);
+        long deliveredAtNs = SystemClock.elapsedRealtimeNanos();
+        long deliveredAtMs = System.currentTimeMillis();
+
+        /* Samples measured one second apart are delivered together */
+        for (int i = BATCH_SIZE - 1; i >= 0; i--) {
+            listener.onHeartRateSample(deliveredAtNs - TimeUnit.SECONDS.toNanos(i), 70,
+                    SensorManager.SENSOR_STATUS_ACCURACY_HIGH);
+
+            assertEquals(deliveredAtMs - TimeUnit.SECONDS.toMillis(i), listener.getCurrentHeartRateTimeMs(),
+                    WALL_CLOCK_TOLERANCE_MS);
+        }
+    }
+
+    @Test
+    public void burstOfSensorEventsIsProcessedInBatchesTest() throws Exception {
+        BatchRecordingStage stage = new BatchRecordingStage();
+        Handler sensorHandler = new Handler(sensorThread.getLooper());
+        listener = new HeartRateSensorListener(context, sensorHandler, new SamplePipeline(PIPELINE_CAPACITY, stage));
+        int burstSize = PIPELINE_CAPACITY + BATCH_SIZE;
+        long timestampNs = System.nanoTime();
+
+        /* Sensor event queue delivers whole hardware FIFO read within one message */
+        sensorHandler.post(() -> {
+            for (int i = 0; i < burstSize; i++) {
+                listener.onSensorChanged(createSensorEvent(70 + i, timestampNs + TimeUnit.SECONDS.toNanos(i)));
+            }
+        });
+
+        assertTrue(context.processed.tryAcquire(burstSize, 10, TimeUnit.SECONDS));
+        /* Burst longer than pipeline capacity is split */
+        assertEquals(Arrays.asList(PIPELINE_CAPACITY, BATCH_SIZE), stage.batchSizes);
+        for (int i = 0; i < burstSize; i++) {
+            assertEquals(70 + i, context.processedValues[i]);
+        }
+        assertEquals(70 + burstSize - 1, listener.getCurrentHeartRateValue());
+    }
+
+    @Test
+    public void fastSamplesAreBroadcastOncePerSecondTest() {
+        long timestampNs = System.nanoTime();
+        long periodNs = TimeUnit.MILLISECONDS.toNanos(10);
+        /* Two seconds of samples at 100 Hz, value changes with every sample */
+        for (int i = 0; i < 200; i++) {
+            listener.onHeartRateSample(timestampNs + i * periodNs, 70 + i % 2,
+                    SensorManager.SENSOR_STATUS_ACCURACY_HIGH);
+        }
+
+        /* The first value, and the changed value once a second has passed */
+        assertEquals(2, context.processed.availablePermits());
+        assertEquals(70, context.processedValues[0]);
+        assertEquals(71, context.processedValues[1]);
+        assertEquals(71, listener.peekCurrentHeartRateValue());
+    }
+
+    @Test
+    public void unchangedValueIsNotBroadcastAgainTest() {
+        long timestampNs = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            listener.onHeartRateSample(timestampNs + TimeUnit.SECONDS.toNanos(i), 70,
+                    SensorManager.SENSOR_STATUS_ACCURACY_HIGH);
+        }
+
+        assertEquals(1, context.processed.availablePermits());
+    }
+
+    @Test
+    public void heartBeatsAreConvertedToRrIntervalsTest() {
+        long beatNs = System.nanoTime();
+        listener.onHeartBeat(beatNs);
+        listener.onHeartBeat(beatNs += 1_000_000_000L);
+        listener.onHeartBeat(beatNs += 750_000_000L);
+        /* Missed beats are not reported as interval */
+        listener.onHeartBeat(beatNs += 5_000_000_000L);
+        listener.onHeartBeat(beatNs + 500_000_000L);
+
+        int[] intervals = new int[8];
+        assertEquals(3, listener.drainRrIntervals(intervals));
+        assertEquals(1024, intervals[0]);
+        assertEquals(768, intervals[1]);
+        assertEquals(512, intervals[2]);
+        assertEquals(0, listener.drainRrIntervals(intervals));
+    }
+
+    @Test
+    public void onlyMostRecentRrIntervalsAreDrainedTest() {
+        long beatNs = System.nanoTime();
+        for (int i = 0; i <= 10; i++) {
+            listener.onHeartBeat(beatNs + i * 1_000_000_000L);
+        }
+        listener.onHeartBeat(beatNs + 10_500_000_000L);
+
+        int[] intervals = new int[2];
+        assertEquals(2, listener.drainRrIntervals(intervals));
+        assertEquals(1024, intervals[0]);
+        assertEquals(512, intervals[1]);
+    }
+
+    @Test
+    public void droppedIntervalBreaksHeartRateVariabilityTest() {
+        long beatNs = System.nanoTime();
+        listener.onHeartBeat(beatNs);
+        listener.onHeartBeat(beatNs += 1_000_000_000L);
+        listener.onHeartBeat(beatNs += 900_000_000L);
+        /* Missed beats must not be compared with the interval before them */
+        listener.onHeartBeat(beatNs += 5_000_000_000L);
+        listener.onHeartBeat(beatNs += 500_000_000L);
+        listener.onHeartBeat(beatNs + 500_000_000L);
+
+        HeartRateVariability statistics = new HeartRateVariability();
+        assertTrue(listener.getHeartRateVariability(statistics));
+        assertEquals(4, statistics.intervalCount);
+        assertEquals(2, statistics.differenceCount);
+        assertEquals(0.5, statistics.pnn50, 1e-9);
+    }
+
+    @Test
+    public void sensorContactFollowsAccuracyTest() {
+        listener.onAccuracyChanged(null, SensorManager.SENSOR_STATUS_ACCURACY_HIGH);
+        assertTrue(listener.isSensorContactDetected());
+
+        listener.onAccuracyChanged(null, SensorManager.SENSOR_STATUS_NO_CONTACT);
+        assertFalse(listener.isSensorContactDetected());
+    }
+
+    /**
+     * Post samples to sensor thread handler with given period, the way sensor event queue does.
+     */
+    private void deliverSamples(int count, long periodMs) {
+        Handler handler = new Handler(sensorThread.getLooper());
+        long timestampNs = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            /* Measured a second apart, so every changed value is broadcast */
+            SensorEvent event = createSensorEvent(70 + i, timestampNs + TimeUnit.SECONDS.toNanos(i));
+            handler.post(() -> listener.onSensorChanged(event));
+            try {
+                Thread.sleep(periodMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static SensorEvent createSensorEvent(float heartRate, long timestampNs) {
+        SensorEvent event = ReflectionHelpers.callConstructor(SensorEvent.class,
+                ReflectionHelpers.ClassParameter.from(int.class, 1));
+        event.values[0] = heartRate;
+        event.accuracy = SensorManager.SENSOR_STATUS_ACCURACY_HIGH;
+        event.timestamp = timestampNs;
+        return event;
+    }
+
+    /**
+     * Stage which passes samples unchanged and records size of every batch.
+     */
+    private static class BatchRecordingStage implements SampleStage {
+        final List<Integer> batchSizes = new ArrayList<>();
+
+        @Override
+        public int process(long[] timestamps, float[] values, int count, long[] outTimestamps, float[] outValues) {
+            batchSizes.add(count);
+            System.arraycopy(timestamps, 0, outTimestamps, 0, count);
+            System.arraycopy(values, 0, outValues, 0, count);
+            return count;
+        }
+
+        @Override
+        public void reset() {
+        }
+    }
+
+    /**
+     * Context which records what and where processed heart rate is broadcast.
+     */
+    private static class DeliveryRecordingContext extends ContextWrapper {
+        final int[] processedValues;
+        final Semaphore processed = new Semaphore(0);
+        volatile Thread processingThread;
+        private int processedCount;
+
+        DeliveryRecordingContext(Context base, int sampleCount) {
+            super(base);
+            processedValues = new int[sampleCount];
+        }
+
+        @Override
+        public void sendBroadcast(Intent intent) {
+            processedValues[processedCount++] = intent.getIntExtra(HeartRateSensorListener.HEART_RATE_VALUE, 0);
+            processingThread = Thread.currentThread();
+            processed.release();
+        }
+    }
+}
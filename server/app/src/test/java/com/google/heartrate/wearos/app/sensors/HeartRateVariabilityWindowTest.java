@@ -0,0 +1,157 @@
+package com.google.heartrate.wearos.app.sensors;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HeartRateVariabilityWindowTest {
+
+    private static final double DELTA = 1e-9;
+
+    /** Milliseconds in one RR-Interval unit. */
+    private static final double MS_PER_UNIT = 1000.0 / 1024;
+
+    private final HeartRateVariability statistics = new HeartRateVariability();
+
+    @Test
+    public void statisticsOfKnownIntervalsTest() {
+        HeartRateVariabilityWindow window = new HeartRateVariabilityWindow(60);
+        window.add(1024);
+        window.add(1000);
+        window.add(1100);
+        window.add(1030);
+
+        assertTrue(window.read(statistics));
+        assertEquals(60, statistics.windowSeconds);
+        assertEquals(4, statistics.intervalCount);
+        assertEquals(3, statistics.differenceCount);
+        assertEquals(1038.5 * MS_PER_UNIT, statistics.meanNnMs, DELTA);
+        /* Differences are -24, 100 and -70 units, only the last two exceed 50 ms */
+        assertEquals(Math.sqrt((24 * 24 + 100 * 100 + 70 * 70) / 3.0) * MS_PER_UNIT, statistics.rmssdMs, DELTA);
+        assertEquals(2.0 / 3, statistics.pnn50, DELTA);
+        double variance = (14.5 * 14.5 + 38.5 * 38.5 + 61.5 * 61.5 + 8.5 * 8.5) / 3;
+        assertEquals(Math.sqrt(variance) * MS_PER_UNIT, statistics.sdnnMs, DELTA);
+    }
+
+    @Test
+    public void noStatisticsWithoutSuccessiveIntervalsTest() {
+        HeartRateVariabilityWindow window = new HeartRateVariabilityWindow(60);
+        assertFalse(window.read(statistics));
+        assertEquals(0, statistics.intervalCount);
+
+        window.add(1024);
+        assertFalse(window.read(statistics));
+        assertEquals(1, statistics.intervalCount);
+        assertEquals(0, statistics.rmssdMs, DELTA);
+    }
+
+    @Test
+    public void gapBreaksSuccessiveDifferencesTest() {
+        HeartRateVariabilityWindow window = new HeartRateVariabilityWindow(60);
+        window.add(800);
+        window.add(810);
+        window.breakSequence();
+        window.add(1200);
+        window.add(1190);
+
+        assertTrue(window.read(statistics));
+        assertEquals(4, statistics.intervalCount);
+        assertEquals(2, statistics.differenceCount);
+        assertEquals(10 * MS_PER_UNIT, statistics.rmssdMs, DELTA);
+        assertEquals(0, statistics.pnn50, DELTA);
+    }
+
+    @Test
+    public void oldestIntervalsAreEvictedByWindowLengthTest() {
+        HeartRateVariabilityWindow window = new HeartRateVariabilityWindow(3);
+        window.add(1024);
+        window.add(1024);
+        window.add(1024);
+        window.add(512);
+
+        window.read(statistics);
+        assertEquals(3, statistics.intervalCount);
+        assertEquals(2, statistics.differenceCount);
+        assertEquals(4, statistics.sequence);
+        assertEquals(Math.sqrt(512 * 512 / 2.0) * MS_PER_UNIT, statistics.rmssdMs, DELTA);
+    }
+
+    @Test
+    public void clearForgetsIntervalsTest() {
+        HeartRateVariabilityWindow window = new HeartRateVariabilityWindow(60);
+        window.add(1024);
+        window.add(900);
+        window.clear();
+        window.add(1000);
+
+        assertFalse(window.read(statistics));
+        assertEquals(1, statistics.intervalCount);
+        assertEquals(1, statistics.sequence);
+    }
+
+    @Test
+    public void runningStatisticsMatchRecomputedOnesTest() {
+        int windowSeconds = 30;
+        HeartRateVariabilityWindow window = new HeartRateVariabilityWindow(windowSeconds);
+        List<Integer> intervals = new ArrayList<>();
+        List<Boolean> successive = new ArrayList<>();
+        Random random = new Random(42);
+        boolean gap = false;
+        for (int beat = 0; beat < 10_000; beat++) {
+            if (random.nextInt(50) == 0) {
+                window.breakSequence();
+                gap = true;
+                continue;
+            }
+            int interval = 300 + random.nextInt(1500);
+            window.add(interval);
+            intervals.add(interval);
+            successive.add(intervals.size() > 1 && !gap);
+            gap = false;
+        }
+
+        /* Recompute over the most recent intervals which fit into window */
+        long windowUnits = windowSeconds * 1024L;
+        int first = intervals.size() - 1;
+        long duration = intervals.get(first);
+        while (first > 0 && duration + intervals.get(first - 1) <= windowUnits) {
+            duration += intervals.get(--first);
+        }
+        int count = intervals.size() - first;
+        double mean = (double) duration / count;
+        double squaredDeviations = 0;
+        double squaredDifferences = 0;
+        int differenceCount = 0;
+        int nn50Count = 0;
+        for (int i = first; i < intervals.size(); i++) {
+            squaredDeviations += (intervals.get(i) - mean) * (intervals.get(i) - mean);
+            if (i > first && successive.get(i)) {
+                int difference = intervals.get(i) - intervals.get(i - 1);
+                squaredDifferences += (double) difference * difference;
+                differenceCount++;
+                if (Math.abs(difference) * MS_PER_UNIT > 50) {
+                    nn50Count++;
+                }
+            }
+        }
+
+        assertTrue(window.read(statistics));
+        assertEquals(count, statistics.intervalCount);
+        assertEquals(differenceCount, statistics.differenceCount);
+        assertEquals(mean * MS_PER_UNIT, statistics.meanNnMs, 1e-6);
+        assertEquals(Math.sqrt(squaredDeviations / (count - 1)) * MS_PER_UNIT, statistics.sdnnMs, 1e-6);
+        assertEquals(Math.sqrt(squaredDifferences / differenceCount) * MS_PER_UNIT, statistics.rmssdMs, 1e-6);
+        assertEquals((double) nn50Count / differenceCount, statistics.pnn50, DELTA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveWindowIsRejectedTest() {
+        new HeartRateVariabilityWindow(0);
+    }
+}
@@ -0,0 +1,187 @@
+package com.google.heartrate.wearos.app.sensors;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothGatt;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import com.google.heartrate.wearos.app.Benchmark;
+import com.google.heartrate.wearos.app.bluetooth.server.BluetoothDeviceStorage;
+import com.google.heartrate.wearos.app.bluetooth.server.BluetoothServerCallback;
+import com.google.heartrate.wearos.app.bluetooth.server.GattEventLoop;
+import com.google.heartrate.wearos.app.bluetooth.server.notifiers.HeartRateCharacteristicNotifier;
+import com.google.heartrate.wearos.app.bluetooth.server.notifiers.NotificationScheduler;
+import com.google.heartrate.wearos.app.gatt.GattException;
+import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.HeartRateMeasurementCharacteristic;
+import com.google.heartrate.wearos.app.power.WakeLockScheduler;
+import com.google.heartrate.wearos.app.sensors.pipeline.SamplePipeline;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test of notification tick while sensor has no data yet, e.g. during sensor warm-up.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class NoSensorValueTest {
+
+    /** Number of notifier ticks without sensor value. */
+    private static final int TICK_COUNT = 10;
+
+    private static final int LAST_HEART_RATE = 70;
+
+    /** Property with number of ticks to run in exception and status code paths benchmark. */
+    private static final String BENCHMARK_TICKS_PROPERTY = "benchmark.nosensor.ticks";
+
+    private final GattEventLoop eventLoop = new GattEventLoop();
+    private HandlerThread sensorThread;
+    private HeartRateSensorListener listener;
+    private HeartRateMeasurementCharacteristic characteristic;
+
+    /** Tasks of scheduled wakeups, in order they were scheduled. */
+    private final List<Runnable> wakeupTasks = new ArrayList<>();
+
+    @Before
+    public void setUp() throws GattException {
+        sensorThread = HeartRateSensorListener.startSensorThread();
+        listener = new HeartRateSensorListener(RuntimeEnvironment.application,
+                new Handler(sensorThread.getLooper()), SamplePipeline.parse("", 1));
+        characteristic = new HeartRateMeasurementCharacteristic();
+        characteristic.setHeartRateCharacteristicValue(LAST_HEART_RATE, Optional.empty());
+        eventLoop.start();
+    }
+
+    @After
+    public void tearDown() {
+        eventLoop.quitSafely();
+        sensorThread.quit();
+    }
+
+    @Test
+    public void tickWithoutSensorValueSendsNoNotificationTest() throws Exception {
+        WakeLockScheduler wakeLockScheduler = mock(WakeLockScheduler.class);
+        when(wakeLockScheduler.scheduleWakeup(anyLong(), any())).thenAnswer(invocation -> {
+            wakeupTasks.add(invocation.getArgument(1));
+            return mock(WakeLockScheduler.Wakeup.class);
+        });
+        BluetoothServerCallback callback = mock(BluetoothServerCallback.class);
+        when(callback.getNotificationScheduler()).thenReturn(new NotificationScheduler(wakeLockScheduler, eventLoop));
+        BluetoothDeviceStorage deviceStorage = new BluetoothDeviceStorage();
+        deviceStorage.addDevice(BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:11:22:33:44:55"));
+        HeartRateCharacteristicNotifier notifier =
+                new HeartRateCharacteristicNotifier(characteristic, listener, deviceStorage);
+        byte[] lastValue = characteristic.read(null, 0);
+
+        runOnEventLoop(() -> notifier.startNotification(NotificationScheduler.TICK_MS,
+                NotificationScheduler.TICK_MS, callback));
+        for (int i = 0; i < TICK_COUNT; i++) {
+            ShadowLooper.idleMainLooper(NotificationScheduler.TICK_MS, TimeUnit.MILLISECONDS);
+            wakeupTasks.get(wakeupTasks.size() - 1).run();
+            runOnEventLoop(() -> { });
+        }
+
+        /* Every tick has run and scheduled the next one, but none has sent anything */
+        assertEquals(TICK_COUNT + 1, wakeupTasks.size());
+        verify(callback, never()).onCharacteristicChanged(any(), any());
+        verify(callback, never()).notifyDevice(any(), any());
+        /* Skipped ticks leave the last value in characteristic */
+        assertArrayEquals(lastValue, characteristic.read(null, 0));
+    }
+
+    @Test(expected = SensorException.class)
+    public void getWithoutSensorValueThrowsTest() throws SensorException {
+        listener.getCurrentHeartRateValue();
+    }
+
+    @Test
+    public void noSensorValueBenchmarkTest() throws Exception {
+        Benchmark benchmark = Benchmark.start("no-sensor-value", BENCHMARK_TICKS_PROPERTY);
+
+        benchmark.warmUp(this::runExceptionTicks, this::runStatusTicks);
+        long exceptionSkippedCount = benchmark.measure("exception", this::runExceptionTicks);
+        long statusSkippedCount = benchmark.measure("status code", this::runStatusTicks);
+        benchmark.writeReport();
+
+        assertEquals(benchmark.getCount(), exceptionSkippedCount);
+        assertEquals(benchmark.getCount(), statusSkippedCount);
+    }
+
+    /**
+     * Run event on event loop and wait until it is processed.
+     */
+    private void runOnEventLoop(Runnable event) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        assertTrue(eventLoop.post(() -> {
+            event.run();
+            latch.countDown();
+        }));
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Run ticks the way notifier did before status code path: sensor throws and tick catches.
+     *
+     * @return number of ticks which skipped notification
+     */
+    private long runExceptionTicks(int count) {
+        long skippedTickCount = 0;
+        for (int i = 0; i < count; i++) {
+            try {
+                int heartRate = listener.getCurrentHeartRateValue();
+                characteristic.setHeartRateCharacteristicValue(heartRate, Optional.empty());
+            } catch (SensorException e) {
+                skippedTickCount++;
+            } catch (GattException e) {
+                throw new AssertionError(e);
+            }
+        }
+        return skippedTickCount;
+    }
+
+    /**
+     * Run ticks the way notifier does: sensor returns sentinel value and tick checks it.
+     *
+     * @return number of ticks which skipped notification
+     */
+    private long runStatusTicks(int count) {
+        long skippedTickCount = 0;
+        for (int i = 0; i < count; i++) {
+            int heartRate = listener.peekCurrentHeartRateValue();
+            if (heartRate == HeartRateSource.NO_VALUE_AVAILABLE) {
+                skippedTickCount++;
+                continue;
+            }
+            if (characteristic.trySetHeartRateCharacteristicValue(heartRate,
+                    HeartRateMeasurementCharacteristic.NO_EXPENDED_ENERGY) != BluetoothGatt.GATT_SUCCESS) {
+                throw new AssertionError("Heart rate has not been set");
+            }
+        }
+        return skippedTickCount;
+    }
+}
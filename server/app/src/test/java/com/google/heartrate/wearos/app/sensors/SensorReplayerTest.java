@@ -0,0 +1,428 @@
+package com.google.heartrate.wearos.app.sensors;
+
+import android.app.AlarmManager;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattServer;
+import android.bluetooth.BluetoothGattServerCallback;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothManager;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import com.google.heartrate.wearos.app.bluetooth.server.BluetoothDeviceStorage;
+import com.google.heartrate.wearos.app.bluetooth.server.BluetoothServer;
+import com.google.heartrate.wearos.app.bluetooth.server.ServerSoakTest;
+import com.google.heartrate.wearos.app.bluetooth.server.handlers.HeartRateServiceRequestHandler;
+import com.google.heartrate.wearos.app.bluetooth.server.notifiers.HeartRateCharacteristicNotifier;
+import com.google.heartrate.wearos.app.gatt.heartrate.characteristics.HeartRateMeasurementCharacteristic;
+import com.google.heartrate.wearos.app.gatt.heartrate.descriptors.ClientCharacteristicConfigurationDescriptor;
+import com.google.heartrate.wearos.app.metrics.MetricsRegistry;
+import com.google.heartrate.wearos.app.metrics.StartupTrace;
+import com.google.heartrate.wearos.app.power.WakeLockScheduler;
+import com.google.heartrate.wearos.app.sensors.pipeline.SamplePipeline;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadow.api.Shadow;
+import org.robolectric.shadows.ShadowAlarmManager;
+import org.robolectric.shadows.ShadowBluetoothAdapter;
+import org.robolectric.shadows.ShadowBluetoothManager;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.shadows.ShadowPackageManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE)
+public class SensorReplayerTest {
+
+    private static final long START_NS = 5_000_000_000L;
+    private static final long SAMPLE_PERIOD_NS = 50_000_000L;
+
+    private static final UUID HEART_RATE_MEASUREMENT_UUID = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+
+    private static final long GRACE_PERIOD_MS = 30_000;
+
+    /** Time (milliseconds) to wait for event loop of server. */
+    private static final long EVENT_LOOP_TIMEOUT_MS = 10_000;
+
+    /** GATT server opened by {@link BluetoothServer}, set by capturing manager. */
+    private static CapturingGattServer capturingGattServer;
+
+    private HandlerThread sensorThread;
+
+    @Before
+    public void setUp() {
+        sensorThread = HeartRateSensorListener.startSensorThread();
+    }
+
+    @After
+    public void tearDown() {
+        sensorThread.quit();
+    }
+
+    @Test
+    public void recordedEventsAreReplayedExactlyTest() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        EventLog recorded = new EventLog();
+        try (SensorRecorder recorder = new SensorRecorder(stream)) {
+            SensorEventSink both = new Tee(recorder, recorded);
+            both.onHeartRateSample(START_NS, 72.5f, SensorManager.SENSOR_STATUS_ACCURACY_HIGH);
+            /* Heart beats are batched separately and may be older than the last sample */
+            both.onHeartBeatSample(START_NS - 700_000_000L, SensorManager.SENSOR_STATUS_ACCURACY_MEDIUM);
+            both.onHeartRateAccuracyChanged(START_NS + 1, SensorManager.SENSOR_STATUS_NO_CONTACT);
+            both.onHeartBeatAccuracyChanged(START_NS + 2, SensorManager.SENSOR_STATUS_UNRELIABLE);
+            both.onHeartRateSample(START_NS + 3_000_000_000L, 180f, SensorManager.SENSOR_STATUS_ACCURACY_LOW);
+            assertEquals(5, recorder.getRecordCount());
+        }
+
+        EventLog replayed = new EventLog();
+        assertEquals(5, replay(stream.toByteArray(), replayed, SensorReplayer.MAXIMUM_SPEED));
+        assertEquals(recorded.events, replayed.events);
+    }
+
+    @Test
+    public void replayKeepsRecordedPaceTest() throws Exception {
+        byte[] session = recordSamples(new int[] {60, 61, 62, 63, 64});
+        long durationNs = 4 * SAMPLE_PERIOD_NS;
+
+        long startNs = System.nanoTime();
+        replay(session, new EventLog(), 2);
+        long elapsedNs = System.nanoTime() - startNs;
+
+        assertTrue(String.format("Replay at 2x took %d ms", TimeUnit.NANOSECONDS.toMillis(elapsedNs)),
+                elapsedNs >= durationNs / 2);
+    }
+
+    @Test
+    public void replayedSessionGivesSameCharacteristicValueTest() throws Exception {
+        int[] heartRates = {70, 72, 140, 74, 75, 76, 300, 78};
+        HeartRateSensorListener original = createListener();
+        HeartRateSensorListener replica = createListener();
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (SensorRecorder recorder = new SensorRecorder(stream)) {
+            original.setRecorder(recorder);
+            for (int i = 0; i < heartRates.length; i++) {
+                original.onHeartRateSample(START_NS + i * SAMPLE_PERIOD_NS, heartRates[i],
+                        SensorManager.SENSOR_STATUS_ACCURACY_HIGH);
+            }
+        }
+        replay(stream.toByteArray(), replica, SensorReplayer.MAXIMUM_SPEED);
+
+        assertEquals(original.peekCurrentHeartRateValue(), replica.peekCurrentHeartRateValue());
+        assertArrayEquals(notifyValue(original), notifyValue(replica));
+    }
+
+    @Test
+    @Config(shadows = {
+            CapturingBluetoothManager.class,
+            CapturingGattServer.class,
+            ServerSoakTest.StandInBluetoothAdapter.class,
+            ServerSoakTest.StandInLeAdvertiser.class})
+    public void replayedSessionIsNotifiedThroughGattServerTest() throws Exception {
+        int[] heartRates = {70, 72, 140, 74, 75, 76, 300, 78};
+        HeartRateSensorListener original = createListener();
+        HeartRateSensorListener replica = createListener();
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (SensorRecorder recorder = new SensorRecorder(stream)) {
+            original.setRecorder(recorder);
+            for (int i = 0; i < heartRates.length; i++) {
+                original.onHeartRateSample(START_NS + i * SAMPLE_PERIOD_NS, heartRates[i],
+                        SensorManager.SENSOR_STATUS_ACCURACY_HIGH);
+            }
+        }
+        replay(stream.toByteArray(), replica, SensorReplayer.MAXIMUM_SPEED);
+
+        Context context = RuntimeEnvironment.application;
+        ((ShadowBluetoothAdapter) Shadow.extract(BluetoothAdapter.getDefaultAdapter())).setEnabled(true);
+        ((ShadowPackageManager) Shadow.extract(context.getPackageManager()))
+                .setSystemFeature(PackageManager.FEATURE_BLUETOOTH_LE, true);
+        WakeLockScheduler wakeLockScheduler = new WakeLockScheduler(context);
+        BluetoothServer server = new BluetoothServer(context, wakeLockScheduler, new StartupTrace(),
+                new MetricsRegistry());
+        HeartRateSensorController controller = new HeartRateSensorController(replica,
+                new Handler(sensorThread.getLooper()), wakeLockScheduler, GRACE_PERIOD_MS);
+        HeartRateServiceRequestHandler requestHandler = new HeartRateServiceRequestHandler(replica, controller);
+        try {
+            server.registerGattServiceHandler(requestHandler);
+            server.start();
+            BluetoothGattService service = requestHandler.getBluetoothGattService();
+            awaitCondition(() -> capturingGattServer.services.contains(service));
+
+            /* Device subscribes through GATT server callback, as remote client does */
+            BluetoothGattServerCallback callback = capturingGattServer.callback;
+            BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:11:22:33:44:55");
+            callback.onConnectionStateChange(device, BluetoothGatt.GATT_SUCCESS, BluetoothGatt.STATE_CONNECTED);
+            callback.onDescriptorWriteRequest(device, 1, service.getCharacteristic(HEART_RATE_MEASUREMENT_UUID)
+                            .getDescriptor(ClientCharacteristicConfigurationDescriptor
+                                    .CLIENT_CHARACTERISTIC_CONFIGURATION_UUID),
+                    false, true, 0, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+            awaitCondition(() -> !getScheduledAlarms().isEmpty());
+            fireNextAlarm();
+            awaitCondition(() -> !capturingGattServer.notifiedValues.isEmpty());
+
+            assertEquals(1, capturingGattServer.notifiedValues.size());
+            assertArrayEquals(notifyValue(original), capturingGattServer.notifiedValues.get(0));
+        } finally {
+            server.close();
+            controller.close();
+            wakeLockScheduler.close();
+        }
+    }
+
+    @Test
+    public void truncatedSessionFailsTest() throws Exception {
+        byte[] session = recordSamples(new int[] {60, 61});
+        byte[] truncated = Arrays.copyOf(session, session.length - 1);
+
+        assertThrows(IOException.class, () -> replay(truncated, new EventLog(), SensorReplayer.MAXIMUM_SPEED));
+    }
+
+    @Test
+    public void recordingStopsOnWriteErrorTest() throws Exception {
+        FailingStream stream = new FailingStream();
+        SensorRecorder recorder = new SensorRecorder(stream);
+        stream.failing = true;
+
+        /* Records are buffered, so write fails only when buffer is flushed */
+        int sampleCount = 10_000;
+        for (int i = 0; i < sampleCount; i++) {
+            recorder.onHeartRateSample(START_NS + i * SAMPLE_PERIOD_NS, 60, SensorManager.SENSOR_STATUS_ACCURACY_HIGH);
+        }
+        int recordCount = recorder.getRecordCount();
+        recorder.close();
+
+        assertTrue(String.format("Recorded %d records after write error", recordCount), recordCount < sampleCount);
+    }
+
+    private HeartRateSensorListener createListener() {
+        return new HeartRateSensorListener(RuntimeEnvironment.application, new Handler(sensorThread.getLooper()),
+                SamplePipeline.parse("outlier:30:220:30,median:3", 16));
+    }
+
+    private static byte[] notifyValue(HeartRateSensorListener listener) throws Exception {
+        HeartRateMeasurementCharacteristic characteristic = new HeartRateMeasurementCharacteristic();
+        new HeartRateCharacteristicNotifier(characteristic, listener, new BluetoothDeviceStorage())
+                .changeCharacteristic();
+        return characteristic.read(null, 0);
+    }
+
+    private static List<ShadowAlarmManager.ScheduledAlarm> getScheduledAlarms() {
+        AlarmManager alarmManager = (AlarmManager) RuntimeEnvironment.application
+                .getSystemService(Context.ALARM_SERVICE);
+        return ((ShadowAlarmManager) Shadow.extract(alarmManager)).getScheduledAlarms();
+    }
+
+    /**
+     * Move clock to the earliest scheduled wakeup and deliver it, as alarm manager does.
+     */
+    private static void fireNextAlarm() {
+        ShadowAlarmManager.ScheduledAlarm nextAlarm = null;
+        for (ShadowAlarmManager.ScheduledAlarm alarm : getScheduledAlarms()) {
+            if (nextAlarm == null || alarm.triggerAtTime < nextAlarm.triggerAtTime) {
+                nextAlarm = alarm;
+            }
+        }
+        long delayMs = nextAlarm.triggerAtTime - SystemClock.elapsedRealtime();
+        if (delayMs > 0) {
+            ShadowLooper.idleMainLooper(delayMs, TimeUnit.MILLISECONDS);
+        }
+        ((AlarmManager) RuntimeEnvironment.application.getSystemService(Context.ALARM_SERVICE))
+                .cancel(nextAlarm.onAlarmListener);
+        nextAlarm.onAlarmListener.onAlarm();
+    }
+
+    /**
+     * Wait until event loop of server brings given condition about.
+     */
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadlineNs = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(EVENT_LOOP_TIMEOUT_MS);
+        while (!condition.getAsBoolean()) {
+            assertTrue("Event loop has not finished in time", System.nanoTime() < deadlineNs);
+            Thread.sleep(1);
+        }
+    }
+
+    private static byte[] recordSamples(int[] heartRates) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (SensorRecorder recorder = new SensorRecorder(stream)) {
+            for (int i = 0; i < heartRates.length; i++) {
+                recorder.onHeartRateSample(START_NS + i * SAMPLE_PERIOD_NS, heartRates[i],
+                        SensorManager.SENSOR_STATUS_ACCURACY_HIGH);
+            }
+        }
+        return stream.toByteArray();
+    }
+
+    private static int replay(byte[] session, SensorEventSink sink, double speed)
+            throws IOException, InterruptedException {
+        try (SensorReplayer replayer = new SensorReplayer(new ByteArrayInputStream(session))) {
+            return replayer.replay(sink, speed);
+        }
+    }
+
+    /**
+     * Sink which logs events as text.
+     */
+    private static class EventLog implements SensorEventSink {
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onHeartRateSample(long timestampNs, float heartRate, int accuracy) {
+            events.add(String.format("rate %d %f %d", timestampNs, heartRate, accuracy));
+        }
+
+        @Override
+        public void onHeartRateAccuracyChanged(long timestampNs, int accuracy) {
+            events.add(String.format("rate accuracy %d %d", timestampNs, accuracy));
+        }
+
+        @Override
+        public void onHeartBeatSample(long timestampNs, int accuracy) {
+            events.add(String.format("beat %d %d", timestampNs, accuracy));
+        }
+
+        @Override
+        public void onHeartBeatAccuracyChanged(long timestampNs, int accuracy) {
+            events.add(String.format("beat accuracy %d %d", timestampNs, accuracy));
+        }
+    }
+
+    /**
+     * Sink which delivers events to two sinks.
+     */
+    private static class Tee implements SensorEventSink {
+        private final SensorEventSink first;
+        private final SensorEventSink second;
+
+        private Tee(SensorEventSink first, SensorEventSink second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public void onHeartRateSample(long timestampNs, float heartRate, int accuracy) {
+            first.onHeartRateSample(timestampNs, heartRate, accuracy);
+            second.onHeartRateSample(timestampNs, heartRate, accuracy);
+        }
+
+        @Override
+        public void onHeartRateAccuracyChanged(long timestampNs, int accuracy) {
+            first.onHeartRateAccuracyChanged(timestampNs, accuracy);
+            second.onHeartRateAccuracyChanged(timestampNs, accuracy);
+        }
+
+        @Override
+        public void onHeartBeatSample(long timestampNs, int accuracy) {
+            first.onHeartBeatSample(timestampNs, accuracy);
+            second.onHeartBeatSample(timestampNs, accuracy);
+        }
+
+        @Override
+        public void onHeartBeatAccuracyChanged(long timestampNs, int accuracy) {
+            first.onHeartBeatAccuracyChanged(timestampNs, accuracy);
+            second.onHeartBeatAccuracyChanged(timestampNs, accuracy);
+        }
+    }
+
+    /**
+     * Stream which fails writes once it is switched to failing.
+     */
+    private static class FailingStream extends OutputStream {
+        private boolean failing;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (failing) {
+                throw new IOException("Disk full");
+            }
+        }
+    }
+
+    /**
+     * Stand-in for {@link BluetoothManager} which opens {@link CapturingGattServer}.
+     */
+    @Implements(BluetoothManager.class)
+    public static class CapturingBluetoothManager extends ShadowBluetoothManager {
+
+        @Implementation
+        protected BluetoothGattServer openGattServer(Context context, BluetoothGattServerCallback callback) {
+            BluetoothGattServer gattServer = Shadow.newInstanceOf(BluetoothGattServer.class);
+            capturingGattServer = Shadow.extract(gattServer);
+            capturingGattServer.callback = callback;
+            return gattServer;
+        }
+    }
+
+    /**
+     * Stand-in for {@link BluetoothGattServer} which adds services right away
+     * and captures value of every notified characteristic.
+     */
+    @Implements(BluetoothGattServer.class)
+    public static class CapturingGattServer {
+        private BluetoothGattServerCallback callback;
+        private final List<BluetoothGattService> services = new CopyOnWriteArrayList<>();
+        private final List<byte[]> notifiedValues = new CopyOnWriteArrayList<>();
+
+        @Implementation
+        protected boolean addService(BluetoothGattService service) {
+            services.add(service);
+            callback.onServiceAdded(BluetoothGatt.GATT_SUCCESS, service);
+            return true;
+        }
+
+        @Implementation
+        protected boolean sendResponse(BluetoothDevice device, int requestId, int status, int offset, byte[] value) {
+            return true;
+        }
+
+        @Implementation
+        protected boolean notifyCharacteristicChanged(BluetoothDevice device,
+                                                      BluetoothGattCharacteristic characteristic, boolean confirm) {
+            notifiedValues.add(characteristic.getValue().clone());
+            callback.onNotificationSent(device, BluetoothGatt.GATT_SUCCESS);
+            return true;
+        }
+
+        @Implementation
+        protected void setPreferredPhy(BluetoothDevice device, int txPhy, int rxPhy, int phyOptions) {
+        }
+
+        @Implementation
+        protected void close() {
+        }
+    }
+}
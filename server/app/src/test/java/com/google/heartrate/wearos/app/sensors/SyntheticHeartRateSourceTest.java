@@ -0,0 +1,210 @@
+package com.google.heartrate.wearos.app.sensors;
+
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import com.google.heartrate.wearos.app.sensors.SyntheticHeartRateSource.Pattern;
+import com.google.heartrate.wearos.app.sensors.pipeline.SamplePipeline;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1}, manifest = Config.NONE)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class SyntheticHeartRateSourceTest {
+
+    private static final int SAMPLE_RATE_HZ = 10;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    @Test
+    public void restStaysAroundRestingHeartRateTest() {
+        SyntheticHeartRateSource source = create(Pattern.REST);
+        int[] rrIntervals = new int[64];
+
+        for (int second = 0; second < 60; second++) {
+            source.generate(SAMPLE_RATE_HZ);
+            assertInRange(source.peekCurrentHeartRateValue(), 55, 70);
+
+            int count = source.drainRrIntervals(rrIntervals);
+            for (int i = 0; i < count; i++) {
+                /* 1024 / (70 / 60) and 1024 / (55 / 60) */
+                assertInRange(rrIntervals[i], 877, 1117);
+            }
+        }
+        assertTrue(source.isSensorContactDetected());
+    }
+
+    @Test
+    public void intervalTrainingFollowsWorkAndRecoveryTest() {
+        SyntheticHeartRateSource source = create(Pattern.INTERVAL_TRAINING);
+
+        source.generate(60 * SAMPLE_RATE_HZ);
+        assertInRange(source.peekCurrentHeartRateValue(), 150, 170);
+
+        source.generate(90 * SAMPLE_RATE_HZ);
+        assertInRange(source.peekCurrentHeartRateValue(), 100, 120);
+    }
+
+    @Test
+    public void arrhythmiaHasPrematureBeatsFollowedByPausesTest() {
+        SyntheticHeartRateSource source = create(Pattern.ARRHYTHMIA);
+        int[] rrIntervals = new int[64];
+
+        source.generate(60 * SAMPLE_RATE_HZ);
+        int count = source.drainRrIntervals(rrIntervals);
+
+        int prematureBeatCount = 0;
+        for (int i = 0; i + 1 < count; i++) {
+            if (rrIntervals[i] < 700) {
+                prematureBeatCount++;
+                assertTrue(String.format("Premature beat %d followed by %d", rrIntervals[i], rrIntervals[i + 1]),
+                        rrIntervals[i + 1] > 1300);
+            }
+        }
+        assertTrue(prematureBeatCount > 0);
+    }
+
+    @Test
+    public void dropoutsLoseSkinContactTest() {
+        SyntheticHeartRateSource source = create(Pattern.DROPOUTS);
+        EventCounter events = new EventCounter();
+        source.setSink(events);
+        int[] rrIntervals = new int[64];
+
+        source.generate(26 * SAMPLE_RATE_HZ);
+        int heartRate = source.peekCurrentHeartRateValue();
+        source.drainRrIntervals(rrIntervals);
+        assertFalse(source.isSensorContactDetected());
+        assertTrue(events.accuracies.contains(SensorManager.SENSOR_STATUS_NO_CONTACT));
+
+        source.generate(3 * SAMPLE_RATE_HZ);
+        assertEquals(0, source.drainRrIntervals(rrIntervals));
+        /* Value before contact loss is kept */
+        assertEquals(heartRate, source.peekCurrentHeartRateValue());
+
+        /* The first beat after contact has no previous beat to make interval with */
+        source.generate(5 * SAMPLE_RATE_HZ);
+        assertTrue(source.isSensorContactDetected());
+        assertTrue(source.drainRrIntervals(rrIntervals) > 0);
+    }
+
+    @Test
+    public void sameSeedGivesSameSessionTest() {
+        EventCounter first = new EventCounter();
+        EventCounter second = new EventCounter();
+        SyntheticHeartRateSource firstSource = create(Pattern.ARRHYTHMIA);
+        SyntheticHeartRateSource secondSource = create(Pattern.ARRHYTHMIA);
+        firstSource.setSink(first);
+        secondSource.setSink(second);
+
+        firstSource.generate(100);
+        secondSource.generate(100);
+
+        assertEquals(first.values, second.values);
+        assertEquals(first.beatTimestampsNs, second.beatTimestampsNs);
+    }
+
+    @Test
+    public void startedSourceGeneratesAtConfiguredRateTest() {
+        SyntheticHeartRateSource source = new SyntheticHeartRateSource(Pattern.REST, 1000, 0, handler);
+        source.startMeasure();
+
+        ShadowLooper.idleMainLooper(2, TimeUnit.SECONDS);
+        assertInRange((int) source.getSampleCount(), 2000, 2001);
+
+        source.stopMeasure();
+        ShadowLooper.idleMainLooper(1, TimeUnit.SECONDS);
+        assertEquals(0, source.getSampleCount());
+        assertEquals(HeartRateSource.NO_VALUE_AVAILABLE, source.peekCurrentHeartRateValue());
+    }
+
+    @Test
+    public void highRateSamplesPassThroughSensorListenerTest() {
+        HandlerThread sensorThread = HeartRateSensorListener.startSensorThread();
+        try {
+            HeartRateSensorListener listener = new HeartRateSensorListener(RuntimeEnvironment.application,
+                    new Handler(sensorThread.getLooper()), SamplePipeline.parse("outlier:30:220:30,median:5,ema:0.3", 16));
+            SyntheticHeartRateSource source = new SyntheticHeartRateSource(Pattern.INTERVAL_TRAINING,
+                    SyntheticHeartRateSource.MAX_SAMPLE_RATE_HZ, 0, handler);
+            source.setSink(listener);
+
+            source.generate(10 * SyntheticHeartRateSource.MAX_SAMPLE_RATE_HZ);
+
+            assertEquals(10 * SyntheticHeartRateSource.MAX_SAMPLE_RATE_HZ, source.getSampleCount());
+            assertEquals(source.peekCurrentHeartRateValue(), listener.peekCurrentHeartRateValue(), 3);
+            int[] rrIntervals = new int[64];
+            assertTrue(listener.drainRrIntervals(rrIntervals) > 0);
+        } finally {
+            sensorThread.quit();
+        }
+    }
+
+    @Test
+    public void parseSpecificationTest() {
+        SyntheticHeartRateSource source = SyntheticHeartRateSource.parse("interval_training:1000", handler);
+        source.generate(1);
+        assertTrue(source.peekCurrentHeartRateValue() > 0);
+
+        for (String specification : Arrays.asList("rest", "walk:100", "rest:fast", "rest:0", "rest:100000")) {
+            assertThrows(specification, IllegalArgumentException.class,
+                    () -> SyntheticHeartRateSource.parse(specification, handler));
+        }
+    }
+
+    private SyntheticHeartRateSource create(Pattern pattern) {
+        return new SyntheticHeartRateSource(pattern, SAMPLE_RATE_HZ, /* seed */ 42, handler);
+    }
+
+    private static void assertInRange(int value, int min, int max) {
+        assertTrue(String.format("Value %d is out of range %d-%d", value, min, max), value >= min && value <= max);
+    }
+
+    /**
+     * Sink which keeps generated values.
+     */
+    private static class EventCounter implements SensorEventSink {
+        private final List<Float> values = new ArrayList<>();
+        private final List<Long> beatTimestampsNs = new ArrayList<>();
+        private final List<Integer> accuracies = new ArrayList<>();
+
+        @Override
+        public void onHeartRateSample(long timestampNs, float heartRate, int accuracy) {
+            values.add(heartRate);
+        }
+
+        @Override
+        public void onHeartRateAccuracyChanged(long timestampNs, int accuracy) {
+            accuracies.add(accuracy);
+        }
+
+        @Override
+        public void onHeartBeatSample(long timestampNs, int accuracy) {
+            beatTimestampsNs.add(timestampNs);
+        }
+
+        @Override
+        public void onHeartBeatAccuracyChanged(long timestampNs, int accuracy) {
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.google.heartrate.wearos.app.sensors.pipeline;
+
+import com.google.heartrate.wearos.app.Benchmark;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SamplePipelineTest {
+
+    private static final float DELTA = 1e-4f;
+    private static final long SECOND_NS = TimeUnit.SECONDS.toNanos(1);
+
+    /** Number of samples in high rate test, 10 seconds. */
+    private static final int HIGH_RATE_SAMPLE_COUNT = 10_000;
+
+    /** Synthetic sample period in high rate test, 1 kHz. */
+    private static final long HIGH_RATE_PERIOD_NS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /** Property with number of samples to push through pipeline in throughput benchmark. */
+    private static final String BENCHMARK_SAMPLES_PROPERTY = "benchmark.pipeline.samples";
+
+    @Test
+    public void emptySpecificationPassesSamplesTest() {
+        SamplePipeline pipeline = SamplePipeline.parse("", 4);
+
+        assertEquals(1, pipeline.process(SECOND_NS, 72.4f));
+        assertEquals(SECOND_NS, pipeline.getOutputTimestamp(0));
+        assertEquals(72.4f, pipeline.getOutputValue(0), DELTA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownStageIsRejectedTest() {
+        SamplePipeline.parse("median:5,kalman:1", 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformedArgumentIsRejectedTest() {
+        SamplePipeline.parse("ema:fast", 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongArgumentCountIsRejectedTest() {
+        SamplePipeline.parse("outlier:30:220", 4);
+    }
+
+    @Test
+    public void outlierRejectionDropsOutOfRangeAndJumpsTest() {
+        SamplePipeline pipeline = new SamplePipeline(8, new OutlierRejectionStage(30, 220, 30));
+        long[] timestamps = {0, SECOND_NS, 2 * SECOND_NS, 3 * SECOND_NS, 4 * SECOND_NS};
+        float[] values = {70, 250, 140, 90, 20};
+
+        assertEquals(2, pipeline.process(timestamps, values, values.length));
+        assertEquals(70, pipeline.getOutputValue(0), DELTA);
+        assertEquals(90, pipeline.getOutputValue(1), DELTA);
+        assertEquals(3 * SECOND_NS, pipeline.getOutputTimestamp(1));
+    }
+
+    @Test
+    public void medianFilterRemovesSpikeTest() {
+        SamplePipeline pipeline = new SamplePipeline(8, new MedianFilterStage(3));
+        long[] timestamps = {0, 1, 2, 3, 4};
+        float[] values = {70, 71, 150, 72, 73};
+
+        assertEquals(5, pipeline.process(timestamps, values, values.length));
+        assertEquals(70.5f, pipeline.getOutputValue(1), DELTA);
+        assertEquals(71, pipeline.getOutputValue(2), DELTA);
+        assertEquals(72, pipeline.getOutputValue(3), DELTA);
+        assertEquals(73, pipeline.getOutputValue(4), DELTA);
+    }
+
+    @Test
+    public void emaSmoothingFollowsStepTest() {
+        SamplePipeline pipeline = new SamplePipeline(4, new EmaSmoothingStage(0.5f));
+
+        pipeline.process(0, 60);
+        assertEquals(60, pipeline.getOutputValue(0), DELTA);
+        pipeline.process(1, 80);
+        assertEquals(70, pipeline.getOutputValue(0), DELTA);
+        pipeline.process(2, 80);
+        assertEquals(75, pipeline.getOutputValue(0), DELTA);
+    }
+
+    @Test
+    public void resetForgetsStateTest() {
+        SamplePipeline pipeline = new SamplePipeline(4, new EmaSmoothingStage(0.5f));
+        pipeline.process(0, 60);
+
+        pipeline.reset();
+
+        pipeline.process(1, 100);
+        assertEquals(100, pipeline.getOutputValue(0), DELTA);
+    }
+
+    @Test
+    public void resamplingInterpolatesOnGridTest() {
+        SamplePipeline pipeline = new SamplePipeline(8, new ResamplingStage(SECOND_NS));
+        long[] timestamps = {SECOND_NS / 2, 2 * SECOND_NS + SECOND_NS / 2};
+        float[] values = {60, 80};
+
+        assertEquals(2, pipeline.process(timestamps, values, values.length));
+        assertEquals(SECOND_NS, pipeline.getOutputTimestamp(0));
+        assertEquals(65, pipeline.getOutputValue(0), DELTA);
+        assertEquals(2 * SECOND_NS, pipeline.getOutputTimestamp(1));
+        assertEquals(75, pipeline.getOutputValue(1), DELTA);
+    }
+
+    @Test
+    public void resamplingKeepsLatestPointsWhenGapExceedsCapacityTest() {
+        SamplePipeline pipeline = new SamplePipeline(2, new ResamplingStage(SECOND_NS));
+        pipeline.process(0, 60);
+
+        assertEquals(2, pipeline.process(10 * SECOND_NS, 70));
+        assertEquals(9 * SECOND_NS, pipeline.getOutputTimestamp(0));
+        assertEquals(10 * SECOND_NS, pipeline.getOutputTimestamp(1));
+        assertEquals(70, pipeline.getOutputValue(1), DELTA);
+    }
+
+    @Test
+    public void highRateInputIsResampledWithoutSpikesTest() {
+        SamplePipeline pipeline = SamplePipeline.parse("outlier:30:220:30,median:5,ema:0.3,resample:1000", 16);
+
+        int outputCount = 0;
+        for (int i = 0; i < HIGH_RATE_SAMPLE_COUNT; i++) {
+            /* Spikes follow valid samples, the first sample has nothing to be rejected against */
+            float value = 70 + 10 * (float) Math.sin(i / 5000.0) + ((i % 97 == 96) ? 100 : 0);
+            int count = pipeline.process(i * HIGH_RATE_PERIOD_NS, value);
+            for (int j = 0; j < count; j++) {
+                float output = pipeline.getOutputValue(j);
+                assertTrue(String.format("Spike passed pipeline: %f", output), output >= 60 && output <= 80);
+            }
+            outputCount += count;
+        }
+
+        /* 1 kHz input resampled to 1 Hz */
+        assertEquals(HIGH_RATE_SAMPLE_COUNT / 1000, outputCount, 1);
+    }
+
+    @Test
+    public void highRateThroughputBenchmarkTest() throws Exception {
+        Benchmark benchmark = Benchmark.start("sample-pipeline", BENCHMARK_SAMPLES_PROPERTY);
+        SamplePipeline pipeline = SamplePipeline.parse("outlier:30:220:30,median:5,ema:0.3,resample:1000", 16);
+
+        benchmark.warmUp(count -> runSynthetic(pipeline, count));
+        pipeline.reset();
+        benchmark.measure("high rate throughput", count -> runSynthetic(pipeline, count));
+        benchmark.writeReport();
+    }
+
+    /**
+     * Push synthetic heart rate signal with spikes through pipeline, one sample at a time like sensor does.
+     *
+     * @return total number of output samples
+     */
+    private static int runSynthetic(SamplePipeline pipeline, int sampleCount) {
+        int outputCount = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            float value = 70 + 10 * (float) Math.sin(i / 5000.0) + ((i % 97 == 96) ? 100 : 0);
+            outputCount += pipeline.process(i * HIGH_RATE_PERIOD_NS, value);
+        }
+        return outputCount;
+    }
+}
@@ -0,0 +1,336 @@
+package com.google.heartrate.codec.processor;
+
+import com.google.heartrate.codec.Field;
+import com.google.heartrate.codec.Flags;
+import com.google.heartrate.codec.Format;
+import com.google.heartrate.codec.Repeated;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+
+/**
+ * Binary layout of characteristic value read from {@link com.google.heartrate.codec.GattCodec} class.
+ */
+class CodecLayout {
+
+    /** Maximum number of distinct flag conditions, round-trip tests cover all their combinations. */
+    private static final int MAX_CONDITION_COUNT = 8;
+
+    /** Package of layout class. */
+    final String packageName;
+
+    /** Simple name of layout class. */
+    final String layoutName;
+
+    /** Simple name of generated codec class. */
+    final String codecName;
+
+    /** Name of flags field or null if layout has no flags. */
+    final String flagsField;
+
+    /** Number of scalar fields encoded before flags. */
+    final int flagsIndex;
+
+    /** Offset of flags in encoded value. */
+    final int flagsOffset;
+
+    /** Scalar fields in encoding order. */
+    final List<ScalarField> scalarFields;
+
+    /** Repeated tail field or null if layout has no tail. */
+    final RepeatedField repeatedField;
+
+    private CodecLayout(String packageName, String layoutName, String flagsField, int flagsIndex,
+                        List<ScalarField> scalarFields, RepeatedField repeatedField) {
+        this.packageName = packageName;
+        this.layoutName = layoutName;
+        this.codecName = layoutName + "Codec";
+        this.flagsField = flagsField;
+        this.flagsIndex = flagsIndex;
+        int offset = 0;
+        for (int i = 0; i < flagsIndex; i++) {
+            offset += scalarFields.get(i).format.getSize();
+        }
+        this.flagsOffset = offset;
+        this.scalarFields = Collections.unmodifiableList(scalarFields);
+        this.repeatedField = repeatedField;
+    }
+
+    /**
+     * Read layout from annotated fields of given class.
+     *
+     * @param type layout class
+     * @param elements element utilities
+     * @param messager messager to report layout errors to
+     * @return layout or null if class does not declare valid layout
+     */
+    static CodecLayout read(TypeElement type, Elements elements, Messager messager) {
+        boolean valid = checkLayoutClass(type, messager);
+
+        String flagsField = null;
+        int flagsIndex = 0;
+        List<ScalarField> scalarFields = new ArrayList<>();
+        RepeatedField repeatedField = null;
+        boolean anyField = false;
+
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            Flags flags = field.getAnnotation(Flags.class);
+            Field scalar = field.getAnnotation(Field.class);
+            Repeated repeated = field.getAnnotation(Repeated.class);
+            int annotationCount = (flags != null ? 1 : 0) + (scalar != null ? 1 : 0) + (repeated != null ? 1 : 0);
+            if (annotationCount == 0) {
+                continue;
+            }
+            if (annotationCount > 1) {
+                valid = error(messager, field, "Field can have only one of @Flags, @Field and @Repeated");
+                continue;
+            }
+            valid &= checkLayoutField(field, repeated != null, messager);
+
+            if (repeatedField != null) {
+                valid = error(messager, field, "@Repeated field must be the last field of layout");
+            }
+
+            if (flags != null) {
+                if (flagsField != null) {
+                    valid = error(messager, field, "Layout can have only one @Flags field");
+                }
+                if (field.asType().getKind() != TypeKind.INT) {
+                    valid = error(messager, field, "@Flags field must be int");
+                }
+                flagsField = field.getSimpleName().toString();
+                flagsIndex = scalarFields.size();
+            } else if (scalar != null) {
+                valid &= checkScalarField(field, scalar, flagsField != null, messager);
+                scalarFields.add(new ScalarField(field.getSimpleName().toString(), scalar.format(),
+                        scalar.presentIf(), scalar.wideIf(), scalar.wideFormat()));
+            } else {
+                valid &= checkRepeatedField(type, field, repeated, flagsField != null, messager);
+                repeatedField = new RepeatedField(field.getSimpleName().toString(), repeated.format(),
+                        repeated.presentIf(), repeated.countField());
+            }
+            anyField = true;
+        }
+
+        if (!anyField) {
+            valid = error(messager, type, "@GattCodec class must declare at least one layout field");
+        }
+
+        CodecLayout layout = new CodecLayout(getPackageName(type, elements), type.getSimpleName().toString(),
+                flagsField, flagsIndex, scalarFields, repeatedField);
+        if (valid && layout.getConditions().size() > MAX_CONDITION_COUNT) {
+            valid = error(messager, type, String.format("Layout can have at most %d distinct flag conditions",
+                    MAX_CONDITION_COUNT));
+        }
+        return valid ? layout : null;
+    }
+
+    /**
+     * Get distinct flag masks fields depend on.
+     *
+     * @return flag masks in order of first use
+     */
+    List<Integer> getConditions() {
+        List<Integer> conditions = new ArrayList<>();
+        for (ScalarField field : scalarFields) {
+            addCondition(conditions, field.wideIf);
+            addCondition(conditions, field.presentIf);
+        }
+        if (repeatedField != null) {
+            addCondition(conditions, repeatedField.presentIf);
+        }
+        return conditions;
+    }
+
+    private static void addCondition(List<Integer> conditions, int mask) {
+        if (mask != 0 && !conditions.contains(mask)) {
+            conditions.add(mask);
+        }
+    }
+
+    /**
+     * Determine whether all bits of mask are set in flags. Mask 0 is always set.
+     */
+    static boolean isSet(int flags, int mask) {
+        return (flags & mask) == mask;
+    }
+
+    private static String getPackageName(TypeElement type, Elements elements) {
+        PackageElement packageElement = elements.getPackageOf(type);
+        return packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+    }
+
+    private static boolean checkLayoutClass(TypeElement type, Messager messager) {
+        boolean valid = true;
+        if (type.getKind() != ElementKind.CLASS || type.getNestingKind() != NestingKind.TOP_LEVEL) {
+            valid = error(messager, type, "@GattCodec must annotate top level class");
+        }
+        if (type.getModifiers().contains(Modifier.PRIVATE) || type.getModifiers().contains(Modifier.ABSTRACT)) {
+            valid = error(messager, type, "@GattCodec class must not be private or abstract");
+        }
+
+        boolean hasConstructor = false;
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                hasConstructor = true;
+            }
+        }
+        if (!hasConstructor) {
+            valid = error(messager, type, "@GattCodec class must have non-private no-argument constructor");
+        }
+        return valid;
+    }
+
+    private static boolean checkLayoutField(VariableElement field, boolean repeated, Messager messager) {
+        Set<Modifier> modifiers = field.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC)) {
+            return error(messager, field, "Layout field must not be private or static");
+        }
+        if (!repeated && modifiers.contains(Modifier.FINAL)) {
+            return error(messager, field, "Layout field must not be final");
+        }
+        return true;
+    }
+
+    private static boolean checkScalarField(VariableElement field, Field scalar, boolean hasFlags,
+                                            Messager messager) {
+        boolean valid = checkFormatType(field, field.asType(), scalar.format(), messager);
+        valid &= checkMask(field, scalar.presentIf(), hasFlags, messager);
+        valid &= checkMask(field, scalar.wideIf(), hasFlags, messager);
+        if (scalar.wideIf() != 0 && getTypeKind(scalar.format()) != getTypeKind(scalar.wideFormat())) {
+            valid = error(messager, field, "Wide format must have the same type as format");
+        }
+        return valid;
+    }
+
+    private static boolean checkRepeatedField(TypeElement type, VariableElement field, Repeated repeated,
+                                              boolean hasFlags, Messager messager) {
+        TypeMirror fieldType = field.asType();
+        if (fieldType.getKind() != TypeKind.ARRAY) {
+            return error(messager, field, "@Repeated field must be array");
+        }
+        boolean valid = checkFormatType(field, ((ArrayType) fieldType).getComponentType(), repeated.format(), messager);
+        valid &= checkMask(field, repeated.presentIf(), hasFlags, messager);
+
+        VariableElement countField = null;
+        for (VariableElement candidate : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            if (candidate.getSimpleName().contentEquals(repeated.countField())) {
+                countField = candidate;
+            }
+        }
+        if (countField == null || countField.asType().getKind() != TypeKind.INT
+                || countField.getModifiers().contains(Modifier.PRIVATE)
+                || countField.getModifiers().contains(Modifier.STATIC)
+                || countField.getModifiers().contains(Modifier.FINAL)) {
+            valid = error(messager, field, String.format(
+                    "Count field '%s' must be non-private, non-static, non-final int field", repeated.countField()));
+        }
+        return valid;
+    }
+
+    private static boolean checkFormatType(Element field, TypeMirror type, Format format, Messager messager) {
+        TypeKind expected = getTypeKind(format);
+        if (type.getKind() != expected) {
+            return error(messager, field, String.format("Field of %s format must be %s",
+                    format, expected.name().toLowerCase()));
+        }
+        return true;
+    }
+
+    private static TypeKind getTypeKind(Format format) {
+        switch (format) {
+            case UINT32:
+                return TypeKind.LONG;
+            case SFLOAT:
+                return TypeKind.FLOAT;
+            default:
+                return TypeKind.INT;
+        }
+    }
+
+    /**
+     * Get Java type of field values in given format.
+     */
+    static String getJavaType(Format format) {
+        return getTypeKind(format).name().toLowerCase();
+    }
+
+    private static boolean checkMask(Element field, int mask, boolean hasFlags, Messager messager) {
+        if (mask == 0) {
+            return true;
+        }
+        if (!hasFlags) {
+            return error(messager, field, "Conditional field requires preceding @Flags field");
+        }
+        if ((mask & ~0xFF) != 0) {
+            return error(messager, field, String.format("Flag mask 0x%X is out of UINT8 range", mask));
+        }
+        return true;
+    }
+
+    private static boolean error(Messager messager, Element element, String message) {
+        messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+        return false;
+    }
+
+    /**
+     * Scalar field of layout.
+     */
+    static class ScalarField {
+        final String name;
+        final Format format;
+        final int presentIf;
+        final int wideIf;
+        final Format wideFormat;
+
+        ScalarField(String name, Format format, int presentIf, int wideIf, Format wideFormat) {
+            this.name = name;
+            this.format = format;
+            this.presentIf = presentIf;
+            this.wideIf = wideIf;
+            this.wideFormat = wideFormat;
+        }
+
+        /**
+         * Get format of field with given flags.
+         */
+        Format getFormat(int flags) {
+            return wideIf != 0 && isSet(flags, wideIf) ? wideFormat : format;
+        }
+    }
+
+    /**
+     * Repeated tail field of layout.
+     */
+    static class RepeatedField {
+        final String name;
+        final Format format;
+        final int presentIf;
+        final String countField;
+
+        RepeatedField(String name, Format format, int presentIf, String countField) {
+            this.name = name;
+            this.format = format;
+            this.presentIf = presentIf;
+            this.countField = countField;
+        }
+    }
+}
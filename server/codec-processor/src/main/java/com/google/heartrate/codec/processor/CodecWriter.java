@@ -0,0 +1,403 @@
+package com.google.heartrate.codec.processor;
+
+import com.google.heartrate.codec.Format;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writer of codec source for {@link CodecLayout}.
+ * <p>
+ * Generated methods read and write bytes at computed positions directly, branching only on flag bits,
+ * so encoding and decoding allocate nothing and have no per-field dispatch.
+ */
+class CodecWriter {
+    private final CodecLayout layout;
+
+    /** Argument passed to {@code fixedSize} method, empty if layout has no flags. */
+    private final String flagsArgument;
+
+    CodecWriter(CodecLayout layout) {
+        this.layout = layout;
+        this.flagsArgument = layout.flagsField != null ? "flags" : "";
+    }
+
+    /**
+     * Write codec source.
+     *
+     * @return codec compilation unit
+     */
+    String write() {
+        SourceWriter out = new SourceWriter();
+        if (!layout.packageName.isEmpty()) {
+            out.line("package %s;", layout.packageName).line("");
+        }
+        out.line("import com.google.heartrate.codec.CodecException;");
+        if (usesSFloat()) {
+            out.line("import com.google.heartrate.codec.SFloat;");
+        }
+        out.line("");
+        out.line("/**");
+        out.line(" * Encoder and decoder of {@link %s} values.", layout.layoutName);
+        out.line(" * <p>");
+        out.line(" * Generated from layout annotations of {@link %s}, do not edit.", layout.layoutName);
+        out.line(" */");
+        out.open("public final class %s", layout.codecName);
+        out.line("");
+        out.open("private %s()", layout.codecName).close();
+        out.line("");
+        writeEncodedSize(out);
+        out.line("");
+        writeEncode(out);
+        out.line("");
+        writeDecode(out);
+        out.line("");
+        writeFixedSize(out);
+        out.close();
+        return out.toString();
+    }
+
+    private boolean usesSFloat() {
+        for (CodecLayout.ScalarField field : layout.scalarFields) {
+            if (field.format == Format.SFLOAT) {
+                return true;
+            }
+        }
+        return layout.repeatedField != null && layout.repeatedField.format == Format.SFLOAT;
+    }
+
+    private void writeEncodedSize(SourceWriter out) {
+        out.line("/**");
+        out.line(" * Get number of bytes given value takes when encoded.");
+        out.line(" *");
+        out.line(" * @param value value to encode");
+        out.line(" * @return encoded size in bytes");
+        out.line(" */");
+        out.open("public static int encodedSize(%s value)", layout.layoutName);
+        if (layout.flagsField != null) {
+            out.line("int flags = value.%s;", layout.flagsField);
+        }
+        out.line("return %s;", sizeExpression("value." + countField()));
+        out.close();
+    }
+
+    private void writeEncode(SourceWriter out) {
+        out.line("/**");
+        out.line(" * Encode value into buffer at given offset.");
+        out.line(" *");
+        out.line(" * @param value value to encode");
+        out.line(" * @param buffer buffer to write encoded value to");
+        out.line(" * @param offset offset in buffer to start writing at");
+        out.line(" * @return number of written bytes");
+        out.line(" * @throws CodecException if field values are out of their format range or buffer is too small");
+        out.line(" */");
+        out.open("public static int encode(%s value, byte[] buffer, int offset) throws CodecException",
+                layout.layoutName);
+        if (layout.flagsField != null) {
+            out.line("int flags = value.%s;", layout.flagsField);
+            out.open("if ((flags & ~0xFF) != 0)");
+            out.line("throw new CodecException(String.format(\"Flags 0x%%X are out of UINT8 range\", flags));");
+            out.close();
+        }
+        if (layout.repeatedField != null) {
+            out.line("int count = value.%s;", layout.repeatedField.countField);
+            out.open("if (count < 0 || count > value.%s.length)", layout.repeatedField.name);
+            out.line("throw new CodecException(String.format(");
+            out.line("        \"Count %%d of %s is out of array bounds\", count));", layout.repeatedField.name);
+            out.close();
+        }
+        out.line("int size = %s;", sizeExpression("count"));
+        out.open("if (offset < 0 || offset > buffer.length - size)");
+        out.line("throw new CodecException(String.format(");
+        out.line("        \"Buffer of %%d bytes is too small for %%d bytes at offset %%d\", buffer.length, size, offset));");
+        out.close();
+        out.line("");
+        out.line("int position = offset;");
+        for (int i = 0; i < layout.scalarFields.size(); i++) {
+            if (i == layout.flagsIndex && layout.flagsField != null) {
+                out.line("buffer[position++] = (byte) flags;");
+            }
+            writeScalarEncode(out, layout.scalarFields.get(i));
+        }
+        if (layout.flagsIndex == layout.scalarFields.size() && layout.flagsField != null) {
+            out.line("buffer[position++] = (byte) flags;");
+        }
+        if (layout.repeatedField != null) {
+            writeRepeatedEncode(out, layout.repeatedField);
+        }
+        out.line("return size;");
+        out.close();
+    }
+
+    private void writeScalarEncode(SourceWriter out, CodecLayout.ScalarField field) {
+        if (field.presentIf != 0) {
+            out.open("if (%s)", condition(field.presentIf));
+        }
+        String local = field.name + "Value";
+        if (field.wideIf != 0) {
+            out.open("if (%s)", condition(field.wideIf));
+            writeValueEncode(out, field.name, "value." + field.name, local, field.wideFormat);
+            out.close(" else {");
+            writeValueEncode(out, field.name, "value." + field.name, local, field.format);
+            out.close();
+        } else {
+            writeValueEncode(out, field.name, "value." + field.name, local, field.format);
+        }
+        if (field.presentIf != 0) {
+            out.close();
+        }
+    }
+
+    private void writeRepeatedEncode(SourceWriter out, CodecLayout.RepeatedField field) {
+        if (field.presentIf != 0) {
+            out.open("if (%s)", condition(field.presentIf));
+        }
+        String array = field.name + "Value";
+        out.line("%s[] %s = value.%s;", CodecLayout.getJavaType(field.format), array, field.name);
+        out.open("for (int i = 0; i < count; i++)");
+        writeValueEncode(out, field.name, array + "[i]", "element", field.format);
+        out.close();
+        if (field.presentIf != 0) {
+            out.close();
+        }
+    }
+
+    private void writeValueEncode(SourceWriter out, String name, String source, String local, Format format) {
+        switch (format) {
+            case UINT8:
+                out.line("int %s = %s;", local, source);
+                writeRangeCheck(out, name, local, "0xFF", format);
+                out.line("buffer[position++] = (byte) %s;", local);
+                break;
+            case UINT16:
+                out.line("int %s = %s;", local, source);
+                writeRangeCheck(out, name, local, "0xFFFF", format);
+                out.line("buffer[position++] = (byte) %s;", local);
+                out.line("buffer[position++] = (byte) (%s >> 8);", local);
+                break;
+            case UINT32:
+                out.line("long %s = %s;", local, source);
+                writeRangeCheck(out, name, local, "0xFFFFFFFFL", format);
+                out.line("buffer[position++] = (byte) %s;", local);
+                out.line("buffer[position++] = (byte) (%s >> 8);", local);
+                out.line("buffer[position++] = (byte) (%s >> 16);", local);
+                out.line("buffer[position++] = (byte) (%s >> 24);", local);
+                break;
+            case SFLOAT:
+                out.line("int %s = SFloat.fromFloat(%s);", local, source);
+                out.line("buffer[position++] = (byte) %s;", local);
+                out.line("buffer[position++] = (byte) (%s >> 8);", local);
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unsupported format %s", format));
+        }
+    }
+
+    private void writeRangeCheck(SourceWriter out, String name, String local, String mask, Format format) {
+        out.open("if ((%s & ~%s) != 0)", local, mask);
+        out.line("throw new CodecException(String.format(");
+        out.line("        \"Value %%d of %s is out of %s range\", %s));", name, format, local);
+        out.close();
+    }
+
+    private void writeDecode(SourceWriter out) {
+        out.line("/**");
+        out.line(" * Decode value from buffer into given instance.");
+        out.line(" * <br>Fields which are not present according to flags are reset to 0.");
+        out.line(" *");
+        out.line(" * @param buffer buffer to read encoded value from");
+        out.line(" * @param offset offset in buffer encoded value starts at");
+        out.line(" * @param length number of bytes in encoded value");
+        out.line(" * @param value instance to decode value into");
+        out.line(" * @return number of read bytes");
+        out.line(" * @throws CodecException if encoded value is malformed or does not fit into instance");
+        out.line(" */");
+        out.open("public static int decode(byte[] buffer, int offset, int length, %s value) throws CodecException",
+                layout.layoutName);
+        out.open("if (offset < 0 || length < 0 || offset > buffer.length - length)");
+        out.line("throw new CodecException(String.format(");
+        out.line("        \"Range of %%d bytes at offset %%d is out of buffer of %%d bytes\", length, offset, buffer.length));");
+        out.close();
+        if (layout.flagsField != null) {
+            out.open("if (length < %d)", layout.flagsOffset + 1);
+            out.line("throw new CodecException(\"Value has no flags\");");
+            out.close();
+            out.line("int flags = buffer[offset%s] & 0xFF;",
+                    layout.flagsOffset != 0 ? " + " + layout.flagsOffset : "");
+        }
+        out.line("int size = fixedSize(%s);", flagsArgument);
+        out.open("if (length < size)");
+        out.line("throw new CodecException(String.format(");
+        out.line("        \"Value of %%d bytes is shorter than %%d bytes\", length, size));");
+        out.close();
+        out.line("");
+        out.line("int position = offset;");
+        for (int i = 0; i < layout.scalarFields.size(); i++) {
+            if (i == layout.flagsIndex) {
+                writeFlagsDecode(out);
+            }
+            writeScalarDecode(out, layout.scalarFields.get(i));
+        }
+        if (layout.flagsIndex == layout.scalarFields.size()) {
+            writeFlagsDecode(out);
+        }
+        if (layout.repeatedField != null) {
+            writeRepeatedDecode(out, layout.repeatedField);
+        }
+        out.line("return position - offset;");
+        out.close();
+    }
+
+    private void writeFlagsDecode(SourceWriter out) {
+        if (layout.flagsField != null) {
+            out.line("value.%s = flags;", layout.flagsField);
+            out.line("position++;");
+        }
+    }
+
+    private void writeScalarDecode(SourceWriter out, CodecLayout.ScalarField field) {
+        String target = "value." + field.name;
+        if (field.presentIf != 0) {
+            out.open("if (%s)", condition(field.presentIf));
+        }
+        if (field.wideIf != 0) {
+            out.open("if (%s)", condition(field.wideIf));
+            writeValueDecode(out, target, field.wideFormat);
+            out.close(" else {");
+            writeValueDecode(out, target, field.format);
+            out.close();
+        } else {
+            writeValueDecode(out, target, field.format);
+        }
+        if (field.presentIf != 0) {
+            out.close(" else {");
+            out.line("%s = %s;", target, zero(field.format));
+            out.close();
+        }
+    }
+
+    private void writeRepeatedDecode(SourceWriter out, CodecLayout.RepeatedField field) {
+        int elementSize = field.format.getSize();
+        out.line("int count = 0;");
+        if (field.presentIf != 0) {
+            out.open("if (%s)", condition(field.presentIf));
+        }
+        out.line("int tailLength = length - (position - offset);");
+        if (elementSize > 1) {
+            out.open("if (tailLength %% %d != 0)", elementSize);
+            out.line("throw new CodecException(String.format(");
+            out.line("        \"Length %%d of %s is not multiple of %d\", tailLength));", field.name, elementSize);
+            out.close();
+            out.line("count = tailLength / %d;", elementSize);
+        } else {
+            out.line("count = tailLength;");
+        }
+        String array = field.name + "Value";
+        out.line("%s[] %s = value.%s;", CodecLayout.getJavaType(field.format), array, field.name);
+        out.open("if (count > %s.length)", array);
+        out.line("throw new CodecException(String.format(");
+        out.line("        \"%%d elements of %s do not fit into %%d\", count, %s.length));", field.name, array);
+        out.close();
+        out.open("for (int i = 0; i < count; i++)");
+        writeValueDecode(out, array + "[i]", field.format);
+        out.close();
+        if (field.presentIf != 0) {
+            out.close();
+        }
+        out.line("value.%s = count;", field.countField);
+    }
+
+    private void writeValueDecode(SourceWriter out, String target, Format format) {
+        switch (format) {
+            case UINT8:
+                out.line("%s = buffer[position++] & 0xFF;", target);
+                break;
+            case UINT16:
+                out.line("%s = (buffer[position] & 0xFF) | (buffer[position + 1] & 0xFF) << 8;", target);
+                out.line("position += 2;");
+                break;
+            case UINT32:
+                out.line("%s = (buffer[position] & 0xFF) | (buffer[position + 1] & 0xFF) << 8", target);
+                out.line("        | (buffer[position + 2] & 0xFF) << 16 | (long) (buffer[position + 3] & 0xFF) << 24;");
+                out.line("position += 4;");
+                break;
+            case SFLOAT:
+                out.line("%s = SFloat.toFloat((buffer[position] & 0xFF) | (buffer[position + 1] & 0xFF) << 8);",
+                        target);
+                out.line("position += 2;");
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unsupported format %s", format));
+        }
+    }
+
+    private void writeFixedSize(SourceWriter out) {
+        out.line("/**");
+        out.line(" * Get number of bytes taken by flags and scalar fields.");
+        out.line(" */");
+        out.open("private static int fixedSize(%s)", layout.flagsField != null ? "int flags" : "");
+        int constantSize = layout.flagsField != null ? 1 : 0;
+        List<String> terms = new ArrayList<>();
+        for (CodecLayout.ScalarField field : layout.scalarFields) {
+            String size = field.wideIf != 0
+                    ? String.format("(%s ? %d : %d)", condition(field.wideIf),
+                            field.wideFormat.getSize(), field.format.getSize())
+                    : String.valueOf(field.format.getSize());
+            if (field.presentIf != 0) {
+                terms.add(String.format("(%s ? %s : 0)", condition(field.presentIf), size));
+            } else if (field.wideIf != 0) {
+                terms.add(size);
+            } else {
+                constantSize += field.format.getSize();
+            }
+        }
+        if (terms.isEmpty()) {
+            out.line("return %d;", constantSize);
+        } else {
+            out.line("return %d", constantSize);
+            for (int i = 0; i < terms.size(); i++) {
+                out.line("        + %s%s", terms.get(i), i == terms.size() - 1 ? ";" : "");
+            }
+        }
+        out.close();
+    }
+
+    /**
+     * Build expression of encoded size.
+     *
+     * @param count expression of number of repeated elements
+     */
+    private String sizeExpression(String count) {
+        String fixedSize = String.format("fixedSize(%s)", flagsArgument);
+        CodecLayout.RepeatedField field = layout.repeatedField;
+        if (field == null) {
+            return fixedSize;
+        }
+        String tailSize = field.format.getSize() == 1 ? count : String.format("%d * %s", field.format.getSize(), count);
+        return field.presentIf != 0
+                ? String.format("%s + (%s ? %s : 0)", fixedSize, condition(field.presentIf), tailSize)
+                : String.format("%s + %s", fixedSize, tailSize);
+    }
+
+    private String countField() {
+        return layout.repeatedField != null ? layout.repeatedField.countField : "";
+    }
+
+    /**
+     * Get zero literal of field type in given format.
+     */
+    private static String zero(Format format) {
+        switch (format) {
+            case UINT32:
+                return "0L";
+            case SFLOAT:
+                return "0f";
+            default:
+                return "0";
+        }
+    }
+
+    static String condition(int mask) {
+        return String.format("(flags & 0x%02X) == 0x%02X", mask, mask);
+    }
+}
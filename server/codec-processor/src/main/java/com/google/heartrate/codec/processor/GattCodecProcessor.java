@@ -0,0 +1,85 @@
+package com.google.heartrate.codec.processor;
+
+import com.google.heartrate.codec.Field;
+import com.google.heartrate.codec.Flags;
+import com.google.heartrate.codec.GattCodec;
+import com.google.heartrate.codec.Repeated;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Annotation processor which generates codecs for {@link GattCodec} classes.
+ * <p>
+ * Codec is generated from its layout class only, so processor is isolating for incremental compilation.
+ * Round-trip tests read layouts of other classes and are generated by {@link RoundTripTestProcessor}.
+ */
+public class GattCodecProcessor extends AbstractProcessor {
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        Set<String> types = new HashSet<>();
+        types.add(GattCodec.class.getCanonicalName());
+        types.add(Flags.class.getCanonicalName());
+        types.add(Field.class.getCanonicalName());
+        types.add(Repeated.class.getCanonicalName());
+        return types;
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(GattCodec.class)) {
+            CodecLayout layout = readLayout(processingEnv, (TypeElement) element, element);
+            if (layout != null) {
+                writeSource(processingEnv, qualify(layout, layout.codecName), new CodecWriter(layout).write(), element);
+            }
+        }
+        return true;
+    }
+
+    static CodecLayout readLayout(ProcessingEnvironment processingEnv, TypeElement type, Element origin) {
+        if (type.getAnnotation(GattCodec.class) == null) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    String.format("%s is not annotated with @GattCodec", type.getQualifiedName()), origin);
+            return null;
+        }
+        return CodecLayout.read(type, processingEnv.getElementUtils(), processingEnv.getMessager());
+    }
+
+    static String qualify(CodecLayout layout, String simpleName) {
+        return layout.packageName.isEmpty() ? simpleName : layout.packageName + "." + simpleName;
+    }
+
+    /**
+     * Write generated source file.
+     *
+     * @param origins elements source is generated from, the first one is reported in errors
+     */
+    static void writeSource(ProcessingEnvironment processingEnv, String name, String source, Element... origins) {
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(name, origins);
+            try (Writer writer = file.openWriter()) {
+                writer.write(source);
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    String.format("Can not write %s: %s", name, e.getMessage()), origins[0]);
+        }
+    }
+}
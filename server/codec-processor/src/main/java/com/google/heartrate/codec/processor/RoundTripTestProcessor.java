@@ -0,0 +1,78 @@
+package com.google.heartrate.codec.processor;
+
+import com.google.heartrate.codec.GattCodec;
+import com.google.heartrate.codec.GenerateRoundTripTests;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+
+/**
+ * Annotation processor which generates round-trip tests requested by {@link GenerateRoundTripTests}.
+ * <p>
+ * Tests are generated from layouts of listed {@link GattCodec} classes, not of the annotated class,
+ * so processor is aggregating for incremental compilation.
+ */
+public class RoundTripTestProcessor extends AbstractProcessor {
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(GenerateRoundTripTests.class.getCanonicalName());
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(GenerateRoundTripTests.class)) {
+            for (TypeElement type : getRoundTripTestTypes(element)) {
+                CodecLayout layout = GattCodecProcessor.readLayout(processingEnv, type, element);
+                if (layout != null) {
+                    RoundTripTestWriter writer = new RoundTripTestWriter(layout);
+                    GattCodecProcessor.writeSource(processingEnv, GattCodecProcessor.qualify(layout, writer.testName),
+                            writer.write(), element, type);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get classes listed in {@link GenerateRoundTripTests} annotation of element.
+     * <br>Class values are read from annotation mirror, since they can not be loaded during compilation.
+     */
+    private Set<TypeElement> getRoundTripTestTypes(Element element) {
+        Set<TypeElement> types = new HashSet<>();
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            TypeElement annotationType = (TypeElement) mirror.getAnnotationType().asElement();
+            if (!annotationType.getQualifiedName().contentEquals(GenerateRoundTripTests.class.getCanonicalName())) {
+                continue;
+            }
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                    : mirror.getElementValues().entrySet()) {
+                @SuppressWarnings("unchecked")
+                List<? extends AnnotationValue> values = (List<? extends AnnotationValue>) entry.getValue().getValue();
+                for (AnnotationValue value : values) {
+                    types.add((TypeElement) ((DeclaredType) (TypeMirror) value.getValue()).asElement());
+                }
+            }
+        }
+        return types;
+    }
+}
@@ -0,0 +1,252 @@
+package com.google.heartrate.codec.processor;
+
+import com.google.heartrate.codec.Format;
+
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Writer of JUnit round-trip test source for codec of {@link CodecLayout}.
+ * <p>
+ * For every combination of flag conditions used by layout test encodes and decodes zero, maximum
+ * and mixed field values, and checks that truncated values and out of range fields are rejected.
+ */
+class RoundTripTestWriter {
+
+    /** Offset values are encoded at, so codec offset handling is covered too. */
+    private static final int OFFSET = 3;
+
+    /** Number of repeated elements in mixed values. */
+    private static final int MIXED_ELEMENT_COUNT = 3;
+
+    /** Field values tests are run with. */
+    private enum Values {
+        ZERO, MAXIMUM, MIXED
+    }
+
+    private final CodecLayout layout;
+
+    /** Name of generated test class. */
+    final String testName;
+
+    RoundTripTestWriter(CodecLayout layout) {
+        this.layout = layout;
+        this.testName = layout.codecName + "RoundTripTest";
+    }
+
+    /**
+     * Write test source.
+     *
+     * @return test compilation unit
+     */
+    String write() {
+        SourceWriter out = new SourceWriter();
+        if (!layout.packageName.isEmpty()) {
+            out.line("package %s;", layout.packageName).line("");
+        }
+        out.line("import com.google.heartrate.codec.CodecException;");
+        out.line("");
+        out.line("import org.junit.Test;");
+        out.line("");
+        out.line("import static org.junit.Assert.assertEquals;");
+        out.line("import static org.junit.Assert.assertThrows;");
+        out.line("");
+        out.line("/**");
+        out.line(" * Round-trip test of {@link %s}.", layout.codecName);
+        out.line(" * <p>");
+        out.line(" * Generated from layout annotations of {@link %s}, do not edit.", layout.layoutName);
+        out.line(" */");
+        out.open("public class %s", testName);
+        out.line("private static final int OFFSET = %d;", OFFSET);
+
+        for (int flags : getFlagCombinations()) {
+            for (Values values : Values.values()) {
+                writeRoundTripTest(out, flags, values);
+            }
+            if (isTruncationDetected(flags)) {
+                writeTruncationTest(out, flags);
+            }
+        }
+        for (CodecLayout.ScalarField field : layout.scalarFields) {
+            if (field.format != Format.SFLOAT) {
+                writeOutOfRangeTest(out, field);
+            }
+        }
+
+        writeAssertRoundTrip(out);
+        out.close();
+        return out.toString();
+    }
+
+    /**
+     * Get all distinct flag values which can be built from layout conditions.
+     */
+    private Set<Integer> getFlagCombinations() {
+        List<Integer> conditions = layout.getConditions();
+        Set<Integer> combinations = new TreeSet<>();
+        for (int combination = 0; combination < 1 << conditions.size(); combination++) {
+            int flags = 0;
+            for (int i = 0; i < conditions.size(); i++) {
+                if ((combination & 1 << i) != 0) {
+                    flags |= conditions.get(i);
+                }
+            }
+            combinations.add(flags);
+        }
+        return combinations;
+    }
+
+    private void writeRoundTripTest(SourceWriter out, int flags, Values values) {
+        out.line("");
+        out.line("@Test");
+        out.open("public void roundTrip%s%s() throws CodecException", capitalize(values), flagsSuffix(flags));
+        writeValue(out, flags, values);
+        out.line("assertRoundTrip(value);");
+        out.close();
+    }
+
+    private void writeTruncationTest(SourceWriter out, int flags) {
+        out.line("");
+        out.line("@Test");
+        out.open("public void decodeTruncatedValue%s() throws CodecException", flagsSuffix(flags));
+        writeValue(out, flags, Values.MAXIMUM);
+        out.line("byte[] buffer = new byte[%s.encodedSize(value)];", layout.codecName);
+        out.line("%s.encode(value, buffer, 0);", layout.codecName);
+        out.line("assertThrows(CodecException.class,");
+        out.line("        () -> %s.decode(buffer, 0, buffer.length - 1, new %s()));",
+                layout.codecName, layout.layoutName);
+        out.close();
+    }
+
+    private void writeOutOfRangeTest(SourceWriter out, CodecLayout.ScalarField field) {
+        int flags = field.presentIf;
+        Format format = field.getFormat(flags);
+        out.line("");
+        out.line("@Test");
+        out.open("public void encodeOutOfRange%s()", capitalize(field.name));
+        out.line("%s value = new %s();", layout.layoutName, layout.layoutName);
+        if (layout.flagsField != null) {
+            out.line("value.%s = 0x%02X;", layout.flagsField, flags);
+        }
+        out.line("value.%s = %s;", field.name, literal(maximum(format) + 1, format));
+        out.line("byte[] buffer = new byte[%s.encodedSize(value)];", layout.codecName);
+        out.line("assertThrows(CodecException.class, () -> %s.encode(value, buffer, 0));", layout.codecName);
+        out.close();
+    }
+
+    /**
+     * Write statements creating value with given flags and field values.
+     */
+    private void writeValue(SourceWriter out, int flags, Values values) {
+        out.line("%s value = new %s();", layout.layoutName, layout.layoutName);
+        if (layout.flagsField != null) {
+            out.line("value.%s = 0x%02X;", layout.flagsField, flags);
+        }
+        for (int i = 0; i < layout.scalarFields.size(); i++) {
+            CodecLayout.ScalarField field = layout.scalarFields.get(i);
+            if (!CodecLayout.isSet(flags, field.presentIf)) {
+                continue;
+            }
+            Format format = field.getFormat(flags);
+            String fieldValue;
+            if (format == Format.SFLOAT) {
+                fieldValue = values == Values.ZERO ? "0f" : values == Values.MAXIMUM ? "2045f" : "-3.25f";
+            } else {
+                long maximum = maximum(format);
+                fieldValue = literal(values == Values.ZERO ? 0
+                        : values == Values.MAXIMUM ? maximum : (0x5A + i * 29) & maximum, format);
+            }
+            out.line("value.%s = %s;", field.name, fieldValue);
+        }
+
+        CodecLayout.RepeatedField field = layout.repeatedField;
+        if (field == null || !CodecLayout.isSet(flags, field.presentIf) || values == Values.ZERO) {
+            return;
+        }
+        if (values == Values.MAXIMUM) {
+            out.line("value.%s = value.%s.length;", field.countField, field.name);
+        } else {
+            out.line("value.%s = Math.min(%d, value.%s.length);", field.countField, MIXED_ELEMENT_COUNT, field.name);
+        }
+        String element;
+        if (field.format == Format.SFLOAT) {
+            element = values == Values.MAXIMUM ? "2045f" : "-3.25f + i";
+        } else {
+            element = values == Values.MAXIMUM
+                    ? literal(maximum(field.format), field.format)
+                    : String.format("(0x5A + i * 29) & 0x%X%s", maximum(field.format),
+                            field.format == Format.UINT32 ? "L" : "");
+        }
+        out.open("for (int i = 0; i < value.%s; i++)", field.countField);
+        out.line("value.%s[i] = %s;", field.name, element);
+        out.close();
+    }
+
+    /**
+     * Determine whether removing the last byte of value with given flags must fail decoding.
+     * It does not if the last byte is a whole repeated UINT8 element.
+     */
+    private boolean isTruncationDetected(int flags) {
+        CodecLayout.RepeatedField field = layout.repeatedField;
+        return field == null || !CodecLayout.isSet(flags, field.presentIf) || field.format.getSize() > 1;
+    }
+
+    private void writeAssertRoundTrip(SourceWriter out) {
+        String codec = layout.codecName;
+        out.line("");
+        out.open("private static void assertRoundTrip(%s value) throws CodecException", layout.layoutName);
+        out.line("int size = %s.encodedSize(value);", codec);
+        out.line("byte[] buffer = new byte[OFFSET + size];");
+        out.line("assertEquals(size, %s.encode(value, buffer, OFFSET));", codec);
+        out.line("");
+        out.line("%s decoded = new %s();", layout.layoutName, layout.layoutName);
+        out.line("assertEquals(size, %s.decode(buffer, OFFSET, size, decoded));", codec);
+        if (layout.flagsField != null) {
+            out.line("assertEquals(value.%s, decoded.%s);", layout.flagsField, layout.flagsField);
+        }
+        for (CodecLayout.ScalarField field : layout.scalarFields) {
+            out.line("assertEquals(value.%s, decoded.%s%s);", field.name, field.name,
+                    field.format == Format.SFLOAT ? ", 0f" : "");
+        }
+        CodecLayout.RepeatedField field = layout.repeatedField;
+        if (field != null) {
+            out.line("assertEquals(value.%s, decoded.%s);", field.countField, field.countField);
+            out.open("for (int i = 0; i < value.%s; i++)", field.countField);
+            out.line("assertEquals(value.%s[i], decoded.%s[i]%s);", field.name, field.name,
+                    field.format == Format.SFLOAT ? ", 0f" : "");
+            out.close();
+        }
+        out.close();
+    }
+
+    private String flagsSuffix(int flags) {
+        return layout.flagsField != null ? String.format("_flags0x%02X", flags) : "";
+    }
+
+    private static long maximum(Format format) {
+        switch (format) {
+            case UINT8:
+                return 0xFF;
+            case UINT32:
+                return 0xFFFFFFFFL;
+            default:
+                return 0xFFFF;
+        }
+    }
+
+    /**
+     * Format integer value as Java literal of field type in given format.
+     */
+    private static String literal(long value, Format format) {
+        return format == Format.UINT32 ? value + "L" : String.valueOf(value);
+    }
+
+    private static String capitalize(Object name) {
+        String string = name.toString();
+        if (string.equals(string.toUpperCase())) {
+            string = string.toLowerCase();
+        }
+        return Character.toUpperCase(string.charAt(0)) + string.substring(1);
+    }
+}
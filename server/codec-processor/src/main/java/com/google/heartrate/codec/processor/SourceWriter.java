@@ -0,0 +1,62 @@
+package com.google.heartrate.codec.processor;
+
+/**
+ * Minimal indenting writer of generated Java source.
+ */
+class SourceWriter {
+    private static final String INDENT = "    ";
+
+    private final StringBuilder source = new StringBuilder();
+    private int indent;
+
+    /**
+     * Append formatted line at current indentation.
+     */
+    SourceWriter line(String format, Object... args) {
+        return append(String.format(format, args));
+    }
+
+    /**
+     * Append formatted line followed by opening brace and increase indentation.
+     */
+    SourceWriter open(String format, Object... args) {
+        append(String.format(format, args) + " {");
+        indent++;
+        return this;
+    }
+
+    /**
+     * Decrease indentation and append closing brace followed by given suffix, e.g. {@code " else {"}.
+     */
+    SourceWriter close(String suffix) {
+        indent--;
+        append("}" + suffix);
+        if (suffix.endsWith("{")) {
+            indent++;
+        }
+        return this;
+    }
+
+    /**
+     * Decrease indentation and append closing brace.
+     */
+    SourceWriter close() {
+        return close("");
+    }
+
+    private SourceWriter append(String text) {
+        if (!text.isEmpty()) {
+            for (int i = 0; i < indent; i++) {
+                source.append(INDENT);
+            }
+            source.append(text);
+        }
+        source.append('\n');
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return source.toString();
+    }
+}
@@ -0,0 +1,13 @@
+package com.google.heartrate.codec;
+
+/**
+ * CodecException is thrown by generated codecs when value can not be encoded or decoded.
+ */
+public class CodecException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public CodecException(String message) {
+        super(message);
+    }
+}
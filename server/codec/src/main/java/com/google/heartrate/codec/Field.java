@@ -0,0 +1,37 @@
+package com.google.heartrate.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks scalar field of characteristic value layout.
+ * <p>
+ * Field type must be {@code int} for {@link Format#UINT8} and {@link Format#UINT16}, {@code long} for
+ * {@link Format#UINT32} and {@code float} for {@link Format#SFLOAT}.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface Field {
+
+    /**
+     * Format of the field.
+     */
+    Format format();
+
+    /**
+     * Flag bits which must all be set for the field to be present, 0 if field is mandatory.
+     */
+    int presentIf() default 0;
+
+    /**
+     * Flag bits which must all be set for the field to be encoded in {@link #wideFormat()}, 0 if never.
+     */
+    int wideIf() default 0;
+
+    /**
+     * Format of the field if {@link #wideIf()} flag bits are set.
+     */
+    Format wideFormat() default Format.UINT16;
+}
@@ -0,0 +1,17 @@
+package com.google.heartrate.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks {@code int} field holding UInt8 flags which control presence and format of other fields.
+ * <p>
+ * Flags are encoded as one byte in declaration order. Only fields declared after flags can depend on them.
+ * Encoder takes flags as they are set in the field, so caller is responsible for setting bits of present fields.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface Flags {
+}
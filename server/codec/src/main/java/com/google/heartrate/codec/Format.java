@@ -0,0 +1,26 @@
+package com.google.heartrate.codec;
+
+/**
+ * Formats of characteristic value fields supported by generated codecs.
+ */
+public enum Format {
+    /** Unsigned 8-bit integer. */
+    UINT8(1),
+    /** Unsigned 16-bit little-endian integer. */
+    UINT16(2),
+    /** Unsigned 32-bit little-endian integer, held in {@code long}. */
+    UINT32(4),
+    /** IEEE-11073 16-bit floating point, see {@link SFloat}. */
+    SFLOAT(2);
+
+    /** Number of bytes taken by the field. */
+    private final int size;
+
+    Format(int size) {
+        this.size = size;
+    }
+
+    public int getSize() {
+        return size;
+    }
+}
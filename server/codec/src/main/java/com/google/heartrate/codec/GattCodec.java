@@ -0,0 +1,26 @@
+package com.google.heartrate.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks class which declares binary layout of characteristic value.
+ * <p>
+ * Layout is declared by fields of the class in declaration order:
+ * <ul>
+ *     <li>{@link Field} fields, each of which can be conditional on flag bits;</li>
+ *     <li>optional {@link Flags} field, which can be preceded only by mandatory fields
+ *     with fixed format, e.g. version;</li>
+ *     <li>optional {@link Repeated} field, which takes the rest of the value and must be last.</li>
+ * </ul>
+ * Annotated fields must not be private, class must have no-argument constructor.
+ * <p>
+ * For class {@code Foo} annotation processor generates {@code FooCodec} in the same package
+ * with straight-line, allocation-free {@code encodedSize}, {@code encode} and {@code decode} methods.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface GattCodec {
+}
@@ -0,0 +1,23 @@
+package com.google.heartrate.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Requests JUnit round-trip tests for generated codecs.
+ * <p>
+ * Put it on any class in test sources. For every listed {@link GattCodec} class {@code Foo}
+ * annotation processor generates {@code FooCodecRoundTripTest} in the package of {@code Foo},
+ * which encodes and decodes boundary values for every combination of flag bits used by the layout.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface GenerateRoundTripTests {
+
+    /**
+     * Layout classes annotated with {@link GattCodec} to generate tests for.
+     */
+    Class<?>[] value();
+}
@@ -0,0 +1,33 @@
+package com.google.heartrate.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks array field which takes the rest of characteristic value, e.g. RR-Intervals.
+ * <p>
+ * Field type must be array of type required by {@link Field} of the same format, e.g. {@code int[]}.
+ * Array is allocated by the layout class and bounds number of decoded elements,
+ * number of elements in use is kept in {@link #countField()}.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface Repeated {
+
+    /**
+     * Format of every element.
+     */
+    Format format();
+
+    /**
+     * Name of {@code int} field holding number of elements in use.
+     */
+    String countField();
+
+    /**
+     * Flag bits which must all be set for elements to be present, 0 if always present.
+     */
+    int presentIf() default 0;
+}
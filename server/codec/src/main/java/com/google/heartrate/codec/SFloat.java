@@ -0,0 +1,103 @@
+package com.google.heartrate.codec;
+
+/**
+ * Conversion between {@code float} and IEEE-11073 16-bit SFLOAT used by health characteristics.
+ * <p>
+ * SFLOAT value is {@code mantissa * 10^exponent} with 4-bit signed exponent in the upper bits
+ * and 12-bit signed mantissa in the lower bits. Some values with zero exponent are reserved
+ * for NaN, NRes and infinities.
+ * <p>
+ * See <a href="https://www.bluetooth.com/specifications/assigned-numbers/">Personal Health Devices Transcoding</a>.
+ */
+public final class SFloat {
+
+    /** Not a Number. */
+    public static final int NAN = 0x07FF;
+
+    /** Not at this Resolution. */
+    public static final int NRES = 0x0800;
+
+    /** Positive infinity. */
+    public static final int POSITIVE_INFINITY = 0x07FE;
+
+    /** Negative infinity. */
+    public static final int NEGATIVE_INFINITY = 0x0802;
+
+    /** Reserved for future use. */
+    private static final int RESERVED = 0x0801;
+
+    /** Maximum absolute mantissa of finite value, larger mantissas are reserved. */
+    private static final int MAX_MANTISSA = 0x07FD;
+
+    private static final int MIN_EXPONENT = -8;
+    private static final int MAX_EXPONENT = 7;
+
+    /** Largest finite value. */
+    private static final float MAX_VALUE = MAX_MANTISSA * 1e7f;
+
+    /** Powers of ten by exponent, all exact in {@code float}. */
+    private static final float[] POWERS_OF_TEN = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f};
+
+    private SFloat() {
+    }
+
+    /**
+     * Convert float to SFLOAT with the smallest exponent, i.e. with the best precision.
+     *
+     * @param value value to convert
+     * @return SFLOAT in lower 16 bits
+     */
+    public static int fromFloat(float value) {
+        if (Float.isNaN(value)) {
+            return NAN;
+        }
+        if (value > MAX_VALUE) {
+            return POSITIVE_INFINITY;
+        }
+        if (value < -MAX_VALUE) {
+            return NEGATIVE_INFINITY;
+        }
+        for (int exponent = MIN_EXPONENT; exponent < MAX_EXPONENT; exponent++) {
+            float scaled = exponent < 0 ? value * POWERS_OF_TEN[-exponent] : value / POWERS_OF_TEN[exponent];
+            if (Math.abs(scaled) <= MAX_MANTISSA) {
+                return pack(Math.round(scaled), exponent);
+            }
+        }
+        return pack(Math.round(value / POWERS_OF_TEN[MAX_EXPONENT]), MAX_EXPONENT);
+    }
+
+    /**
+     * Convert SFLOAT to float. NaN, NRes and reserved values are converted to {@link Float#NaN}.
+     *
+     * @param sfloat SFLOAT in lower 16 bits
+     * @return converted value
+     */
+    public static float toFloat(int sfloat) {
+        int mantissa = sfloat & 0x0FFF;
+        int exponent = (sfloat >> 12) & 0x0F;
+
+        if (exponent == 0) {
+            switch (mantissa) {
+                case POSITIVE_INFINITY:
+                    return Float.POSITIVE_INFINITY;
+                case NEGATIVE_INFINITY:
+                    return Float.NEGATIVE_INFINITY;
+                case NAN:
+                case NRES:
+                case RESERVED:
+                    return Float.NaN;
+                default:
+                    break;
+            }
+        }
+
+        /* Sign-extend 12-bit mantissa and 4-bit exponent */
+        mantissa = (mantissa << 20) >> 20;
+        exponent = (exponent << 28) >> 28;
+        return exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+    }
+
+    private static int pack(int mantissa, int exponent) {
+        return ((exponent & 0x0F) << 12) | (mantissa & 0x0FFF);
+    }
+}